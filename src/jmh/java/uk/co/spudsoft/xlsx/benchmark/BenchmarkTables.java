@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2022 jtalbut
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.spudsoft.xlsx.benchmark;
+
+import java.time.LocalDate;
+import java.time.temporal.Temporal;
+import java.util.ArrayList;
+import java.util.List;
+import uk.co.spudsoft.xlsx.ColumnDefinition;
+import uk.co.spudsoft.xlsx.TableDefinition;
+
+/**
+ * Helper for creating the TableDefinitions used by the benchmarks.
+ *
+ * @author jtalbut
+ */
+final class BenchmarkTables {
+
+  private BenchmarkTables() {
+  }
+
+  /**
+   * Create a TableDefinition with headers and a number format for every column.
+   * @param shape The types of value that will be in the columns.
+   * @param columns The number of columns.
+   * @return A TableDefinition with headers and a number format for every column.
+   */
+  static TableDefinition create(RowShape shape, int columns) {
+    List<ColumnDefinition> defns = new ArrayList<>(columns);
+    for (int col = 0; col < columns; ++col) {
+      Object sample = shape.value(0, col);
+      String format;
+      if (sample instanceof LocalDate) {
+        format = "yyyy-mm-dd";
+      } else if (sample instanceof Temporal) {
+        format = "yyyy-mm-dd hh:mm:ss";
+      } else if (sample instanceof Double) {
+        format = "0.00";
+      } else {
+        format = null;
+      }
+      defns.add(new ColumnDefinition("Column " + col, format, null));
+    }
+    return new TableDefinition(null, "Benchmark", null, true, true, null, null, null, null, null, defns);
+  }
+
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2022 jtalbut
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.spudsoft.xlsx.benchmark;
+
+import java.io.OutputStream;
+
+/**
+ * OutputStream that discards the data written to it, just counting the bytes.
+ *
+ * @author jtalbut
+ */
+class CountingOutputStream extends OutputStream {
+
+  private long count;
+
+  @Override
+  public void write(int b) {
+    ++count;
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) {
+    count += len;
+  }
+
+  /**
+   * Get the number of bytes written.
+   * @return the number of bytes written.
+   */
+  long getCount() {
+    return count;
+  }
+
+}
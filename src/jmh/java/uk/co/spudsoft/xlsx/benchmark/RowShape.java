@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2022 jtalbut
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.spudsoft.xlsx.benchmark;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The types of value in the rows generated for the benchmarks.
+ *
+ * @author jtalbut
+ */
+public enum RowShape {
+
+  /**
+   * Alternating integer and floating point values.
+   */
+  NUMERIC,
+
+  /**
+   * Strings from a small set of distinct values, as might be found in a feed.
+   */
+  STRING,
+
+  /**
+   * Alternating date and date/time values.
+   */
+  DATE,
+
+  /**
+   * A mixture of integer, string, date/time and floating point values.
+   */
+  MIXED;
+
+  private static final LocalDate BASE_DATE = LocalDate.of(2022, 1, 1);
+  private static final String[] STATUSES = {"Pending", "Active", "Suspended", "Closed", "Archived"};
+
+  /**
+   * Generate the value for a single cell.
+   * @param row The row number, which should vary so that the data does not compress unrealistically well.
+   * @param col The zero-based column number.
+   * @return The value for a single cell.
+   */
+  Object value(int row, int col) {
+    switch (this) {
+      case NUMERIC:
+        return (col & 1) == 0 ? (Object) ((long) row * (col + 1)) : (Object) (row / (col + 7.0));
+      case STRING:
+        return (col & 1) == 0 ? STATUSES[(row + col) % STATUSES.length] : "Description " + ((row * 31 + col) % 1000);
+      case DATE:
+        return (col & 1) == 0 ? BASE_DATE.plusDays((row + col) % 3650) : BASE_DATE.atStartOfDay().plusSeconds(row * 97L + col);
+      default:
+        switch (col % 4) {
+          case 0:
+            return (long) row;
+          case 1:
+            return STATUSES[(row + col) % STATUSES.length];
+          case 2:
+            return LocalDateTime.of(BASE_DATE, LocalTime.NOON).plusMinutes(row + col);
+          default:
+            return row / 7.0;
+        }
+    }
+  }
+
+  /**
+   * Generate a row of values.
+   * @param row The row number.
+   * @param columns The number of columns.
+   * @return A row of values.
+   */
+  List<Object> row(int row, int columns) {
+    List<Object> result = new ArrayList<>(columns);
+    for (int col = 0; col < columns; ++col) {
+      result.add(value(row, col));
+    }
+    return result;
+  }
+
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2022 jtalbut
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.spudsoft.xlsx.benchmark;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import uk.co.spudsoft.xlsx.TableDefinition;
+import uk.co.spudsoft.xlsx.XlsxWriter;
+
+/**
+ * Measure the fixed cost of creating a workbook (startFile and close), for comparison with the per-row cost measured by {@link XlsxWriterRowBenchmark}.
+ *
+ * The emptyWorkbook benchmark is just the fixed cost, the smallWorkbook benchmark adds {@link #SMALL_ROWS} rows
+ * so that the point at which the per-row cost starts to dominate can be seen.
+ * Each returns the number of compressed bytes so that JMH cannot eliminate the work.
+ *
+ * @author jtalbut
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class XlsxWriterFixedCostBenchmark {
+
+  private static final int SMALL_ROWS = 100;
+
+  @Param({"MIXED"})
+  private RowShape shape;
+
+  @Param({"10", "50", "500"})
+  private int columns;
+
+  private TableDefinition defn;
+  private List<List<Object>> rows;
+
+  /**
+   * Create the rows and the TableDefinition.
+   */
+  @Setup(Level.Trial)
+  public void setupTrial() {
+    defn = BenchmarkTables.create(shape, columns);
+    rows = new ArrayList<>(SMALL_ROWS);
+    for (int row = 0; row < SMALL_ROWS; ++row) {
+      rows.add(shape.row(row, columns));
+    }
+  }
+
+  /**
+   * Output a workbook with no rows (other than the headers).
+   * @return the number of compressed bytes output.
+   * @throws IOException if the writer throws.
+   */
+  @Benchmark
+  public long emptyWorkbook() throws IOException {
+    CountingOutputStream output = new CountingOutputStream();
+    try (XlsxWriter writer = new XlsxWriter(defn)) {
+      writer.startFile(output);
+    }
+    return output.getCount();
+  }
+
+  /**
+   * Output a workbook with a small number of rows.
+   * @return the number of compressed bytes output.
+   * @throws IOException if the writer throws.
+   */
+  @Benchmark
+  public long smallWorkbook() throws IOException {
+    CountingOutputStream output = new CountingOutputStream();
+    try (XlsxWriter writer = new XlsxWriter(defn)) {
+      writer.startFile(output);
+      for (List<Object> row : rows) {
+        writer.outputRow(row);
+      }
+    }
+    return output.getCount();
+  }
+
+}
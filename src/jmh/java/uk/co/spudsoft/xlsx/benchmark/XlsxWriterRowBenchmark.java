@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2022 jtalbut
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.spudsoft.xlsx.benchmark;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import uk.co.spudsoft.xlsx.TableDefinition;
+import uk.co.spudsoft.xlsx.XlsxWriter;
+
+/**
+ * Measure the per-row cost of {@link XlsxWriter#outputRow(java.util.List)}.
+ *
+ * Each operation is one row, so the primary result is rows/s and (when run with "-prof gc") gc.alloc.rate.norm is the number of bytes allocated per row.
+ * The worksheet is kept open for the whole of each iteration so the fixed cost of startFile and close is not included,
+ * see {@link XlsxWriterFixedCostBenchmark} for that.
+ *
+ * The number of compressed bytes per row is reported as the compressedBytesPerRow secondary result, via an {@link AuxCounters} state.
+ * The outputRows benchmark outputs the same rows in batches of {@link #BATCH_SIZE}, for comparison.
+ * Rows are cycled from a set of {@link #DISTINCT_ROWS} distinct rows so that the data does not compress unrealistically well.
+ *
+ * @author jtalbut
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class XlsxWriterRowBenchmark {
+
+  private static final int DISTINCT_ROWS = 1024;
+  private static final int BATCH_SIZE = 64;
+
+  @Param({"NUMERIC", "STRING", "DATE", "MIXED"})
+  private RowShape shape;
+
+  @Param({"10", "50", "500"})
+  private int columns;
+
+  private TableDefinition defn;
+  private List<List<Object>> rows;
+  private List<List<List<Object>>> batches;
+  private CountingOutputStream output;
+  private XlsxWriter writer;
+  private int rowCount;
+
+  /**
+   * Secondary result reporting the size of the output, which is set when the workbook is closed at the end of each iteration.
+   */
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  public static class OutputSize {
+    /**
+     * The number of compressed bytes per row in the last iteration.
+     */
+    public double compressedBytesPerRow;
+  }
+
+  /**
+   * Create the rows and the TableDefinition.
+   */
+  @Setup(Level.Trial)
+  public void setupTrial() {
+    defn = BenchmarkTables.create(shape, columns);
+    rows = new ArrayList<>(DISTINCT_ROWS);
+    for (int row = 0; row < DISTINCT_ROWS; ++row) {
+      rows.add(shape.row(row, columns));
+    }
+    batches = new ArrayList<>(DISTINCT_ROWS / BATCH_SIZE);
+    for (int row = 0; row < DISTINCT_ROWS; row += BATCH_SIZE) {
+      batches.add(rows.subList(row, row + BATCH_SIZE));
+    }
+  }
+
+  /**
+   * Start a new workbook for each iteration.
+   * @throws IOException if the writer throws.
+   */
+  @Setup(Level.Iteration)
+  public void setupIteration() throws IOException {
+    output = new CountingOutputStream();
+    writer = new XlsxWriter(defn);
+    writer.startFile(output);
+    rowCount = 0;
+  }
+
+  /**
+   * Complete the workbook and record the compressed size.
+   * @param size The secondary result to record the size in.
+   * @throws IOException if the writer throws.
+   */
+  @TearDown(Level.Iteration)
+  public void tearDownIteration(OutputSize size) throws IOException {
+    writer.close();
+    size.compressedBytesPerRow = (double) output.getCount() / Math.max(rowCount, 1);
+  }
+
+  /**
+   * Output a single row.
+   * @param size The secondary result, which must be a parameter for JMH to report it.
+   * @throws IOException if the writer throws.
+   */
+  @Benchmark
+  public void outputRow(OutputSize size) throws IOException {
+    writer.outputRow(rows.get(rowCount++ & (DISTINCT_ROWS - 1)));
+  }
+
+  /**
+   * Output a batch of rows.
+   * @param size The secondary result, which must be a parameter for JMH to report it.
+   * @throws IOException if the writer throws.
+   */
+  @Benchmark
+  @OperationsPerInvocation(BATCH_SIZE)
+  public void outputRows(OutputSize size) throws IOException {
+    writer.outputRows(batches.get((rowCount / BATCH_SIZE) & (DISTINCT_ROWS / BATCH_SIZE - 1)));
+    rowCount += BATCH_SIZE;
+  }
+
+}
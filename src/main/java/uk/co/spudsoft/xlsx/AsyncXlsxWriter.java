@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2022 jtalbut
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.spudsoft.xlsx;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.Flow;
+
+/**
+ * Non-blocking facade over {@link XlsxWriter} that publishes the XLSX file as ByteBuffers, for use on event loop based servers (Vert.x, Netty, etc.).
+ *
+ * Rows are output in the same way as with the XlsxWriter (either through the methods of this class or through {@link #getWriter()}),
+ * but instead of being written to an OutputStream the compressed data is published, in chunks, to a single {@link Flow.Subscriber}.
+ * The chunks are approximately {@link CompressionDefinition#bufferSize} bytes each and are owned by the subscriber.
+ *
+ * Nothing in this class blocks, if the subscriber has not requested enough data the chunks are queued.
+ * To keep memory bounded the producer of the rows should follow the same pattern as a Vert.x WriteStream:
+ * stop outputting rows when {@link #isWritable()} returns false and resume when the drain handler is called.
+ * <pre>
+ *   writer.setDrainHandler(source::resume);
+ *   source.handler(row -&gt; {
+ *     writer.outputRow(row);
+ *     if (!writer.isWritable()) {
+ *       source.pause();
+ *     }
+ *   });
+ * </pre>
+ *
+ * Note that the deflater releases compressed data a block at a time, so the queue can exceed the high water mark by a deflate block (typically a few tens of KB).
+ *
+ * The rows must only be output by one thread at a time, but the subscriber may request data on any thread.
+ * The subscriber and drain handler are called on whichever thread is outputting rows or requesting data at the time, but never concurrently.
+ * The compression must not be parallel, because that would block.
+ *
+ * @author jtalbut
+ */
+public class AsyncXlsxWriter implements Flow.Publisher<ByteBuffer>, Closeable {
+
+  /**
+   * The default number of queued bytes at which {@link #isWritable()} starts returning false.
+   */
+  public static final long DEFAULT_HIGH_WATER_MARK = 1024 * 1024;
+
+  private final ByteBufferPublisher publisher;
+  private final XlsxWriter writer;
+
+  /**
+   * Constructor.
+   *
+   * @param defn The definition of the formatting required in the workbook.
+   */
+  public AsyncXlsxWriter(TableDefinition defn) {
+    this(defn, null, null, DEFAULT_HIGH_WATER_MARK);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param defn The definition of the formatting required in the workbook.
+   * @param compression The definition of the compression of the ZIP file, which must not specify parallel compression.
+   * @param sharedStrings The definition of which strings should be written to the shared strings table, if this is null every string is written inline.
+   * @param highWaterMark The number of queued bytes at which {@link #isWritable()} starts returning false.
+   * The drain handler is called when the number of queued bytes falls to half this value.
+   * @throws IllegalArgumentException if the compression is parallel or the high water mark is less than 1.
+   */
+  public AsyncXlsxWriter(TableDefinition defn, CompressionDefinition compression, SharedStringsDefinition sharedStrings, long highWaterMark) {
+    if (compression != null && compression.parallelism > 1) {
+      throw new IllegalArgumentException("Parallel compression blocks, so it cannot be used with the AsyncXlsxWriter");
+    }
+    this.publisher = new ByteBufferPublisher(highWaterMark);
+    this.writer = new XlsxWriter(defn, compression, sharedStrings);
+  }
+
+  /**
+   * Get the XlsxWriter that the rows are output to.
+   *
+   * This can be used to output rows using the cursor methods ({@link XlsxWriter#beginRow()}, etc.).
+   * It must not be used to call startFile or close.
+   *
+   * @return the XlsxWriter that the rows are output to.
+   */
+  public XlsxWriter getWriter() {
+    return writer;
+  }
+
+  @Override
+  public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+    publisher.subscribe(subscriber);
+  }
+
+  /**
+   * Return true if the amount of data waiting for the subscriber to request it is below the high water mark.
+   *
+   * Rows can still be output when this returns false, but the data will be queued.
+   *
+   * @return true if the amount of data waiting for the subscriber to request it is below the high water mark.
+   */
+  public boolean isWritable() {
+    return publisher.isWritable();
+  }
+
+  /**
+   * Get the number of bytes waiting for the subscriber to request them.
+   * @return the number of bytes waiting for the subscriber to request them.
+   */
+  public long getQueuedBytes() {
+    return publisher.getQueuedBytes();
+  }
+
+  /**
+   * Set the handler to be called when, after {@link #isWritable()} has returned false, the subscriber has requested enough data to bring the queue down to the low water mark.
+   * @param drainHandler The handler to be called when the queue has drained.
+   */
+  public void setDrainHandler(Runnable drainHandler) {
+    publisher.setDrainHandler(drainHandler);
+  }
+
+  /**
+   * Start outputting the metadata and start the first worksheet.
+   * @throws IOException if the subscriber has cancelled.
+   */
+  public void startFile() throws IOException {
+    writer.startFile(publisher);
+  }
+
+  /**
+   * Complete the current worksheet and start a new one.
+   * @param defn The definition of the new worksheet.
+   * @throws IOException if the subscriber has cancelled.
+   * @see XlsxWriter#startSheet(uk.co.spudsoft.xlsx.TableDefinition)
+   */
+  public void startSheet(TableDefinition defn) throws IOException {
+    writer.startSheet(defn);
+  }
+
+  /**
+   * Output a row of data.
+   * @param values The values to add to the output, one column at a time.
+   * @throws IOException if the subscriber has cancelled.
+   * @see XlsxWriter#outputRow(java.util.List)
+   */
+  public void outputRow(List<Object> values) throws IOException {
+    writer.outputRow(values);
+  }
+
+  /**
+   * Complete the XLSX document, the subscriber will be completed once it has requested all the data.
+   *
+   * If the XlsxWriter fails the subscriber is terminated with the error.
+   *
+   * @throws IOException if the subscriber has cancelled.
+   */
+  @Override
+  public void close() throws IOException {
+    try {
+      writer.close();
+    } catch (IOException | RuntimeException ex) {
+      publisher.fail(ex);
+      throw ex;
+    }
+    publisher.close();
+  }
+
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright (C) 2022 jtalbut
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.spudsoft.xlsx;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * OutputStream that publishes the data written to it, as ByteBuffers, to a single Flow.Subscriber.
+ *
+ * Each write to the stream becomes one ByteBuffer (the data is copied, so the caller may reuse its array).
+ * Writes never block: if the subscriber has not requested enough data the ByteBuffers are queued.
+ * To keep the queue bounded the producer should stop writing when {@link #isWritable()} returns false and resume when the drain handler is called.
+ *
+ * Closing the stream completes the subscriber once the queue has been delivered.
+ * Once the subscriber has cancelled any further writes throw an IOException, so that the producer stops.
+ *
+ * The stream itself must only be written by one thread at a time, but {@link Flow.Subscription#request(long)} and {@link Flow.Subscription#cancel()} may be called from any thread.
+ * The subscriber and the drain handler are called on whichever thread is writing or requesting at the time, but never concurrently.
+ *
+ * @author jtalbut
+ */
+final class ByteBufferPublisher extends OutputStream implements Flow.Publisher<ByteBuffer>, Flow.Subscription {
+
+  private final long highWaterMark;
+  private final long lowWaterMark;
+
+  private final ConcurrentLinkedQueue<ByteBuffer> queue = new ConcurrentLinkedQueue<>();
+  private final AtomicLong queuedBytes = new AtomicLong();
+  private final AtomicLong demand = new AtomicLong();
+  private final AtomicInteger wip = new AtomicInteger();
+
+  private volatile Flow.Subscriber<? super ByteBuffer> subscriber;
+  private volatile Runnable drainHandler;
+  private volatile Runnable requestHandler;
+  private volatile long bytesWritten;
+  private volatile boolean closed;
+  private volatile boolean cancelled;
+  private volatile Throwable error;
+  private volatile boolean full;
+  private boolean terminated;
+
+  /**
+   * Constructor.
+   * @param highWaterMark The number of queued bytes at or above which {@link #isWritable()} returns false.
+   * The drain handler is called when the number of queued bytes falls to half this value.
+   */
+  ByteBufferPublisher(long highWaterMark) {
+    if (highWaterMark < 1) {
+      throw new IllegalArgumentException("The high water mark must be at least 1");
+    }
+    this.highWaterMark = highWaterMark;
+    this.lowWaterMark = highWaterMark / 2;
+  }
+
+  /**
+   * Set the handler to be called when the stream becomes writable again after {@link #isWritable()} has returned false.
+   * @param drainHandler The handler to be called when the stream becomes writable again.
+   */
+  void setDrainHandler(Runnable drainHandler) {
+    this.drainHandler = drainHandler;
+  }
+
+  /**
+   * Set the handler to be called whenever the subscriber requests more data or cancels.
+   * The handler is called on the thread calling request or cancel, after any queued data has been delivered.
+   * @param requestHandler The handler to be called whenever the subscriber requests more data or cancels.
+   */
+  void setRequestHandler(Runnable requestHandler) {
+    this.requestHandler = requestHandler;
+  }
+
+  /**
+   * Get the number of ByteBuffers that the subscriber has requested but not yet received.
+   * @return the number of ByteBuffers that the subscriber has requested but not yet received.
+   */
+  long getDemand() {
+    return demand.get();
+  }
+
+  /**
+   * Get the total number of bytes written to the stream.
+   * @return the total number of bytes written to the stream.
+   */
+  long getBytesWritten() {
+    return bytesWritten;
+  }
+
+  /**
+   * Return true if the subscriber has cancelled.
+   * @return true if the subscriber has cancelled.
+   */
+  boolean isCancelled() {
+    return cancelled;
+  }
+
+  /**
+   * Return true if the number of bytes queued, waiting for the subscriber to request them, is below the high water mark.
+   * @return true if the number of bytes queued is below the high water mark.
+   */
+  boolean isWritable() {
+    return queuedBytes.get() < highWaterMark;
+  }
+
+  /**
+   * Get the number of bytes queued, waiting for the subscriber to request them.
+   * @return the number of bytes queued, waiting for the subscriber to request them.
+   */
+  long getQueuedBytes() {
+    return queuedBytes.get();
+  }
+
+  @Override
+  public void subscribe(Flow.Subscriber<? super ByteBuffer> s) {
+    if (s == null) {
+      throw new NullPointerException("Subscriber must not be null");
+    }
+    synchronized (this) {
+      if (subscriber == null) {
+        subscriber = s;
+        s = null;
+      }
+    }
+    if (s != null) {
+      s.onSubscribe(new Flow.Subscription() {
+        @Override
+        public void request(long n) {
+        }
+
+        @Override
+        public void cancel() {
+        }
+      });
+      s.onError(new IllegalStateException("Only one subscriber is permitted"));
+      return;
+    }
+    subscriber.onSubscribe(this);
+    drain();
+  }
+
+  @Override
+  public void request(long n) {
+    if (n <= 0) {
+      fail(new IllegalArgumentException("The number of items requested must be positive (rule 3.9)"));
+      return;
+    }
+    demand.getAndUpdate(current -> current + n < 0 ? Long.MAX_VALUE : current + n);
+    drain();
+    notifyRequestHandler();
+  }
+
+  @Override
+  public void cancel() {
+    cancelled = true;
+    drain();
+    notifyRequestHandler();
+  }
+  
+  private void notifyRequestHandler() {
+    Runnable handler = requestHandler;
+    if (handler != null) {
+      handler.run();
+    }
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    write(new byte[] {(byte) b}, 0, 1);
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    if (cancelled) {
+      throw new IOException("The subscriber has cancelled");
+    }
+    if (closed) {
+      throw new IOException("Stream closed");
+    }
+    if (len == 0) {
+      return;
+    }
+    queue.add(ByteBuffer.wrap(Arrays.copyOfRange(b, off, off + len)));
+    bytesWritten += len;
+    if (queuedBytes.addAndGet(len) >= highWaterMark) {
+      full = true;
+    }
+    drain();
+  }
+
+  /**
+   * Complete the subscriber, once everything queued has been delivered.
+   */
+  @Override
+  public void close() {
+    closed = true;
+    drain();
+  }
+
+  /**
+   * Terminate the subscriber with an error, discarding anything queued.
+   * @param ex The error to pass to the subscriber.
+   */
+  void fail(Throwable ex) {
+    error = ex;
+    closed = true;
+    drain();
+  }
+
+  private void drain() {
+    if (wip.getAndIncrement() != 0) {
+      return;
+    }
+    do {
+      Flow.Subscriber<? super ByteBuffer> s = subscriber;
+      if (cancelled || error != null) {
+        queue.clear();
+        queuedBytes.set(0);
+        if (error != null && s != null && !terminated && !cancelled) {
+          terminated = true;
+          s.onError(error);
+        }
+      } else if (s != null && !terminated) {
+        ByteBuffer buffer;
+        while (demand.get() > 0 && (buffer = queue.poll()) != null) {
+          queuedBytes.addAndGet(-buffer.remaining());
+          if (demand.get() != Long.MAX_VALUE) {
+            demand.decrementAndGet();
+          }
+          s.onNext(buffer);
+        }
+        if (closed && queue.isEmpty()) {
+          terminated = true;
+          s.onComplete();
+        }
+      }
+      if (full && queuedBytes.get() <= lowWaterMark) {
+        full = false;
+        Runnable handler = drainHandler;
+        if (handler != null) {
+          handler.run();
+        }
+      }
+    } while (wip.decrementAndGet() != 0);
+  }
+
+}
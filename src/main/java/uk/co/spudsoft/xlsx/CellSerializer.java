@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2022 jtalbut
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.spudsoft.xlsx;
+
+import java.io.IOException;
+
+/**
+ * Output a value of a particular type as a single cell.
+ * 
+ * Serializers are registered with {@link XlsxWriter#registerSerializer(java.lang.Class, uk.co.spudsoft.xlsx.CellSerializer)}
+ * and are used by {@link XlsxWriter#outputRow(java.util.List)} (and the other methods that take Objects) for values of that type.
+ * 
+ * A serializer must output exactly one cell by calling exactly one of the cursor write methods on the writer
+ * (writeLong, writeDouble, writeString, writeBlank, etc.), it must not begin or end rows.
+ * To output a value using the serializer for its own type (for example, after unwrapping it) call {@link XlsxWriter#writeObject(java.lang.Object)}.
+ * 
+ * @param <T> The type of value handled by the serializer.
+ * @author jtalbut
+ */
+@FunctionalInterface
+public interface CellSerializer<T> {
+  
+  /**
+   * Output the value as the next cell in the current row.
+   * @param writer The writer to output the cell to.
+   * @param value The value to output, this will never be null.
+   * @throws IOException if something goes wrong, this should only happen if the OutputStream throws.
+   */
+  void write(XlsxWriter writer, T value) throws IOException;
+  
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2022 jtalbut
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.spudsoft.xlsx;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * OutputStream that writes to a channel through a large direct ByteBuffer.
+ *
+ * Small writes are copied into the direct buffer, which is written to the channel when it fills, so the channel sees few, large, writes
+ * and the JDK does not have to copy the data into a temporary direct buffer of its own.
+ * A write that will not fit in the remaining space is written together with the content of the buffer using a single gathering write
+ * (if the channel supports it), rather than being copied.
+ *
+ * Closing the stream flushes it, but does not close the channel.
+ *
+ * This class is not thread safe.
+ *
+ * @author jtalbut
+ */
+final class ChannelOutputStream extends OutputStream {
+
+  /**
+   * The default size of the direct buffer.
+   */
+  static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+
+  private final WritableByteChannel channel;
+  private final ByteBuffer buffer;
+  private final ByteBuffer[] gather = new ByteBuffer[2];
+  private long writeCalls;
+
+  /**
+   * Constructor.
+   * @param channel The channel to write to.
+   * @param bufferSize The size of the direct buffer.
+   */
+  ChannelOutputStream(WritableByteChannel channel, int bufferSize) {
+    this.channel = channel;
+    this.buffer = ByteBuffer.allocateDirect(bufferSize);
+  }
+
+  /**
+   * Get the number of calls made to write data to the channel.
+   * @return the number of calls made to write data to the channel.
+   */
+  long getWriteCalls() {
+    return writeCalls;
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    buffer.put((byte) b);
+    if (!buffer.hasRemaining()) {
+      flush();
+    }
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    if (len <= buffer.remaining()) {
+      buffer.put(b, off, len);
+      if (!buffer.hasRemaining()) {
+        flush();
+      }
+    } else if (channel instanceof GatheringByteChannel) {
+      buffer.flip();
+      gather[0] = buffer;
+      gather[1] = ByteBuffer.wrap(b, off, len);
+      try {
+        while (gather[1].hasRemaining()) {
+          ++writeCalls;
+          ((GatheringByteChannel) channel).write(gather);
+        }
+      } finally {
+        gather[1] = null;
+        buffer.clear();
+      }
+    } else {
+      flush();
+      ByteBuffer wrapped = ByteBuffer.wrap(b, off, len);
+      while (wrapped.hasRemaining()) {
+        ++writeCalls;
+        channel.write(wrapped);
+      }
+    }
+  }
+
+  @Override
+  public void flush() throws IOException {
+    buffer.flip();
+    try {
+      while (buffer.hasRemaining()) {
+        ++writeCalls;
+        channel.write(buffer);
+      }
+    } finally {
+      buffer.clear();
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    flush();
+  }
+
+}
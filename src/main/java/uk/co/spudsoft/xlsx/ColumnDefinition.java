@@ -46,6 +46,12 @@ public class ColumnDefinition {
    */
   public final Double width;
 
+  /**
+   * If set to true, and the XlsxWriter has a {@link uk.co.spudsoft.xlsx.SharedStringsDefinition}, string values in this column are candidates for the shared strings table.
+   * This is only useful for columns whose values are often repeated.
+   */
+  public final boolean sharedStrings;
+
   /**
    * Constructor.
    * 
@@ -54,6 +60,18 @@ public class ColumnDefinition {
    * @param width Width of the column.
    */
   public ColumnDefinition(String name, String format, Double width) {
+    this(name, format, width, false);
+  }
+
+  /**
+   * Constructor.
+   * 
+   * @param name Title to use for this column if headers are enabled.
+   * @param format Excel format for the column (set for both the column and for each cell in the column).
+   * @param width Width of the column.
+   * @param sharedStrings If set to true string values in this column are candidates for the shared strings table.
+   */
+  public ColumnDefinition(String name, String format, Double width, boolean sharedStrings) {
     if (width != null && width < 0.0) {
       throw new IllegalArgumentException("Width must not be negative");
     }
@@ -64,6 +82,7 @@ public class ColumnDefinition {
     this.name = name;
     this.format = format;
     this.width = width;
+    this.sharedStrings = sharedStrings;
   }
 
 }
@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2022 jtalbut
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.spudsoft.xlsx;
+
+import java.util.BitSet;
+
+/**
+ * A column of values held in a primitive array, for output with {@link XlsxWriter#outputColumns(uk.co.spudsoft.xlsx.ColumnVector[], int)}.
+ *
+ * Null values are identified by a BitSet in which a set bit means that the value for that row is null (the value in the array is ignored).
+ * The BitSet may be null if the column contains no nulls.
+ *
+ * The way that integer values are output depends upon the format of the column (see {@link ColumnDefinition#format}):
+ * <ul>
+ * <li>long values are output as numbers, unless the column has a date/time format in which case they are treated as milliseconds since 1970-01-01T00:00:00Z.
+ * <li>int values are output as numbers, unless the column has a date/time format in which case they are treated as days since 1970-01-01.
+ * </ul>
+ * double values are always output as numbers (so a double column with a date format should contain Excel serial dates).
+ *
+ * The arrays are not copied, so they must not be changed until they have been output.
+ *
+ * @author jtalbut
+ */
+public final class ColumnVector {
+
+  /**
+   * The type of array holding the values.
+   */
+  enum Type {
+    LONG, INT, DOUBLE, BOOLEAN, STRING
+  }
+
+  final Type type;
+  final long[] longs;
+  final int[] ints;
+  final double[] doubles;
+  final boolean[] booleans;
+  final String[] strings;
+  final BitSet nulls;
+  final int length;
+
+  private ColumnVector(Type type, long[] longs, int[] ints, double[] doubles, boolean[] booleans, String[] strings, BitSet nulls, int length) {
+    this.type = type;
+    this.longs = longs;
+    this.ints = ints;
+    this.doubles = doubles;
+    this.booleans = booleans;
+    this.strings = strings;
+    this.nulls = nulls;
+    this.length = length;
+  }
+
+  /**
+   * Create a column of long values (or timestamps, as milliseconds since 1970-01-01T00:00:00Z, if the column has a date/time format).
+   * @param values The values.
+   * @param nulls The rows that are null, may be null if there are none.
+   * @return A newly created ColumnVector.
+   */
+  public static ColumnVector ofLongs(long[] values, BitSet nulls) {
+    return new ColumnVector(Type.LONG, values, null, null, null, null, nulls, values.length);
+  }
+
+  /**
+   * Create a column of int values (or dates, as days since 1970-01-01, if the column has a date/time format).
+   * @param values The values.
+   * @param nulls The rows that are null, may be null if there are none.
+   * @return A newly created ColumnVector.
+   */
+  public static ColumnVector ofInts(int[] values, BitSet nulls) {
+    return new ColumnVector(Type.INT, null, values, null, null, null, nulls, values.length);
+  }
+
+  /**
+   * Create a column of double values.
+   * NaN and infinite values are output as the error value #NUM!, use the null BitSet for values that should be empty.
+   * @param values The values.
+   * @param nulls The rows that are null, may be null if there are none.
+   * @return A newly created ColumnVector.
+   */
+  public static ColumnVector ofDoubles(double[] values, BitSet nulls) {
+    return new ColumnVector(Type.DOUBLE, null, null, values, null, null, nulls, values.length);
+  }
+
+  /**
+   * Create a column of boolean values.
+   * @param values The values.
+   * @param nulls The rows that are null, may be null if there are none.
+   * @return A newly created ColumnVector.
+   */
+  public static ColumnVector ofBooleans(boolean[] values, BitSet nulls) {
+    return new ColumnVector(Type.BOOLEAN, null, null, null, values, null, nulls, values.length);
+  }
+
+  /**
+   * Create a column of String values, null elements are output as empty cells.
+   * As with {@link XlsxWriter#writeString(java.lang.String)}, values beginning with '=' are not treated as formulae.
+   * @param values The values.
+   * @return A newly created ColumnVector.
+   */
+  public static ColumnVector ofStrings(String[] values) {
+    return new ColumnVector(Type.STRING, null, null, null, null, values, null, values.length);
+  }
+
+  /**
+   * Get the number of values in the column.
+   * @return the number of values in the column.
+   */
+  public int length() {
+    return length;
+  }
+
+  /**
+   * Return true if the value for the row is null.
+   * @param row The zero-based row number.
+   * @return true if the value for the row is null.
+   */
+  boolean isNull(int row) {
+    return nulls != null && nulls.get(row);
+  }
+
+}
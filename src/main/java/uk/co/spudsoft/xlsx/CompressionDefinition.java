@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2022 jtalbut
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.spudsoft.xlsx;
+
+import java.util.zip.Deflater;
+
+/**
+ * Details of how the XLSX (ZIP) container should be compressed.
+ *
+ * The defaults match a plain ZipOutputStream, which is a reasonable balance.
+ * When CPU is the bottleneck (for example, when streaming to a fast network) a lower level, or {@link java.util.zip.Deflater#HUFFMAN_ONLY}, will be faster.
+ * When the size of the output matters most (for example, when archiving) level 9 will be smaller.
+ *
+ * @author jtalbut
+ */
+public class CompressionDefinition {
+
+  /**
+   * The default size of the buffers used when writing the output.
+   */
+  public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+  /**
+   * The minimum size of the buffers used when writing the output.
+   */
+  public static final int MIN_BUFFER_SIZE = 1024;
+
+  /**
+   * The default number of bytes of worksheet data in each block when the worksheet is compressed in parallel.
+   */
+  public static final int DEFAULT_BLOCK_SIZE = 128 * 1024;
+
+  /**
+   * The minimum number of bytes of worksheet data in each block when the worksheet is compressed in parallel.
+   * Smaller blocks would not fill the 32KB dictionary that each block gets from the one before.
+   */
+  public static final int MIN_BLOCK_SIZE = 32 * 1024;
+
+  /**
+   * The settings used if no CompressionDefinition is provided.
+   */
+  public static final CompressionDefinition DEFAULT = new CompressionDefinition(Deflater.DEFAULT_COMPRESSION, false, Deflater.DEFAULT_STRATEGY, DEFAULT_BUFFER_SIZE);
+
+  /**
+   * The deflate compression level, 0-9 or {@link java.util.zip.Deflater#DEFAULT_COMPRESSION} (-1).
+   */
+  public final int level;
+
+  /**
+   * If set to true the static parts of the workbook (everything other than the worksheet) are STORED in the ZIP file, rather than being deflated.
+   * These parts are small, so this only makes a difference for small workbooks.
+   */
+  public final boolean storeStaticParts;
+
+  /**
+   * The deflate strategy, one of {@link java.util.zip.Deflater#DEFAULT_STRATEGY}, {@link java.util.zip.Deflater#FILTERED} or {@link java.util.zip.Deflater#HUFFMAN_ONLY}.
+   */
+  public final int strategy;
+
+  /**
+   * The size, in bytes, of the buffer that rows are encoded into and of the buffer in front of the OutputStream.
+   *
+   * Larger buffers mean fewer, larger, writes to the OutputStream.
+   */
+  public final int bufferSize;
+
+  /**
+   * The number of threads used to compress the worksheet.
+   *
+   * When this is 1 the worksheet is compressed on the thread that writes the rows.
+   * When it is greater than 1 the worksheet data is split into blocks of {@link #blockSize} bytes which are compressed concurrently
+   * on a dedicated pool of this many threads (in the same way as pigz).
+   * The output is a single, standard, DEFLATE stream that is only slightly larger than it would be if compressed on one thread.
+   * The static parts of the workbook are always compressed on the calling thread.
+   */
+  public final int parallelism;
+
+  /**
+   * The number of bytes of worksheet data in each block when the worksheet is compressed in parallel.
+   */
+  public final int blockSize;
+
+  /**
+   * Constructor for compressing the worksheet on the calling thread.
+   *
+   * @param level The deflate compression level, 0-9 or {@link java.util.zip.Deflater#DEFAULT_COMPRESSION} (-1).
+   * @param storeStaticParts If set to true the static parts of the workbook are STORED in the ZIP file, rather than being deflated.
+   * @param strategy The deflate strategy, one of {@link java.util.zip.Deflater#DEFAULT_STRATEGY}, {@link java.util.zip.Deflater#FILTERED} or {@link java.util.zip.Deflater#HUFFMAN_ONLY}.
+   * @param bufferSize The size, in bytes, of the buffers used when writing the output.
+   */
+  public CompressionDefinition(int level, boolean storeStaticParts, int strategy, int bufferSize) {
+    this(level, storeStaticParts, strategy, bufferSize, 1, DEFAULT_BLOCK_SIZE);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param level The deflate compression level, 0-9 or {@link java.util.zip.Deflater#DEFAULT_COMPRESSION} (-1).
+   * @param storeStaticParts If set to true the static parts of the workbook are STORED in the ZIP file, rather than being deflated.
+   * @param strategy The deflate strategy, one of {@link java.util.zip.Deflater#DEFAULT_STRATEGY}, {@link java.util.zip.Deflater#FILTERED} or {@link java.util.zip.Deflater#HUFFMAN_ONLY}.
+   * @param bufferSize The size, in bytes, of the buffers used when writing the output.
+   * @param parallelism The number of threads used to compress the worksheet.
+   * @param blockSize The number of bytes of worksheet data in each block when the worksheet is compressed in parallel.
+   */
+  public CompressionDefinition(int level, boolean storeStaticParts, int strategy, int bufferSize, int parallelism, int blockSize) {
+    if (level != Deflater.DEFAULT_COMPRESSION && (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION)) {
+      throw new IllegalArgumentException("Level must be between 0 and 9, or -1 for the default level");
+    }
+    if (strategy != Deflater.DEFAULT_STRATEGY && strategy != Deflater.FILTERED && strategy != Deflater.HUFFMAN_ONLY) {
+      throw new IllegalArgumentException("Strategy must be one of Deflater.DEFAULT_STRATEGY, Deflater.FILTERED or Deflater.HUFFMAN_ONLY");
+    }
+    if (bufferSize < MIN_BUFFER_SIZE) {
+      throw new IllegalArgumentException("Buffer size must be at least " + MIN_BUFFER_SIZE + " bytes");
+    }
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("Parallelism must be at least 1");
+    }
+    if (blockSize < MIN_BLOCK_SIZE) {
+      throw new IllegalArgumentException("Block size must be at least " + MIN_BLOCK_SIZE + " bytes");
+    }
+
+    this.level = level;
+    this.storeStaticParts = storeStaticParts;
+    this.strategy = strategy;
+    this.bufferSize = bufferSize;
+    this.parallelism = parallelism;
+    this.blockSize = blockSize;
+  }
+
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2022 jtalbut
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.spudsoft.xlsx;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+
+/**
+ * Pool of the Deflaters and buffers used by XlsxWriters, so that they can be reused by one writer after another.
+ *
+ * Each Deflater holds a few hundred KB of native zlib state that is only freed when {@link Deflater#end()} is called (or the Deflater is collected),
+ * so when many short lived writers are created it is better to reset and reuse them than to leave them for the garbage collector.
+ * Deflaters are pooled by compression level and strategy, buffers by size.
+ *
+ * At most maxIdle Deflaters, and twice as many buffers, are kept idle, anything released beyond that is ended (or dropped).
+ * Once the pool has been closed every Deflater released to it is ended.
+ *
+ * This class is thread safe and does not block.
+ *
+ * @author jtalbut
+ */
+final class CompressionPool {
+
+  private final int maxIdle;
+  private final Map<Integer, Queue<Deflater>> deflaters = new ConcurrentHashMap<>();
+  private final Map<Integer, Queue<byte[]>> buffers = new ConcurrentHashMap<>();
+  private final AtomicInteger idleDeflaters = new AtomicInteger();
+  private final AtomicInteger idleBuffers = new AtomicInteger();
+  private final AtomicInteger createdDeflaters = new AtomicInteger();
+  private volatile boolean closed;
+
+  /**
+   * Constructor.
+   * @param maxIdle The maximum number of Deflaters to keep in the pool when they are not in use.
+   */
+  CompressionPool(int maxIdle) {
+    this.maxIdle = maxIdle;
+  }
+
+  private static Integer deflaterKey(int level, int strategy) {
+    return (level + 1) * 4 + strategy;
+  }
+
+  /**
+   * Get a Deflater, from the pool if there is a suitable one, otherwise a new one.
+   * @param level The compression level.
+   * @param strategy The compression strategy.
+   * @return a nowrap Deflater with the requested level and strategy.
+   */
+  Deflater acquireDeflater(int level, int strategy) {
+    Queue<Deflater> queue = deflaters.get(deflaterKey(level, strategy));
+    Deflater deflater = queue == null ? null : queue.poll();
+    if (deflater != null) {
+      idleDeflaters.decrementAndGet();
+      return deflater;
+    }
+    createdDeflaters.incrementAndGet();
+    deflater = new Deflater(level, true);
+    deflater.setStrategy(strategy);
+    return deflater;
+  }
+
+  /**
+   * Return a Deflater to the pool.
+   * The Deflater is reset, or ended if the pool is full or closed.
+   * @param deflater The Deflater, which must have been obtained from {@link #acquireDeflater(int, int)} with the same level and strategy.
+   * @param level The compression level.
+   * @param strategy The compression strategy.
+   */
+  void releaseDeflater(Deflater deflater, int level, int strategy) {
+    if (closed) {
+      deflater.end();
+      return;
+    }
+    if (idleDeflaters.incrementAndGet() > maxIdle) {
+      idleDeflaters.decrementAndGet();
+      deflater.end();
+      return;
+    }
+    deflater.reset();
+    deflaters.computeIfAbsent(deflaterKey(level, strategy), k -> new ConcurrentLinkedQueue<>()).add(deflater);
+    if (closed) {
+      // Closed while this one was being added, make sure it does not leak
+      endIdleDeflaters();
+    }
+  }
+
+  /**
+   * Get a buffer, from the pool if there is one of the right size, otherwise a new one.
+   * @param size The size of the buffer.
+   * @return a buffer of exactly the requested size, the content of which is undefined.
+   */
+  byte[] acquireBuffer(int size) {
+    Queue<byte[]> queue = buffers.get(size);
+    byte[] buffer = queue == null ? null : queue.poll();
+    if (buffer != null) {
+      idleBuffers.decrementAndGet();
+      return buffer;
+    }
+    return new byte[size];
+  }
+
+  /**
+   * Return a buffer to the pool, if it is not full.
+   * @param buffer The buffer, which need not have come from the pool.
+   */
+  void releaseBuffer(byte[] buffer) {
+    if (buffer == null || closed) {
+      return;
+    }
+    if (idleBuffers.incrementAndGet() > 2 * maxIdle) {
+      idleBuffers.decrementAndGet();
+      return;
+    }
+    buffers.computeIfAbsent(buffer.length, k -> new ConcurrentLinkedQueue<>()).add(buffer);
+  }
+
+  /**
+   * Get the number of Deflaters in the pool.
+   * @return the number of Deflaters in the pool.
+   */
+  int getIdleDeflaterCount() {
+    return idleDeflaters.get();
+  }
+
+  /**
+   * Get the number of buffers in the pool.
+   * @return the number of buffers in the pool.
+   */
+  int getIdleBufferCount() {
+    return idleBuffers.get();
+  }
+
+  /**
+   * Get the number of Deflaters that have been created by the pool.
+   * @return the number of Deflaters that have been created by the pool.
+   */
+  int getCreatedDeflaterCount() {
+    return createdDeflaters.get();
+  }
+
+  /**
+   * End every idle Deflater and drop every idle buffer, Deflaters released after this will be ended.
+   */
+  void close() {
+    closed = true;
+    endIdleDeflaters();
+    buffers.clear();
+    idleBuffers.set(0);
+  }
+
+  private void endIdleDeflaters() {
+    for (Queue<Deflater> queue : deflaters.values()) {
+      Deflater deflater;
+      while ((deflater = queue.poll()) != null) {
+        idleDeflaters.decrementAndGet();
+        deflater.end();
+      }
+    }
+  }
+
+}
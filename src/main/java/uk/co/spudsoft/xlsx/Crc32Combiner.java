@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2022 jtalbut
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.spudsoft.xlsx;
+
+/**
+ * Combine the CRC32 values of two adjacent blocks of data into the CRC32 of the whole.
+ *
+ * This is the crc32_combine algorithm from zlib, which java.util.zip.CRC32 does not expose.
+ * It allows blocks to be checksummed independently (and in parallel) and the results joined in order.
+ *
+ * @author jtalbut
+ */
+final class Crc32Combiner {
+
+  private static final int GF2_DIM = 32;
+
+  /**
+   * The CRC32 polynomial, reversed.
+   */
+  private static final int POLYNOMIAL = 0xEDB88320;
+
+  private Crc32Combiner() {
+  }
+
+  /**
+   * Combine the CRC32 of two adjacent blocks of data.
+   * @param crc1 The CRC32 of the first block.
+   * @param crc2 The CRC32 of the second block.
+   * @param len2 The length of the second block, in bytes.
+   * @return The CRC32 of the first block followed by the second block.
+   */
+  static long combine(long crc1, long crc2, long len2) {
+    if (len2 <= 0) {
+      return crc1;
+    }
+
+    int[] even = new int[GF2_DIM];
+    int[] odd = new int[GF2_DIM];
+
+    // put operator for one zero bit in odd
+    odd[0] = POLYNOMIAL;
+    int row = 1;
+    for (int n = 1; n < GF2_DIM; n++) {
+      odd[n] = row;
+      row <<= 1;
+    }
+
+    // put operator for two zero bits in even
+    square(even, odd);
+    // put operator for four zero bits in odd
+    square(odd, even);
+
+    // apply len2 zeros to crc1 (first square will put the operator for one zero byte, eight zero bits, in even)
+    int crc = (int) crc1;
+    do {
+      square(even, odd);
+      if ((len2 & 1) != 0) {
+        crc = times(even, crc);
+      }
+      len2 >>>= 1;
+      if (len2 == 0) {
+        break;
+      }
+      square(odd, even);
+      if ((len2 & 1) != 0) {
+        crc = times(odd, crc);
+      }
+      len2 >>>= 1;
+    } while (len2 != 0);
+
+    return (crc ^ (int) crc2) & 0xFFFFFFFFL;
+  }
+
+  private static int times(int[] mat, int vec) {
+    int sum = 0;
+    int i = 0;
+    while (vec != 0) {
+      if ((vec & 1) != 0) {
+        sum ^= mat[i];
+      }
+      vec >>>= 1;
+      i++;
+    }
+    return sum;
+  }
+
+  private static void square(int[] square, int[] mat) {
+    for (int n = 0; n < GF2_DIM; n++) {
+      square[n] = times(mat, mat[n]);
+    }
+  }
+
+}
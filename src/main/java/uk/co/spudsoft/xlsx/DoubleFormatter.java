@@ -0,0 +1,413 @@
+/*
+ * Copyright (C) 2022 jtalbut
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.spudsoft.xlsx;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Format double values as the shortest decimal string that reads back as the same double.
+ *
+ * This is an implementation of Raffaello Giulietti's Schubfach algorithm
+ * (<a href="https://drive.google.com/file/d/1IEeATSVnEE6TkrHlCYNY2GjaraBjOT4f">The Schubfach way to render doubles</a>),
+ * the same algorithm that Double.toString uses from JDK 19.
+ * It is stateless, so it is thread safe without locking, and it writes ASCII digits straight into a byte array.
+ *
+ * Float values are formatted using the single precision variant of the same algorithm, so that they are output with the digits that
+ * Float.toString would give rather than those of the (longer) double with the same value.
+ *
+ * Unlike Double.toString the output is in plain notation (no exponent) for magnitudes from 1e-7 up to (but not including) 1e21,
+ * and whole numbers are output without a trailing ".0".
+ * Values outside that range use the form "1.5E-10", which Excel also accepts.
+ *
+ * @author jtalbut
+ */
+final class DoubleFormatter {
+
+  /**
+   * The maximum number of bytes that {@link #format(double, byte[], int)} will write.
+   */
+  static final int MAX_LENGTH = 32;
+
+  private static final int P = 53;
+  private static final int Q_MIN = -1074;
+  private static final long C_MIN = 1L << (P - 1);
+  private static final int BQ_MASK = 0x7FF;
+  private static final long T_MASK = (1L << (P - 1)) - 1;
+  private static final long C_TINY = 3;
+  private static final int K_MIN = -324;
+  private static final int K_MAX = 292;
+  private static final long MASK_63 = (1L << 63) - 1;
+  private static final long MASK_32 = (1L << 32) - 1;
+
+  private static final int FLOAT_P = 24;
+  private static final int FLOAT_Q_MIN = -149;
+  private static final int FLOAT_C_MIN = 1 << (FLOAT_P - 1);
+  private static final int FLOAT_BQ_MASK = 0xFF;
+  private static final int FLOAT_T_MASK = (1 << (FLOAT_P - 1)) - 1;
+  private static final int FLOAT_C_TINY = 8;
+
+  private static final byte[] NAN = "NaN".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] INFINITY = "Infinity".getBytes(StandardCharsets.US_ASCII);
+
+  /**
+   * The 126 bit approximations of 10^-k, split into the high and low 63 bits.
+   */
+  private static final long[] G = buildTable();
+
+  private DoubleFormatter() {
+  }
+
+  /**
+   * For each k in [K_MIN, K_MAX] let 10^-k = beta 2^r, with 2^125 &le; beta &lt; 2^126, and g = floor(beta) + 1.
+   * The table holds floor(g / 2^63) and (g mod 2^63) for each k.
+   */
+  private static long[] buildTable() {
+    long[] table = new long[2 * (K_MAX - K_MIN + 1)];
+    BigInteger mask63 = BigInteger.valueOf(MASK_63);
+    for (int k = K_MIN; k <= K_MAX; ++k) {
+      int shift = 125 - flog2pow10(-k);
+      BigInteger g;
+      if (k <= 0) {
+        BigInteger pow = BigInteger.TEN.pow(-k);
+        g = shift >= 0 ? pow.shiftLeft(shift) : pow.shiftRight(-shift);
+      } else {
+        g = BigInteger.ONE.shiftLeft(shift).divide(BigInteger.TEN.pow(k));
+      }
+      g = g.add(BigInteger.ONE);
+      int index = 2 * (k - K_MIN);
+      table[index] = g.shiftRight(63).longValueExact();
+      table[index + 1] = g.and(mask63).longValueExact();
+    }
+    return table;
+  }
+
+  /**
+   * floor(log10(2^e)).
+   */
+  private static int flog10pow2(int e) {
+    return (int) (e * 661_971_961_083L >> 41);
+  }
+
+  /**
+   * floor(log10(3/4 2^e)).
+   */
+  private static int flog10threeQuartersPow2(int e) {
+    return (int) (e * 661_971_961_083L + -274_743_187_321L >> 41);
+  }
+
+  /**
+   * floor(log2(10^e)).
+   */
+  private static int flog2pow10(int e) {
+    return (int) (e * 913_124_641_741L >> 38);
+  }
+
+  /**
+   * Format a double as a String.
+   * @param v the value to format.
+   * @return the shortest decimal representation of v.
+   */
+  static String toString(double v) {
+    byte[] buf = new byte[MAX_LENGTH];
+    int len = format(v, buf, 0);
+    return new String(buf, 0, len, StandardCharsets.US_ASCII);
+  }
+
+  /**
+   * Write the shortest decimal representation of a double into a byte array.
+   *
+   * NaN and infinite values are written as they are by Double.toString, though neither is meaningful to Excel.
+   *
+   * @param v the value to format.
+   * @param buf the array to write to, there must be at least {@link #MAX_LENGTH} bytes available from pos.
+   * @param pos the index in buf at which to start writing.
+   * @return the index in buf after the last byte written.
+   */
+  static int format(double v, byte[] buf, int pos) {
+    long bits = Double.doubleToRawLongBits(v);
+    long t = bits & T_MASK;
+    int bq = (int) (bits >>> (P - 1)) & BQ_MASK;
+    if (bq == BQ_MASK) {
+      byte[] special = t != 0 ? NAN : (bits < 0 ? null : INFINITY);
+      if (special == null) {
+        buf[pos++] = '-';
+        special = INFINITY;
+      }
+      System.arraycopy(special, 0, buf, pos, special.length);
+      return pos + special.length;
+    }
+    if (bits < 0 && (bq != 0 || t != 0)) {
+      buf[pos++] = '-';
+    }
+    if (bq != 0) {
+      // normal value, v = c 2^q
+      int mq = -Q_MIN + 1 - bq;
+      long c = C_MIN | t;
+      if (0 < mq && mq < P) {
+        // fast path for integers
+        long f = c >> mq;
+        if (f << mq == c) {
+          return toChars(f, 0, buf, pos);
+        }
+      }
+      return toDecimal(-mq, c, 0, buf, pos);
+    }
+    if (t != 0) {
+      // subnormal value
+      return t < C_TINY
+              ? toDecimal(Q_MIN, 10 * t, -1, buf, pos)
+              : toDecimal(Q_MIN, t, 0, buf, pos);
+    }
+    buf[pos++] = '0';
+    return pos;
+  }
+
+  /**
+   * Format a float as a String.
+   * @param v the value to format.
+   * @return the shortest decimal representation of v that reads back as the same float.
+   */
+  static String toString(float v) {
+    byte[] buf = new byte[MAX_LENGTH];
+    int len = format(v, buf, 0);
+    return new String(buf, 0, len, StandardCharsets.US_ASCII);
+  }
+
+  /**
+   * Write the shortest decimal representation of a float into a byte array.
+   *
+   * NaN and infinite values are written as they are by Float.toString, though neither is meaningful to Excel.
+   *
+   * @param v the value to format.
+   * @param buf the array to write to, there must be at least {@link #MAX_LENGTH} bytes available from pos.
+   * @param pos the index in buf at which to start writing.
+   * @return the index in buf after the last byte written.
+   */
+  static int format(float v, byte[] buf, int pos) {
+    int bits = Float.floatToRawIntBits(v);
+    int t = bits & FLOAT_T_MASK;
+    int bq = (bits >>> (FLOAT_P - 1)) & FLOAT_BQ_MASK;
+    if (bq == FLOAT_BQ_MASK) {
+      return format(t != 0 ? Double.NaN : (bits < 0 ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY), buf, pos);
+    }
+    if (bits < 0 && (bq != 0 || t != 0)) {
+      buf[pos++] = '-';
+    }
+    if (bq != 0) {
+      // normal value, v = c 2^q
+      int mq = -FLOAT_Q_MIN + 1 - bq;
+      int c = FLOAT_C_MIN | t;
+      if (0 < mq && mq < FLOAT_P) {
+        // fast path for integers
+        int f = c >> mq;
+        if (f << mq == c) {
+          return toChars(f, 0, buf, pos);
+        }
+      }
+      return toDecimal(-mq, c, 0, buf, pos);
+    }
+    if (t != 0) {
+      // subnormal value
+      return t < FLOAT_C_TINY
+              ? toDecimal(FLOAT_Q_MIN, 10 * t, -1, buf, pos)
+              : toDecimal(FLOAT_Q_MIN, t, 0, buf, pos);
+    }
+    buf[pos++] = '0';
+    return pos;
+  }
+
+  /**
+   * The single precision equivalent of {@link #toDecimal(int, long, int, byte[], int)}, which only needs the high 63 bits of g.
+   */
+  private static int toDecimal(int q, int c, int dk, byte[] buf, int pos) {
+    int out = c & 0x1;
+    long cb = (long) c << 2;
+    long cbr = cb + 2;
+    long cbl;
+    int k;
+    if (c != FLOAT_C_MIN | q == FLOAT_Q_MIN) {
+      cbl = cb - 2;
+      k = flog10pow2(q);
+    } else {
+      cbl = cb - 1;
+      k = flog10threeQuartersPow2(q);
+    }
+    int h = q + flog2pow10(-k) + 33;
+
+    long g = G[2 * (k - K_MIN)] + 1;
+
+    int vb = rop(g, cb << h);
+    int vbl = rop(g, cbl << h);
+    int vbr = rop(g, cbr << h);
+
+    int s = vb >> 2;
+    if (s >= 100) {
+      // Try for one digit fewer than s has, s' = floor(s / 10)
+      int sp10 = 10 * (int) (s * 1_717_986_919L >>> 34);
+      int tp10 = sp10 + 10;
+      boolean upin = vbl + out <= sp10 << 2;
+      boolean wpin = (tp10 << 2) + out <= vbr;
+      if (upin != wpin) {
+        return toChars(upin ? sp10 : tp10, k, buf, pos);
+      }
+    }
+    int tt = s + 1;
+    boolean uin = vbl + out <= s << 2;
+    boolean win = (tt << 2) + out <= vbr;
+    if (uin != win) {
+      return toChars(uin ? s : tt, k + dk, buf, pos);
+    }
+    // Both s and t are in the rounding interval, pick the closest (or the even one)
+    int cmp = vb - (s + tt << 1);
+    return toChars(cmp < 0 || cmp == 0 && (s & 0x1) == 0 ? s : tt, k + dk, buf, pos);
+  }
+
+  /**
+   * Round odd multiplication of the 63 bit g by cp, for single precision values.
+   */
+  private static int rop(long g, long cp) {
+    long x1 = Math.multiplyHigh(g, cp);
+    long vbp = x1 >>> 31;
+    return (int) (vbp | (x1 & MASK_32) + MASK_32 >>> 32);
+  }
+
+  private static int toDecimal(int q, long c, int dk, byte[] buf, int pos) {
+    int out = (int) c & 0x1;
+    long cb = c << 2;
+    long cbr = cb + 2;
+    long cbl;
+    int k;
+    if (c != C_MIN | q == Q_MIN) {
+      cbl = cb - 2;
+      k = flog10pow2(q);
+    } else {
+      cbl = cb - 1;
+      k = flog10threeQuartersPow2(q);
+    }
+    int h = q + flog2pow10(-k) + 2;
+
+    int index = 2 * (k - K_MIN);
+    long g1 = G[index];
+    long g0 = G[index + 1];
+
+    long vb = rop(g1, g0, cb << h);
+    long vbl = rop(g1, g0, cbl << h);
+    long vbr = rop(g1, g0, cbr << h);
+
+    long s = vb >> 2;
+    if (s >= 100) {
+      // Try for one digit fewer than s has, s' = floor(s / 10)
+      long sp10 = 10 * Math.multiplyHigh(s, 115_292_150_460_684_698L << 4);
+      long tp10 = sp10 + 10;
+      boolean upin = vbl + out <= sp10 << 2;
+      boolean wpin = (tp10 << 2) + out <= vbr;
+      if (upin != wpin) {
+        return toChars(upin ? sp10 : tp10, k, buf, pos);
+      }
+    }
+    long tt = s + 1;
+    boolean uin = vbl + out <= s << 2;
+    boolean win = (tt << 2) + out <= vbr;
+    if (uin != win) {
+      return toChars(uin ? s : tt, k + dk, buf, pos);
+    }
+    // Both s and t are in the rounding interval, pick the closest (or the even one)
+    long cmp = vb - (s + tt << 1);
+    return toChars(cmp < 0 || cmp == 0 && (s & 0x1) == 0 ? s : tt, k + dk, buf, pos);
+  }
+
+  /**
+   * Round odd multiplication of the 126 bit g by cp, see section 9.9 of the paper.
+   */
+  private static long rop(long g1, long g0, long cp) {
+    long x1 = Math.multiplyHigh(g0, cp);
+    long y0 = g1 * cp;
+    long y1 = Math.multiplyHigh(g1, cp);
+    long z = (y0 >>> 1) + x1;
+    long vbp = y1 + (z >>> 63);
+    return vbp | (z & MASK_63) + MASK_63 >>> 63;
+  }
+
+  /**
+   * Write the value f 10^e, where f &gt; 0.
+   */
+  private static int toChars(long f, int e, byte[] buf, int pos) {
+    while (f % 10 == 0) {
+      f /= 10;
+      ++e;
+    }
+    int len = 1;
+    for (long v = f; v >= 10; v /= 10) {
+      ++len;
+    }
+    // The exponent of the value when written as d.ddd x 10^exp
+    int exp = len + e - 1;
+    if (exp < -7 || exp >= 21) {
+      // d.dddE[-]x
+      writeDigits(f, len, buf, pos + 1);
+      buf[pos] = buf[pos + 1];
+      if (len > 1) {
+        buf[pos + 1] = '.';
+        pos += len + 1;
+      } else {
+        pos += 1;
+      }
+      buf[pos++] = 'E';
+      if (exp < 0) {
+        buf[pos++] = '-';
+        exp = -exp;
+      }
+      int expLen = exp >= 100 ? 3 : (exp >= 10 ? 2 : 1);
+      writeDigits(exp, expLen, buf, pos);
+      return pos + expLen;
+    } else if (e >= 0) {
+      // Whole number
+      writeDigits(f, len, buf, pos);
+      pos += len;
+      for (int i = 0; i < e; ++i) {
+        buf[pos++] = '0';
+      }
+      return pos;
+    } else if (exp >= 0) {
+      // ddd.ddd
+      int intLen = exp + 1;
+      writeDigits(f, len, buf, pos + 1);
+      System.arraycopy(buf, pos + 1, buf, pos, intLen);
+      buf[pos + intLen] = '.';
+      return pos + len + 1;
+    } else {
+      // 0.000ddd
+      buf[pos++] = '0';
+      buf[pos++] = '.';
+      for (int i = -1; i > exp; --i) {
+        buf[pos++] = '0';
+      }
+      writeDigits(f, len, buf, pos);
+      return pos + len;
+    }
+  }
+
+  private static void writeDigits(long value, int len, byte[] buf, int pos) {
+    int i = pos + len;
+    do {
+      buf[--i] = (byte) ('0' + (value % 10));
+      value /= 10;
+    } while (i > pos);
+  }
+
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2022 jtalbut
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.spudsoft.xlsx;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.OffsetDateTime;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoField;
+import java.time.temporal.Temporal;
+import java.util.Locale;
+
+/**
+ * Conversion of date and time values to Excel serial date values.
+ *
+ * An Excel serial date is the number of days since the Excel epoch, with the time of day as the fractional part.
+ * All of the calculations are done with integer arithmetic on epoch days and milliseconds, there is no shared state so all methods are thread safe.
+ *
+ * Values that carry a time zone or offset are converted using their local date and time, the zone is ignored.
+ * Instants and epoch milliseconds have no local date and time, so they are converted as UTC.
+ *
+ * The time of day is truncated to millisecond precision.
+ *
+ * @author jtalbut
+ */
+final class ExcelDates {
+
+  /**
+   * The Excel serial date for 1970-01-01 (the Java epoch).
+   *
+   * This includes the day for 29 February 1900, which Excel believes exists, so serial dates before 1 March 1900 will be one day out.
+   */
+  static final long EPOCH_DAY_OFFSET = 2 + LocalDate.of(1970, 1, 1).toEpochDay() - XlsxWriter.EPOCH_DATE.toEpochDay();
+
+  /**
+   * The number of milliseconds in a day.
+   */
+  static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
+  private static final double MILLIS_PER_DAY_DOUBLE = MILLIS_PER_DAY;
+
+  private static final long NANOS_PER_MILLI = 1_000_000L;
+
+  private ExcelDates() {
+  }
+
+  /**
+   * Convert a date to an Excel serial date.
+   * @param date The date to convert.
+   * @return The Excel serial date.
+   */
+  static long toSerial(LocalDate date) {
+    return date.toEpochDay() + EPOCH_DAY_OFFSET;
+  }
+
+  /**
+   * Convert a time of day to an Excel serial date (which will be between 0 and 1).
+   * @param time The time to convert.
+   * @return The Excel serial date.
+   */
+  static double toSerial(LocalTime time) {
+    return (time.toNanoOfDay() / NANOS_PER_MILLI) / MILLIS_PER_DAY_DOUBLE;
+  }
+
+  /**
+   * Convert a date and time to an Excel serial date.
+   * @param dateTime The date and time to convert.
+   * @return The Excel serial date.
+   */
+  static double toSerial(LocalDateTime dateTime) {
+    return toSerial(dateTime.toLocalDate().toEpochDay(), dateTime.toLocalTime().toNanoOfDay() / NANOS_PER_MILLI);
+  }
+
+  /**
+   * Convert an instant to an Excel serial date, in UTC.
+   * @param instant The instant to convert.
+   * @return The Excel serial date.
+   */
+  static double toSerial(Instant instant) {
+    long seconds = instant.getEpochSecond();
+    return toSerial(Math.floorDiv(seconds, 86400L), Math.floorMod(seconds, 86400L) * 1000 + instant.getNano() / NANOS_PER_MILLI);
+  }
+
+  /**
+   * Convert a number of milliseconds since 1970-01-01T00:00:00Z to an Excel serial date, in UTC.
+   * @param epochMillis The number of milliseconds since the Java epoch.
+   * @return The Excel serial date.
+   */
+  static double epochMillisToSerial(long epochMillis) {
+    return toSerial(Math.floorDiv(epochMillis, MILLIS_PER_DAY), Math.floorMod(epochMillis, MILLIS_PER_DAY));
+  }
+
+  private static double toSerial(long epochDay, long millisOfDay) {
+    return (double) (epochDay + EPOCH_DAY_OFFSET) + millisOfDay / MILLIS_PER_DAY_DOUBLE;
+  }
+
+  /**
+   * Return true if an Excel number format displays a date or time.
+   *
+   * The format is a date format if it contains any of the date/time codes (y, m, d, h or s, in either case) outside quoted text, 
+   * escaped characters and square brackets (other than the elapsed time codes [h], [m] and [s]).
+   * The era and calendar codes e (era year), g (era name) and b (Buddhist year) also make it a date format,
+   * except that "E+" and "E-" are scientific notation and "General" is not a date.
+   *
+   * @param format The Excel number format.
+   * @return true if the format displays a date or time.
+   */
+  static boolean isDateFormat(String format) {
+    if (format == null) {
+      return false;
+    }
+    int len = format.length();
+    for (int i = 0; i < len; ++i) {
+      char c = format.charAt(i);
+      switch (c) {
+        case '"':
+          i = format.indexOf('"', i + 1);
+          if (i < 0) {
+            return false;
+          }
+          break;
+        case '\\':
+        case '_':
+        case '*':
+          ++i;
+          break;
+        case '[':
+          int end = format.indexOf(']', i + 1);
+          if (end < 0) {
+            return false;
+          }
+          if (isElapsedTimeCode(format.substring(i + 1, end).toLowerCase(Locale.ROOT))) {
+            return true;
+          }
+          i = end;
+          break;
+        case 'y':
+        case 'Y':
+        case 'm':
+        case 'M':
+        case 'd':
+        case 'D':
+        case 'h':
+        case 'H':
+        case 's':
+        case 'S':
+        case 'b':
+        case 'B':
+          return true;
+        case 'e':
+        case 'E':
+          if (i + 1 < len && (format.charAt(i + 1) == '+' || format.charAt(i + 1) == '-')) {
+            ++i;
+            break;
+          }
+          return true;
+        case 'g':
+        case 'G':
+          if (format.regionMatches(true, i, "General", 0, 7)) {
+            i += 6;
+            break;
+          }
+          return true;
+        default:
+          break;
+      }
+    }
+    return false;
+  }
+
+  private static boolean isElapsedTimeCode(String code) {
+    if (code.isEmpty()) {
+      return false;
+    }
+    char first = code.charAt(0);
+    if (first != 'h' && first != 'm' && first != 's') {
+      return false;
+    }
+    for (int i = 1; i < code.length(); ++i) {
+      if (code.charAt(i) != first) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Convert any Temporal to an Excel serial date.
+   *
+   * The common java.time classes are converted directly, other Temporal implementations are converted using the EPOCH_DAY and MILLI_OF_DAY fields,
+   * if they support either.
+   *
+   * @param temporal The value to convert.
+   * @return The Excel serial date, or NaN if the Temporal has neither a date nor a time of day.
+   */
+  static double toSerial(Temporal temporal) {
+    if (temporal instanceof LocalDateTime) {
+      return toSerial((LocalDateTime) temporal);
+    } else if (temporal instanceof LocalDate) {
+      return toSerial((LocalDate) temporal);
+    } else if (temporal instanceof LocalTime) {
+      return toSerial((LocalTime) temporal);
+    } else if (temporal instanceof Instant) {
+      return toSerial((Instant) temporal);
+    } else if (temporal instanceof OffsetDateTime) {
+      return toSerial(((OffsetDateTime) temporal).toLocalDateTime());
+    } else if (temporal instanceof ZonedDateTime) {
+      return toSerial(((ZonedDateTime) temporal).toLocalDateTime());
+    }
+    boolean hasDate = temporal.isSupported(ChronoField.EPOCH_DAY);
+    boolean hasTime = temporal.isSupported(ChronoField.MILLI_OF_DAY);
+    if (hasDate && hasTime) {
+      return toSerial(temporal.getLong(ChronoField.EPOCH_DAY), temporal.getLong(ChronoField.MILLI_OF_DAY));
+    } else if (hasDate) {
+      return temporal.getLong(ChronoField.EPOCH_DAY) + EPOCH_DAY_OFFSET;
+    } else if (hasTime) {
+      return temporal.getLong(ChronoField.MILLI_OF_DAY) / MILLIS_PER_DAY_DOUBLE;
+    } else {
+      return Double.NaN;
+    }
+  }
+
+}
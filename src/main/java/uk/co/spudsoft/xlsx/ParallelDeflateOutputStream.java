@@ -0,0 +1,330 @@
+/*
+ * Copyright (C) 2022 jtalbut
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.spudsoft.xlsx;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Stream that deflates the content of a ZIP entry using multiple threads, in the same way as pigz.
+ *
+ * The data written is split into fixed size blocks, each of which is compressed independently by a task on the executor.
+ * Each block uses the last 32KB of the previous block as a preset dictionary, so very little compression is lost.
+ * Every block other than the last is ended with a sync flush, so the compressed blocks can simply be concatenated to form a single DEFLATE stream.
+ * The CRC32 of each block is calculated by the same task and the results are combined in order.
+ *
+ * The compressed blocks are written to the ZipWriter in order, as soon as they are available.
+ * At most two blocks per thread are in flight at any time, if that limit is reached the calling thread waits for the oldest block to complete.
+ *
+ * Precompressed data can be spliced in between blocks, the block that follows it is compressed without a dictionary.
+ *
+ * The data is written to the ZIP file on the calling thread, but the ZipWriter must not be used for anything else until this stream is closed.
+ * Closing this stream ends the entry, but does not close the ZipWriter or the executor.
+ *
+ * @author jtalbut
+ */
+final class ParallelDeflateOutputStream extends OutputStream implements PrecompressedOutput {
+
+  /**
+   * The size of the DEFLATE window, and thus the maximum useful size of a preset dictionary.
+   */
+  static final int DICTIONARY_SIZE = 32 * 1024;
+
+  /**
+   * The result of compressing one block.
+   */
+  private static final class Block {
+    private final byte[] input;
+    private final int inputLength;
+    private final byte[] output;
+    private final int outputLength;
+    private final long crc;
+
+    Block(byte[] input, int inputLength, byte[] output, int outputLength, long crc) {
+      this.input = input;
+      this.inputLength = inputLength;
+      this.output = output;
+      this.outputLength = outputLength;
+      this.crc = crc;
+    }
+  }
+
+  private final ZipWriter zip;
+  private final ExecutorService executor;
+  private final CompressionPool pool;
+  private final int level;
+  private final int strategy;
+  private final int blockSize;
+  private final int maxInFlight;
+
+  private final ArrayDeque<Future<Block>> pending = new ArrayDeque<>();
+  private final ConcurrentLinkedQueue<Deflater> deflaters = new ConcurrentLinkedQueue<>();
+  private final ConcurrentLinkedQueue<byte[]> freeOutputs = new ConcurrentLinkedQueue<>();
+  private final ArrayDeque<byte[]> freeInputs = new ArrayDeque<>();
+
+  private byte[] block;
+  private int blockLength;
+  private byte[] previousBlock;
+  private int previousBlockLength;
+
+  /**
+   * The input of the most recently written block, which cannot be reused until the following block (which uses it as a dictionary) has been written.
+   */
+  private byte[] lastWrittenInput;
+
+  private long crc;
+  private long size;
+  private boolean closed;
+  /**
+   * Set when the stream has been closed and its Deflaters released, a task that finishes after this must release its own Deflater.
+   */
+  private volatile boolean released;
+
+  /**
+   * Constructor.
+   *
+   * The entry must already have been begun with {@link ZipWriter#beginEntry(java.lang.String)}.
+   *
+   * @param zip The ZipWriter that the compressed data will be written to.
+   * @param executor The executor that will run the compression tasks.
+   * @param parallelism The number of threads available in the executor.
+   * @param blockSize The number of bytes of uncompressed data in each block.
+   * @param level The deflate compression level.
+   * @param strategy The deflate strategy.
+   */
+  ParallelDeflateOutputStream(ZipWriter zip, ExecutorService executor, int parallelism, int blockSize, int level, int strategy) {
+    this(zip, executor, null, parallelism, blockSize, level, strategy);
+  }
+
+  /**
+   * Constructor.
+   *
+   * The entry must already have been begun with {@link ZipWriter#beginEntry(java.lang.String)}.
+   * At most parallelism Deflaters are in use at once, they are taken from the pool when needed and returned to it when the stream is closed.
+   *
+   * @param zip The ZipWriter that the compressed data will be written to.
+   * @param executor The executor that will run the compression tasks.
+   * @param pool The pool to take Deflaters from, or null to create (and end) them here.
+   * @param parallelism The number of threads available in the executor.
+   * @param blockSize The number of bytes of uncompressed data in each block.
+   * @param level The deflate compression level.
+   * @param strategy The deflate strategy.
+   */
+  ParallelDeflateOutputStream(ZipWriter zip, ExecutorService executor, CompressionPool pool, int parallelism, int blockSize, int level, int strategy) {
+    this.zip = zip;
+    this.executor = executor;
+    this.pool = pool;
+    this.level = level;
+    this.strategy = strategy;
+    this.blockSize = blockSize;
+    this.maxInFlight = 2 * parallelism;
+    this.block = new byte[blockSize];
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    write(new byte[]{(byte) b}, 0, 1);
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    if (closed) {
+      throw new IOException("Stream closed");
+    }
+    while (len > 0) {
+      int chunk = Math.min(len, blockSize - blockLength);
+      System.arraycopy(b, off, block, blockLength, chunk);
+      blockLength += chunk;
+      off += chunk;
+      len -= chunk;
+      if (blockLength == blockSize) {
+        submit(false);
+      }
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      submit(true);
+      while (!pending.isEmpty()) {
+        writeBlock(pending.poll());
+      }
+      zip.endEntry(crc, size);
+    } finally {
+      for (Future<Block> future : pending) {
+        future.cancel(false);
+      }
+      released = true;
+      releaseDeflaters();
+    }
+  }
+
+  /**
+   * Get the number of Deflaters that are not in use and have not been ended (or returned to the pool).
+   * @return the number of Deflaters that are not in use and have not been ended (or returned to the pool).
+   */
+  int getIdleDeflaterCount() {
+    return deflaters.size();
+  }
+
+  /**
+   * End every idle Deflater, or return it to the pool.
+   * 
+   * This is called by close, and by any task that returns its Deflater after close (a cancelled task may still be running),
+   * each Deflater is added to the queue before released is checked, so one or the other will always release it.
+   */
+  private void releaseDeflaters() {
+    Deflater deflater;
+    while ((deflater = deflaters.poll()) != null) {
+      if (pool == null) {
+        deflater.end();
+      } else {
+        pool.releaseDeflater(deflater, level, strategy);
+      }
+    }
+  }
+
+  @Override
+  public void writePrecompressed(InputStream compressed, long compressedSize, long dataCrc, long dataSize) throws IOException {
+    if (closed) {
+      throw new IOException("Stream closed");
+    }
+    if (blockLength > 0) {
+      submit(false);
+    }
+    while (!pending.isEmpty()) {
+      writeBlock(pending.poll());
+    }
+    // The current block is empty, so it can be used as the buffer for the copy
+    zip.writeEntryData(compressed, compressedSize, block);
+    crc = Crc32Combiner.combine(crc, dataCrc, dataSize);
+    size += dataSize;
+    previousBlock = null;
+    previousBlockLength = 0;
+  }
+
+  private void submit(boolean last) throws IOException {
+    final byte[] input = block;
+    final int inputLength = blockLength;
+    final byte[] dictionary = previousBlock;
+    final int dictionaryLength = previousBlockLength;
+    pending.add(executor.submit(() -> compress(input, inputLength, dictionary, dictionaryLength, last)));
+
+    previousBlock = input;
+    previousBlockLength = inputLength;
+    block = freeInputs.isEmpty() ? new byte[blockSize] : freeInputs.poll();
+    blockLength = 0;
+
+    while (pending.size() > maxInFlight || (!pending.isEmpty() && pending.peek().isDone())) {
+      writeBlock(pending.poll());
+    }
+  }
+
+  private void writeBlock(Future<Block> future) throws IOException {
+    Block result;
+    try {
+      result = future.get();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted waiting for compression");
+    } catch (ExecutionException ex) {
+      throw new IOException("Compression failed", ex.getCause());
+    }
+    zip.writeEntryData(result.output, 0, result.outputLength);
+    crc = Crc32Combiner.combine(crc, result.crc, result.inputLength);
+    size += result.inputLength;
+    freeOutputs.add(result.output);
+    if (lastWrittenInput != null) {
+      freeInputs.add(lastWrittenInput);
+    }
+    lastWrittenInput = result.input;
+  }
+
+  private Block compress(byte[] input, int inputLength, byte[] dictionary, int dictionaryLength, boolean last) {
+    Deflater deflater = deflaters.poll();
+    if (deflater == null) {
+      if (pool == null) {
+        deflater = new Deflater(level, true);
+        deflater.setStrategy(strategy);
+      } else {
+        deflater = pool.acquireDeflater(level, strategy);
+      }
+    }
+    try {
+      CRC32 blockCrc = new CRC32();
+      blockCrc.update(input, 0, inputLength);
+
+      if (dictionary != null) {
+        int dictionaryUsed = Math.min(dictionaryLength, DICTIONARY_SIZE);
+        deflater.setDictionary(dictionary, dictionaryLength - dictionaryUsed, dictionaryUsed);
+      }
+      deflater.setInput(input, 0, inputLength);
+
+      byte[] output = freeOutputs.poll();
+      int minOutput = inputLength + (inputLength >> 3) + 64;
+      if (output == null || output.length < minOutput) {
+        output = new byte[Math.max(minOutput, blockSize + (blockSize >> 3) + 64)];
+      }
+      int outputLength = 0;
+      if (last) {
+        deflater.finish();
+        while (!deflater.finished()) {
+          if (outputLength == output.length) {
+            output = Arrays.copyOf(output, output.length * 2);
+          }
+          outputLength += deflater.deflate(output, outputLength, output.length - outputLength);
+        }
+      } else {
+        // With SYNC_FLUSH a full output buffer means there may be more to come.
+        // The first call after a change of strategy may also return early, without consuming all the input.
+        int available;
+        int len;
+        do {
+          if (outputLength == output.length) {
+            output = Arrays.copyOf(output, output.length * 2);
+          }
+          available = output.length - outputLength;
+          len = deflater.deflate(output, outputLength, available, Deflater.SYNC_FLUSH);
+          outputLength += len;
+        } while (len == available || !deflater.needsInput());
+      }
+      return new Block(input, inputLength, output, outputLength, blockCrc.getValue());
+    } finally {
+      deflater.reset();
+      deflaters.add(deflater);
+      if (released) {
+        releaseDeflaters();
+      }
+    }
+  }
+
+}
@@ -0,0 +1,370 @@
+/*
+ * Copyright (C) 2022 jtalbut
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.spudsoft.xlsx;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Facade over {@link XlsxWriter} that splits the work of producing an XLSX file across three threads.
+ *
+ * <ol>
+ * <li>The thread calling {@link #outputRow(java.util.List)} only copies the values of the row into a preallocated batch.
+ * <li>An encoder thread converts the values to XML and writes them to the worksheet.
+ * <li>The worksheet is compressed on a separate thread (or threads, if the {@link CompressionDefinition} specifies parallel compression).
+ * </ol>
+ * 
+ * The batches form a bounded ring: once every batch is waiting to be encoded the thread calling outputRow blocks until the encoder frees one,
+ * so the memory used is bounded by the capacity and batch size regardless of the relative speeds of the producer and the encoder.
+ * 
+ * The values of each row are copied when the row is output, so the caller may reuse the List (but not the values in it) as soon as outputRow returns.
+ * Because the rows are encoded later, on another thread, any error encoding or writing them is reported by a subsequent call to outputRow, startSheet or close.
+ * 
+ * The methods of this class must only be called by one thread at a time, and the serializers for the values must be safe to call on the encoder thread.
+ *
+ * @author jtalbut
+ */
+public class PipelinedXlsxWriter implements Closeable {
+
+  /**
+   * The default number of batches in the ring.
+   */
+  public static final int DEFAULT_CAPACITY = 16;
+
+  /**
+   * The default number of rows in each batch.
+   */
+  public static final int DEFAULT_BATCH_SIZE = 256;
+
+  private static final AtomicInteger THREAD_NUMBER = new AtomicInteger();
+
+  private static final int KIND_ROWS = 0;
+  private static final int KIND_START_SHEET = 1;
+  private static final int KIND_CLOSE = 2;
+
+  /**
+   * A batch of rows (or a command) passed from the producer to the encoder.
+   * The values of all the rows are held in a single array, with the index after the last value of each row in rowEnds.
+   */
+  private static final class Batch {
+    private int kind;
+    private TableDefinition defn;
+    private Object[] values;
+    private final int[] rowEnds;
+    private int rowCount;
+    private int valueCount;
+
+    Batch(int batchSize) {
+      this.values = new Object[batchSize * 8];
+      this.rowEnds = new int[batchSize];
+    }
+
+    void clear() {
+      Arrays.fill(values, 0, valueCount, null);
+      kind = KIND_ROWS;
+      defn = null;
+      rowCount = 0;
+      valueCount = 0;
+    }
+  }
+
+  private final XlsxWriter writer;
+  private final int batchSize;
+  private final ArrayBlockingQueue<Batch> free;
+  private final ArrayBlockingQueue<Batch> full;
+
+  private Batch current;
+  private Thread encoder;
+  private volatile Throwable error;
+  private boolean closed;
+
+  /**
+   * Constructor.
+   *
+   * @param defn The definition of the formatting required in the workbook.
+   */
+  public PipelinedXlsxWriter(TableDefinition defn) {
+    this(defn, null, null, DEFAULT_CAPACITY, DEFAULT_BATCH_SIZE);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param defn The definition of the formatting required in the workbook.
+   * @param compression The definition of the compression of the ZIP file.
+   * @param sharedStrings The definition of which strings should be written to the shared strings table, if this is null every string is written inline.
+   * @param capacity The number of batches in the ring.
+   * @param batchSize The number of rows in each batch.
+   * @throws IllegalArgumentException if the capacity is less than 2 or the batch size is less than 1.
+   */
+  public PipelinedXlsxWriter(TableDefinition defn, CompressionDefinition compression, SharedStringsDefinition sharedStrings, int capacity, int batchSize) {
+    if (capacity < 2) {
+      throw new IllegalArgumentException("The capacity must be at least 2");
+    }
+    if (batchSize < 1) {
+      throw new IllegalArgumentException("The batch size must be at least 1");
+    }
+    this.writer = new XlsxWriter(defn, compression, sharedStrings);
+    this.writer.setOffloadCompression(true);
+    this.batchSize = batchSize;
+    this.free = new ArrayBlockingQueue<>(capacity);
+    this.full = new ArrayBlockingQueue<>(capacity);
+    for (int i = 0; i < capacity; ++i) {
+      free.add(new Batch(batchSize));
+    }
+  }
+
+  /**
+   * Register a serializer for values of a given type, this must be called before startFile.
+   * @param <T> The type of value handled by the serializer.
+   * @param type The class of value handled by the serializer.
+   * @param serializer The serializer.
+   * @see XlsxWriter#registerSerializer(java.lang.Class, uk.co.spudsoft.xlsx.CellSerializer)
+   */
+  public <T> void registerSerializer(Class<T> type, CellSerializer<? super T> serializer) {
+    if (encoder != null) {
+      throw new IllegalStateException("Serializers must be registered before startFile is called");
+    }
+    writer.registerSerializer(type, serializer);
+  }
+
+  /**
+   * Start outputting the metadata to the OutputStream, start the first worksheet and start the encoder thread.
+   * 
+   * The OutputStream is written by the encoder thread from this point on.
+   * 
+   * @param stream The output stream that will be written to.
+   * @throws IOException if something goes wrong - this should only happen if "stream" throws an exception.
+   * @see XlsxWriter#startFile(java.io.OutputStream)
+   */
+  public void startFile(OutputStream stream) throws IOException {
+    if (encoder != null) {
+      throw new IllegalStateException("startFile has already been called");
+    }
+    writer.startFile(stream);
+    current = free.poll();
+    encoder = new Thread(this::encode, "xlsx-encoder-" + THREAD_NUMBER.incrementAndGet());
+    encoder.setDaemon(true);
+    encoder.start();
+  }
+
+  /**
+   * Output a row of data.
+   * 
+   * The values are copied into the current batch, which is passed to the encoder thread when it is full.
+   * If every batch is waiting to be encoded this blocks until the encoder frees one.
+   * 
+   * @param values The values to add to the output, one column at a time.
+   * @throws IOException if an earlier row could not be encoded or written, or if the thread is interrupted.
+   * @see XlsxWriter#outputRow(java.util.List)
+   */
+  public void outputRow(List<?> values) throws IOException {
+    checkOpen();
+    Batch batch = current;
+    int size = values.size();
+    if (batch.valueCount + size > batch.values.length) {
+      batch.values = Arrays.copyOf(batch.values, Math.max(batch.values.length * 2, batch.valueCount + size));
+    }
+    int pos = batch.valueCount;
+    for (int i = 0; i < size; ++i) {
+      batch.values[pos++] = values.get(i);
+    }
+    batch.valueCount = pos;
+    batch.rowEnds[batch.rowCount++] = pos;
+    if (batch.rowCount == batchSize) {
+      publish();
+    }
+  }
+
+  /**
+   * Complete the current worksheet and start a new one.
+   * 
+   * The worksheet is started by the encoder thread, so an invalid TableDefinition (for example, one whose name is already in use)
+   * is reported by a subsequent call to outputRow, startSheet or close.
+   * 
+   * @param defn The definition of the new worksheet.
+   * @throws IOException if an earlier row could not be encoded or written, or if the thread is interrupted.
+   * @see XlsxWriter#startSheet(uk.co.spudsoft.xlsx.TableDefinition)
+   */
+  public void startSheet(TableDefinition defn) throws IOException {
+    checkOpen();
+    sendCommand(KIND_START_SHEET, defn);
+  }
+
+  /**
+   * Complete the XLSX document and wait for the encoder thread to finish writing it.
+   * 
+   * This does not close the OutputStream.
+   * 
+   * @throws IOException if any row could not be encoded or written, or if the thread is interrupted.
+   */
+  @Override
+  public void close() throws IOException {
+    if (closed || encoder == null) {
+      return;
+    }
+    closed = true;
+    // Any unpublished rows are handed over with the close command, without waiting for a free batch or checking for errors,
+    // so that the encoder always closes the XlsxWriter (and releases its resources) even if an earlier batch failed.
+    Batch batch = current;
+    current = null;
+    boolean interrupted = false;
+    while (batch == null) {
+      // An earlier call was interrupted waiting for a free batch, the encoder always returns them so this does not wait for long
+      try {
+        batch = free.take();
+      } catch (InterruptedException ex) {
+        interrupted = true;
+      }
+    }
+    batch.kind = KIND_CLOSE;
+    // There are never more batches than the capacity of the queue, so this cannot fail
+    full.add(batch);
+    try {
+      if (interrupted) {
+        throw new InterruptedException();
+      }
+      encoder.join();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted waiting for the encoder to finish");
+    }
+    throwIfFailed();
+  }
+  
+  boolean isEncoderAlive() {
+    return encoder != null && encoder.isAlive();
+  }
+
+  private void checkOpen() throws IOException {
+    if (encoder == null) {
+      throw new IllegalStateException("startFile must be called before outputting rows");
+    }
+    if (closed) {
+      throw new IllegalStateException("The writer has been closed");
+    }
+    throwIfFailed();
+  }
+
+  private void throwIfFailed() throws IOException {
+    Throwable ex = error;
+    if (ex != null) {
+      throw new IOException("Failed to write XLSX data", ex);
+    }
+  }
+
+  private void sendCommand(int kind, TableDefinition defn) throws IOException {
+    if (current.rowCount > 0) {
+      publish();
+    }
+    current.kind = kind;
+    current.defn = defn;
+    publish();
+  }
+
+  /**
+   * Pass the current batch to the encoder and take the next free batch, waiting if there isn't one.
+   */
+  private void publish() throws IOException {
+    putFull(current);
+    current = null;
+    try {
+      current = free.take();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted waiting for the encoder");
+    }
+    throwIfFailed();
+  }
+
+  private void putFull(Batch batch) throws IOException {
+    try {
+      // There are never more batches than the capacity of the queue, so this does not wait
+      full.put(batch);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted passing rows to the encoder");
+    }
+  }
+
+  /**
+   * The body of the encoder thread.
+   * After a failure the encoder continues to return batches to the free queue (without encoding them) so that the producer cannot block forever.
+   */
+  private void encode() {
+    while (true) {
+      Batch batch;
+      try {
+        batch = full.take();
+      } catch (InterruptedException ex) {
+        error = ex;
+        return;
+      }
+      if (batch.kind == KIND_CLOSE) {
+        try {
+          if (error == null && batch.rowCount > 0) {
+            writeRows(batch);
+          }
+        } catch (Throwable ex) {
+          error = ex;
+        }
+        try {
+          writer.close();
+        } catch (Throwable ex) {
+          if (error == null) {
+            error = ex;
+          }
+        }
+        return;
+      }
+      if (error == null) {
+        try {
+          if (batch.kind == KIND_START_SHEET) {
+            writer.startSheet(batch.defn);
+          } else {
+            writeRows(batch);
+          }
+        } catch (Throwable ex) {
+          error = ex;
+        }
+      }
+      batch.clear();
+      free.add(batch);
+    }
+  }
+
+  private void writeRows(Batch batch) throws IOException {
+    Object[] values = batch.values;
+    int start = 0;
+    for (int row = 0; row < batch.rowCount; ++row) {
+      int end = batch.rowEnds[row];
+      writer.beginRow();
+      for (int i = start; i < end; ++i) {
+        writer.writeObject(values[i]);
+      }
+      writer.endRow();
+      start = end;
+    }
+  }
+
+}
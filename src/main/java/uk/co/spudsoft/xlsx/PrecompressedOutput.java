@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2022 jtalbut
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.spudsoft.xlsx;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A stream of DEFLATE compressed data into which data that has already been compressed elsewhere can be spliced.
+ *
+ * DEFLATE streams can be concatenated as long as every block other than the last is not marked as final and the data ends on a byte boundary,
+ * which is exactly what a SYNC_FLUSH produces.
+ * Before the data is spliced in the stream flushes everything written so far (with a SYNC_FLUSH)
+ * and afterwards it starts compressing again without a dictionary, because the history that a dictionary would refer to is now the spliced data.
+ * The CRC of the spliced data is combined with the CRC of the rest of the stream, so nothing needs to be decompressed.
+ *
+ * @author jtalbut
+ */
+interface PrecompressedOutput {
+
+  /**
+   * Splice data that has already been compressed into the stream.
+   *
+   * @param compressed The compressed data, which must consist of non-final DEFLATE blocks ending on a byte boundary.
+   * @param compressedSize The number of bytes to read from compressed.
+   * @param crc The CRC32 of the uncompressed data.
+   * @param size The number of bytes of uncompressed data.
+   * @throws IOException if the data cannot be read or the output throws.
+   */
+  void writePrecompressed(InputStream compressed, long compressedSize, long crc, long size) throws IOException;
+
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2022 jtalbut
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.spudsoft.xlsx;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Stream that deflates a segment of a worksheet so that it can later be spliced into the DEFLATE stream of the worksheet entry.
+ *
+ * The data is ended with a SYNC_FLUSH rather than being finished, so it consists of non-final blocks ending on a byte boundary.
+ * Closing the stream ends the Deflater and flushes, but does not close, the underlying stream.
+ *
+ * @author jtalbut
+ */
+final class SegmentOutputStream extends OutputStream {
+
+  private final OutputStream out;
+  private final Deflater deflater;
+  private final byte[] buf;
+  private final CRC32 crc = new CRC32();
+  private long size;
+  private long compressedSize;
+  private boolean closed;
+
+  /**
+   * Constructor.
+   * @param out The stream that the compressed data will be written to.
+   * @param level The deflate compression level.
+   * @param strategy The deflate strategy.
+   * @param bufferSize The size of the buffer for compressed data.
+   */
+  SegmentOutputStream(OutputStream out, int level, int strategy, int bufferSize) {
+    this.out = out;
+    this.deflater = new Deflater(level, true);
+    this.deflater.setStrategy(strategy);
+    this.buf = new byte[bufferSize];
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    write(new byte[]{(byte) b}, 0, 1);
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    if (closed) {
+      throw new IOException("Stream closed");
+    }
+    crc.update(b, off, len);
+    size += len;
+    deflater.setInput(b, off, len);
+    while (!deflater.needsInput()) {
+      deflate(Deflater.NO_FLUSH);
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      if (size > 0) {
+        while (deflate(Deflater.SYNC_FLUSH) == buf.length) {
+          // Keep going until the flush does not fill the buffer
+        }
+      }
+      out.flush();
+    } finally {
+      deflater.end();
+    }
+  }
+
+  private int deflate(int flush) throws IOException {
+    int len = deflater.deflate(buf, 0, buf.length, flush);
+    if (len > 0) {
+      out.write(buf, 0, len);
+      compressedSize += len;
+    }
+    return len;
+  }
+
+  /**
+   * Get the CRC32 of the uncompressed data.
+   * @return the CRC32 of the uncompressed data.
+   */
+  long getCrc() {
+    return crc.getValue();
+  }
+
+  /**
+   * Get the number of bytes of uncompressed data.
+   * @return the number of bytes of uncompressed data.
+   */
+  long getSize() {
+    return size;
+  }
+
+  /**
+   * Get the number of bytes of compressed data.
+   * @return the number of bytes of compressed data.
+   */
+  long getCompressedSize() {
+    return compressedSize;
+  }
+
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2022 jtalbut
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.spudsoft.xlsx;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The shared strings table of a workbook, bounded by the limits of a {@link SharedStringsDefinition}.
+ *
+ * The table only grows, once a limit is reached strings that are not already in the table are rejected (and should be written inline).
+ * Counters are kept of every lookup so that the limits can be tuned.
+ *
+ * @author jtalbut
+ */
+final class SharedStringTable {
+
+  private static final byte[] SST_START = "<?xml version=\"1.0\" encoding=\"UTF-8\"?><sst xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\" count=\"".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] SST_UNIQUE_COUNT = "\" uniqueCount=\"".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] SST_START_END = "\">".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] SI_START = "<si><t>".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] SI_END = "</t></si>".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] SST_END = "</sst>".getBytes(StandardCharsets.US_ASCII);
+
+  private final SharedStringsDefinition definition;
+  private final Map<String, Integer> indices = new HashMap<>();
+  private final List<String> strings = new ArrayList<>();
+  private long characters;
+
+  private long hits;
+  private long rejections;
+
+  /**
+   * Constructor.
+   * @param definition The limits on the size of the table.
+   */
+  SharedStringTable(SharedStringsDefinition definition) {
+    this.definition = definition;
+  }
+
+  /**
+   * Find the index of a string in the table, adding it if there is space.
+   * @param value The string to find.
+   * @return The zero-based index of the string in the table, or -1 if the string is not in the table and cannot be added.
+   */
+  int indexOf(String value) {
+    Integer index = indices.get(value);
+    if (index != null) {
+      ++hits;
+      return index;
+    }
+    int length = value.length();
+    if (length > definition.maxStringLength
+            || strings.size() >= definition.maxStrings
+            || characters + length > definition.maxCharacters) {
+      ++rejections;
+      return -1;
+    }
+    int result = strings.size();
+    indices.put(value, result);
+    strings.add(value);
+    characters += length;
+    return result;
+  }
+
+  /**
+   * Get the number of distinct strings in the table.
+   * @return the number of distinct strings in the table.
+   */
+  int size() {
+    return strings.size();
+  }
+
+  /**
+   * Get the number of lookups that found a string already in the table.
+   * @return the number of lookups that found a string already in the table.
+   */
+  long getHits() {
+    return hits;
+  }
+
+  /**
+   * Get the number of lookups that did not find the string and could not add it because a limit had been reached.
+   * @return the number of lookups that did not find the string and could not add it.
+   */
+  long getRejections() {
+    return rejections;
+  }
+
+  /**
+   * Output the table as the content of xl/sharedStrings.xml.
+   * @param buffer The buffer to output the table to.
+   * @throws IOException if the output of the buffer throws.
+   */
+  void write(XmlBuffer buffer) throws IOException {
+    buffer.append(SST_START);
+    buffer.appendLong(hits + strings.size());
+    buffer.append(SST_UNIQUE_COUNT);
+    buffer.appendInt(strings.size());
+    buffer.append(SST_START_END);
+    for (String value : strings) {
+      buffer.append(SI_START);
+      buffer.appendEscaped(value);
+      buffer.append(SI_END);
+    }
+    buffer.append(SST_END);
+  }
+
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2022 jtalbut
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.spudsoft.xlsx;
+
+/**
+ * Details of how string values should be written to the shared strings table of the workbook.
+ *
+ * By default every string value is written inline, in the worksheet.
+ * When a workbook contains a lot of repeated strings (status codes, country names, category labels) writing each distinct string once, to the shared strings table,
+ * and referring to it by index from the worksheet makes the worksheet smaller, faster to compress and faster for Excel to load.
+ *
+ * The shared strings table cannot be written until the last worksheet has been written, so it has to be held in memory.
+ * To keep the memory used bounded, strings are only added to the table until it reaches the limits specified here,
+ * after that any string that is not already in the table is written inline.
+ * Strings longer than {@link #maxStringLength} are always written inline, because long strings are rarely repeated.
+ *
+ * @author jtalbut
+ */
+public class SharedStringsDefinition {
+
+  /**
+   * The default maximum number of distinct strings in the shared strings table.
+   */
+  public static final int DEFAULT_MAX_STRINGS = 64 * 1024;
+
+  /**
+   * The default maximum number of characters in all the strings in the shared strings table.
+   */
+  public static final long DEFAULT_MAX_CHARACTERS = 4 * 1024 * 1024;
+
+  /**
+   * The default maximum length of a string that will be added to the shared strings table.
+   */
+  public static final int DEFAULT_MAX_STRING_LENGTH = 256;
+
+  /**
+   * The maximum number of distinct strings in the shared strings table.
+   */
+  public final int maxStrings;
+
+  /**
+   * The maximum number of characters in all the strings in the shared strings table.
+   */
+  public final long maxCharacters;
+
+  /**
+   * The maximum length of a string that will be added to the shared strings table.
+   */
+  public final int maxStringLength;
+
+  /**
+   * If set to true string values in every column are candidates for the shared strings table.
+   * If set to false only string values in columns for which {@link ColumnDefinition#sharedStrings} is true are candidates.
+   */
+  public final boolean allColumns;
+
+  /**
+   * Constructor that uses the default limits.
+   *
+   * @param allColumns If set to true string values in every column are candidates for the shared strings table,
+   * otherwise only string values in columns for which {@link ColumnDefinition#sharedStrings} is true are candidates.
+   */
+  public SharedStringsDefinition(boolean allColumns) {
+    this(DEFAULT_MAX_STRINGS, DEFAULT_MAX_CHARACTERS, DEFAULT_MAX_STRING_LENGTH, allColumns);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param maxStrings The maximum number of distinct strings in the shared strings table.
+   * @param maxCharacters The maximum number of characters in all the strings in the shared strings table.
+   * @param maxStringLength The maximum length of a string that will be added to the shared strings table.
+   * @param allColumns If set to true string values in every column are candidates for the shared strings table,
+   * otherwise only string values in columns for which {@link ColumnDefinition#sharedStrings} is true are candidates.
+   */
+  public SharedStringsDefinition(int maxStrings, long maxCharacters, int maxStringLength, boolean allColumns) {
+    if (maxStrings < 1) {
+      throw new IllegalArgumentException("The maximum number of strings must be at least 1");
+    }
+    if (maxCharacters < 1) {
+      throw new IllegalArgumentException("The maximum number of characters must be at least 1");
+    }
+    if (maxStringLength < 1) {
+      throw new IllegalArgumentException("The maximum string length must be at least 1");
+    }
+    this.maxStrings = maxStrings;
+    this.maxCharacters = maxCharacters;
+    this.maxStringLength = maxStringLength;
+    this.allColumns = allColumns;
+  }
+
+}
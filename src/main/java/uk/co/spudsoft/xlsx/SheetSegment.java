@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2022 jtalbut
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.spudsoft.xlsx;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Description of a run of rows of a worksheet that has been encoded and compressed by a {@link SheetSegmentWriter}.
+ *
+ * The compressed data itself is held wherever the SheetSegmentWriter wrote it, this class describes it sufficiently for it to be spliced into
+ * a worksheet by {@link XlsxWriter#writeSegment(uk.co.spudsoft.xlsx.SheetSegment, java.io.InputStream)} without being decompressed.
+ *
+ * SheetSegments are Serializable, so they can be passed between JVMs alongside the compressed data.
+ * Alternatively a segment file consists of the compressed data followed by a fixed size trailer describing it
+ * (see {@link #writeTrailer(java.io.OutputStream)}), which can be read by {@link #read(java.nio.file.Path)}.
+ * The trailer is little endian, in the same way as a ZIP file, and consists of:
+ * <ul>
+ * <li>the first row, row count, maximum column and style base as four byte integers.
+ * <li>the CRC, uncompressed size and compressed size as eight byte integers.
+ * <li>the eight byte signature "XLSXSEG1".
+ * </ul>
+ *
+ * @author jtalbut
+ */
+public final class SheetSegment implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * The size of the trailer at the end of a segment file.
+   */
+  public static final int TRAILER_SIZE = 48;
+
+  private static final byte[] SIGNATURE = "XLSXSEG1".getBytes(StandardCharsets.US_ASCII);
+
+  /**
+   * The (one-based) number of the first row in the segment.
+   */
+  public final int firstRow;
+
+  /**
+   * The number of rows in the segment.
+   */
+  public final int rowCount;
+
+  /**
+   * The highest (one-based) column number used in the segment, or zero if the segment contains no cells.
+   */
+  public final int maxColumn;
+
+  /**
+   * The index of the first cell format of the worksheet that the segment was encoded for.
+   * A segment can only be written to a worksheet with the same cell formats.
+   */
+  public final int styleBase;
+
+  /**
+   * The CRC32 of the uncompressed data.
+   */
+  public final long crc;
+
+  /**
+   * The number of bytes of uncompressed data.
+   */
+  public final long size;
+
+  /**
+   * The number of bytes of compressed data.
+   */
+  public final long compressedSize;
+
+  SheetSegment(int firstRow, int rowCount, int maxColumn, int styleBase, long crc, long size, long compressedSize) {
+    this.firstRow = firstRow;
+    this.rowCount = rowCount;
+    this.maxColumn = maxColumn;
+    this.styleBase = styleBase;
+    this.crc = crc;
+    this.size = size;
+    this.compressedSize = compressedSize;
+  }
+
+  /**
+   * Get the number of the last row in the segment.
+   * @return the number of the last row in the segment, which is one less than the first row if the segment is empty.
+   */
+  public int getLastRow() {
+    return firstRow + rowCount - 1;
+  }
+
+  /**
+   * Write the trailer describing this segment, which should immediately follow the compressed data to form a segment file.
+   * @param out The stream to write the trailer to.
+   * @throws IOException if the stream throws.
+   */
+  public void writeTrailer(OutputStream out) throws IOException {
+    ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    trailer.putInt(firstRow).putInt(rowCount).putInt(maxColumn).putInt(styleBase);
+    trailer.putLong(crc).putLong(size).putLong(compressedSize);
+    trailer.put(SIGNATURE);
+    out.write(trailer.array());
+  }
+
+  /**
+   * Read the description of a segment from the trailer of a segment file.
+   * @param file The segment file.
+   * @return the description of the segment, the compressed data of which starts at the beginning of the file.
+   * @throws IOException if the file cannot be read or is not a valid segment file.
+   */
+  public static SheetSegment read(Path file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      long length = channel.size();
+      if (length < TRAILER_SIZE) {
+        throw new IOException("The file " + file + " is too short to be a segment file");
+      }
+      ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+      channel.position(length - TRAILER_SIZE);
+      while (trailer.hasRemaining()) {
+        if (channel.read(trailer) < 0) {
+          throw new IOException("Unable to read the trailer of " + file);
+        }
+      }
+      trailer.flip();
+      SheetSegment segment = new SheetSegment(trailer.getInt(), trailer.getInt(), trailer.getInt(), trailer.getInt(), trailer.getLong(), trailer.getLong(), trailer.getLong());
+      byte[] signature = new byte[SIGNATURE.length];
+      trailer.get(signature);
+      if (!Arrays.equals(SIGNATURE, signature) || segment.compressedSize != length - TRAILER_SIZE) {
+        throw new IOException("The file " + file + " is not a segment file");
+      }
+      return segment;
+    }
+  }
+
+}
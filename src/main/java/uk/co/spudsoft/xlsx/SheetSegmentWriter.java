@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2022 jtalbut
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.spudsoft.xlsx;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Writer for a run of rows of a worksheet that are encoded and compressed independently of the rest of the worksheet.
+ *
+ * When the rows of a worksheet are already partitioned (by database shard, for example) each partition can be given to a SheetSegmentWriter,
+ * on its own thread, with the number of the row that the partition starts at.
+ * When the SheetSegmentWriter is finished its compressed data ends on a DEFLATE block boundary, so the data of each segment can be spliced into
+ * the worksheet by {@link XlsxWriter#writeSegment(uk.co.spudsoft.xlsx.SheetSegment, java.io.InputStream)} without being recompressed.
+ * The merge is then just a copy, and the time taken to generate the worksheet scales with the number of segments being generated at once.
+ *
+ * SheetSegmentWriters for a worksheet being written in the same JVM are created by {@link XlsxWriter#createSegmentWriter(int, java.io.OutputStream)}.
+ * SheetSegmentWriters can also be constructed directly, with the list of definitions of the worksheets in the workbook,
+ * so that segments can be generated on different JVMs and then assembled by {@link XlsxAssembler}.
+ * Rows are output either with {@link #outputRow(java.util.List)} or with the cursor methods of {@link #getWriter()}.
+ *
+ * The methods of this class must only be called by one thread at a time, but different SheetSegmentWriters may be used by different threads.
+ *
+ * @author jtalbut
+ */
+public class SheetSegmentWriter implements Closeable {
+
+  private final XlsxWriter writer;
+  private final SegmentOutputStream out;
+  private final int firstRow;
+  private final int styleBase;
+  /**
+   * The stream of the segment file opened by this writer, to which the trailer is written, or null if the caller owns the output stream.
+   */
+  private final OutputStream file;
+  private SheetSegment segment;
+
+  /**
+   * Constructor.
+   *
+   * The cell formats used by a worksheet depend upon the worksheets that precede it, so all the definitions of the worksheets are required.
+   * The list must be the same as the one used to assemble the workbook, or at least have the same pattern of repeated definitions.
+   *
+   * @param sheets The definitions of the worksheets in the workbook.
+   * @param sheetIndex The (zero-based) index in sheets of the worksheet that this segment is part of.
+   * @param compression The definition of the compression, if this is null the default compression is used.
+   * @param firstRow The (one-based) number of the first row of the segment.
+   * @param output The stream that the compressed data will be written to, which is not closed by the SheetSegmentWriter.
+   * @throws IllegalArgumentException if sheetIndex is not an index in sheets, firstRow is not a valid row number for the worksheet, or output is null.
+   */
+  public SheetSegmentWriter(List<TableDefinition> sheets, int sheetIndex, CompressionDefinition compression, int firstRow, OutputStream output) {
+    this(sheet(sheets, sheetIndex), compression, XlsxWriter.styleBase(sheets, sheetIndex), firstRow, output, false);
+  }
+
+  /**
+   * Constructor for a writer that creates a segment file.
+   *
+   * The file is created (or replaced), and when the segment is finished the trailer describing the segment is appended and the file is closed.
+   * The file can then be passed to {@link XlsxWriter#writeSegment(java.nio.file.Path)} or {@link XlsxAssembler}.
+   *
+   * @param sheets The definitions of the worksheets in the workbook.
+   * @param sheetIndex The (zero-based) index in sheets of the worksheet that this segment is part of.
+   * @param compression The definition of the compression, if this is null the default compression is used.
+   * @param firstRow The (one-based) number of the first row of the segment.
+   * @param file The segment file to create.
+   * @throws IOException if the file cannot be created.
+   * @throws IllegalArgumentException if sheetIndex is not an index in sheets or firstRow is not a valid row number for the worksheet.
+   */
+  public SheetSegmentWriter(List<TableDefinition> sheets, int sheetIndex, CompressionDefinition compression, int firstRow, Path file) throws IOException {
+    // Everything is validated before the file is opened
+    this(sheet(sheets, sheetIndex), compression, XlsxWriter.styleBase(sheets, sheetIndex), checkFirstRow(sheets.get(sheetIndex), firstRow), open(file, compression), true);
+  }
+
+  SheetSegmentWriter(TableDefinition defn, CompressionDefinition compression, int styleBase, int firstRow, OutputStream output) {
+    this(defn, compression, styleBase, firstRow, output, false);
+  }
+
+  private SheetSegmentWriter(TableDefinition defn, CompressionDefinition compression, int styleBase, int firstRow, OutputStream output, boolean ownsOutput) {
+    if (output == null) {
+      throw new IllegalArgumentException("The output stream must be provided");
+    }
+    checkFirstRow(defn, firstRow);
+    CompressionDefinition comp = compression == null ? CompressionDefinition.DEFAULT : compression;
+    this.firstRow = firstRow;
+    this.styleBase = styleBase;
+    this.file = ownsOutput ? output : null;
+    this.out = new SegmentOutputStream(output, comp.level, comp.strategy, comp.bufferSize);
+    this.writer = new XlsxWriter(defn, comp, styleBase, firstRow, out);
+  }
+
+  private static TableDefinition sheet(List<TableDefinition> sheets, int sheetIndex) {
+    if (sheets == null || sheetIndex < 0 || sheetIndex >= sheets.size()) {
+      throw new IllegalArgumentException("The sheet index must be an index in the list of worksheets");
+    }
+    return sheets.get(sheetIndex);
+  }
+
+  private static int checkFirstRow(TableDefinition defn, int firstRow) {
+    if (firstRow < 1 || firstRow > defn.maxRowsPerSheet) {
+      throw new IllegalArgumentException("The first row must be between 1 and " + defn.maxRowsPerSheet);
+    }
+    return firstRow;
+  }
+
+  private static OutputStream open(Path file, CompressionDefinition compression) throws IOException {
+    return new BufferedOutputStream(Files.newOutputStream(file), compression == null ? CompressionDefinition.DEFAULT_BUFFER_SIZE : compression.bufferSize);
+  }
+
+  /**
+   * Get the XlsxWriter that the rows are encoded by.
+   *
+   * This can be used to output rows using the cursor methods ({@link XlsxWriter#beginRow()}, etc.),
+   * and to register serializers, but not to start files or worksheets.
+   *
+   * @return the XlsxWriter that the rows are encoded by.
+   */
+  public XlsxWriter getWriter() {
+    return writer;
+  }
+
+  /**
+   * Output a single row.
+   * @param row The values to output in the row.
+   * @throws IOException if the output stream throws.
+   * @throws IllegalStateException if the segment has been finished, or the row would be beyond the maximum number of rows in a worksheet.
+   */
+  public void outputRow(List<Object> row) throws IOException {
+    if (segment != null) {
+      throw new IllegalStateException("The segment has been finished");
+    }
+    writer.outputRow(row);
+  }
+
+  /**
+   * Complete the compressed data of the segment and return its description.
+   *
+   * Calling finish again returns the same description.
+   *
+   * @return the description of the segment, which must be passed to
+   * {@link XlsxWriter#writeSegment(uk.co.spudsoft.xlsx.SheetSegment, java.io.InputStream)} with the compressed data.
+   * @throws IOException if the output stream throws.
+   */
+  public SheetSegment finish() throws IOException {
+    if (segment == null) {
+      try {
+        writer.endSegment();
+        out.close();
+        int rowCount = writer.getRowNumber() - (firstRow - 1);
+        segment = new SheetSegment(firstRow, rowCount, writer.getMaxColumn(), styleBase, out.getCrc(), out.getSize(), out.getCompressedSize());
+        if (file != null) {
+          segment.writeTrailer(file);
+        }
+      } finally {
+        if (file != null) {
+          file.close();
+        }
+      }
+    }
+    return segment;
+  }
+
+  /**
+   * Finish the segment, if it has not already been finished.
+   * The output stream is not closed, unless it is a segment file opened by this writer.
+   * @throws IOException if the output stream throws.
+   */
+  @Override
+  public void close() throws IOException {
+    finish();
+  }
+
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2022 jtalbut
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.spudsoft.xlsx;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.zip.Deflater;
+
+/**
+ * Bounded, least recently used, cache of the compressed content of the parts of workbooks that do not depend upon the data.
+ *
+ * Applications that produce many small workbooks with the same few TableDefinitions spend much of their time encoding and compressing
+ * the same theme, styles, relationships and workbook parts over and over again.
+ * With this cache each distinct part is encoded and compressed once (for each combination of compression settings),
+ * after which it is written to the ZIP file as a simple copy.
+ *
+ * Parts are identified by their content, so a styles part is shared by any workbooks whose TableDefinitions produce the same styles,
+ * regardless of whether they are the same TableDefinition objects.
+ * The cache is bounded by the approximate number of bytes it holds.
+ *
+ * This class is thread safe, the same cache is shared by every XlsxWriter.
+ *
+ * @author jtalbut
+ */
+final class StaticPartCache {
+
+  /**
+   * The default limit on the approximate number of bytes held by the cache.
+   */
+  static final long DEFAULT_MAX_WEIGHT = 8 * 1024 * 1024;
+
+  /**
+   * Parts larger than this (in characters) are not cached, so that one huge part cannot flush the cache.
+   */
+  static final int MAX_PART_LENGTH = 256 * 1024;
+
+  private static final int ENTRY_OVERHEAD = 128;
+
+  /**
+   * The content and compression settings of a part.
+   */
+  private static final class Key {
+    private final String content;
+    private final int level;
+    private final int strategy;
+    private final boolean stored;
+
+    Key(String content, int level, int strategy, boolean stored) {
+      this.content = content;
+      this.level = stored ? 0 : level;
+      this.strategy = stored ? 0 : strategy;
+      this.stored = stored;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(content, level, strategy, stored);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) obj;
+      return level == other.level && strategy == other.strategy && stored == other.stored && content.equals(other.content);
+    }
+  }
+
+  private final long maxWeight;
+  private final LinkedHashMap<Key, ZipWriter.PreparedEntry> entries = new LinkedHashMap<>(64, 0.75f, true);
+  private long weight;
+  private long hits;
+  private long misses;
+
+  /**
+   * Constructor.
+   * @param maxWeight The limit on the approximate number of bytes held by the cache.
+   */
+  StaticPartCache(long maxWeight) {
+    this.maxWeight = maxWeight;
+  }
+
+  /**
+   * Get the compressed form of a part, compressing it if it is not already in the cache.
+   *
+   * @param content The content of the part.
+   * @param compression The compression settings, only the level and strategy are used.
+   * @param deflater The Deflater to use if the part has to be compressed, or null if the part is to be stored.
+   * The Deflater must have been created with the level and strategy of the compression settings.
+   * @return The compressed form of the part.
+   */
+  ZipWriter.PreparedEntry get(String content, CompressionDefinition compression, Deflater deflater) {
+    if (content.length() > MAX_PART_LENGTH) {
+      return ZipWriter.PreparedEntry.prepare(content.getBytes(StandardCharsets.UTF_8), deflater);
+    }
+    Key key = new Key(content, compression.level, compression.strategy, deflater == null);
+    synchronized (this) {
+      ZipWriter.PreparedEntry prepared = entries.get(key);
+      if (prepared != null) {
+        ++hits;
+        return prepared;
+      }
+      ++misses;
+    }
+    // Compressing outside the lock means that two threads may both compress the same part, but neither has to wait for the other
+    ZipWriter.PreparedEntry prepared = ZipWriter.PreparedEntry.prepare(content.getBytes(StandardCharsets.UTF_8), deflater);
+    synchronized (this) {
+      if (entries.put(key, prepared) == null) {
+        weight += weight(key, prepared);
+        Iterator<Map.Entry<Key, ZipWriter.PreparedEntry>> iter = entries.entrySet().iterator();
+        while (weight > maxWeight && iter.hasNext()) {
+          Map.Entry<Key, ZipWriter.PreparedEntry> eldest = iter.next();
+          weight -= weight(eldest.getKey(), eldest.getValue());
+          iter.remove();
+        }
+      }
+    }
+    return prepared;
+  }
+
+  private static long weight(Key key, ZipWriter.PreparedEntry prepared) {
+    return 2L * key.content.length() + prepared.getCompressedSize() + ENTRY_OVERHEAD;
+  }
+
+  /**
+   * Get the number of parts in the cache.
+   * @return the number of parts in the cache.
+   */
+  synchronized int size() {
+    return entries.size();
+  }
+
+  /**
+   * Get the approximate number of bytes held by the cache.
+   * @return the approximate number of bytes held by the cache.
+   */
+  synchronized long getWeight() {
+    return weight;
+  }
+
+  /**
+   * Get the number of times that a part was found in the cache.
+   * @return the number of times that a part was found in the cache.
+   */
+  synchronized long getHits() {
+    return hits;
+  }
+
+  /**
+   * Get the number of times that a part had to be compressed.
+   * @return the number of times that a part had to be compressed.
+   */
+  synchronized long getMisses() {
+    return misses;
+  }
+
+}
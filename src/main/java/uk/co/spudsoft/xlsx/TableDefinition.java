@@ -29,6 +29,11 @@ import java.util.List;
  */
 public class TableDefinition {
 
+  /**
+   * The maximum number of rows that Excel permits in a single worksheet.
+   */
+  public static final int MAX_ROWS = 1_048_576;
+
   /**
    * The application that is reported in the document properties.
    * If null the value {@link uk.co.spudsoft.xlsx.XlsxWriter#DEFAULT_APP_NAME} is used.
@@ -93,7 +98,43 @@ public class TableDefinition {
    */
   public final List<ColumnDefinition> columns;
 
+  /**
+   * The maximum number of rows (including the header row) to output to each worksheet.
+   * When a worksheet reaches this limit the next row will be output to a new worksheet with the same formatting (and header row).
+   * The new worksheets are named by appending " (2)", " (3)", etc. to the name of the original worksheet.
+   * Defaults to {@link #MAX_ROWS}.
+   */
+  public final int maxRowsPerSheet;
   
+  /**
+   * Constructor.
+   * 
+   * @param application The application that is reported in the document properties.
+   * @param name The name of the worksheet in the workbook.
+   * @param creator The name of the user creating the workbook as reported in the document properties.
+   * @param gridLines If set to true a 'thin' border will be applied to each cell output.
+   * @param headers If set to true a header row containing the names of each column will be generated.
+   * @param headerFont The font to use for the header row.
+   * @param bodyFont The font to use for every row after the header row.
+   * @param headerColours The colours to use for the header row.
+   * @param evenColours The colours to use for every even numbered row.
+   * @param oddColours The colours to use for every odd numbered row.
+   * @param columns  Details of the columns in the output.
+   */
+  public TableDefinition(String application
+          , String name
+          , String creator
+          , boolean gridLines
+          , boolean headers
+          , FontDefinition headerFont
+          , FontDefinition bodyFont
+          , ColourDefinition headerColours
+          , ColourDefinition evenColours
+          , ColourDefinition oddColours
+          , List<ColumnDefinition> columns
+  ) {
+    this(application, name, creator, gridLines, headers, headerFont, bodyFont, headerColours, evenColours, oddColours, columns, MAX_ROWS);
+  }
   
   /**
    * Constructor.
@@ -109,6 +150,8 @@ public class TableDefinition {
    * @param evenColours The colours to use for every even numbered row.
    * @param oddColours The colours to use for every odd numbered row.
    * @param columns  Details of the columns in the output.
+   * @param maxRowsPerSheet The maximum number of rows (including the header row) to output to each worksheet before continuing on a new worksheet.
+   * @throws IllegalArgumentException if maxRowsPerSheet is greater than {@link #MAX_ROWS} or leaves no room for data rows.
    */
   public TableDefinition(String application
           , String name
@@ -121,7 +164,14 @@ public class TableDefinition {
           , ColourDefinition evenColours
           , ColourDefinition oddColours
           , List<ColumnDefinition> columns
+          , int maxRowsPerSheet
   ) {
+    if (maxRowsPerSheet > MAX_ROWS) {
+      throw new IllegalArgumentException("The maximum number of rows per sheet cannot be more than " + MAX_ROWS);
+    }
+    if (maxRowsPerSheet < (headers ? 2 : 1)) {
+      throw new IllegalArgumentException("The maximum number of rows per sheet must allow at least one row of data");
+    }
     this.application = application;
     this.name = name;
     this.creator = creator;
@@ -133,5 +183,6 @@ public class TableDefinition {
     this.evenColours = evenColours;
     this.oddColours = oddColours;
     this.columns = (columns == null ? Collections.emptyList() : columns);
+    this.maxRowsPerSheet = maxRowsPerSheet;
   }
 }
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2022 jtalbut
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.spudsoft.xlsx;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Assemble an XLSX file from segment files, generated by {@link SheetSegmentWriter}s that may have been running on different JVMs.
+ *
+ * The assembler writes the parts of the workbook that do not depend upon the data, the header row of each worksheet,
+ * the ZIP central directory and any Zip64 records that are needed, and copies the compressed data of each segment into its worksheet.
+ * Nothing is decompressed or recompressed, so assembly is limited by the speed of the I/O rather than of the CPU.
+ *
+ * The segment files for each worksheet may be supplied in any order, they are written in order of their first rows.
+ * Rows that are not in any segment are simply absent from the worksheet.
+ *
+ * @author jtalbut
+ */
+public final class XlsxAssembler {
+
+  private XlsxAssembler() {
+  }
+
+  /**
+   * Assemble an XLSX file from segment files, writing it to an OutputStream.
+   *
+   * @param sheets The definitions of the worksheets, which must be the same as those used to create the SheetSegmentWriters.
+   * The first definition also provides the application and creator for the workbook.
+   * @param segments For each worksheet, the segment files that make up its rows.
+   * @param compression The definition of the compression of the parts of the workbook that are not precompressed.
+   * @param output The stream to write the XLSX file to, which is not closed.
+   * @throws IOException if a segment file cannot be read, or the output throws.
+   * @throws IllegalArgumentException if there is not a list of segments for each worksheet, or the segments of a worksheet overlap.
+   */
+  public static void assemble(List<TableDefinition> sheets, List<List<Path>> segments, CompressionDefinition compression, OutputStream output) throws IOException {
+    List<List<Segment>> sorted = read(sheets, segments);
+    try (XlsxWriter writer = new XlsxWriter(sheets.get(0), compression)) {
+      writer.startFile(output);
+      write(writer, sheets, sorted);
+    }
+  }
+
+  /**
+   * Assemble an XLSX file from segment files, writing it to a file.
+   *
+   * Writing to a file rather than to an OutputStream means that each worksheet will contain an accurate dimension element,
+   * as described for {@link XlsxWriter#startFile(java.nio.channels.SeekableByteChannel)}.
+   *
+   * @param sheets The definitions of the worksheets, which must be the same as those used to create the SheetSegmentWriters.
+   * The first definition also provides the application and creator for the workbook.
+   * @param segments For each worksheet, the segment files that make up its rows.
+   * @param compression The definition of the compression of the parts of the workbook that are not precompressed.
+   * @param file The XLSX file to create (or replace).
+   * @throws IOException if a segment file cannot be read, or the output file cannot be written.
+   * @throws IllegalArgumentException if there is not a list of segments for each worksheet, or the segments of a worksheet overlap.
+   */
+  public static void assemble(List<TableDefinition> sheets, List<List<Path>> segments, CompressionDefinition compression, Path file) throws IOException {
+    List<List<Segment>> sorted = read(sheets, segments);
+    try (XlsxWriter writer = new XlsxWriter(sheets.get(0), compression)) {
+      writer.startFile(file);
+      write(writer, sheets, sorted);
+    }
+  }
+
+  /**
+   * A segment file and its description.
+   */
+  private static final class Segment {
+    private final Path file;
+    private final SheetSegment segment;
+
+    Segment(Path file, SheetSegment segment) {
+      this.file = file;
+      this.segment = segment;
+    }
+  }
+
+  /**
+   * Read the trailer of every segment file before anything is written, so that bad input is reported without producing a partial file.
+   */
+  private static List<List<Segment>> read(List<TableDefinition> sheets, List<List<Path>> segments) throws IOException {
+    if (sheets == null || sheets.isEmpty()) {
+      throw new IllegalArgumentException("At least one worksheet must be defined");
+    }
+    if (segments == null || segments.size() != sheets.size()) {
+      throw new IllegalArgumentException("A list of segments must be provided for each worksheet");
+    }
+    List<List<Segment>> result = new ArrayList<>(segments.size());
+    for (int sheetIndex = 0; sheetIndex < sheets.size(); ++sheetIndex) {
+      List<Segment> sheetSegments = new ArrayList<>();
+      for (Path file : segments.get(sheetIndex)) {
+        sheetSegments.add(new Segment(file, SheetSegment.read(file)));
+      }
+      sheetSegments.sort(Comparator.comparingInt(s -> s.segment.firstRow));
+      int lastRow = 0;
+      for (Segment s : sheetSegments) {
+        if (s.segment.rowCount > 0) {
+          if (s.segment.firstRow <= lastRow) {
+            throw new IllegalArgumentException("The segment " + s.file + " overlaps the rows of another segment of worksheet " + (sheetIndex + 1));
+          }
+          lastRow = s.segment.getLastRow();
+        }
+      }
+      result.add(sheetSegments);
+    }
+    return result;
+  }
+
+  private static void write(XlsxWriter writer, List<TableDefinition> sheets, List<List<Segment>> segments) throws IOException {
+    for (int sheetIndex = 0; sheetIndex < sheets.size(); ++sheetIndex) {
+      if (sheetIndex > 0) {
+        writer.startSheet(sheets.get(sheetIndex));
+      }
+      for (Segment s : segments.get(sheetIndex)) {
+        writer.writeSegment(s.file);
+      }
+    }
+  }
+
+}
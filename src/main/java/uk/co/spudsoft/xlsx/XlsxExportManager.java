@@ -0,0 +1,270 @@
+/*
+ * Copyright (C) 2022 jtalbut
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.spudsoft.xlsx;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs many XLSX exports concurrently, sharing a pool of Deflaters and buffers between them and limiting the number that are compressing at once.
+ *
+ * Each XlsxWriter needs a Deflater (with a few hundred KB of native zlib state) and a few buffers.
+ * When hundreds of exports are started at once that native memory can be exhausted long before the Java heap is.
+ * The manager gives each export a number of compression slots, one per Deflater that it may use, for as long as it is running,
+ * exports that cannot get their slots wait in a queue, the depth of which is reported by {@link #getQueueDepth()}.
+ * When an export completes its Deflater and buffers are reset and returned to the pool for the next export.
+ *
+ * Each export runs as a task on an ExecutorService.
+ * By default the manager uses its own pool of platform threads, limited to {@link #THREADS_PER_SLOT} per compression slot,
+ * so a burst of exports is held in the queue of the pool rather than each being given a thread that would only wait for a slot.
+ * Any ExecutorService can be supplied instead -
+ * on Java 21 and later a virtual thread per task executor is a good choice, the manager does not hold any monitors while an export is waiting.
+ * The ExecutorService should be able to run more tasks concurrently than there are compression slots, otherwise the limit will never be reached.
+ *
+ * @author jtalbut
+ */
+public class XlsxExportManager implements Closeable {
+
+  /**
+   * The work to be done by an export, which is given an XlsxWriter on which startFile has already been called.
+   * The manager closes the writer when the export returns.
+   */
+  @FunctionalInterface
+  public interface Export {
+    /**
+     * Output the rows of the export.
+     * @param writer The writer to output rows to.
+     * @throws IOException if the output cannot be written.
+     */
+    void write(XlsxWriter writer) throws IOException;
+  }
+
+  /**
+   * The number of threads in the default pool for each compression slot.
+   * There are more threads than slots so that an export can be ready to take the slots released by another as soon as it completes.
+   */
+  public static final int THREADS_PER_SLOT = 2;
+
+  private static final AtomicInteger POOL_NUMBER = new AtomicInteger();
+
+  private final ExecutorService executor;
+  private final ThreadPoolExecutor ownedExecutor;
+  private final int maxCompressionSlots;
+  private final Semaphore slots;
+  private final CompressionPool pool;
+  private final AtomicInteger active = new AtomicInteger();
+  private volatile boolean closed;
+
+  /**
+   * Constructor.
+   *
+   * The exports are run on a pool of daemon platform threads owned by the manager, with at most {@link #THREADS_PER_SLOT} threads per compression slot.
+   * Exports that cannot be given a thread wait in the queue of the pool, and are included in the {@link #getQueueDepth()}.
+   * 
+   * On Java 21 and later callers should prefer {@link #XlsxExportManager(java.util.concurrent.ExecutorService, int)}
+   * with a virtual thread per task executor, which needs no limit on the number of threads.
+   *
+   * @param maxCompressionSlots The maximum number of Deflaters that may be in use at once, across all exports.
+   */
+  public XlsxExportManager(int maxCompressionSlots) {
+    this(createExecutor(maxCompressionSlots), maxCompressionSlots);
+  }
+
+  /**
+   * Constructor.
+   *
+   * The ExecutorService is not shut down when the manager is closed.
+   * 
+   * On Java 21 and later this should be given a virtual thread per task executor ({@code Executors.newVirtualThreadPerTaskExecutor()}),
+   * so that exports waiting for compression slots do not each hold a platform thread.
+   *
+   * @param executor The ExecutorService that will run the exports.
+   * @param maxCompressionSlots The maximum number of Deflaters that may be in use at once, across all exports.
+   */
+  public XlsxExportManager(ExecutorService executor, int maxCompressionSlots) {
+    this(executor, null, maxCompressionSlots);
+  }
+
+  private XlsxExportManager(ThreadPoolExecutor ownedExecutor, int maxCompressionSlots) {
+    this(ownedExecutor, ownedExecutor, maxCompressionSlots);
+  }
+
+  private XlsxExportManager(ExecutorService executor, ThreadPoolExecutor ownedExecutor, int maxCompressionSlots) {
+    if (executor == null) {
+      throw new IllegalArgumentException("An ExecutorService must be provided");
+    }
+    if (maxCompressionSlots < 1) {
+      throw new IllegalArgumentException("At least one compression slot is required");
+    }
+    this.executor = executor;
+    this.ownedExecutor = ownedExecutor;
+    this.maxCompressionSlots = maxCompressionSlots;
+    this.slots = new Semaphore(maxCompressionSlots, true);
+    this.pool = new CompressionPool(maxCompressionSlots);
+  }
+
+  private static ThreadPoolExecutor createExecutor(int maxCompressionSlots) {
+    if (maxCompressionSlots < 1) {
+      throw new IllegalArgumentException("At least one compression slot is required");
+    }
+    int poolNumber = POOL_NUMBER.incrementAndGet();
+    AtomicInteger threadNumber = new AtomicInteger();
+    int threads = maxCompressionSlots > Integer.MAX_VALUE / THREADS_PER_SLOT ? Integer.MAX_VALUE : maxCompressionSlots * THREADS_PER_SLOT;
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+      Thread thread = new Thread(r, "xlsx-export-" + poolNumber + "-" + threadNumber.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+  /**
+   * Submit an export, using the default compression and no shared strings.
+   *
+   * @param defn The definition of the formatting required in the workbook.
+   * @param output The stream that the XLSX file will be written to, which is not closed by the manager.
+   * @param export The work to be done by the export.
+   * @return A Future that completes when the XLSX file has been completely written, or the export has failed.
+   */
+  public Future<Void> submit(TableDefinition defn, OutputStream output, Export export) {
+    return submit(defn, null, null, output, export);
+  }
+
+  /**
+   * Submit an export.
+   *
+   * @param defn The definition of the formatting required in the workbook.
+   * @param compression The definition of the compression of the ZIP file.
+   * An export using parallel compression needs one compression slot per thread, plus one for the Deflater used for the other parts of the workbook.
+   * @param sharedStrings The definition of which strings should be written to the shared strings table, if this is null every string is written inline.
+   * @param output The stream that the XLSX file will be written to, which is not closed by the manager.
+   * @param export The work to be done by the export.
+   * @return A Future that completes when the XLSX file has been completely written, or the export has failed.
+   * @throws IllegalArgumentException if the export needs more compression slots than the manager has.
+   */
+  public Future<Void> submit(TableDefinition defn, CompressionDefinition compression, SharedStringsDefinition sharedStrings, OutputStream output, Export export) {
+    if (closed) {
+      throw new IllegalStateException("The manager has been closed");
+    }
+    if (defn == null || output == null || export == null) {
+      throw new IllegalArgumentException("The definition, output and export must all be provided");
+    }
+    int required = requiredSlots(compression);
+    if (required > maxCompressionSlots) {
+      throw new IllegalArgumentException("An export with a parallelism of " + compression.parallelism + " needs " + required
+              + " compression slots, but the manager only has " + maxCompressionSlots);
+    }
+    return executor.submit(() -> run(defn, compression, sharedStrings, output, export, required));
+  }
+
+  /**
+   * Get the number of Deflaters that an export may use at once.
+   * Parallel compression uses up to one Deflater per thread for the worksheets (taken from the pool), in addition to the writer's own Deflater.
+   */
+  private static int requiredSlots(CompressionDefinition compression) {
+    int parallelism = compression == null ? 1 : compression.parallelism;
+    return parallelism > 1 ? parallelism + 1 : 1;
+  }
+
+  private Void run(TableDefinition defn, CompressionDefinition compression, SharedStringsDefinition sharedStrings, OutputStream output, Export export, int required) throws IOException, InterruptedException {
+    slots.acquire(required);
+    active.incrementAndGet();
+    try {
+      XlsxWriter writer = new XlsxWriter(defn, compression, sharedStrings, pool);
+      try {
+        writer.startFile(output);
+      } catch (IOException | RuntimeException ex) {
+        writer.releaseResources();
+        throw ex;
+      }
+      try (writer) {
+        export.write(writer);
+      }
+      return null;
+    } finally {
+      active.decrementAndGet();
+      slots.release(required);
+    }
+  }
+
+  /**
+   * Get the number of exports that are waiting to start.
+   * 
+   * This is the number of exports waiting for compression slots plus, when the manager uses its own pool, the number waiting in the queue of that pool for a thread.
+   * It is derived from the exports actually waiting, so exports that are cancelled (or dropped by the ExecutorService) before they start are never counted.
+   * Exports waiting for a thread of a supplied ExecutorService are in the queue of that ExecutorService, which the manager cannot see, and are not counted.
+   * 
+   * @return the number of exports that are waiting to start.
+   */
+  public int getQueueDepth() {
+    int depth = slots.getQueueLength();
+    if (ownedExecutor != null) {
+      // Cancelled exports stay in the queue of the pool until a thread reaches them
+      for (Runnable task : ownedExecutor.getQueue()) {
+        if (!(task instanceof Future && ((Future<?>) task).isCancelled())) {
+          ++depth;
+        }
+      }
+    }
+    return depth;
+  }
+
+  /**
+   * Get the number of exports that are currently running.
+   * @return the number of exports that are currently running.
+   */
+  public int getActiveCount() {
+    return active.get();
+  }
+
+  /**
+   * Get the number of compression slots that are not currently in use.
+   * @return the number of compression slots that are not currently in use.
+   */
+  public int getAvailableCompressionSlots() {
+    return slots.availablePermits();
+  }
+
+  CompressionPool getPool() {
+    return pool;
+  }
+
+  /**
+   * Stop accepting exports and free the pooled Deflaters.
+   *
+   * Exports that have already been submitted are allowed to complete, any Deflaters they use are ended as they finish.
+   * The ExecutorService is shut down if it was created by the manager.
+   */
+  @Override
+  public void close() {
+    closed = true;
+    if (ownedExecutor != null) {
+      ownedExecutor.shutdown();
+    }
+    pool.close();
+  }
+
+}
@@ -0,0 +1,326 @@
+/*
+ * Copyright (C) 2022 jtalbut
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.spudsoft.xlsx;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Flow.Processor that subscribes to a publisher of rows and publishes the XLSX file as ByteBuffers.
+ *
+ * This is the reactive equivalent of calling {@link XlsxWriter#startFile(java.io.OutputStream)} when the upstream subscription starts,
+ * {@link XlsxWriter#outputRow(java.util.List)} for each row and {@link XlsxWriter#close()} when the upstream completes.
+ * Only a single worksheet is output (though it will roll over if it reaches {@link TableDefinition#maxRowsPerSheet}).
+ *
+ * Rows are only requested from upstream when the downstream subscriber has requested data, and then in batches sized by the number of bytes requested
+ * (each ByteBuffer is about {@link CompressionDefinition#bufferSize} bytes) divided by the average number of compressed bytes per row so far.
+ * No more rows are requested while the data waiting for the downstream subscriber is above the high water mark, so memory is bounded end to end.
+ *
+ * If the downstream subscriber cancels the upstream subscription is cancelled and the writer is released.
+ * Calls to the upstream subscription are serialised (rule 2.7), even though they may be triggered from either the upstream or the downstream thread.
+ * If the upstream publisher fails the downstream subscriber is terminated with the same error.
+ *
+ * @author jtalbut
+ */
+public class XlsxProcessor implements Flow.Processor<List<Object>, ByteBuffer> {
+
+  /**
+   * The default number of queued bytes above which no more rows will be requested.
+   */
+  public static final long DEFAULT_HIGH_WATER_MARK = 1024 * 1024;
+
+  /**
+   * The default maximum number of rows requested from upstream at once.
+   */
+  public static final int DEFAULT_MAX_BATCH_SIZE = 1024;
+
+  private static final int WRITER_IDLE = 0;
+  private static final int WRITER_BUSY = 1;
+  private static final int WRITER_RELEASED = 2;
+
+  private final XlsxWriter writer;
+  private final ByteBufferPublisher publisher;
+  private final int chunkSize;
+  private final long highWaterMark;
+  private final int maxBatchSize;
+
+  private volatile Flow.Subscription upstream;
+  private volatile boolean finished;
+  private volatile long rows;
+
+  /**
+   * The number of rows requested from upstream that have not yet been received.
+   */
+  private final AtomicLong outstanding = new AtomicLong();
+
+  /**
+   * Ownership of the writer, which is used by the upstream signals but may have to be released when the downstream subscriber cancels.
+   * An upstream signal moves this from WRITER_IDLE to WRITER_BUSY while it uses the writer, 
+   * whichever thread moves it from WRITER_IDLE to WRITER_RELEASED releases the writer.
+   */
+  private final AtomicInteger writerState = new AtomicInteger(WRITER_IDLE);
+
+  /**
+   * Set when the upstream subscription should be cancelled and the writer released.
+   */
+  private volatile boolean cancelRequested;
+
+  /**
+   * The number of threads that want to call the upstream subscription, only the one that increments it from zero makes the calls.
+   */
+  private final AtomicInteger subscriptionWip = new AtomicInteger();
+
+  /**
+   * The number of rows to be requested from upstream by the next call to {@link #drainSubscription()}.
+   */
+  private final AtomicLong pendingRequest = new AtomicLong();
+
+  /**
+   * Set when the upstream subscription has been cancelled, only accessed within {@link #drainSubscription()}.
+   */
+  private boolean upstreamCancelled;
+
+  /**
+   * Constructor.
+   *
+   * @param defn The definition of the formatting required in the workbook.
+   */
+  public XlsxProcessor(TableDefinition defn) {
+    this(defn, null, null, DEFAULT_HIGH_WATER_MARK, DEFAULT_MAX_BATCH_SIZE);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param defn The definition of the formatting required in the workbook.
+   * @param compression The definition of the compression of the ZIP file, which must not specify parallel compression.
+   * @param sharedStrings The definition of which strings should be written to the shared strings table, if this is null every string is written inline.
+   * @param highWaterMark The number of queued bytes above which no more rows will be requested.
+   * @param maxBatchSize The maximum number of rows requested from upstream at once.
+   * @throws IllegalArgumentException if the compression is parallel, the high water mark is less than 1 or the maximum batch size is less than 1.
+   */
+  public XlsxProcessor(TableDefinition defn, CompressionDefinition compression, SharedStringsDefinition sharedStrings, long highWaterMark, int maxBatchSize) {
+    if (compression != null && compression.parallelism > 1) {
+      throw new IllegalArgumentException("Parallel compression blocks, so it cannot be used with the XlsxProcessor");
+    }
+    if (maxBatchSize < 1) {
+      throw new IllegalArgumentException("The maximum batch size must be at least 1");
+    }
+    this.writer = new XlsxWriter(defn, compression, sharedStrings);
+    this.publisher = new ByteBufferPublisher(highWaterMark);
+    this.chunkSize = (compression == null ? CompressionDefinition.DEFAULT : compression).bufferSize;
+    this.highWaterMark = highWaterMark;
+    this.maxBatchSize = maxBatchSize;
+    this.publisher.setRequestHandler(this::requestRows);
+  }
+
+  /**
+   * Register a serializer for values of a given type, this should be called before the processor is subscribed to the upstream publisher.
+   * @param <T> The type of value handled by the serializer.
+   * @param type The class of value handled by the serializer.
+   * @param serializer The serializer.
+   * @see XlsxWriter#registerSerializer(java.lang.Class, uk.co.spudsoft.xlsx.CellSerializer)
+   */
+  public <T> void registerSerializer(Class<T> type, CellSerializer<? super T> serializer) {
+    writer.registerSerializer(type, serializer);
+  }
+
+  @Override
+  public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+    publisher.subscribe(subscriber);
+  }
+
+  @Override
+  public void onSubscribe(Flow.Subscription subscription) {
+    if (upstream != null || finished || !enterWriter()) {
+      subscription.cancel();
+      return;
+    }
+    try {
+      writer.startFile(publisher);
+    } catch (IOException | RuntimeException ex) {
+      subscription.cancel();
+      abort(ex);
+      return;
+    }
+    upstream = subscription;
+    exitWriter();
+    requestRows();
+  }
+
+  @Override
+  public void onNext(List<Object> item) {
+    if (finished || !enterWriter()) {
+      return;
+    }
+    try {
+      writer.outputRow(item);
+    } catch (IOException | RuntimeException ex) {
+      cancelUpstream();
+      abort(ex);
+      return;
+    }
+    exitWriter();
+    ++rows;
+    if (outstanding.decrementAndGet() == 0) {
+      requestRows();
+    }
+  }
+
+  @Override
+  public void onError(Throwable throwable) {
+    if (!finished && enterWriter()) {
+      abort(throwable);
+    }
+  }
+
+  @Override
+  public void onComplete() {
+    if (finished || !enterWriter()) {
+      return;
+    }
+    finished = true;
+    try {
+      writer.close();
+    } catch (IOException | RuntimeException ex) {
+      publisher.fail(ex);
+      return;
+    } finally {
+      writerState.set(WRITER_RELEASED);
+    }
+    publisher.close();
+  }
+
+  /**
+   * Fail the output and close the writer, this must only be called by an upstream signal that has entered the writer.
+   */
+  private void abort(Throwable ex) {
+    finished = true;
+    publisher.fail(ex);
+    try {
+      // Release the Deflater, the output has already failed so nothing more will be written
+      writer.close();
+    } catch (IOException | RuntimeException ex2) {
+      // Ignore, the original error has been passed on
+    } finally {
+      writerState.set(WRITER_RELEASED);
+    }
+  }
+
+  /**
+   * Take ownership of the writer for the duration of an upstream signal.
+   * @return false if the writer has already been released.
+   */
+  private boolean enterWriter() {
+    return writerState.compareAndSet(WRITER_IDLE, WRITER_BUSY);
+  }
+
+  /**
+   * Give up ownership of the writer at the end of an upstream signal, releasing it if the downstream subscriber cancelled during the signal.
+   */
+  private void exitWriter() {
+    writerState.set(WRITER_IDLE);
+    if (cancelRequested) {
+      releaseWriter();
+    }
+  }
+
+  /**
+   * Release the writer if no upstream signal is using it, otherwise it will be released when the signal exits.
+   */
+  private void releaseWriter() {
+    if (writerState.compareAndSet(WRITER_IDLE, WRITER_RELEASED)) {
+      writer.releaseResources();
+    }
+  }
+
+  /**
+   * Return true if the writer has been closed, or released after the downstream subscriber cancelled.
+   * @return true if the writer has been closed or released.
+   */
+  boolean isWriterReleased() {
+    return writerState.get() == WRITER_RELEASED;
+  }
+
+  /**
+   * Cancel the upstream subscription and release the writer, from any thread.
+   */
+  private void cancelUpstream() {
+    cancelRequested = true;
+    drainSubscription();
+    releaseWriter();
+  }
+
+  /**
+   * Make any pending calls to the upstream subscription.
+   * This may be called concurrently (and reentrantly) by the upstream and downstream threads, but only one thread at a time will call the subscription.
+   */
+  private void drainSubscription() {
+    if (subscriptionWip.getAndIncrement() != 0) {
+      return;
+    }
+    int missed = 1;
+    do {
+      Flow.Subscription subscription = upstream;
+      if (cancelRequested) {
+        pendingRequest.set(0);
+        if (!upstreamCancelled) {
+          upstreamCancelled = true;
+          subscription.cancel();
+        }
+      } else {
+        long n = pendingRequest.getAndSet(0);
+        if (n > 0) {
+          subscription.request(n);
+        }
+      }
+      missed = subscriptionWip.addAndGet(-missed);
+    } while (missed != 0);
+  }
+
+  /**
+   * Request another batch of rows from upstream if none are outstanding, the downstream subscriber has requested data, and the queue is not full.
+   * This may be called concurrently by the upstream and downstream threads.
+   */
+  private void requestRows() {
+    if (upstream == null || finished) {
+      return;
+    }
+    if (publisher.isCancelled()) {
+      finished = true;
+      cancelUpstream();
+      return;
+    }
+    long demand = publisher.getDemand();
+    long queued = publisher.getQueuedBytes();
+    if (demand == 0 || queued >= highWaterMark || outstanding.get() != 0) {
+      return;
+    }
+    long wantedBytes = Math.min(demand, highWaterMark / chunkSize + 1) * chunkSize - queued;
+    long bytesPerRow = Math.max(1, publisher.getBytesWritten() / Math.max(1, rows));
+    long batch = Math.max(1, Math.min(maxBatchSize, wantedBytes / bytesPerRow));
+    if (outstanding.compareAndSet(0, batch)) {
+      pendingRequest.addAndGet(batch);
+      drainSubscription();
+    }
+  }
+
+}
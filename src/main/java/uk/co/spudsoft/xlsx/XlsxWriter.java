@@ -16,31 +16,58 @@
  */
 package uk.co.spudsoft.xlsx;
 
+import java.io.BufferedOutputStream;
 import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
-import java.math.RoundingMode;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
 import java.nio.charset.StandardCharsets;
-import java.text.DecimalFormat;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.time.LocalDate;
 import java.time.LocalTime;
-import java.time.temporal.ChronoField;
-import java.time.temporal.ChronoUnit;
 import java.time.temporal.Temporal;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
+import java.util.Optional;
+import java.util.OptionalDouble;
+import java.util.OptionalInt;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.Deflater;
 
 /**
  * Output an XLSX file one row at a time, streaming the output so that it is written as the rows come in.
  * 
  * The Excel file is intended to contain large feeds of data (hence streaming is important) whilst enabling sufficient formatting to look nice.
  * 
- * It is important to note that although the OutputStream class specifies blocking operations, nothing in this class (nor in ZipOutputStream) actually blocks.
+ * It is important to note that although the OutputStream class specifies blocking operations, nothing in this class actually blocks.
  * If the OutputStream passed in to the constructor can be guaranteed to not block then so can this class.
+ * The exception to this is when the worksheet is compressed in parallel (see {@link CompressionDefinition#parallelism}),
+ * in which case the calling thread will wait when the compression threads fall behind.
  * 
  * @author jtalbut
  */
@@ -72,282 +99,1548 @@ public class XlsxWriter implements Closeable {
    */
   public static final int DEFAULT_FONT_SIZE = 11;
   
-  private static final DecimalFormat DATE_FORMAT = prepareDateFormat();
+  /**
+   * The maximum length of a worksheet name permitted by Excel.
+   */
+  private static final int MAX_SHEET_NAME_LENGTH = 31;
+  
+  /**
+   * The longest possible dimension reference, space is reserved for this when the dimension of a worksheet is to be back-patched.
+   */
+  private static final String MAX_DIMENSION_REF = "A1:XFD1048576";
+  
+  private static final byte[] SHEET_DATA_START = ascii("<sheetData>");
+  private static final byte[] ROW_START = ascii("<row r=\"");
+  private static final byte[] ROW_START_END = ascii("\">");
+  private static final byte[] ROW_END = ascii("</row>");
+  private static final byte[] EMPTY_CELL_END = ascii("></c>");
+  private static final byte[] FORMULA_START = ascii("><f>");
+  private static final byte[] FORMULA_END = ascii("</f></c>");
+  private static final byte[] INLINE_STRING_START = ascii(" t=\"inlineStr\"><is><t>");
+  private static final byte[] INLINE_STRING_END = ascii("</t></is></c>");
+  private static final byte[] SHARED_STRING_START = ascii(" t=\"s\"><v>");
+  private static final byte[] VALUE_START = ascii("><v>");
+  private static final byte[] VALUE_END = ascii("</v></c>");
+  private static final byte[] BOOLEAN_TRUE = ascii(" t=\"b\"><v>1</v></c>");
+  private static final byte[] BOOLEAN_FALSE = ascii(" t=\"b\"><v>0</v></c>");
+  private static final byte[] NUM_ERROR = ascii(" t=\"e\"><v>#NUM!</v></c>");
+  
+  /**
+   * The serializers that every writer starts with, see {@link #registerSerializer(java.lang.Class, uk.co.spudsoft.xlsx.CellSerializer)}.
+   */
+  private static final Map<Class<?>, CellSerializer<?>> DEFAULT_SERIALIZERS = buildDefaultSerializers();
+  
+  /**
+   * The theme, which is the same for every workbook.
+   */
+  private static final String XL_THEME_THEME1 = buildTheme();
+  
+  /**
+   * The compressed form of the parts of the workbook that do not depend upon the data, shared by every writer.
+   */
+  static final StaticPartCache STATIC_PARTS = new StaticPartCache(StaticPartCache.DEFAULT_MAX_WEIGHT);
+  
+  /**
+   * Used for any value that has no registered serializer.
+   */
+  private static final CellSerializer<Object> TO_STRING_SERIALIZER = (writer, value) -> writer.writeString(value.toString());
+  
+  private final CompressionDefinition compression;
+  
+  /**
+   * The shared strings table, or null if every string is output inline.
+   */
+  private final SharedStringTable sharedStrings;
+  
+  /**
+   * For each column of the current worksheet, whether string values are candidates for the shared strings table.
+   * Columns beyond the end of this array are candidates if the SharedStringsDefinition applies to all columns.
+   */
+  private boolean[] sharedStringColumns;
+  private boolean sharedStringOtherColumns;
+  
+  private final String rels_rels = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?><Relationships xmlns=\"http://schemas.openxmlformats.org/package/2006/relationships\"><Relationship Id=\"rId3\" Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/extended-properties\" Target=\"docProps/app.xml\"/><Relationship Id=\"rId2\" Type=\"http://schemas.openxmlformats.org/package/2006/relationships/metadata/core-properties\" Target=\"docProps/core.xml\"/><Relationship Id=\"rId1\" Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/officeDocument\" Target=\"xl/workbook.xml\"/></Relationships>";
+  private final String docProps_app;
+  private final String docProps_core;
+  private final String xl_sharedstrings = "<?xml version=\"1.0\" encoding=\"UTF-8\"?><sst count=\"0\" uniqueCount=\"0\" xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\"/>";
+  private final String xl_worksheets_sheet_start = "<?xml version=\"1.0\" encoding=\"UTF-8\"?><worksheet xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\">";
+  private final String xl_worksheets_sheet_views = "<sheetViews><sheetView workbookViewId=\"0\"";
+  private final String xl_worksheets_sheet_selected = " tabSelected=\"true\"";
+  private final String xl_worksheets_sheet_start_end = "/></sheetViews><sheetFormatPr defaultRowHeight=\"15.0\"/>";
+  private final String xl_worksheets_sheet_end = "</sheetData><pageMargins bottom=\"0.75\" footer=\"0.3\" header=\"0.3\" left=\"0.7\" right=\"0.7\" top=\"0.75\"/></worksheet>";
+  
+  /**
+   * The definition of the worksheet currently being output.
+   */
+  private TableDefinition defn;
+  private int colCount;
+  
+  /**
+   * The names of the worksheets output (or being output), in order.
+   * The workbook, its relationships and the content types are built from this when the file is closed.
+   */
+  private final List<String> sheetNames = new ArrayList<>();
+  
+  /**
+   * The parts of xl/styles.xml that grow with each worksheet.
+   * Each worksheet gets a block of 4 * (colCount + 1) cell formats, four fonts and three fills, 
+   * the index of the first cell format for each TableDefinition is recorded so that definitions used for more than one worksheet are only added once.
+   */
+  private final Map<TableDefinition, Integer> styleBases = new IdentityHashMap<>();
+  private final StringBuilder numFmtsXml = new StringBuilder();
+  private final StringBuilder fontsXml = new StringBuilder();
+  private final StringBuilder fillsXml = new StringBuilder("<fill><patternFill patternType=\"none\"/></fill><fill><patternFill patternType=\"gray125\"/></fill>");
+  private final StringBuilder cellXfsXml = new StringBuilder();
+  private int fontCount = 0;
+  private int fillCount = 2;
+  private int cellXfCount = 0;
+  
+  private final Map<String, Integer> numFmtIdMap = new HashMap<>();
+  private OutputStream bufferedout;
+  private ZipWriter zip;
+  private Deflater deflater;
+  /**
+   * The buffer that compressed data is written to before it is passed to the ZipWriter, shared by every DEFLATEd entry.
+   */
+  private byte[] deflateBuffer;
+  /**
+   * The pool that the Deflater and buffers are taken from (and returned to when the writer is closed), if any.
+   */
+  private final CompressionPool pool;
+  private ExecutorService executor;
+  private OutputStream sheetout;
+  private final XmlBuffer buffer;
+  /**
+   * True once the array of the XmlBuffer has been returned to the pool.
+   */
+  private boolean bufferReleased;
+  private int r = 0;
+  
+  /**
+   * The channel passed to {@link #startFile(java.nio.channels.SeekableByteChannel)}, if any, which is used to back-patch the dimension of each worksheet.
+   */
+  private SeekableByteChannel channel;
+  /**
+   * True if the worksheets should be compressed on other threads, even when the parallelism is one.
+   */
+  private boolean offloadCompression;
+  /**
+   * True if the channel was opened by {@link #startFile(java.nio.file.Path)}, and so should be closed by {@link #close()}.
+   */
+  private boolean ownsChannel;
+  /**
+   * The position of the channel when the file was started, which corresponds to offset zero in the ZipWriter.
+   */
+  private long channelBase;
+  /**
+   * The offset in the ZIP file of the start of the current worksheet, which is written as a stored block so that its dimension can be overwritten.
+   */
+  private long sheetPrefixOffset;
+  /**
+   * The highest column number used in the current worksheet.
+   */
+  private int maxColNum;
+  
+  /**
+   * The index of the first cell format of the current worksheet.
+   */
+  private int sheetStyleBase;
+  /**
+   * True if this writer only encodes rows for a {@link SheetSegmentWriter}, rather than writing a whole workbook.
+   */
+  private boolean segmentMode;
+  
+  /**
+   * The name of the worksheet begun by startFile or startSheet, used to name the worksheets that it rolls over to.
+   */
+  private String rolloverBaseName;
+  private int rolloverCount;
+  
+  /**
+   * The start of each cell, up to the row number ("&lt;c r=\"AB"), indexed by column number.
+   * Extended when a row has more values than there are column definitions.
+   */
+  private byte[][] cellStarts;
+  
+  /**
+   * The style attribute for each cell in the header row of the current worksheet, after the row number ("\" s=\"7\""), indexed by column number.
+   */
+  private byte[][] headerStyles;
+  
+  /**
+   * The style attribute for each cell in a body row of the current worksheet, after the row number ("\" s=\"7\""), indexed by (row number % 2) and then column number.
+   * The style for column zero is used for any column that does not have a column definition.
+   */
+  private byte[][][] bodyStyles;
+  
+  /**
+   * The decimal digits of the current row number.
+   */
+  private final byte[] rowDigits = new byte[10];
+  private int rowDigitsLength;
+  
+  /**
+   * State of the row currently being output by the cursor methods (beginRow, write*, endRow).
+   */
+  private boolean inRow;
+  private int cellColNum;
+  private byte[][] rowStyles;
+  
+  private final Map<Class<?>, CellSerializer<?>> serializers = new HashMap<>(DEFAULT_SERIALIZERS);
+  /**
+   * The serializer found for each class that has been output, so that after the first value of a class each value only needs a single lookup.
+   * A writer is only used by one thread at a time, so this is a plain map rather than a ClassValue (which would be shared by every writer).
+   */
+  private final Map<Class<?>, CellSerializer<Object>> serializerCache = new IdentityHashMap<>();
+
+  private static byte[] ascii(String value) {
+    return value.getBytes(StandardCharsets.US_ASCII);
+  }
+
+  private String coalesce(String value1, String value2) {
+    if (value1 == null || value1.isEmpty()) {
+      return value2;
+    }
+    return value1;
+  }
+  
+  /**
+   * Constructor.
+   * 
+   * @param defn The definition of the formatting required in the workbook.
+   */
+  public XlsxWriter(TableDefinition defn) {
+    this(defn, CompressionDefinition.DEFAULT);
+  }
+  
+  /**
+   * Constructor.
+   * 
+   * The TableDefinition is used for the first worksheet, it also provides the application and creator for the whole workbook.
+   * 
+   * @param defn The definition of the formatting required in the workbook.
+   * @param compression The definition of the compression of the ZIP file.
+   */
+  public XlsxWriter(TableDefinition defn, CompressionDefinition compression) {
+    this(defn, compression, null);
+  }
+  
+  /**
+   * Constructor.
+   * 
+   * The TableDefinition is used for the first worksheet, it also provides the application and creator for the whole workbook.
+   * 
+   * @param defn The definition of the formatting required in the workbook.
+   * @param compression The definition of the compression of the ZIP file.
+   * @param sharedStrings The definition of which strings should be written to the shared strings table, if this is null every string is written inline.
+   */
+  public XlsxWriter(TableDefinition defn, CompressionDefinition compression, SharedStringsDefinition sharedStrings) {
+    this(defn, compression, sharedStrings, null);
+  }
+  
+  /**
+   * Constructor.
+   * 
+   * @param defn The definition of the formatting required in the workbook.
+   * @param compression The definition of the compression of the ZIP file.
+   * @param sharedStrings The definition of which strings should be written to the shared strings table, if this is null every string is written inline.
+   * @param pool The pool to take the Deflater and buffers from, and return them to when the writer is closed, if this is null they are created by the writer.
+   */
+  XlsxWriter(TableDefinition defn, CompressionDefinition compression, SharedStringsDefinition sharedStrings, CompressionPool pool) {
+    this.defn = defn;
+    this.compression = compression == null ? CompressionDefinition.DEFAULT : compression;
+    this.pool = pool;
+    this.sharedStrings = sharedStrings == null ? null : new SharedStringTable(sharedStrings);
+    this.sharedStringOtherColumns = sharedStrings != null && sharedStrings.allColumns;
+    this.colCount = defn.columns.size();
+    this.buffer = pool == null ? new XmlBuffer(this.compression.bufferSize) : new XmlBuffer(pool.acquireBuffer(this.compression.bufferSize));
+
+    this.docProps_app = "<?xml version=\"1.0\" encoding=\"UTF-8\"?><Properties xmlns=\"http://schemas.openxmlformats.org/officeDocument/2006/extended-properties\"><Application>" + encodePlainText(coalesce(defn.application, DEFAULT_APP_NAME)) + "</Application></Properties>";
+    this.docProps_core = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?><cp:coreProperties xmlns:cp=\"http://schemas.openxmlformats.org/package/2006/metadata/core-properties\" xmlns:dc=\"http://purl.org/dc/elements/1.1/\" xmlns:dcterms=\"http://purl.org/dc/terms/\" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\"><dcterms:created xsi:type=\"dcterms:W3CDTF\">" + java.time.Instant.now().truncatedTo(java.time.temporal.ChronoUnit.SECONDS).toString() + "</dcterms:created><dc:creator>" + encodePlainText(coalesce(defn.creator, DEFAULT_APP_NAME)) + "</dc:creator></cp:coreProperties>";
+    
+    this.cellStarts = new byte[colCount + 1][];
+    for (int colNum = 1; colNum <= colCount; ++colNum) {
+      cellStarts[colNum] = buildCellStart(colNum);
+    }
+  }    
+  
+  /**
+   * Constructor for a writer that only encodes rows, for a {@link SheetSegmentWriter}.
+   * 
+   * @param sheetDefn The definition of the worksheet that the rows are part of.
+   * @param compression The definition of the compression, only the buffer size is used.
+   * @param styleBase The index of the first cell format of the worksheet.
+   * @param firstRow The number of the first row that will be output.
+   * @param out The stream that the encoded rows will be written to.
+   */
+  XlsxWriter(TableDefinition sheetDefn, CompressionDefinition compression, int styleBase, int firstRow, OutputStream out) {
+    this(sheetDefn, compression, null, null);
+    this.segmentMode = true;
+    this.sheetStyleBase = styleBase;
+    this.r = firstRow - 1;
+    buildRowStyles(styleBase);
+    buffer.setOutput(out);
+  }
+  
+  private static <T> void put(Map<Class<?>, CellSerializer<?>> map, Class<T> type, CellSerializer<? super T> serializer) {
+    map.put(type, serializer);
+  }
+  
+  private static Map<Class<?>, CellSerializer<?>> buildDefaultSerializers() {
+    Map<Class<?>, CellSerializer<?>> map = new LinkedHashMap<>();
+    put(map, String.class, (writer, value) -> {
+      if (value.startsWith("=")) {
+        writer.writeFormula(value.substring(1));
+      } else {
+        writer.writeString(value);
+      }
+    });
+    put(map, Integer.class, (writer, value) -> writer.writeLong(value));
+    put(map, Long.class, (writer, value) -> writer.writeLong(value));
+    put(map, Double.class, (writer, value) -> writer.writeDouble(value));
+    put(map, Number.class, (writer, value) -> writer.writeNumber(value));
+    put(map, Boolean.class, (writer, value) -> writer.writeBoolean(value));
+    put(map, AtomicBoolean.class, (writer, value) -> writer.writeBoolean(value.get()));
+    put(map, Temporal.class, (writer, value) -> writer.writeDate(value));
+    put(map, java.sql.Date.class, (writer, value) -> writer.writeDate(value.toLocalDate()));
+    put(map, java.sql.Time.class, (writer, value) -> writer.writeDate(value.toLocalTime()));
+    put(map, java.sql.Timestamp.class, (writer, value) -> writer.writeDate(value.toLocalDateTime()));
+    put(map, Date.class, (writer, value) -> writer.writeEpochMillis(value.getTime()));
+    put(map, CharSequence.class, (writer, value) -> writer.writeString(value.toString()));
+    put(map, Character.class, (writer, value) -> writer.writeString(value.toString()));
+    put(map, Enum.class, (writer, value) -> writer.writeString(value.name()));
+    put(map, UUID.class, (writer, value) -> writer.writeString(value.toString()));
+    put(map, byte[].class, (writer, value) -> writer.writeString(Base64.getEncoder().encodeToString(value)));
+    put(map, Optional.class, (writer, value) -> writer.writeObject(((Optional<?>) value).orElse(null)));
+    put(map, OptionalInt.class, (writer, value) -> {
+      if (value.isPresent()) {
+        writer.writeLong(value.getAsInt());
+      } else {
+        writer.writeBlank();
+      }
+    });
+    put(map, OptionalLong.class, (writer, value) -> {
+      if (value.isPresent()) {
+        writer.writeLong(value.getAsLong());
+      } else {
+        writer.writeBlank();
+      }
+    });
+    put(map, OptionalDouble.class, (writer, value) -> {
+      if (value.isPresent()) {
+        writer.writeDouble(value.getAsDouble());
+      } else {
+        writer.writeBlank();
+      }
+    });
+    return map;
+  }
+  
+  private static byte[] buildCellStart(int colNum) {
+    return ascii("<c r=\"" + toName(colNum));
+  }
+  
+  private static byte[] buildStyleAttribute(int s) {
+    return ascii("\" s=\"" + s + "\"");
+  }
+  
+  /**
+   * Start outputting the metadata to the OutputStream, and start the first worksheet.
+   * @param stream The output stream that will be written to.
+   * @throws IOException if something goes wrong - this should only happen if "stream" throws an exception.
+   */
+  public void startFile(OutputStream stream) throws IOException {
+    startFile(stream, null);
+  }
+  
+  /**
+   * Compress the worksheets on a separate thread (or threads) even if the {@link CompressionDefinition} only has a parallelism of one.
+   * 
+   * This must be called before startFile.
+   * 
+   * @param offloadCompression true if the worksheets should always be compressed on other threads.
+   */
+  void setOffloadCompression(boolean offloadCompression) {
+    this.offloadCompression = offloadCompression;
+  }
+  
+  /**
+   * Start outputting the metadata to a seekable channel, and start the first worksheet.
+   * 
+   * Unlike {@link #startFile(java.io.OutputStream)} each worksheet will contain an accurate dimension element (the range of cells used),
+   * which saves readers from having to scan the whole worksheet to find it.
+   * This is achieved by reserving space for the dimension at the start of the worksheet (which is not compressed) and overwriting it
+   * when the worksheet is complete, so the channel must support repositioning and the data written to it must not be read until the writer is closed.
+   * The local header of each worksheet is also rewritten with a Zip64 extra field if the worksheet turns out to be larger than 4GB.
+   * 
+   * The ZIP file is written from the current position of the channel, the channel is not closed by the writer.
+   * The data is written to the channel through a large direct buffer, so the channel receives few, large, writes
+   * (using gathering writes when the channel is a GatheringByteChannel, as a FileChannel is).
+   * 
+   * @param channel The channel that will be written to.
+   * @throws IOException if something goes wrong - this should only happen if the channel throws an exception.
+   */
+  public void startFile(SeekableByteChannel channel) throws IOException {
+    startFile(new ChannelOutputStream(channel, Math.max(compression.bufferSize, ChannelOutputStream.DEFAULT_BUFFER_SIZE)), channel);
+  }
+  
+  /**
+   * Create (or replace) a file and start outputting the metadata to it, and start the first worksheet.
+   * 
+   * The file is written via a FileChannel as described for {@link #startFile(java.nio.channels.SeekableByteChannel)},
+   * so each worksheet will contain an accurate dimension element.
+   * The file is closed by {@link #close()}.
+   * 
+   * @param path The file that will be written to.
+   * @throws IOException if something goes wrong - this should only happen if the file cannot be opened or written.
+   */
+  public void startFile(Path path) throws IOException {
+    checkNotSegment();
+    FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+    try {
+      startFile(fileChannel);
+      ownsChannel = true;
+    } catch (IOException | RuntimeException ex) {
+      fileChannel.close();
+      throw ex;
+    }
+  }
+  
+  private void startFile(OutputStream stream, SeekableByteChannel seekable) throws IOException {
+    checkNotSegment();
+    this.channel = seekable;
+    this.channelBase = seekable == null ? 0 : seekable.position();
+
+    // create ZipWriter
+    bufferedout = seekable == null ? new BufferedOutputStream(stream, compression.bufferSize) : stream;
+    zip = new ZipWriter(bufferedout, seekable == null ? null : this::patch);
+    if (pool == null) {
+      deflater = new Deflater(compression.level, true);
+      deflater.setStrategy(compression.strategy);
+      deflateBuffer = new byte[compression.bufferSize];
+    } else {
+      deflater = pool.acquireDeflater(compression.level, compression.strategy);
+      deflateBuffer = pool.acquireBuffer(compression.bufferSize);
+    }
+
+    // create the static parts of the XLSX ZIP file, 
+    // the parts that depend upon the worksheets ([Content_Types].xml, xl/workbook.xml, xl/_rels/workbook.xml.rels and xl/styles.xml) are output by close.
+    writeStaticEntry("docProps/app.xml", docProps_app);
+    // The core properties include the time of creation, so there is no point caching them
+    zip.writeEntry("docProps/core.xml", docProps_core.getBytes(StandardCharsets.UTF_8), compression.storeStaticParts ? null : deflater);
+    writeStaticEntry("_rels/.rels", rels_rels);
+    writeStaticEntry("xl/theme/theme1.xml", XL_THEME_THEME1);
+    if (sharedStrings == null) {
+      writeStaticEntry("xl/sharedStrings.xml", xl_sharedstrings);
+    }
+    
+    openSheet(defn, null);
+  }
+  
+  /**
+   * Complete the current worksheet and start a new one.
+   * 
+   * Each worksheet is written to the OutputStream in turn, so any number of worksheets can be output without increasing the memory used.
+   * The formatting of the new worksheet is taken from the TableDefinition, the application and creator are ignored (they apply to the whole workbook).
+   * If a row begun with {@link #beginRow()} has not been ended it will be ended before the worksheet is closed.
+   * 
+   * @param defn The definition of the new worksheet.
+   * If the name is null or empty the worksheet will be called "SheetN" (where N is the one-based index of the worksheet).
+   * @throws IOException if something goes wrong, this should only happen if the OutputStream throws.
+   * @throws IllegalStateException if startFile has not been called.
+   * @throws IllegalArgumentException if the workbook already contains a worksheet with the same name (names are not case sensitive).
+   */
+  public void startSheet(TableDefinition defn) throws IOException {
+    checkNotSegment();
+    if (sheetout == null) {
+      throw new IllegalStateException("startFile must be called before startSheet");
+    }
+    checkSheetName(coalesce(defn.name, "Sheet" + (sheetNames.size() + 1)));
+    closeSheet();
+    openSheet(defn, null);
+  }
+  
+  private boolean sheetNameExists(String name) {
+    for (String existing : sheetNames) {
+      if (existing.equalsIgnoreCase(name)) {
+        return true;
+      }
+    }
+    return false;
+  }
+  
+  private void checkSheetName(String name) {
+    if (sheetNameExists(name)) {
+      throw new IllegalArgumentException("The workbook already contains a worksheet called \"" + name + "\"");
+    }
+  }
+  
+  /**
+   * Close the current worksheet because it is full and continue on a new worksheet with the same definition.
+   * 
+   * The new worksheet is named by appending " (N)" to the name of the original worksheet, truncating the original name if necessary to keep within Excel's limit.
+   */
+  private void rollover() throws IOException {
+    String name;
+    do {
+      String suffix = " (" + (++rolloverCount) + ")";
+      String base = rolloverBaseName;
+      if (base.length() + suffix.length() > MAX_SHEET_NAME_LENGTH) {
+        base = base.substring(0, MAX_SHEET_NAME_LENGTH - suffix.length());
+      }
+      name = base + suffix;
+    } while (sheetNameExists(name));
+    closeSheet();
+    openSheet(defn, name);
+  }
+  
+  /**
+   * Start a new worksheet.
+   * @param sheetDefn The definition of the worksheet.
+   * @param rolloverName The name to use for the worksheet if it is a continuation of the previous worksheet, or null if it is a new worksheet.
+   */
+  private void openSheet(TableDefinition sheetDefn, String rolloverName) throws IOException {
+    String name;
+    if (rolloverName == null) {
+      name = coalesce(sheetDefn.name, "Sheet" + (sheetNames.size() + 1));
+      checkSheetName(name);
+      rolloverBaseName = name;
+      rolloverCount = 1;
+    } else {
+      name = rolloverName;
+    }
+    sheetNames.add(name);
+    
+    this.defn = sheetDefn;
+    this.colCount = sheetDefn.columns.size();
+    this.r = 0;
+    
+    if (sharedStrings != null) {
+      this.sharedStringColumns = new boolean[colCount + 1];
+      for (int colNum = 1; colNum <= colCount; ++colNum) {
+        sharedStringColumns[colNum] = sharedStringOtherColumns || sheetDefn.columns.get(colNum - 1).sharedStrings;
+      }
+    }
+    
+    int styleBase = addStyles(sheetDefn);
+    sheetStyleBase = styleBase;
+    buildRowStyles(styleBase);
+    
+    // create the xl/worksheets/sheetN.xml
+    String entryName = "xl/worksheets/sheet" + sheetNames.size() + ".xml";
+    if (compression.parallelism > 1 || offloadCompression) {
+      if (executor == null) {
+        executor = Executors.newFixedThreadPool(compression.parallelism, new DeflateThreadFactory());
+      }
+      zip.beginEntry(entryName);
+      sheetout = new ParallelDeflateOutputStream(zip, executor, pool, compression.parallelism, compression.blockSize, compression.level, compression.strategy);
+    } else {
+      sheetout = zip.openEntry(entryName, deflater, deflateBuffer);
+    }
+    maxColNum = 0;
+    if (channel != null) {
+      sheetPrefixOffset = zip.writeStoredPrefix(buildSheetPrefix("A1"));
+    }
+    buffer.setOutput(sheetout);
+    if (channel == null) {
+      buffer.appendUtf8(xl_worksheets_sheet_start);
+    }
+    buffer.appendUtf8(xl_worksheets_sheet_views);
+    if (sheetNames.size() == 1) {
+      buffer.appendUtf8(xl_worksheets_sheet_selected);
+    }
+    buffer.appendUtf8(xl_worksheets_sheet_start_end);
+    
+    if (anyColumnSpecifiesWidth()) {
+      outputCols(styleBase);
+    }
+    
+    buffer.append(SHEET_DATA_START);
+    
+    if (defn.headers) {
+      outputHeaders();
+    }
+  }
+  
+  /**
+   * Build the style attributes for the header and body cells of the current worksheet.
+   */
+  private void buildRowStyles(int styleBase) {
+    this.headerStyles = new byte[colCount + 1][];
+    this.bodyStyles = new byte[2][colCount + 1][];
+    for (int colNum = 0; colNum <= colCount; ++colNum) {
+      headerStyles[colNum] = buildStyleAttribute(styleBase + 1 + colCount + colNum);
+      for (int parity = 0; parity < 2; ++parity) {
+        bodyStyles[parity][colNum] = buildStyleAttribute(styleBase + (2 + parity) * (colCount + 1) + colNum);
+      }
+    }
+  }
+  
+  private void checkNotSegment() {
+    if (segmentMode) {
+      throw new IllegalStateException("The XlsxWriter of a SheetSegmentWriter can only output rows");
+    }
+  }
+  
+  private void closeSheet() throws IOException {
+    if (inRow) {
+      endRow();
+    }
+    buffer.appendUtf8(xl_worksheets_sheet_end);
+    buffer.flush();
+    byte[] prefix = null;
+    if (channel != null) {
+      prefix = buildSheetPrefix(maxColNum == 0 || r == 0 ? "A1" : "A1:" + toName(maxColNum) + r);
+      zip.replaceStoredPrefix(prefix);
+    }
+    sheetout.close();
+    sheetout = null;
+    if (prefix != null) {
+      patch(sheetPrefixOffset, prefix);
+    }
+  }
+  
+  /**
+   * Overwrite data that has already been written to the channel.
+   * 
+   * This is used for the dimension of each worksheet, and by the ZipWriter to add Zip64 extra fields to the local headers of large entries.
+   */
+  private void patch(long offset, byte[] data) throws IOException {
+    bufferedout.flush();
+    long position = channel.position();
+    channel.position(channelBase + offset);
+    ByteBuffer bb = ByteBuffer.wrap(data);
+    while (bb.hasRemaining()) {
+      channel.write(bb);
+    }
+    channel.position(position);
+  }
+  
+  /**
+   * Build the start of a worksheet, up to and including the dimension element, padded to a fixed length so that it can be overwritten.
+   */
+  private byte[] buildSheetPrefix(String ref) {
+    if (ref.length() > MAX_DIMENSION_REF.length()) {
+      ref = "A1";
+    }
+    StringBuilder bldr = new StringBuilder(xl_worksheets_sheet_start);
+    bldr.append("<dimension ref=\"").append(ref).append("\"");
+    for (int i = ref.length(); i < MAX_DIMENSION_REF.length(); ++i) {
+      bldr.append(' ');
+    }
+    bldr.append("/>");
+    return bldr.toString().getBytes(StandardCharsets.UTF_8);
+  }
+  
+  private void writeStaticEntry(String name, String content) throws IOException {
+    zip.writeEntry(name, STATIC_PARTS.get(content, compression, compression.storeStaticParts ? null : deflater));
+  }
+  
+  /**
+   * Daemon threads for compressing the worksheet in parallel, so that an abandoned writer cannot prevent the JVM from exiting.
+   */
+  private static class DeflateThreadFactory implements ThreadFactory {
+    private static final AtomicInteger POOL_NUMBER = new AtomicInteger();
+    private final int poolNumber = POOL_NUMBER.incrementAndGet();
+    private final AtomicInteger threadNumber = new AtomicInteger();
+
+    @Override
+    public Thread newThread(Runnable r) {
+      Thread thread = new Thread(r, "xlsx-deflate-" + poolNumber + "-" + threadNumber.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+  
+  boolean anyColumnSpecifiesWidth() {
+    for (ColumnDefinition col : defn.columns) {
+      if (col.width != null) {
+        return true;
+      }
+    }
+    return false;
+  }
+  
+  void outputCols(int styleBase) throws IOException {
+    StringBuilder bldr = new StringBuilder();
+    bldr.append("<cols>");
+    int colNum = 0;
+    for (ColumnDefinition col : defn.columns) {
+      ++colNum;
+      Double width = col.width;
+      if (width == null) {
+        width = 11.0;
+      }
+      int s = styleBase + colNum;
+      bldr.append("<col min=\"").append(colNum).append("\" max=\"").append(colNum).append("\" width=\"").append(width).append("\" style=\"").append(s).append("\" customWidth=\"1\" />");
+    }
+    bldr.append("</cols>");
+    
+    buffer.appendAscii(bldr.toString());
+  }
+  
+  void outputHeaders() throws IOException {
+    startRow();
+    
+    int colNum = 0;
+    for (ColumnDefinition col : defn.columns) {
+      ++colNum;
+      startCell(colNum, headerStyles[colNum]);
+      buffer.append(INLINE_STRING_START);
+      buffer.appendEscaped(coalesce(col.name, ""));
+      buffer.append(INLINE_STRING_END);
+    }
+    buffer.append(ROW_END);
+    maxColNum = colNum;
+  }
+  
+  private void startRow() throws IOException {
+    int value = ++r;
+    int pos = rowDigits.length;
+    do {
+      rowDigits[--pos] = (byte) ('0' + value % 10);
+      value /= 10;
+    } while (value != 0);
+    rowDigitsLength = rowDigits.length - pos;
+    System.arraycopy(rowDigits, pos, rowDigits, 0, rowDigitsLength);
+    
+    buffer.append(ROW_START);
+    buffer.append(rowDigits, 0, rowDigitsLength);
+    buffer.append(ROW_START_END);
+  }
+  
+  private void startCell(int colNum, byte[] styleAttribute) throws IOException {
+    if (colNum >= cellStarts.length) {
+      cellStarts = Arrays.copyOf(cellStarts, Math.max(colNum + 1, cellStarts.length * 2));
+    }
+    byte[] cellStart = cellStarts[colNum];
+    if (cellStart == null) {
+      cellStart = buildCellStart(colNum);
+      cellStarts[colNum] = cellStart;
+    }
+    buffer.append(cellStart);
+    buffer.append(rowDigits, 0, rowDigitsLength);
+    buffer.append(styleAttribute);
+  }
+  
+  static String toName(int number) {
+    StringBuilder sb = new StringBuilder();
+    while (number-- > 0) {
+      sb.append((char) ('A' + (number % 26)));
+      number /= 26;
+    }
+    return sb.reverse().toString();
+  }
+  
+  static String temporalToExcelValue(Temporal ip) {
+    double value = ExcelDates.toSerial(ip);
+    if (Double.isNaN(value)) {
+      return ip.toString();
+    } else {
+      return DoubleFormatter.toString(value);
+    }
+  }
+  
+  /**
+   * Output a row of data to the output stream.
+   * 
+   * This must not be called between {@link #beginRow()} and {@link #endRow()}.
+   * 
+   * Note that, because rows are encoded into a reusable buffer that is only written to the ZipOutputStream when it fills
+   * (and because of the buffering inherent in ZipOutputStream), this method will not usually result in a call to OutputStream.write.
+   * 
+   * The values are handling according to the following rules:
+   * <ul>
+   * <li>Null values are output as empty cells.
+   * <li>String values starting with '=' are output as formulae.
+   * <li>Other strings values are output as inline strings.
+   * <li>Temporal values are output as numeric values complying with Excel data/time formatting.
+   * <li>Number values are output as numeric values, as by {@link #writeNumber(java.lang.Number)}.
+   * <li>Boolean values are output as boolean values.
+   * <li>Other types with a registered {@link CellSerializer} (including UUID, Enum, Optional and byte[]) are output by that serializer.
+   * <li>Anything else is output as an inline string after calling toString() on it.
+   * </ul>
+   * 
+   * Note that the handling of Temporal values should work for any jsr310 classes (ignoring time zones, Instants are treated as UTC).
+   * java.util.Date values are treated as UTC, the SQL Date, Time and Timestamp values are output as their local date and time.
+   * The handling of any type can be changed with {@link #registerSerializer(java.lang.Class, uk.co.spudsoft.xlsx.CellSerializer)}.
+   * 
+   * @param values The values to add to the output, one column at a time.
+   * @throws IOException if something goes wrong, this should only happen if the OutputStream throws.
+   */
+  public void outputRow(List<Object> values) throws IOException {
+    beginRow();
+    for (Object cellData : values) {
+      writeObject(cellData);
+    }
+    endRow();
+  }
+  
+  /**
+   * Output a batch of rows.
+   * 
+   * Each row is output exactly as it would be by {@link #outputRow(java.util.List)}.
+   * The rows are encoded into the same buffer, which is only passed to the compressor when it is full, so a batch is typically compressed in a few large calls.
+   * 
+   * @param rows The rows to output.
+   * @throws IOException if something goes wrong, this should only happen if the OutputStream throws.
+   * @throws IllegalStateException if a row begun with {@link #beginRow()} has not been ended.
+   */
+  public void outputRows(Iterable<? extends List<?>> rows) throws IOException {
+    for (List<?> values : rows) {
+      beginRow();
+      for (Object cellData : values) {
+        writeObject(cellData);
+      }
+      endRow();
+    }
+  }
+  
+  /**
+   * Output a batch of rows held as arrays.
+   * 
+   * Each row is output exactly as it would be by {@link #outputRow(java.util.List)}, a null row is output as an empty row.
+   * 
+   * @param rows The rows to output, rows[r][c] is the value for column c of row r.
+   * @throws IOException if something goes wrong, this should only happen if the OutputStream throws.
+   * @throws IllegalStateException if a row begun with {@link #beginRow()} has not been ended.
+   */
+  public void outputRows(Object[][] rows) throws IOException {
+    for (Object[] values : rows) {
+      beginRow();
+      if (values != null) {
+        for (Object cellData : values) {
+          writeObject(cellData);
+        }
+      }
+      endRow();
+    }
+  }
+  
+  /**
+   * Output a batch of rows held as columns.
+   * 
+   * Each row is output exactly as it would be by {@link #outputRow(java.util.List)}.
+   * A null column is output as empty cells.
+   * 
+   * @param columns The columns to output, columns[c][r] is the value for column c of row r.
+   * All the (non-null) columns must be the same length.
+   * @throws IOException if something goes wrong, this should only happen if the OutputStream throws.
+   * @throws IllegalArgumentException if the columns are not all the same length.
+   * @throws IllegalStateException if a row begun with {@link #beginRow()} has not been ended.
+   */
+  public void outputColumns(Object[][] columns) throws IOException {
+    int rowCount = -1;
+    for (Object[] column : columns) {
+      if (column != null) {
+        if (rowCount < 0) {
+          rowCount = column.length;
+        } else if (column.length != rowCount) {
+          throw new IllegalArgumentException("All columns must have the same number of rows");
+        }
+      }
+    }
+    for (int row = 0; row < rowCount; ++row) {
+      beginRow();
+      for (Object[] column : columns) {
+        writeObject(column == null ? null : column[row]);
+      }
+      endRow();
+    }
+  }
+  
+  /**
+   * How the values of a ColumnVector are output, chosen once per column.
+   */
+  private enum VectorEncoding {
+    BLANK, LONG, EPOCH_MILLIS, INT, EPOCH_DAY, DOUBLE, BOOLEAN, STRING
+  }
+  
+  private VectorEncoding chooseEncoding(ColumnVector column, int colIndex) {
+    if (column == null) {
+      return VectorEncoding.BLANK;
+    }
+    boolean dateFormat = colIndex < defn.columns.size() && ExcelDates.isDateFormat(defn.columns.get(colIndex).format);
+    switch (column.type) {
+      case LONG:
+        return dateFormat ? VectorEncoding.EPOCH_MILLIS : VectorEncoding.LONG;
+      case INT:
+        return dateFormat ? VectorEncoding.EPOCH_DAY : VectorEncoding.INT;
+      case DOUBLE:
+        return VectorEncoding.DOUBLE;
+      case BOOLEAN:
+        return VectorEncoding.BOOLEAN;
+      default:
+        return VectorEncoding.STRING;
+    }
+  }
+  
+  /**
+   * Output a batch of rows held as columns of primitive values.
+   * 
+   * This avoids boxing each value and avoids examining the type of each value, the way that each column is output is chosen once, 
+   * based on the type of the ColumnVector and the format of the column (see {@link ColumnVector} for details).
+   * A null ColumnVector is output as empty cells.
+   * 
+   * @param columns The columns to output.
+   * @param rowCount The number of rows to output, each ColumnVector must contain at least this many values.
+   * @throws IOException if something goes wrong, this should only happen if the OutputStream throws.
+   * @throws IllegalArgumentException if the row count is negative or any column has fewer values than the row count.
+   * @throws IllegalStateException if a row begun with {@link #beginRow()} has not been ended.
+   */
+  public void outputColumns(ColumnVector[] columns, int rowCount) throws IOException {
+    if (rowCount < 0) {
+      throw new IllegalArgumentException("The row count must not be negative");
+    }
+    VectorEncoding[] encodings = new VectorEncoding[columns.length];
+    for (int c = 0; c < columns.length; ++c) {
+      if (columns[c] != null && columns[c].length < rowCount) {
+        throw new IllegalArgumentException("Column " + (c + 1) + " contains " + columns[c].length + " values, but " + rowCount + " rows are to be output");
+      }
+      encodings[c] = chooseEncoding(columns[c], c);
+    }
+    for (int row = 0; row < rowCount; ++row) {
+      beginRow();
+      for (int c = 0; c < columns.length; ++c) {
+        ColumnVector column = columns[c];
+        if (column == null || column.isNull(row)) {
+          writeBlank();
+          continue;
+        }
+        switch (encodings[c]) {
+          case LONG:
+            writeLong(column.longs[row]);
+            break;
+          case EPOCH_MILLIS:
+            writeEpochMillis(column.longs[row]);
+            break;
+          case INT:
+            writeLong(column.ints[row]);
+            break;
+          case EPOCH_DAY:
+            writeLong(column.ints[row] + ExcelDates.EPOCH_DAY_OFFSET);
+            break;
+          case DOUBLE:
+            writeDouble(column.doubles[row]);
+            break;
+          case BOOLEAN:
+            writeBoolean(column.booleans[row]);
+            break;
+          default:
+            writeString(column.strings[row]);
+            break;
+        }
+      }
+      endRow();
+    }
+  }
+  
+  /**
+   * Register a serializer for values of a given type (and its subclasses).
+   * 
+   * When a value is output by {@link #outputRow(java.util.List)} (or any of the other methods that take Objects) the serializer is found by looking
+   * for the class of the value, then each of its superclasses, and then each of the interfaces that it implements.
+   * The first registered serializer found is used, values with no serializer are output as a string after calling toString() on them.
+   * The result is cached, so after the first value of each class finding the serializer is a single lookup.
+   * 
+   * Serializers for the following types are registered by default, any of them may be replaced:
+   * <ul>
+   * <li>String, with values starting with '=' output as formulae.
+   * <li>Integer, Long, Double and Number, output as by {@link #writeNumber(java.lang.Number)}.
+   * <li>Boolean and AtomicBoolean.
+   * <li>Temporal, output as by {@link #writeDate(java.time.temporal.Temporal)}.
+   * <li>java.sql.Date, java.sql.Time and java.sql.Timestamp, output as their local date and time.
+   * <li>java.util.Date, output as by {@link #writeEpochMillis(long)}.
+   * <li>CharSequence and Character, output as strings.
+   * <li>Enum, output as the name of the constant.
+   * <li>UUID, output as a string.
+   * <li>byte[], output as a Base64 string.
+   * <li>Optional, OptionalInt, OptionalLong and OptionalDouble, output as their value or as an empty cell.
+   * </ul>
+   * 
+   * Serializers may be registered at any time, each registration clears the cache.
+   * 
+   * @param <T> The type of value handled by the serializer.
+   * @param type The class of value handled by the serializer.
+   * @param serializer The serializer.
+   * @throws IllegalArgumentException if either argument is null.
+   */
+  public <T> void registerSerializer(Class<T> type, CellSerializer<? super T> serializer) {
+    if (type == null) {
+      throw new IllegalArgumentException("The type must be specified");
+    }
+    if (serializer == null) {
+      throw new IllegalArgumentException("The serializer must be specified");
+    }
+    serializers.put(type, serializer);
+    serializerCache.clear();
+  }
+  
+  @SuppressWarnings("unchecked")
+  private CellSerializer<Object> findSerializer(Class<?> type) {
+    for (Class<?> current = type; current != null; current = current.getSuperclass()) {
+      CellSerializer<?> serializer = serializers.get(current);
+      if (serializer != null) {
+        return (CellSerializer<Object>) serializer;
+      }
+    }
+    ArrayDeque<Class<?>> interfaces = new ArrayDeque<>();
+    for (Class<?> current = type; current != null; current = current.getSuperclass()) {
+      interfaces.addAll(Arrays.asList(current.getInterfaces()));
+    }
+    Set<Class<?>> visited = new HashSet<>();
+    while (!interfaces.isEmpty()) {
+      Class<?> current = interfaces.poll();
+      if (visited.add(current)) {
+        CellSerializer<?> serializer = serializers.get(current);
+        if (serializer != null) {
+          return (CellSerializer<Object>) serializer;
+        }
+        interfaces.addAll(Arrays.asList(current.getInterfaces()));
+      }
+    }
+    return TO_STRING_SERIALIZER;
+  }
+  
+  /**
+   * Output any value as the next cell in the current row, using the serializer registered for its type.
+   * 
+   * This is the method used by {@link #outputRow(java.util.List)} for each value,
+   * it is also the way for a {@link CellSerializer} to output a value that it has unwrapped.
+   * 
+   * @param value The value to output, if this is null an empty cell is output.
+   * @throws IOException if something goes wrong, this should only happen if the OutputStream throws.
+   * @throws IllegalStateException if the serializer does not output exactly one cell.
+   * @see #registerSerializer(java.lang.Class, uk.co.spudsoft.xlsx.CellSerializer)
+   */
+  public void writeObject(Object value) throws IOException {
+    if (value == null) {
+      writeBlank();
+      return;
+    }
+    Class<?> type = value.getClass();
+    CellSerializer<Object> serializer = serializerCache.get(type);
+    if (serializer == null) {
+      serializer = findSerializer(type);
+      serializerCache.put(type, serializer);
+    }
+    int expectedColNum = cellColNum + 1;
+    serializer.write(this, value);
+    if (cellColNum != expectedColNum || !inRow) {
+      throw new IllegalStateException("The serializer for " + type.getName() + " did not output exactly one cell");
+    }
+  }
+  
+  /**
+   * Start a new row that will be populated by calls to the write methods (writeLong, writeDouble, writeString, etc.).
+   * 
+   * The cursor methods are an alternative to {@link #outputRow(java.util.List)} that avoid the need to box values or to create a List for each row,
+   * each call encodes one cell directly into the output buffer.
+   * Each call to a write method outputs the next cell in the row, the row must be completed by calling {@link #endRow()}.
+   * 
+   * If the current worksheet already contains {@link TableDefinition#maxRowsPerSheet} rows it is completed and the row is begun on a new worksheet,
+   * which has the same formatting and header row and a name based on the name of the original worksheet.
+   * 
+   * @throws IOException if something goes wrong, this should only happen if the OutputStream throws.
+   * @throws IllegalStateException if the previous row has not been ended.
+   */
+  public void beginRow() throws IOException {
+    if (inRow) {
+      throw new IllegalStateException("The previous row has not been ended");
+    }
+    if (r >= defn.maxRowsPerSheet) {
+      if (segmentMode) {
+        throw new IllegalStateException("A segment cannot contain rows beyond the maximum number of rows in the worksheet (" + defn.maxRowsPerSheet + ")");
+      }
+      rollover();
+    }
+    startRow();
+    rowStyles = bodyStyles[r & 1];
+    cellColNum = 0;
+    inRow = true;
+  }
+  
+  /**
+   * End the row started by {@link #beginRow()}.
+   * 
+   * @throws IOException if something goes wrong, this should only happen if the OutputStream throws.
+   * @throws IllegalStateException if there is no row to end.
+   */
+  public void endRow() throws IOException {
+    if (!inRow) {
+      throw new IllegalStateException("No row has been begun");
+    }
+    buffer.append(ROW_END);
+    inRow = false;
+    if (cellColNum > maxColNum) {
+      maxColNum = cellColNum;
+    }
+  }
+  
+  private void nextCell() throws IOException {
+    if (!inRow) {
+      throw new IllegalStateException("beginRow must be called before writing cells");
+    }
+    ++cellColNum;
+    startCell(cellColNum, rowStyles[cellColNum > colCount ? 0 : cellColNum]);
+  }
+  
+  /**
+   * Output an empty (but formatted) cell as the next cell in the current row.
+   * @throws IOException if something goes wrong, this should only happen if the OutputStream throws.
+   */
+  public void writeBlank() throws IOException {
+    nextCell();
+    buffer.append(EMPTY_CELL_END);
+  }
+  
+  /**
+   * Output an integer value as the next cell in the current row.
+   * @param value The value to output.
+   * @throws IOException if something goes wrong, this should only happen if the OutputStream throws.
+   */
+  public void writeLong(long value) throws IOException {
+    nextCell();
+    buffer.append(VALUE_START);
+    buffer.appendLong(value);
+    buffer.append(VALUE_END);
+  }
+  
+  /**
+   * Output a floating point value as the next cell in the current row.
+   * 
+   * Excel cannot represent NaN or infinite values, they are output as the error value #NUM!.
+   * 
+   * @param value The value to output.
+   * @throws IOException if something goes wrong, this should only happen if the OutputStream throws.
+   */
+  public void writeDouble(double value) throws IOException {
+    nextCell();
+    if (Double.isNaN(value) || Double.isInfinite(value)) {
+      buffer.append(NUM_ERROR);
+    } else {
+      buffer.append(VALUE_START);
+      buffer.appendDouble(value);
+      buffer.append(VALUE_END);
+    }
+  }
+  
+  /**
+   * Output a Number as the next cell in the current row.
+   * 
+   * The digits are written directly to the output buffer without creating an intermediate String:
+   * <ul>
+   * <li>Integer, Long, Short, Byte, AtomicInteger, AtomicLong and LongAdder values are output as by {@link #writeLong(long)}.
+   * <li>Double values are output as by {@link #writeDouble(double)}.
+   * <li>Float values are output with the shortest digits that read back as the same float, so 1.1f is output as 1.1 (not 1.100000023841858).
+   * <li>BigDecimal and BigInteger values with a magnitude from 1e-7 up to (but not including) 1e21 are output in plain notation with all their digits,
+   * values outside that range are output as by {@link #writeDouble(double)}.
+   * <li>Any other Number is output as by {@link #writeDouble(double)}.
+   * </ul>
+   * Scientific notation is only used for values that cannot reasonably be output in plain notation, and it is always in a form that Excel reads correctly.
+   * 
+   * @param value The value to output, if this is null an empty cell is output.
+   * @throws IOException if something goes wrong, this should only happen if the OutputStream throws.
+   */
+  public void writeNumber(Number value) throws IOException {
+    if (value == null) {
+      writeBlank();
+    } else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte
+            || value instanceof AtomicInteger || value instanceof AtomicLong || value instanceof LongAdder) {
+      writeLong(value.longValue());
+    } else if (value instanceof Float) {
+      writeFloat(value.floatValue());
+    } else if (value instanceof BigDecimal) {
+      writeBigDecimal((BigDecimal) value);
+    } else if (value instanceof BigInteger) {
+      BigInteger bigInteger = (BigInteger) value;
+      if (bigInteger.bitLength() < Long.SIZE) {
+        writeLong(bigInteger.longValue());
+      } else {
+        writeBigDecimal(new BigDecimal(bigInteger));
+      }
+    } else {
+      writeDouble(value.doubleValue());
+    }
+  }
+  
+  private void writeFloat(float value) throws IOException {
+    nextCell();
+    if (Float.isNaN(value) || Float.isInfinite(value)) {
+      buffer.append(NUM_ERROR);
+    } else {
+      buffer.append(VALUE_START);
+      buffer.appendFloat(value);
+      buffer.append(VALUE_END);
+    }
+  }
+  
+  private void writeBigDecimal(BigDecimal value) throws IOException {
+    if (value.signum() == 0) {
+      writeLong(0);
+      return;
+    }
+    // The exponent of the value when written as d.ddd x 10^exponent, plain notation is used for the same range as DoubleFormatter
+    int exponent = value.precision() - value.scale() - 1;
+    if (exponent < -7 || exponent > 20) {
+      writeDouble(value.doubleValue());
+    } else if (value.scale() <= 0 && exponent < 18) {
+      writeLong(value.longValue());
+    } else {
+      nextCell();
+      buffer.append(VALUE_START);
+      buffer.appendAscii(value.toPlainString());
+      buffer.append(VALUE_END);
+    }
+  }
+  
+  /**
+   * Output a boolean value as the next cell in the current row.
+   * @param value The value to output.
+   * @throws IOException if something goes wrong, this should only happen if the OutputStream throws.
+   */
+  public void writeBoolean(boolean value) throws IOException {
+    nextCell();
+    buffer.append(value ? BOOLEAN_TRUE : BOOLEAN_FALSE);
+  }
+  
+  /**
+   * Output a string value as the next cell in the current row.
+   * 
+   * Unlike {@link #outputRow(java.util.List)}, values beginning with '=' are not treated as formulae, use {@link #writeFormula(java.lang.String)} for those.
+   * 
+   * If the writer has a {@link SharedStringsDefinition} and the column is a candidate for shared strings the value will be output as a reference to the
+   * shared strings table, unless the table is full (in which case it is output inline).
+   * 
+   * @param value The value to output, if this is null an empty cell is output.
+   * @throws IOException if something goes wrong, this should only happen if the OutputStream throws.
+   */
+  public void writeString(String value) throws IOException {
+    if (value == null) {
+      writeBlank();
+      return;
+    }
+    nextCell();
+    if (sharedStrings != null
+            && (cellColNum < sharedStringColumns.length ? sharedStringColumns[cellColNum] : sharedStringOtherColumns)) {
+      int index = sharedStrings.indexOf(value);
+      if (index >= 0) {
+        buffer.append(SHARED_STRING_START);
+        buffer.appendInt(index);
+        buffer.append(VALUE_END);
+        return;
+      }
+    }
+    buffer.append(INLINE_STRING_START);
+    buffer.appendEscaped(value);
+    buffer.append(INLINE_STRING_END);
+  }
   
-  private final TableDefinition defn;
-  private final int colCount;
+  /**
+   * Output a formula as the next cell in the current row.
+   * @param formula The formula to output, without the leading '='. If this is null an empty cell is output.
+   * @throws IOException if something goes wrong, this should only happen if the OutputStream throws.
+   */
+  public void writeFormula(String formula) throws IOException {
+    if (formula == null) {
+      writeBlank();
+      return;
+    }
+    nextCell();
+    buffer.append(FORMULA_START);
+    buffer.appendEscaped(formula);
+    buffer.append(FORMULA_END);
+  }
   
-  private final String contentTypes = "<Types xmlns=\"http://schemas.openxmlformats.org/package/2006/content-types\"><Default Extension=\"bin\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.printerSettings\"/><Default Extension=\"rels\" ContentType=\"application/vnd.openxmlformats-package.relationships+xml\"/><Default Extension=\"xml\" ContentType=\"application/xml\"/><Override PartName=\"/xl/workbook.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.sheet.main+xml\"/><Override PartName=\"/xl/worksheets/sheet1.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.worksheet+xml\"/><Override PartName=\"/xl/theme/theme1.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.theme+xml\"/><Override PartName=\"/xl/styles.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.styles+xml\"/><Override PartName=\"/xl/sharedStrings.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.sharedStrings+xml\"/><Override PartName=\"/docProps/core.xml\" ContentType=\"application/vnd.openxmlformats-package.core-properties+xml\"/><Override PartName=\"/docProps/app.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.extended-properties+xml\"/></Types>";
-  private final String rels_rels = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?><Relationships xmlns=\"http://schemas.openxmlformats.org/package/2006/relationships\"><Relationship Id=\"rId3\" Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/extended-properties\" Target=\"docProps/app.xml\"/><Relationship Id=\"rId2\" Type=\"http://schemas.openxmlformats.org/package/2006/relationships/metadata/core-properties\" Target=\"docProps/core.xml\"/><Relationship Id=\"rId1\" Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/officeDocument\" Target=\"xl/workbook.xml\"/></Relationships>";
-  private final String docProps_app;
-  private final String docProps_core;
-  private final String xl_rels_workbook = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?><Relationships xmlns=\"http://schemas.openxmlformats.org/package/2006/relationships\"><Relationship Id=\"rId3\" Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/styles\" Target=\"styles.xml\"/><Relationship Id=\"rId2\" Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/theme\" Target=\"theme/theme1.xml\"/><Relationship Id=\"rId1\" Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/worksheet\" Target=\"worksheets/sheet1.xml\"/><Relationship Id=\"rId4\" Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/sharedStrings\" Target=\"sharedStrings.xml\"/></Relationships>";
-  private final String xl_theme_theme1;  
-  private final String xl_sharedstrings = "<?xml version=\"1.0\" encoding=\"UTF-8\"?><sst count=\"0\" uniqueCount=\"0\" xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\"/>";
-  private final String xl_styles;
-  private final String xl_workbook;
-  private final String xl_worksheets_sheet1_start = "<?xml version=\"1.0\" encoding=\"UTF-8\"?><worksheet xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\"><sheetViews><sheetView workbookViewId=\"0\" tabSelected=\"true\"/></sheetViews><sheetFormatPr defaultRowHeight=\"15.0\"/>";
-  private final String xl_worksheets_sheet1_end = "</sheetData><pageMargins bottom=\"0.75\" footer=\"0.3\" header=\"0.3\" left=\"0.7\" right=\"0.7\" top=\"0.75\"/></worksheet>";
+  /**
+   * Output a date and/or time as the next cell in the current row.
+   * 
+   * The value is output as an Excel serial date, so the column should have an appropriate format.
+   * Time zones are ignored, Instants are treated as UTC.
+   * 
+   * @param value The value to output, if this is null an empty cell is output.
+   * @throws IOException if something goes wrong, this should only happen if the OutputStream throws.
+   */
+  public void writeDate(Temporal value) throws IOException {
+    if (value == null) {
+      writeBlank();
+      return;
+    }
+    nextCell();
+    double serial = ExcelDates.toSerial(value);
+    buffer.append(VALUE_START);
+    if (Double.isNaN(serial)) {
+      buffer.appendEscaped(value.toString());
+    } else {
+      buffer.appendDouble(serial);
+    }
+    buffer.append(VALUE_END);
+  }
   
-  private final Map<String, Integer> numFmtIdMap = new HashMap<>();
-  private ZipOutputStream zipout;
-  private int r = 0;
+  /**
+   * Output a timestamp, as milliseconds since 1970-01-01T00:00:00Z, as the next cell in the current row.
+   * 
+   * The value is output as an Excel serial date (in UTC), so the column should have an appropriate format.
+   * This is intended for values such as java.sql.Timestamp.getTime() or java.util.Date.getTime().
+   * 
+   * @param epochMillis The value to output.
+   * @throws IOException if something goes wrong, this should only happen if the OutputStream throws.
+   */
+  public void writeEpochMillis(long epochMillis) throws IOException {
+    nextCell();
+    buffer.append(VALUE_START);
+    buffer.appendDouble(ExcelDates.epochMillisToSerial(epochMillis));
+    buffer.append(VALUE_END);
+  }
 
-  private String coalesce(String value1, String value2) {
-    if (value1 == null || value1.isEmpty()) {
-      return value2;
+  /**
+   * Complete the XLSX document.
+   * 
+   * If a row begun with {@link #beginRow()} has not been ended it will be ended before the worksheet is closed.
+   * The parts of the workbook that depend upon the worksheets are output after the last worksheet.
+   * This does not close the OutputStream (or channel), unless the file was started with {@link #startFile(java.nio.file.Path)}.
+   * 
+   * @throws IOException if something goes wrong, this should only happen if the OutputStream throws.
+   */
+  @Override
+  public void close() throws IOException {
+    if (segmentMode) {
+      endSegment();
+      return;
+    }
+    try {
+      closeSheet();
+
+      if (sharedStrings != null) {
+        writeSharedStrings();
+      }
+      writeStaticEntry("[Content_Types].xml", buildContentTypes());
+      writeStaticEntry("xl/_rels/workbook.xml.rels", buildWorkbookRels());
+      writeStaticEntry("xl/styles.xml", buildStyles());
+      writeStaticEntry("xl/workbook.xml", buildWorkbook());
+      zip.finish();
+      bufferedout.flush();
+    } finally {
+      releaseResources();
+      if (ownsChannel) {
+        ownsChannel = false;
+        channel.close();
+      }
     }
-    return value1;
   }
   
   /**
-   * Constructor.
+   * End (or return to the pool) the Deflater and buffers, and stop any compression threads.
    * 
-   * @param defn The definition of the formatting required in the workbook.
+   * This is called by {@link #close()}, it only needs to be called directly if the writer is abandoned without being closed.
+   * The writer cannot be used after this has been called.
    */
-  public XlsxWriter(TableDefinition defn) {
-    this.defn = defn;
-    this.colCount = defn.columns.size();
-
-    this.docProps_app = "<?xml version=\"1.0\" encoding=\"UTF-8\"?><Properties xmlns=\"http://schemas.openxmlformats.org/officeDocument/2006/extended-properties\"><Application>" + coalesce(defn.application, DEFAULT_APP_NAME) + "</Application></Properties>";
-    this.docProps_core = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?><cp:coreProperties xmlns:cp=\"http://schemas.openxmlformats.org/package/2006/metadata/core-properties\" xmlns:dc=\"http://purl.org/dc/elements/1.1/\" xmlns:dcterms=\"http://purl.org/dc/terms/\" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\"><dcterms:created xsi:type=\"dcterms:W3CDTF\">" + java.time.Instant.now().truncatedTo(java.time.temporal.ChronoUnit.SECONDS).toString() + "</dcterms:created><dc:creator>" + coalesce(defn.creator, DEFAULT_APP_NAME) + "</dc:creator></cp:coreProperties>";
-    this.xl_workbook = "<?xml version=\"1.0\" encoding=\"UTF-8\"?><workbook xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\" xmlns:r=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships\"><workbookPr date1904=\"false\"/><bookViews><workbookView activeTab=\"0\"/></bookViews><sheets><sheet name=\"" + coalesce(defn.name, "Sheet1") + "\" r:id=\"rId1\" sheetId=\"1\"/></sheets></workbook>";
-    this.xl_theme_theme1 = buildTheme(defn);
-    this.xl_styles = buildStyles(defn);
-  }    
+  void releaseResources() {
+    if (deflater != null) {
+      if (pool == null) {
+        deflater.end();
+      } else {
+        pool.releaseDeflater(deflater, compression.level, compression.strategy);
+        pool.releaseBuffer(deflateBuffer);
+      }
+      deflater = null;
+      deflateBuffer = null;
+    }
+    if (pool != null && !bufferReleased) {
+      // The XmlBuffer is taken from the pool by the constructor, so it must be returned even if the file was never started
+      bufferReleased = true;
+      pool.releaseBuffer(buffer.detach());
+    }
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+  }
   
   /**
-   * Start outputting the metadata to the OutputStream.
-   * @param stream The output stream that will be written to.
-   * @throws IOException if something goes wrong - this should only happen if "stream" throws an exception.
+   * Create a writer that encodes and compresses rows of the current worksheet independently of this writer.
+   * 
+   * The rows are numbered from firstRow, with the formatting of the current worksheet.
+   * The SheetSegmentWriter has its own Deflater and buffers and may be used on any thread, 
+   * so any number of them can be generating parts of a worksheet in parallel.
+   * The resulting segments are then added to the worksheet, in row order, with {@link #writeSegment(uk.co.spudsoft.xlsx.SheetSegment, java.io.InputStream)}.
+   * 
+   * The serializers registered with this writer are copied to the segment writer.
+   * Strings are always written inline in segments, regardless of any {@link SharedStringsDefinition}.
+   * 
+   * @param firstRow The (one-based) number of the first row of the segment.
+   * @param out The stream that the compressed data will be written to, which is not closed by the SheetSegmentWriter.
+   * @return A new SheetSegmentWriter.
+   * @throws IllegalStateException if startFile has not been called.
+   * @throws IllegalArgumentException if firstRow is not a valid row number for the current worksheet, or out is null.
    */
-  public void startFile(OutputStream stream) throws IOException {
-    // needed objects
-    ZipEntry zipentry;
-    byte[] data;
-
-    // create ZipOutputStream
-    zipout = new ZipOutputStream(stream);
-
-    // create the static parts of the XLSX ZIP file:
-    zipentry = new ZipEntry("[Content_Types].xml");
-    zipout.putNextEntry(zipentry);
-    data = contentTypes.getBytes();
-    zipout.write(data, 0, data.length);
-    zipout.closeEntry();
-
-    zipentry = new ZipEntry("docProps/app.xml");
-    zipout.putNextEntry(zipentry);
-    data = docProps_app.getBytes();
-    zipout.write(data, 0, data.length);
-    zipout.closeEntry();
-
-    zipentry = new ZipEntry("docProps/core.xml");
-    zipout.putNextEntry(zipentry);
-    data = docProps_core.getBytes();
-    zipout.write(data, 0, data.length);
-    zipout.closeEntry();
-
-    zipentry = new ZipEntry("_rels/.rels");
-    zipout.putNextEntry(zipentry);
-    data = rels_rels.getBytes();
-    zipout.write(data, 0, data.length);
-    zipout.closeEntry();
-
-    zipentry = new ZipEntry("xl/theme/theme1.xml");
-    zipout.putNextEntry(zipentry);
-    data = xl_theme_theme1.getBytes();
-    zipout.write(data, 0, data.length);
-    zipout.closeEntry();
-
-    zipentry = new ZipEntry("xl/_rels/workbook.xml.rels");
-    zipout.putNextEntry(zipentry);
-    data = xl_rels_workbook.getBytes();
-    zipout.write(data, 0, data.length);
-    zipout.closeEntry();
-
-    zipentry = new ZipEntry("xl/sharedStrings.xml");
-    zipout.putNextEntry(zipentry);
-    data = xl_sharedstrings.getBytes();
-    zipout.write(data, 0, data.length);
-    zipout.closeEntry();
-
-    zipentry = new ZipEntry("xl/styles.xml");
-    zipout.putNextEntry(zipentry);
-    data = xl_styles.getBytes();
-    zipout.write(data, 0, data.length);
-    zipout.closeEntry();
-
-    zipentry = new ZipEntry("xl/workbook.xml");
-    zipout.putNextEntry(zipentry);
-    data = xl_workbook.getBytes();
-    zipout.write(data, 0, data.length);
-    zipout.closeEntry();
-    
-    // create the xl/worksheets/sheet1.xml
-    zipentry = new ZipEntry("xl/worksheets/sheet1.xml");
-    zipout.putNextEntry(zipentry);
-    data = xl_worksheets_sheet1_start.getBytes(StandardCharsets.UTF_8);
-    zipout.write(data, 0, data.length);    
-    
-    if (anyColumnSpecifiesWidth()) {
-      outputColumns();
+  public SheetSegmentWriter createSegmentWriter(int firstRow, OutputStream out) {
+    checkNotSegment();
+    if (sheetout == null) {
+      throw new IllegalStateException("startFile must be called before createSegmentWriter");
     }
-    
-    data = "<sheetData>".getBytes(StandardCharsets.UTF_8);
-    zipout.write(data, 0, data.length);    
-    
-    if (defn.headers) {
-      outputHeaders();
+    SheetSegmentWriter result = new SheetSegmentWriter(defn, compression, sheetStyleBase, firstRow, out);
+    result.getWriter().serializers.putAll(serializers);
+    return result;
+  }
+  
+  /**
+   * Add a segment created by a {@link SheetSegmentWriter} to the current worksheet.
+   * 
+   * The compressed data is copied into the worksheet without being decompressed or recompressed.
+   * Segments must be added in row order, and after any rows output directly to this writer that precede them;
+   * rows may be output directly to this writer after a segment (as long as they follow it).
+   * 
+   * @param segment The description of the segment.
+   * @param compressed The compressed data of the segment, exactly {@link SheetSegment#compressedSize} bytes are read from this stream.
+   * @throws IOException if the compressed data cannot be read, or the OutputStream throws.
+   * @throws IllegalStateException if startFile has not been called, or a row begun with {@link #beginRow()} has not been ended.
+   * @throws IllegalArgumentException if the segment was created for a worksheet with different formatting,
+   * or it starts before the end of the rows already in the worksheet.
+   */
+  public void writeSegment(SheetSegment segment, InputStream compressed) throws IOException {
+    checkNotSegment();
+    if (sheetout == null) {
+      throw new IllegalStateException("startFile must be called before writeSegment");
+    }
+    if (inRow) {
+      throw new IllegalStateException("The current row must be ended before writing a segment");
+    }
+    if (segment.styleBase != sheetStyleBase) {
+      throw new IllegalArgumentException("The segment was created for a worksheet with different formatting (cell formats from " 
+              + segment.styleBase + " rather than " + sheetStyleBase + ")");
+    }
+    if (segment.rowCount > 0 && segment.firstRow <= r) {
+      throw new IllegalArgumentException("The segment starts at row " + segment.firstRow + " but the worksheet already contains row " + r);
+    }
+    buffer.flush();
+    ((PrecompressedOutput) sheetout).writePrecompressed(compressed, segment.compressedSize, segment.crc, segment.size);
+    if (segment.rowCount > 0) {
+      r = segment.getLastRow();
+    }
+    if (segment.maxColumn > maxColNum) {
+      maxColNum = segment.maxColumn;
     }
   }
   
-  boolean anyColumnSpecifiesWidth() {
-    for (ColumnDefinition col : defn.columns) {
-      if (col.width != null) {
-        return true;
-      }
+  /**
+   * Add a segment file created by a {@link SheetSegmentWriter} to the current worksheet.
+   * 
+   * This is equivalent to calling {@link #writeSegment(uk.co.spudsoft.xlsx.SheetSegment, java.io.InputStream)} 
+   * with the description read from the trailer of the file and the data at the start of the file.
+   * 
+   * @param file The segment file.
+   * @throws IOException if the file cannot be read or is not a segment file, or the OutputStream throws.
+   * @throws IllegalStateException if startFile has not been called, or a row begun with {@link #beginRow()} has not been ended.
+   * @throws IllegalArgumentException if the segment was created for a worksheet with different formatting,
+   * or it starts before the end of the rows already in the worksheet.
+   */
+  public void writeSegment(Path file) throws IOException {
+    SheetSegment segment = SheetSegment.read(file);
+    try (InputStream input = Files.newInputStream(file)) {
+      writeSegment(segment, input);
     }
-    return false;
   }
   
-  void outputColumns() throws IOException {
-    StringBuilder bldr = new StringBuilder();
-    bldr.append("<cols>");
-    int colNum = 0;
-    for (ColumnDefinition col : defn.columns) {
-      ++colNum;
-      Double width = col.width;
-      if (width == null) {
-        width = 11.0;
+  /**
+   * Calculate the index of the first cell format of a worksheet, in the same way as it is calculated as each worksheet is started.
+   * 
+   * Each distinct definition (by identity) adds four cell formats for each column (plus one), in the order that they are first used.
+   * 
+   * @param sheets The definitions of the worksheets in the workbook.
+   * @param sheetIndex The (zero-based) index of the worksheet.
+   * @return the index of the first cell format of the worksheet.
+   */
+  static int styleBase(List<TableDefinition> sheets, int sheetIndex) {
+    Map<TableDefinition, Integer> bases = new IdentityHashMap<>();
+    int next = 0;
+    int result = 0;
+    for (int i = 0; i <= sheetIndex; ++i) {
+      TableDefinition sheetDefn = sheets.get(i);
+      Integer base = bases.get(sheetDefn);
+      if (base == null) {
+        base = next;
+        bases.put(sheetDefn, base);
+        next += 4 * (sheetDefn.columns.size() + 1);
       }
-      int s = colNum;
-      bldr.append("<col min=\"").append(colNum).append("\" max=\"").append(colNum).append("\" width=\"").append(width).append("\" style=\"").append(s).append("\" customWidth=\"1\" />");
+      result = base;
     }
-    bldr.append("</cols>");
-    
-    byte[] data = bldr.toString().getBytes(StandardCharsets.UTF_8);
-    zipout.write(data, 0, data.length);
+    return result;
   }
   
-  void outputHeaders() throws IOException {
-    StringBuilder rowString = new StringBuilder();
-    rowString.append("<row r=\"").append(++r).append("\">");
-    
-    int colNum = 0;
-    for (ColumnDefinition col : defn.columns) {
-      ++colNum;
-      int s = 1 + colCount + colNum;
-      rowString.append("<c r=\"").append(toName(colNum)).append(r).append('"').append(" s=\"").append(s).append('"');
-      rowString.append(" t=\"inlineStr\"><is><t>" + encodeSpecialCharacters(coalesce(col.name, "")) + "</t></is></c>");
+  /**
+   * End the output of a writer created for a SheetSegmentWriter.
+   */
+  void endSegment() throws IOException {
+    if (inRow) {
+      endRow();
     }
-    rowString.append("</row>");
-
-    byte[] data = rowString.toString().getBytes(StandardCharsets.UTF_8);
-    zipout.write(data, 0, data.length);
+    buffer.flush();
   }
   
-  static String toName(int number) {
-    StringBuilder sb = new StringBuilder();
-    while (number-- > 0) {
-      sb.append((char) ('A' + (number % 26)));
-      number /= 26;
-    }
-    return sb.reverse().toString();
+  /**
+   * Get the number of the last row output.
+   * @return the number of the last row output.
+   */
+  int getRowNumber() {
+    return r;
   }
   
-  private static DecimalFormat prepareDateFormat() {
-    DecimalFormat df = new DecimalFormat("#.##################");
-    df.setRoundingMode(RoundingMode.HALF_UP);    
-    return df;
-  }    
-
-  static String temporalToExcelValue(Temporal ip) {
-    boolean hasValue = false;
-    double value = 0.0;
-    if (ip.isSupported(ChronoField.DAY_OF_YEAR) && ip.isSupported(ChronoField.YEAR)) {
-      // Add because Excel date is inclusive at both ends and one based
-      value += 2 + ChronoUnit.DAYS.between(EPOCH_DATE, ip);
-      hasValue = true;
-    }
-    if (ip.isSupported(ChronoField.MICRO_OF_DAY)) {
-      value += ChronoUnit.MILLIS.between(EPOCH_TIME, ip) / (24.0 * 60 * 60 * 1000);
-      hasValue = true;
-    }
-    if (hasValue) {
-      return DATE_FORMAT.format(value);
-    } else {
-      return ip.toString();
+  /**
+   * Get the highest column number used in the current worksheet.
+   * @return the highest column number used in the current worksheet.
+   */
+  int getMaxColumn() {
+    return maxColNum;
+  }
+  
+  /**
+   * Get the index of the first cell format of the current worksheet.
+   * @return the index of the first cell format of the current worksheet.
+   */
+  int getStyleBase() {
+    return sheetStyleBase;
+  }
+  
+  /**
+   * Output the shared strings table, which may be large so is written through the XmlBuffer rather than being built as a String.
+   */
+  private void writeSharedStrings() throws IOException {
+    try (OutputStream stream = zip.openEntry("xl/sharedStrings.xml", deflater, deflateBuffer)) {
+      buffer.setOutput(stream);
+      sharedStrings.write(buffer);
+      buffer.flush();
     }
   }
   
   /**
-   * Output a row of data to the output stream.
-   * 
-   * Note that, because of the buffering inherent in ZipOutputStream, this method may not result in a call to OutputStream.write.
-   * 
-   * The values are handling according to the following rules:
-   * <ul>
-   * <li>Null values are output as empty cells.
-   * <li>String values starting with '=' are output as formulae.
-   * <li>Other strings values are output as inline strings.
-   * <li>Temporal values are output as numeric values complying with Excel data/time formatting.
-   * <li>Number values are output as numeric values.
-   * <li>Boolean values are output as boolean values.
-   * <li>Anything else is output as an inline string after calling toString() on it.
-   * </ul>
+   * Get the number of distinct strings in the shared strings table.
+   * @return the number of distinct strings in the shared strings table, or zero if the writer does not have a {@link SharedStringsDefinition}.
+   */
+  public int getSharedStringCount() {
+    return sharedStrings == null ? 0 : sharedStrings.size();
+  }
+  
+  /**
+   * Get the number of string values that were output as references to strings already in the shared strings table.
    * 
-   * Note that the handling of Temporal values should work for any jsr310 classes (ignoring time zones) but will not work for Date, or SQL Timestamp values.
+   * Together with {@link #getSharedStringCount()} and {@link #getSharedStringRejections()} this can be used to tune the {@link SharedStringsDefinition}:
+   * the hit rate is hits / (hits + count + rejections).
    * 
-   * @param values The values to add to the output, one column at a time.
-   * @throws IOException if something goes wrong, this should only happen if the OutputStream throws.
+   * @return the number of string values that were output as references to strings already in the shared strings table.
    */
-  public void outputRow(List<Object> values) throws IOException {
-    StringBuilder rowString = new StringBuilder();
-    rowString.append("<row r=\"").append(++r).append("\">");
-    
-    int colNum = 0;
-    int colCount = defn.columns.size();
-    for (Object cellData : values) {
-      ++colNum;
-      int s = (2 + r % 2) * (colCount + 1) + (colNum > colCount ? 0 : colNum);
-      rowString.append("<c r=\"").append(toName(colNum)).append(r).append('"').append(" s=\"").append(s).append('"');
-
-      if (cellData == null) {
-        rowString.append("></c>");
-      } else if (cellData instanceof String) {
-        String cellString = (String) cellData;
-        if (cellString.startsWith("=")) {
-          rowString.append("><f>" + encodeSpecialCharacters(cellString.substring(1)) + "</f></c>");
-        } else {
-          rowString.append(" t=\"inlineStr\"><is><t>" + encodeSpecialCharacters(cellString) + "</t></is></c>");
-        }
-      } else if (cellData instanceof Temporal) {
-        rowString.append("><v>").append(temporalToExcelValue((Temporal) cellData)).append("</v></c>");
-      } else if (cellData instanceof Boolean) {
-        rowString.append(" t=\"b\"><v>").append((Boolean) cellData ? "1" : "0").append("</v></c>");
-      } else if (cellData instanceof Number) {
-        rowString.append("><v>").append(cellData.toString()).append("</v></c>");
-      } else {
-        rowString.append(" t=\"inlineStr\"><is><t>" + encodeSpecialCharacters(cellData.toString()) + "</t></is></c>");
-      }
-    }
-    rowString.append("</row>");
-
-    byte[] data = rowString.toString().getBytes(StandardCharsets.UTF_8);
-    zipout.write(data, 0, data.length);
+  public long getSharedStringHits() {
+    return sharedStrings == null ? 0 : sharedStrings.getHits();
   }
-
-  @Override
-  public void close() throws IOException {
-    byte[] data = xl_worksheets_sheet1_end.getBytes(StandardCharsets.UTF_8);
-    zipout.write(data, 0, data.length);
-    zipout.closeEntry();
-
-    zipout.finish();
+  
+  /**
+   * Get the number of string values that were candidates for the shared strings table but were output inline because a limit of the table had been reached.
+   * @return the number of string values that were output inline because a limit of the shared strings table had been reached.
+   */
+  public long getSharedStringRejections() {
+    return sharedStrings == null ? 0 : sharedStrings.getRejections();
   }
   
-  private String buildTheme(TableDefinition defn) {
+  private static String buildTheme() {
     StringBuilder bldr = new StringBuilder();
     bldr.append("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>")
             .append("<a:theme xmlns:a=\"http://schemas.openxmlformats.org/drawingml/2006/main\" name=\"Office Theme\">")
@@ -479,28 +1772,140 @@ public class XlsxWriter implements Closeable {
     }
   }
 
+  /**
+   * Escape a String for use as XML text or as a double quoted XML attribute value.
+   * 
+   * The input is returned unchanged if it does not require any escaping.
+   * This should only be used for values that are output once per file, cell values are escaped directly into the output buffer.
+   * 
+   * @param input The String to escape.
+   * @return The input escaped as described by {@link XmlBuffer#appendEscaped(java.lang.String)}.
+   */
   static String encodeSpecialCharacters(String input) {
-    return input.replaceAll("&", "&amp;").replaceAll("<", "&lt;");
+    if (XmlBuffer.isPlain(input)) {
+      return input;
+    }
+    XmlBuffer escaped = new XmlBuffer(64 + input.length() * 2);
+    try {
+      escaped.appendEscaped(input);
+    } catch (IOException ex) {
+      // Cannot happen, a buffer without an output grows instead of writing
+      throw new IllegalStateException(ex);
+    }
+    return new String(escaped.toByteArray(), StandardCharsets.UTF_8);
+  }
+  
+  /**
+   * Escape a String for use as plain XML text, such as the document properties.
+   * 
+   * The document properties are not SpreadsheetML, so readers do not understand the Excel "_xHHHH_" escape used by {@link #encodeSpecialCharacters(java.lang.String)}.
+   * Instead '&amp;', '&lt;', '&gt;' and '"' are replaced by entity references and characters that cannot be represented in XML 1.0 are replaced by '?'.
+   * 
+   * @param input The String to escape.
+   * @return The input with entity references in place of special characters.
+   */
+  static String encodePlainText(String input) {
+    int len = input.length();
+    StringBuilder bldr = new StringBuilder(len + 16);
+    for (int i = 0; i < len; ++i) {
+      char c = input.charAt(i);
+      switch (c) {
+        case '&':
+          bldr.append("&amp;");
+          break;
+        case '<':
+          bldr.append("&lt;");
+          break;
+        case '>':
+          bldr.append("&gt;");
+          break;
+        case '"':
+          bldr.append("&quot;");
+          break;
+        default:
+          if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(input.charAt(i + 1))) {
+            bldr.append(c).append(input.charAt(++i));
+          } else if ((c < 0x20 && c != '\t' && c != '\n' && c != '\r') || Character.isSurrogate(c) || c >= 0xFFFE) {
+            bldr.append('?');
+          } else {
+            bldr.append(c);
+          }
+          break;
+      }
+    }
+    return bldr.toString();
+  }
+  
+  /**
+   * Add the fonts, fills and cell formats for a worksheet to the styles.
+   * @param sheetDefn The definition of the worksheet.
+   * @return The index of the first cell format for the worksheet.
+   */
+  private int addStyles(TableDefinition sheetDefn) {
+    Integer existing = styleBases.get(sheetDefn);
+    if (existing != null) {
+      return existing;
+    }
+    int styleBase = cellXfCount;
+    int fontBase = fontCount;
+    int fillBase = fillCount;
+    styleBases.put(sheetDefn, styleBase);
+    
+    addNumFmts(numFmtIdMap, numFmtsXml, sheetDefn);
+
+    appendFont(fontsXml, sheetDefn.bodyFont, null);
+    appendFont(fontsXml, sheetDefn.headerFont, sheetDefn.headerColours);
+    appendFont(fontsXml, sheetDefn.bodyFont, sheetDefn.evenColours);
+    appendFont(fontsXml, sheetDefn.bodyFont, sheetDefn.oddColours);
+    fontCount += 4;
+
+    appendFill(fillsXml, sheetDefn.headerColours);
+    appendFill(fillsXml, sheetDefn.evenColours);
+    appendFill(fillsXml, sheetDefn.oddColours);
+    fillCount += 3;
+    
+    StringBuilder bldr = cellXfsXml;
+    
+    // Default format
+    bldr.append("<xf numFmtId=\"0\" fontId=\"").append(fontBase).append("\" fillId=\"0\" borderId=\"0\" xfId=\"0\"/>");   
+    
+    int borderId = sheetDefn.gridLines ? 1 : 0;
+    // Column formats   
+    for (ColumnDefinition col : sheetDefn.columns) {      
+      int numFmt = col.format != null ? this.numFmtIdMap.get(col.format) : 0;
+      bldr.append("<xf numFmtId=\"").append(numFmt).append("\" fontId=\"").append(fontBase).append("\" fillId=\"0\" borderId=\"0\" xfId=\"0\" applyNumberFormat=\"1\" />");         
+    }
+    
+    // Header, even rows and odd rows
+    for (int block = 1; block <= 3; ++block) {
+      int fontId = fontBase + block;
+      int fillId = fillBase + block - 1;
+      bldr.append("<xf fontId=\"").append(fontId).append("\" fillId=\"").append(fillId).append("\" borderId=\"").append(borderId).append("\" xfId=\"0\" applyNumberFormat=\"1\" applyFont=\"1\" applyFill=\"1\" applyBorder=\"1\"/>");
+      for (ColumnDefinition col : sheetDefn.columns) {      
+        int numFmt = col.format != null ? this.numFmtIdMap.get(col.format) : 0;
+        bldr.append("<xf numFmtId=\"").append(numFmt).append("\" fontId=\"").append(fontId).append("\" fillId=\"").append(fillId).append("\" borderId=\"").append(borderId).append("\" xfId=\"0\" applyNumberFormat=\"1\" applyFont=\"1\" applyFill=\"1\" applyBorder=\"1\"/>");
+      }
+    }
+    
+    cellXfCount += 4 * (sheetDefn.columns.size() + 1);
+    return styleBase;
   }
   
-  private String buildStyles(TableDefinition defn) {
+  private String buildStyles() {
     StringBuilder bldr = new StringBuilder();
     bldr.append("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?><styleSheet xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\" xmlns:mc=\"http://schemas.openxmlformats.org/markup-compatibility/2006\" mc:Ignorable=\"x14ac x16r2 xr\" xmlns:x14ac=\"http://schemas.microsoft.com/office/spreadsheetml/2009/9/ac\" xmlns:x16r2=\"http://schemas.microsoft.com/office/spreadsheetml/2015/02/main\" xmlns:xr=\"http://schemas.microsoft.com/office/spreadsheetml/2014/revision\">");
-    buildNumFmts(numFmtIdMap, bldr, defn);
+    if (!numFmtIdMap.isEmpty()) {
+      bldr.append("<numFmts count=\"").append(numFmtIdMap.size()).append("\">");
+      bldr.append(numFmtsXml);
+      bldr.append("</numFmts>");
+    }
 
-    bldr.append("<fonts count=\"4\">");    
-    appendFont(bldr, defn.bodyFont, null);
-    appendFont(bldr, defn.headerFont, defn.headerColours);
-    appendFont(bldr, defn.bodyFont, defn.evenColours);
-    appendFont(bldr, defn.bodyFont, defn.oddColours);
+    bldr.append("<fonts count=\"").append(fontCount).append("\">");    
+    bldr.append(fontsXml);
     bldr.append("</fonts>");
 
-    bldr.append("<fills count=\"5\">");
-    bldr.append("<fill><patternFill patternType=\"none\"/></fill>");
-    bldr.append("<fill><patternFill patternType=\"gray125\"/></fill>");
-    appendFill(bldr, defn.headerColours);
-    appendFill(bldr, defn.evenColours);
-    appendFill(bldr, defn.oddColours);
+    bldr.append("<fills count=\"").append(fillCount).append("\">");
+    bldr.append(fillsXml);
     bldr.append("</fills>");
     
     bldr.append("<borders count=\"2\">");
@@ -512,39 +1917,8 @@ public class XlsxWriter implements Closeable {
     bldr.append("<xf numFmtId=\"0\" fontId=\"0\" fillId=\"0\" borderId=\"0\"/>");
     bldr.append("</cellStyleXfs>");
 
-    bldr.append("<cellXfs count=\"17\">");
-
-    // Default format
-    bldr.append("<xf numFmtId=\"0\" fontId=\"0\" fillId=\"0\" borderId=\"0\" xfId=\"0\"/>");   
-    
-    int borderId = defn.gridLines ? 1 : 0;
-    // Column formats   
-    for (ColumnDefinition col : defn.columns) {      
-      int numFmt = col.format != null ? this.numFmtIdMap.get(col.format) : 0;
-      bldr.append("<xf numFmtId=\"").append(numFmt).append("\" fontId=\"0\" fillId=\"0\" borderId=\"0\" xfId=\"0\" applyNumberFormat=\"1\" />");         
-    }
-    
-    // Header
-    bldr.append("<xf fontId=\"1\" fillId=\"2\" borderId=\"").append(borderId).append("\" xfId=\"0\" applyNumberFormat=\"1\" applyFont=\"1\" applyFill=\"1\" applyBorder=\"1\"/>");
-    for (ColumnDefinition col : defn.columns) {      
-      int numFmt = col.format != null ? this.numFmtIdMap.get(col.format) : 0;
-      bldr.append("<xf numFmtId=\"").append(numFmt).append("\" fontId=\"1\" fillId=\"2\" borderId=\"").append(borderId).append("\" xfId=\"0\" applyNumberFormat=\"1\" applyFont=\"1\" applyFill=\"1\" applyBorder=\"1\"/>");
-    }
-    
-    // Even Rows
-      bldr.append("<xf fontId=\"2\" fillId=\"3\" borderId=\"").append(borderId).append("\" xfId=\"0\" applyNumberFormat=\"1\" applyFont=\"1\" applyFill=\"1\" applyBorder=\"1\"/>");
-    for (ColumnDefinition col : defn.columns) {      
-      int numFmt = col.format != null ? this.numFmtIdMap.get(col.format) : 0;
-      bldr.append("<xf numFmtId=\"").append(numFmt).append("\" fontId=\"2\" fillId=\"3\" borderId=\"").append(borderId).append("\" xfId=\"0\" applyNumberFormat=\"1\" applyFont=\"1\" applyFill=\"1\" applyBorder=\"1\"/>");
-    }
-
-    // Odd Rows
-    bldr.append("<xf fontId=\"3\" fillId=\"4\" borderId=\"").append(borderId).append("\" xfId=\"0\" applyNumberFormat=\"1\" applyFont=\"1\" applyFill=\"1\" applyBorder=\"1\"/>");
-    for (ColumnDefinition col : defn.columns) {      
-      int numFmt = col.format != null ? this.numFmtIdMap.get(col.format) : 0;
-      bldr.append("<xf numFmtId=\"").append(numFmt).append("\" fontId=\"3\" fillId=\"4\" borderId=\"").append(borderId).append("\" xfId=\"0\" applyNumberFormat=\"1\" applyFont=\"1\" applyFill=\"1\" applyBorder=\"1\"/>");
-    }
-    
+    bldr.append("<cellXfs count=\"").append(cellXfCount).append("\">");
+    bldr.append(cellXfsXml);
     bldr.append("</cellXfs>");
     
     bldr.append("<cellStyles count=\"1\">");
@@ -559,26 +1933,57 @@ public class XlsxWriter implements Closeable {
     return bldr.toString();
   }
 
-  static void buildNumFmts(Map<String, Integer> numFmtIdMap, StringBuilder bldr, TableDefinition defn) {
-    List<String> numFmts = new ArrayList<>();
+  /**
+   * Add any number formats used by a TableDefinition that have not already been seen.
+   * @param numFmtIdMap Map from format code to the ID allocated for it, updated by this method.
+   * @param bldr The numFmt elements, without the surrounding numFmts element, updated by this method.
+   * @param defn The definition whose column formats are to be added.
+   */
+  static void addNumFmts(Map<String, Integer> numFmtIdMap, StringBuilder bldr, TableDefinition defn) {
     for (ColumnDefinition col : defn.columns) {
-      if (col.format != null) {
-        if (!numFmts.contains(col.format)) {
-          numFmts.add(col.format);
-        }
+      if (col.format != null && !numFmtIdMap.containsKey(col.format)) {
+        int id = 165 + numFmtIdMap.size();
+        bldr.append("<numFmt numFmtId=\"").append(id).append("\" formatCode=\"").append(encodeSpecialCharacters(col.format)).append("\"/>");      
+        numFmtIdMap.put(col.format, id);
       }
     }
-    if (!numFmts.isEmpty()) {
-      bldr.append("<numFmts count=\"").append(numFmts.size()).append("\">");
-      int id = 165;
-      for (String fmt : numFmts) {
-        bldr.append("<numFmt numFmtId=\"").append(id).append("\" formatCode=\"").append(fmt).append("\"/>");      
-        numFmtIdMap.put(fmt, id++);
-      }
-      bldr.append("</numFmts>");
+  }
+  
+  private String buildContentTypes() {
+    StringBuilder bldr = new StringBuilder();
+    bldr.append("<Types xmlns=\"http://schemas.openxmlformats.org/package/2006/content-types\"><Default Extension=\"bin\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.printerSettings\"/><Default Extension=\"rels\" ContentType=\"application/vnd.openxmlformats-package.relationships+xml\"/><Default Extension=\"xml\" ContentType=\"application/xml\"/><Override PartName=\"/xl/workbook.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.sheet.main+xml\"/>");
+    for (int sheet = 1; sheet <= sheetNames.size(); ++sheet) {
+      bldr.append("<Override PartName=\"/xl/worksheets/sheet").append(sheet).append(".xml\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.worksheet+xml\"/>");
     }
+    bldr.append("<Override PartName=\"/xl/theme/theme1.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.theme+xml\"/><Override PartName=\"/xl/styles.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.styles+xml\"/><Override PartName=\"/xl/sharedStrings.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.sharedStrings+xml\"/><Override PartName=\"/docProps/core.xml\" ContentType=\"application/vnd.openxmlformats-package.core-properties+xml\"/><Override PartName=\"/docProps/app.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.extended-properties+xml\"/></Types>");
+    return bldr.toString();
   }
   
+  /**
+   * The worksheets are relationships rId1 to rIdN, followed by the styles, theme and shared strings.
+   */
+  private String buildWorkbookRels() {
+    int sheetCount = sheetNames.size();
+    StringBuilder bldr = new StringBuilder();
+    bldr.append("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?><Relationships xmlns=\"http://schemas.openxmlformats.org/package/2006/relationships\">");
+    bldr.append("<Relationship Id=\"rId").append(sheetCount + 2).append("\" Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/styles\" Target=\"styles.xml\"/>");
+    bldr.append("<Relationship Id=\"rId").append(sheetCount + 1).append("\" Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/theme\" Target=\"theme/theme1.xml\"/>");
+    for (int sheet = 1; sheet <= sheetCount; ++sheet) {
+      bldr.append("<Relationship Id=\"rId").append(sheet).append("\" Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/worksheet\" Target=\"worksheets/sheet").append(sheet).append(".xml\"/>");
+    }
+    bldr.append("<Relationship Id=\"rId").append(sheetCount + 3).append("\" Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/sharedStrings\" Target=\"sharedStrings.xml\"/>");
+    bldr.append("</Relationships>");
+    return bldr.toString();
+  }
   
+  private String buildWorkbook() {
+    StringBuilder bldr = new StringBuilder();
+    bldr.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?><workbook xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\" xmlns:r=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships\"><workbookPr date1904=\"false\"/><bookViews><workbookView activeTab=\"0\"/></bookViews><sheets>");
+    for (int sheet = 1; sheet <= sheetNames.size(); ++sheet) {
+      bldr.append("<sheet name=\"").append(encodeSpecialCharacters(sheetNames.get(sheet - 1))).append("\" r:id=\"rId").append(sheet).append("\" sheetId=\"").append(sheet).append("\"/>");
+    }
+    bldr.append("</sheets></workbook>");
+    return bldr.toString();
+  }
   
 }
@@ -0,0 +1,458 @@
+/*
+ * Copyright (C) 2022 jtalbut
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.spudsoft.xlsx;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Reusable byte buffer for building UTF-8 encoded XML.
+ *
+ * Markup is appended as pre-encoded byte arrays and text is encoded to UTF-8 as it is appended, so no intermediate String or char data is created.
+ * When the buffer fills it is written to the output in a single call and then reused, so in the steady state appending allocates nothing.
+ *
+ * If no output has been set the buffer grows instead of draining.
+ *
+ * @author jtalbut
+ */
+final class XmlBuffer {
+
+  private static final byte[] DIGITS = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9'};
+  private static final byte[] HEX_DIGITS = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'A', 'B', 'C', 'D', 'E', 'F'};
+  
+  private static final byte[] AMP = {'&', 'a', 'm', 'p', ';'};
+  private static final byte[] LT = {'&', 'l', 't', ';'};
+  private static final byte[] GT = {'&', 'g', 't', ';'};
+  private static final byte[] QUOT = {'&', 'q', 'u', 'o', 't', ';'};
+  
+  /**
+   * True for each ASCII character that can be output as-is in escaped text.
+   */
+  private static final boolean[] PLAIN_ASCII = buildPlainAscii();
+  
+  private static boolean[] buildPlainAscii() {
+    boolean[] result = new boolean[128];
+    for (int c = 0x20; c < 0x80; ++c) {
+      result[c] = true;
+    }
+    result['\t'] = true;
+    result['\n'] = true;
+    result['\r'] = true;
+    result['&'] = false;
+    result['<'] = false;
+    result['>'] = false;
+    result['"'] = false;
+    result['_'] = false;
+    return result;
+  }
+
+  private byte[] buf;
+  private int count;
+  private OutputStream out;
+
+  /**
+   * Constructor.
+   * @param capacity The size of the buffer, which is also the minimum size of each write to the output.
+   */
+  XmlBuffer(int capacity) {
+    if (capacity < 64) {
+      throw new IllegalArgumentException("Buffer capacity must be at least 64 bytes");
+    }
+    this.buf = new byte[capacity];
+  }
+
+  /**
+   * Constructor.
+   * @param buf The array to use as the buffer (initially), the size of which is also the minimum size of each write to the output.
+   */
+  XmlBuffer(byte[] buf) {
+    if (buf.length < 64) {
+      throw new IllegalArgumentException("Buffer capacity must be at least 64 bytes");
+    }
+    this.buf = buf;
+  }
+
+  /**
+   * Set the stream that the buffer will be drained to when it fills.
+   * @param out the stream that the buffer will be drained to when it fills.
+   */
+  void setOutput(OutputStream out) {
+    this.out = out;
+  }
+
+  /**
+   * Get the number of bytes currently held in the buffer.
+   * @return the number of bytes currently held in the buffer.
+   */
+  int size() {
+    return count;
+  }
+
+  /**
+   * Get the capacity of the buffer.
+   * @return the capacity of the buffer.
+   */
+  int capacity() {
+    return buf.length;
+  }
+
+  /**
+   * Write everything in the buffer to the output and empty the buffer.
+   * @throws IOException if the output throws.
+   */
+  void flush() throws IOException {
+    if (count > 0) {
+      out.write(buf, 0, count);
+      count = 0;
+    }
+  }
+
+  /**
+   * Discard the contents of the buffer.
+   */
+  void reset() {
+    count = 0;
+  }
+
+  /**
+   * Discard the contents of the buffer and give up its array, so that the array can be used by something else.
+   *
+   * The buffer remains usable, but with the minimum capacity.
+   * @return the array that was being used as the buffer.
+   */
+  byte[] detach() {
+    byte[] result = buf;
+    buf = new byte[64];
+    count = 0;
+    return result;
+  }
+
+  /**
+   * Get a copy of the contents of the buffer, without changing the buffer.
+   * @return a copy of the contents of the buffer.
+   */
+  byte[] toByteArray() {
+    byte[] result = new byte[count];
+    System.arraycopy(buf, 0, result, 0, count);
+    return result;
+  }
+
+  private void require(int len) throws IOException {
+    if (count + len > buf.length) {
+      if (out == null) {
+        grow(count + len);
+      } else {
+        flush();
+        if (len > buf.length) {
+          grow(len);
+        }
+      }
+    }
+  }
+
+  private void grow(int minCapacity) {
+    int newCapacity = Math.max(minCapacity, buf.length * 2);
+    byte[] newBuf = new byte[newCapacity];
+    System.arraycopy(buf, 0, newBuf, 0, count);
+    buf = newBuf;
+  }
+
+  /**
+   * Append a single byte.
+   * @param b the byte to append.
+   * @throws IOException if the buffer has to be drained and the output throws.
+   */
+  void append(byte b) throws IOException {
+    require(1);
+    buf[count++] = b;
+  }
+
+  /**
+   * Append an array of bytes.
+   * @param data the bytes to append.
+   * @throws IOException if the buffer has to be drained and the output throws.
+   */
+  void append(byte[] data) throws IOException {
+    append(data, 0, data.length);
+  }
+
+  /**
+   * Append a section of an array of bytes.
+   * @param data the bytes to append.
+   * @param off the offset of the first byte in data to append.
+   * @param len the number of bytes to append.
+   * @throws IOException if the buffer has to be drained and the output throws.
+   */
+  void append(byte[] data, int off, int len) throws IOException {
+    if (len > buf.length && out != null) {
+      flush();
+      out.write(data, off, len);
+    } else {
+      require(len);
+      System.arraycopy(data, off, buf, count, len);
+      count += len;
+    }
+  }
+
+  /**
+   * Append the decimal representation of an int.
+   * @param value the value to append.
+   * @throws IOException if the buffer has to be drained and the output throws.
+   */
+  void appendInt(int value) throws IOException {
+    appendLong(value);
+  }
+
+  /**
+   * Append the decimal representation of a long.
+   * @param value the value to append.
+   * @throws IOException if the buffer has to be drained and the output throws.
+   */
+  void appendLong(long value) throws IOException {
+    require(20);
+    if (value < 0) {
+      buf[count++] = '-';
+      if (value == Long.MIN_VALUE) {
+        // Cannot be negated, so peel off the last digit first
+        appendDigits(-(value / 10));
+        buf[count++] = DIGITS[(int) -(value % 10)];
+        return;
+      }
+      value = -value;
+    }
+    appendDigits(value);
+  }
+
+  private void appendDigits(long value) {
+    int len = 1;
+    for (long v = value; v >= 10; v /= 10) {
+      ++len;
+    }
+    int pos = count + len;
+    do {
+      buf[--pos] = DIGITS[(int) (value % 10)];
+      value /= 10;
+    } while (value != 0);
+    count += len;
+  }
+
+  /**
+   * Append the shortest decimal representation of a double that will read back as the same value.
+   * @param value the value to append.
+   * @throws IOException if the buffer has to be drained and the output throws.
+   * @see DoubleFormatter
+   */
+  void appendDouble(double value) throws IOException {
+    require(DoubleFormatter.MAX_LENGTH);
+    count = DoubleFormatter.format(value, buf, count);
+  }
+
+  /**
+   * Append the shortest decimal representation of a float that will read back as the same value.
+   * @param value the value to append.
+   * @throws IOException if the buffer has to be drained and the output throws.
+   * @see DoubleFormatter
+   */
+  void appendFloat(float value) throws IOException {
+    require(DoubleFormatter.MAX_LENGTH);
+    count = DoubleFormatter.format(value, buf, count);
+  }
+
+  /**
+   * Append a String that is known to contain only ASCII characters.
+   *
+   * This is intended for small pieces of markup that are generated at runtime, the characters are not checked.
+   *
+   * @param value the value to append.
+   * @throws IOException if the buffer has to be drained and the output throws.
+   */
+  void appendAscii(String value) throws IOException {
+    int len = value.length();
+    require(len);
+    for (int i = 0; i < len; ++i) {
+      buf[count++] = (byte) value.charAt(i);
+    }
+  }
+
+  /**
+   * Append a String as UTF-8, without any XML escaping.
+   *
+   * Unpaired surrogates are output as '?', matching the behaviour of String.getBytes(StandardCharsets.UTF_8).
+   *
+   * @param value the value to append.
+   * @throws IOException if the buffer has to be drained and the output throws.
+   */
+  void appendUtf8(String value) throws IOException {
+    int len = value.length();
+    for (int i = 0; i < len; ++i) {
+      if (count + 4 > buf.length) {
+        require(4);
+      }
+      char c = value.charAt(i);
+      if (c < 0x80) {
+        buf[count++] = (byte) c;
+      } else if (c < 0x800) {
+        buf[count++] = (byte) (0xC0 | (c >> 6));
+        buf[count++] = (byte) (0x80 | (c & 0x3F));
+      } else if (Character.isSurrogate(c)) {
+        if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(value.charAt(i + 1))) {
+          appendCodePoint(Character.toCodePoint(c, value.charAt(++i)));
+        } else {
+          buf[count++] = '?';
+        }
+      } else {
+        buf[count++] = (byte) (0xE0 | (c >> 12));
+        buf[count++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+        buf[count++] = (byte) (0x80 | (c & 0x3F));
+      }
+    }
+  }
+
+  /**
+   * Determine whether or not a String can be output without any changes by {@link #appendEscaped(java.lang.String)}.
+   * @param value the String to check.
+   * @return true if {@link #appendEscaped(java.lang.String)} would output value unchanged (other than encoding it as UTF-8).
+   */
+  static boolean isPlain(String value) {
+    int len = value.length();
+    for (int i = 0; i < len; ++i) {
+      char c = value.charAt(i);
+      if (c < 0x80) {
+        if (!PLAIN_ASCII[c] && !(c == '_' && !isEscapeLike(value, i))) {
+          return false;
+        }
+      } else if (Character.isSurrogate(c)) {
+        if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(value.charAt(i + 1))) {
+          ++i;
+        } else {
+          return false;
+        }
+      } else if (c >= 0xFFFE) {
+        return false;
+      }
+    }
+    return true;
+  }
+  
+  /**
+   * Return true if the text at index i looks like an Excel escape sequence (_xHHHH_).
+   */
+  private static boolean isEscapeLike(String value, int i) {
+    if (i + 6 >= value.length() || value.charAt(i + 1) != 'x' || value.charAt(i + 6) != '_') {
+      return false;
+    }
+    for (int j = i + 2; j < i + 6; ++j) {
+      if (Character.digit(value.charAt(j), 16) < 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+  
+  /**
+   * Append a String as UTF-8, escaping it to make it valid as XML text or as a double quoted attribute value.
+   *
+   * The value is scanned once and written directly into the buffer:
+   * <ul>
+   * <li>'&amp;', '&lt;', '&gt;' and '"' are replaced by entity references.
+   * <li>Characters that are not permitted in XML 1.0 (control characters other than tab, CR and LF; U+FFFE and U+FFFF)
+   * are written using the Excel escape "_xHHHH_", which Excel converts back to the original character.
+   * <li>Text that would otherwise be mistaken for an Excel escape has its underscore escaped as "_x005F_".
+   * <li>Unpaired surrogates are output as '?', as they are by String.getBytes(StandardCharsets.UTF_8).
+   * </ul>
+   *
+   * @param value the value to append.
+   * @throws IOException if the buffer has to be drained and the output throws.
+   */
+  void appendEscaped(String value) throws IOException {
+    int len = value.length();
+    for (int i = 0; i < len; ++i) {
+      if (count + 8 > buf.length) {
+        require(8);
+      }
+      char c = value.charAt(i);
+      if (c < 0x80) {
+        if (PLAIN_ASCII[c]) {
+          buf[count++] = (byte) c;
+        } else {
+          switch (c) {
+            case '&':
+              appendUnchecked(AMP);
+              break;
+            case '<':
+              appendUnchecked(LT);
+              break;
+            case '>':
+              appendUnchecked(GT);
+              break;
+            case '"':
+              appendUnchecked(QUOT);
+              break;
+            case '_':
+              if (isEscapeLike(value, i)) {
+                appendHexEscape(c);
+              } else {
+                buf[count++] = '_';
+              }
+              break;
+            default:
+              appendHexEscape(c);
+              break;
+          }
+        }
+      } else if (c < 0x800) {
+        buf[count++] = (byte) (0xC0 | (c >> 6));
+        buf[count++] = (byte) (0x80 | (c & 0x3F));
+      } else if (Character.isSurrogate(c)) {
+        if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(value.charAt(i + 1))) {
+          appendCodePoint(Character.toCodePoint(c, value.charAt(++i)));
+        } else {
+          buf[count++] = '?';
+        }
+      } else if (c >= 0xFFFE) {
+        appendHexEscape(c);
+      } else {
+        buf[count++] = (byte) (0xE0 | (c >> 12));
+        buf[count++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+        buf[count++] = (byte) (0x80 | (c & 0x3F));
+      }
+    }
+  }
+
+  private void appendUnchecked(byte[] data) {
+    System.arraycopy(data, 0, buf, count, data.length);
+    count += data.length;
+  }
+  
+  private void appendHexEscape(char c) {
+    buf[count++] = '_';
+    buf[count++] = 'x';
+    buf[count++] = HEX_DIGITS[(c >> 12) & 0xF];
+    buf[count++] = HEX_DIGITS[(c >> 8) & 0xF];
+    buf[count++] = HEX_DIGITS[(c >> 4) & 0xF];
+    buf[count++] = HEX_DIGITS[c & 0xF];
+    buf[count++] = '_';
+  }
+  
+  private void appendCodePoint(int cp) {
+    buf[count++] = (byte) (0xF0 | (cp >> 18));
+    buf[count++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+    buf[count++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+    buf[count++] = (byte) (0x80 | (cp & 0x3F));
+  }
+
+}
@@ -0,0 +1,705 @@
+/*
+ * Copyright (C) 2022 jtalbut
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.spudsoft.xlsx;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Minimal streaming ZIP file writer.
+ *
+ * Unlike ZipOutputStream this accepts entry data that has already been deflated (as a raw DEFLATE stream),
+ * which makes it possible to compress the data somewhere other than on the calling thread.
+ *
+ * Entries whose content is known up front are written with their sizes in the local header.
+ * Entries that are streamed are written with a data descriptor following the data.
+ * Zip64 records are used only when an entry, or the file, is too large for the original format (as ZipOutputStream does).
+ *
+ * The size of a streamed entry is not known when its local header is written, but readers that do not use the central directory
+ * decide whether the data descriptor has 4 or 8 byte sizes by the presence of a Zip64 extra field in the local header.
+ * When a {@link Patcher} is provided the local header of each streamed entry is written with an extra field of padding,
+ * and if the entry turns out to need Zip64 the local header is rewritten with a Zip64 extra field in place of the padding,
+ * so the local header, data descriptor and central directory all agree.
+ * Without a Patcher the data descriptor of a large entry has 8 byte sizes, as ZipOutputStream writes and ZipInputStream expects,
+ * and the central directory (which Excel uses) is always correct.
+ *
+ * The only state kept for the central directory is a small record per entry (the name, offset, CRC and sizes),
+ * so memory use does not depend on the size of the entries.
+ *
+ * This class is not thread safe.
+ *
+ * @author jtalbut
+ */
+final class ZipWriter {
+
+  private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+  private static final int DATA_DESCRIPTOR_SIGNATURE = 0x08074b50;
+  private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+  private static final int ZIP64_END_SIGNATURE = 0x06064b50;
+  private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+  private static final int END_SIGNATURE = 0x06054b50;
+
+  private static final int FLAG_DATA_DESCRIPTOR = 0x0008;
+  private static final int FLAG_UTF8 = 0x0800;
+
+  private static final int METHOD_STORED = 0;
+  private static final int METHOD_DEFLATED = 8;
+
+  private static final int VERSION_STORED = 10;
+  private static final int VERSION_DEFLATED = 20;
+  private static final int VERSION_ZIP64 = 45;
+
+  private static final int ZIP64_EXTRA_ID = 0x0001;
+  private static final int ZIP64_EXTRA_LENGTH = 16;
+  /**
+   * The ID of the extra field used to reserve space for a Zip64 extra field, which is not known to any reader and so will be ignored.
+   */
+  private static final int PADDING_EXTRA_ID = 0x6C78;
+  private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+  private static final int ZIP64_MAGIC_COUNT = 0xFFFF;
+
+  /**
+   * The maximum length of a stored DEFLATE block.
+   */
+  static final int MAX_STORED_BLOCK = 0xFFFF;
+
+  /**
+   * Callback used to overwrite data that has already been written, when the output supports it.
+   */
+  @FunctionalInterface
+  interface Patcher {
+    /**
+     * Overwrite data that has already been written to the ZIP file.
+     * @param offset The offset, from the start of the ZIP file, of the first byte to overwrite.
+     * @param data The bytes to write.
+     * @throws IOException if the output throws.
+     */
+    void patch(long offset, byte[] data) throws IOException;
+  }
+
+  /**
+   * Details of each entry written, needed for the central directory.
+   */
+  private static final class Entry {
+    private final byte[] name;
+    private final int flags;
+    private final int method;
+    private final long offset;
+    /**
+     * True if the local header has padding that can be replaced with a Zip64 extra field.
+     */
+    private final boolean reserved;
+    private long crc;
+    private long compressedSize;
+    private long size;
+    private byte[] prefix;
+
+    Entry(byte[] name, int flags, int method, long offset, boolean reserved) {
+      this.name = name;
+      this.flags = flags;
+      this.method = method;
+      this.offset = offset;
+      this.reserved = reserved;
+    }
+  }
+
+  private final OutputStream out;
+  private final Patcher patcher;
+  private final long zip64Threshold;
+  private final int dosTime;
+  private final int dosDate;
+  private final List<Entry> entries = new ArrayList<>();
+  private final byte[] header = new byte[64];
+  private long written;
+  private Entry current;
+  private boolean finished;
+
+  /**
+   * Constructor.
+   * @param out The stream that the ZIP file will be written to.
+   */
+  ZipWriter(OutputStream out) {
+    this(out, null, ZIP64_MAGIC);
+  }
+
+  /**
+   * Constructor.
+   * @param out The stream that the ZIP file will be written to.
+   * @param patcher Callback for overwriting the local headers of streamed entries that need Zip64, or null if the output cannot be overwritten.
+   */
+  ZipWriter(OutputStream out, Patcher patcher) {
+    this(out, patcher, ZIP64_MAGIC);
+  }
+
+  /**
+   * Constructor.
+   * @param out The stream that the ZIP file will be written to.
+   * @param patcher Callback for overwriting the local headers of streamed entries that need Zip64, or null if the output cannot be overwritten.
+   * @param zip64Threshold The size (or offset) at which Zip64 records are used, which is only less than 0xFFFFFFFF for testing.
+   */
+  ZipWriter(OutputStream out, Patcher patcher, long zip64Threshold) {
+    this.out = out;
+    this.patcher = patcher;
+    this.zip64Threshold = zip64Threshold;
+    LocalDateTime now = LocalDateTime.now();
+    this.dosTime = (now.getHour() << 11) | (now.getMinute() << 5) | (now.getSecond() >> 1);
+    this.dosDate = ((now.getYear() - 1980) << 9) | (now.getMonthValue() << 5) | now.getDayOfMonth();
+  }
+
+  /**
+   * Get the number of bytes written to the output so far.
+   * @return the number of bytes written to the output so far.
+   */
+  long getBytesWritten() {
+    return written;
+  }
+
+  /**
+   * The content of an entry that has been compressed (or not) ready to be written, possibly more than once.
+   */
+  static final class PreparedEntry {
+    private final byte[] content;
+    private final int contentLength;
+    private final long crc;
+    private final long size;
+    private final boolean deflated;
+
+    private PreparedEntry(byte[] content, int contentLength, long crc, long size, boolean deflated) {
+      this.content = content;
+      this.contentLength = contentLength;
+      this.crc = crc;
+      this.size = size;
+      this.deflated = deflated;
+    }
+
+    /**
+     * Get the number of bytes of compressed data.
+     * @return the number of bytes of compressed data.
+     */
+    int getCompressedSize() {
+      return contentLength;
+    }
+
+    /**
+     * Compress the content of an entry.
+     *
+     * @param data The uncompressed content of the entry.
+     * @param deflater The Deflater to use to compress the data, which must have been created with nowrap set, or null to STORE the data.
+     * The Deflater will be reset before it is used.
+     * @return The prepared entry.
+     */
+    static PreparedEntry prepare(byte[] data, Deflater deflater) {
+      CRC32 crc = new CRC32();
+      crc.update(data);
+
+      byte[] content = data;
+      int contentLength = data.length;
+      if (deflater != null) {
+        deflater.reset();
+        deflater.setInput(data);
+        deflater.finish();
+        content = new byte[data.length + (data.length >> 3) + 64];
+        contentLength = 0;
+        while (!deflater.finished()) {
+          if (contentLength == content.length) {
+            content = Arrays.copyOf(content, content.length * 2);
+          }
+          contentLength += deflater.deflate(content, contentLength, content.length - contentLength);
+        }
+      }
+      return new PreparedEntry(content, contentLength, crc.getValue(), data.length, deflater != null);
+    }
+  }
+
+  /**
+   * Write a complete entry whose content is already known.
+   *
+   * @param name The name of the entry.
+   * @param data The uncompressed content of the entry.
+   * @param deflater The Deflater to use to compress the data, which must have been created with nowrap set, or null to STORE the data.
+   * The Deflater will be reset before it is used.
+   * @throws IOException if the output throws.
+   */
+  void writeEntry(String name, byte[] data, Deflater deflater) throws IOException {
+    checkNoEntry();
+    writeEntry(name, PreparedEntry.prepare(data, deflater));
+  }
+
+  /**
+   * Write a complete entry whose content has already been compressed.
+   *
+   * @param name The name of the entry.
+   * @param prepared The content of the entry.
+   * @throws IOException if the output throws.
+   */
+  void writeEntry(String name, PreparedEntry prepared) throws IOException {
+    checkNoEntry();
+    Entry entry = new Entry(name.getBytes(StandardCharsets.UTF_8), FLAG_UTF8, prepared.deflated ? METHOD_DEFLATED : METHOD_STORED, written, false);
+    entry.crc = prepared.crc;
+    entry.compressedSize = prepared.contentLength;
+    entry.size = prepared.size;
+    writeLocalHeader(entry);
+    write(prepared.content, 0, prepared.contentLength);
+    entries.add(entry);
+  }
+
+  /**
+   * Begin an entry whose content will be provided as a raw DEFLATE stream via {@link #writeEntryData(byte[], int, int)}.
+   *
+   * @param name The name of the entry.
+   * @throws IOException if the output throws.
+   */
+  void beginEntry(String name) throws IOException {
+    checkNoEntry();
+    current = new Entry(name.getBytes(StandardCharsets.UTF_8), FLAG_UTF8 | FLAG_DATA_DESCRIPTOR, METHOD_DEFLATED, written, patcher != null);
+    writeLocalHeader(current);
+  }
+
+  /**
+   * Begin an entry whose content will be written, uncompressed, to the returned stream.
+   *
+   * The data is compressed on the calling thread, closing the returned stream ends the entry (but does not close the output).
+   *
+   * @param name The name of the entry.
+   * @param deflater The Deflater to use to compress the data, which must have been created with nowrap set.
+   * The Deflater will be reset before it is used.
+   * @param bufferSize The size of the buffer for compressed data.
+   * @return A stream to which the uncompressed content of the entry should be written.
+   * @throws IOException if the output throws.
+   */
+  OutputStream openEntry(String name, Deflater deflater, int bufferSize) throws IOException {
+    return openEntry(name, deflater, new byte[bufferSize]);
+  }
+
+  /**
+   * Begin a DEFLATEd entry and return a stream to which its uncompressed content should be written, compressing into a buffer supplied by the caller.
+   *
+   * The buffer is only used until the returned stream is closed, after which it may be reused.
+   *
+   * @param name The name of the entry.
+   * @param deflater The Deflater to use to compress the data, which must have been created with nowrap set.
+   * The Deflater will be reset before it is used.
+   * @param buf The buffer for compressed data.
+   * @return A stream to which the uncompressed content of the entry should be written.
+   * @throws IOException if the output throws.
+   */
+  OutputStream openEntry(String name, Deflater deflater, byte[] buf) throws IOException {
+    beginEntry(name);
+    deflater.reset();
+    return new DeflatingEntryStream(deflater, buf);
+  }
+
+  /**
+   * Stream that deflates data on the calling thread and writes it to the current entry.
+   */
+  private final class DeflatingEntryStream extends OutputStream implements PrecompressedOutput {
+    private final Deflater deflater;
+    private final byte[] buf;
+    private final CRC32 crc = new CRC32();
+    private long size;
+    /**
+     * The CRC and size of the data before the most recently spliced in precompressed data, which the CRC32 object does not cover.
+     */
+    private long priorCrc;
+    private long priorSize;
+    private boolean closed;
+
+    DeflatingEntryStream(Deflater deflater, byte[] buf) {
+      this.deflater = deflater;
+      this.buf = buf;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      if (closed) {
+        throw new IOException("Stream closed");
+      }
+      crc.update(b, off, len);
+      size += len;
+      deflater.setInput(b, off, len);
+      while (!deflater.needsInput()) {
+        deflate();
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      deflater.finish();
+      while (!deflater.finished()) {
+        deflate();
+      }
+      endEntry(Crc32Combiner.combine(priorCrc, crc.getValue(), size - priorSize), size);
+    }
+
+    @Override
+    public void writePrecompressed(InputStream compressed, long compressedSize, long dataCrc, long dataSize) throws IOException {
+      if (closed) {
+        throw new IOException("Stream closed");
+      }
+      if (size > priorSize) {
+        int len;
+        do {
+          len = deflater.deflate(buf, 0, buf.length, Deflater.SYNC_FLUSH);
+          if (len > 0) {
+            writeEntryData(buf, 0, len);
+          }
+        } while (len == buf.length);
+      }
+      writeEntryData(compressed, compressedSize, buf);
+      priorCrc = Crc32Combiner.combine(Crc32Combiner.combine(priorCrc, crc.getValue(), size - priorSize), dataCrc, dataSize);
+      size += dataSize;
+      priorSize = size;
+      crc.reset();
+      deflater.reset();
+    }
+
+    private void deflate() throws IOException {
+      int len = deflater.deflate(buf);
+      if (len > 0) {
+        writeEntryData(buf, 0, len);
+      }
+    }
+  }
+
+  /**
+   * Write the first part of the current entry as a stored (uncompressed) DEFLATE block, so that it can be overwritten later.
+   *
+   * This must be called before any other data is written for the entry, the rest of the data (from any DEFLATE stream) follows it.
+   * The CRC and size passed to {@link #endEntry(long, long)} must cover only the data that follows the prefix,
+   * the prefix (as changed by {@link #replaceStoredPrefix(byte[])}) is added in when the entry is ended.
+   *
+   * @param data The uncompressed content of the start of the entry.
+   * @return The offset, from the start of the ZIP file, of the first byte of the prefix.
+   * @throws IOException if the output throws.
+   * @throws IllegalArgumentException if the prefix is longer than a stored block can be.
+   */
+  long writeStoredPrefix(byte[] data) throws IOException {
+    if (current == null) {
+      throw new IllegalStateException("No entry has been begun");
+    }
+    if (current.compressedSize != 0) {
+      throw new IllegalStateException("The prefix must be the first data in the entry");
+    }
+    if (data.length > MAX_STORED_BLOCK) {
+      throw new IllegalArgumentException("A stored prefix cannot be longer than " + MAX_STORED_BLOCK + " bytes");
+    }
+    // BFINAL = 0, BTYPE = 00 (stored), padded to a byte boundary, followed by LEN and NLEN
+    int pos = 0;
+    header[pos++] = 0;
+    pos = putShort(header, pos, data.length);
+    pos = putShort(header, pos, ~data.length);
+    writeEntryData(header, 0, pos);
+    long offset = written;
+    writeEntryData(data, 0, data.length);
+    current.prefix = data.clone();
+    return offset;
+  }
+
+  /**
+   * Change the content of the stored prefix of the current entry, for the purpose of calculating the CRC of the entry.
+   *
+   * The caller is responsible for overwriting the bytes of the prefix in the output.
+   *
+   * @param data The new content of the prefix, which must be the same length as the original.
+   * @throws IllegalArgumentException if the new prefix is not the same length as the original.
+   */
+  void replaceStoredPrefix(byte[] data) {
+    if (current == null || current.prefix == null) {
+      throw new IllegalStateException("The current entry does not have a stored prefix");
+    }
+    if (data.length != current.prefix.length) {
+      throw new IllegalArgumentException("The replacement prefix must be " + current.prefix.length + " bytes long");
+    }
+    current.prefix = data.clone();
+  }
+
+  /**
+   * Write compressed data for the current entry.
+   *
+   * @param b The buffer containing the data.
+   * @param off The offset of the data in the buffer.
+   * @param len The number of bytes to write.
+   * @throws IOException if the output throws.
+   */
+  void writeEntryData(byte[] b, int off, int len) throws IOException {
+    if (current == null) {
+      throw new IllegalStateException("No entry has been begun");
+    }
+    write(b, off, len);
+    current.compressedSize += len;
+  }
+
+  /**
+   * Copy data for the current entry from a stream.
+   *
+   * @param in The stream to read the data from.
+   * @param length The number of bytes to copy.
+   * @param buf A buffer to use for the copy.
+   * @throws IOException if the stream throws or ends before length bytes have been read, or the output throws.
+   */
+  void writeEntryData(InputStream in, long length, byte[] buf) throws IOException {
+    while (length > 0) {
+      int read = in.read(buf, 0, (int) Math.min(buf.length, length));
+      if (read < 0) {
+        throw new EOFException("Data ended " + length + " bytes early");
+      }
+      writeEntryData(buf, 0, read);
+      length -= read;
+    }
+  }
+
+  /**
+   * End the current entry, writing its data descriptor.
+   *
+   * @param crc The CRC32 of the uncompressed data.
+   * @param size The number of bytes of uncompressed data.
+   * @throws IOException if the output throws.
+   */
+  void endEntry(long crc, long size) throws IOException {
+    if (current == null) {
+      throw new IllegalStateException("No entry has been begun");
+    }
+    Entry entry = current;
+    current = null;
+    if (entry.prefix != null) {
+      CRC32 prefixCrc = new CRC32();
+      prefixCrc.update(entry.prefix);
+      crc = Crc32Combiner.combine(prefixCrc.getValue(), crc, size);
+      size += entry.prefix.length;
+      entry.prefix = null;
+    }
+    entry.crc = crc;
+    entry.size = size;
+
+    boolean zip64 = entry.compressedSize >= zip64Threshold || size >= zip64Threshold;
+    int pos = putInt(header, 0, DATA_DESCRIPTOR_SIGNATURE);
+    pos = putInt(header, pos, (int) crc);
+    if (zip64) {
+      pos = putLong(header, pos, entry.compressedSize);
+      pos = putLong(header, pos, size);
+    } else {
+      pos = putInt(header, pos, (int) entry.compressedSize);
+      pos = putInt(header, pos, (int) size);
+    }
+    write(header, 0, pos);
+    entries.add(entry);
+
+    if (zip64 && entry.reserved) {
+      patcher.patch(entry.offset, buildZip64LocalHeader(entry));
+    }
+  }
+
+  /**
+   * Build the local header of a streamed entry that needs Zip64, with the Zip64 extra field in place of the padding.
+   *
+   * The sizes in the header are set to 0xFFFFFFFF and the real sizes are in the extra field, which tells readers
+   * that the data descriptor has 8 byte sizes.
+   * The CRC remains zero, because the data descriptor flag is still set.
+   */
+  private byte[] buildZip64LocalHeader(Entry entry) {
+    byte[] local = new byte[30 + entry.name.length + 4 + ZIP64_EXTRA_LENGTH];
+    int pos = putInt(local, 0, LOCAL_HEADER_SIGNATURE);
+    pos = putShort(local, pos, VERSION_ZIP64);
+    pos = putShort(local, pos, entry.flags);
+    pos = putShort(local, pos, entry.method);
+    pos = putShort(local, pos, dosTime);
+    pos = putShort(local, pos, dosDate);
+    pos = putInt(local, pos, 0);
+    pos = putInt(local, pos, (int) ZIP64_MAGIC);
+    pos = putInt(local, pos, (int) ZIP64_MAGIC);
+    pos = putShort(local, pos, entry.name.length);
+    pos = putShort(local, pos, 4 + ZIP64_EXTRA_LENGTH);
+    System.arraycopy(entry.name, 0, local, pos, entry.name.length);
+    pos += entry.name.length;
+    pos = putShort(local, pos, ZIP64_EXTRA_ID);
+    pos = putShort(local, pos, ZIP64_EXTRA_LENGTH);
+    pos = putLong(local, pos, entry.size);
+    putLong(local, pos, entry.compressedSize);
+    return local;
+  }
+
+  /**
+   * Write the central directory, completing the ZIP file.
+   *
+   * This does not close or flush the output.
+   *
+   * @throws IOException if the output throws.
+   */
+  void finish() throws IOException {
+    if (finished) {
+      return;
+    }
+    checkNoEntry();
+    finished = true;
+
+    long centralStart = written;
+    for (Entry entry : entries) {
+      writeCentralHeader(entry);
+    }
+    long centralSize = written - centralStart;
+
+    int count = entries.size();
+    if (count >= ZIP64_MAGIC_COUNT || centralStart >= zip64Threshold || centralSize >= zip64Threshold) {
+      long zip64Start = written;
+      int pos = putInt(header, 0, ZIP64_END_SIGNATURE);
+      pos = putLong(header, pos, 44);
+      pos = putShort(header, pos, VERSION_ZIP64);
+      pos = putShort(header, pos, VERSION_ZIP64);
+      pos = putInt(header, pos, 0);
+      pos = putInt(header, pos, 0);
+      pos = putLong(header, pos, count);
+      pos = putLong(header, pos, count);
+      pos = putLong(header, pos, centralSize);
+      pos = putLong(header, pos, centralStart);
+      write(header, 0, pos);
+
+      pos = putInt(header, 0, ZIP64_LOCATOR_SIGNATURE);
+      pos = putInt(header, pos, 0);
+      pos = putLong(header, pos, zip64Start);
+      pos = putInt(header, pos, 1);
+      write(header, 0, pos);
+    }
+
+    int pos = putInt(header, 0, END_SIGNATURE);
+    pos = putShort(header, pos, 0);
+    pos = putShort(header, pos, 0);
+    pos = putShort(header, pos, Math.min(count, ZIP64_MAGIC_COUNT));
+    pos = putShort(header, pos, Math.min(count, ZIP64_MAGIC_COUNT));
+    pos = putInt(header, pos, (int) (centralSize >= zip64Threshold ? ZIP64_MAGIC : centralSize));
+    pos = putInt(header, pos, (int) (centralStart >= zip64Threshold ? ZIP64_MAGIC : centralStart));
+    pos = putShort(header, pos, 0);
+    write(header, 0, pos);
+  }
+
+  private void checkNoEntry() {
+    if (current != null) {
+      throw new IllegalStateException("The current entry has not been ended");
+    }
+    if (finished) {
+      throw new IllegalStateException("The ZIP file has been finished");
+    }
+  }
+
+  private void writeLocalHeader(Entry entry) throws IOException {
+    boolean descriptor = (entry.flags & FLAG_DATA_DESCRIPTOR) != 0;
+    int pos = putInt(header, 0, LOCAL_HEADER_SIGNATURE);
+    pos = putShort(header, pos, entry.method == METHOD_STORED ? VERSION_STORED : VERSION_DEFLATED);
+    pos = putShort(header, pos, entry.flags);
+    pos = putShort(header, pos, entry.method);
+    pos = putShort(header, pos, dosTime);
+    pos = putShort(header, pos, dosDate);
+    pos = putInt(header, pos, descriptor ? 0 : (int) entry.crc);
+    pos = putInt(header, pos, descriptor ? 0 : (int) entry.compressedSize);
+    pos = putInt(header, pos, descriptor ? 0 : (int) entry.size);
+    pos = putShort(header, pos, entry.name.length);
+    pos = putShort(header, pos, entry.reserved ? 4 + ZIP64_EXTRA_LENGTH : 0);
+    write(header, 0, pos);
+    write(entry.name, 0, entry.name.length);
+    if (entry.reserved) {
+      pos = putShort(header, 0, PADDING_EXTRA_ID);
+      pos = putShort(header, pos, ZIP64_EXTRA_LENGTH);
+      Arrays.fill(header, pos, pos + ZIP64_EXTRA_LENGTH, (byte) 0);
+      write(header, 0, pos + ZIP64_EXTRA_LENGTH);
+    }
+  }
+
+  private void writeCentralHeader(Entry entry) throws IOException {
+    boolean zip64Size = entry.size >= zip64Threshold;
+    boolean zip64CompressedSize = entry.compressedSize >= zip64Threshold;
+    boolean zip64Offset = entry.offset >= zip64Threshold;
+    int extraLength = (zip64Size ? 8 : 0) + (zip64CompressedSize ? 8 : 0) + (zip64Offset ? 8 : 0);
+    int version = extraLength > 0 ? VERSION_ZIP64 : (entry.method == METHOD_STORED ? VERSION_STORED : VERSION_DEFLATED);
+
+    int pos = putInt(header, 0, CENTRAL_HEADER_SIGNATURE);
+    pos = putShort(header, pos, version);
+    pos = putShort(header, pos, version);
+    pos = putShort(header, pos, entry.flags);
+    pos = putShort(header, pos, entry.method);
+    pos = putShort(header, pos, dosTime);
+    pos = putShort(header, pos, dosDate);
+    pos = putInt(header, pos, (int) entry.crc);
+    pos = putInt(header, pos, (int) (zip64CompressedSize ? ZIP64_MAGIC : entry.compressedSize));
+    pos = putInt(header, pos, (int) (zip64Size ? ZIP64_MAGIC : entry.size));
+    pos = putShort(header, pos, entry.name.length);
+    pos = putShort(header, pos, extraLength > 0 ? extraLength + 4 : 0);
+    pos = putShort(header, pos, 0);
+    pos = putShort(header, pos, 0);
+    pos = putShort(header, pos, 0);
+    pos = putInt(header, pos, 0);
+    pos = putInt(header, pos, (int) (zip64Offset ? ZIP64_MAGIC : entry.offset));
+    write(header, 0, pos);
+    write(entry.name, 0, entry.name.length);
+
+    if (extraLength > 0) {
+      pos = putShort(header, 0, ZIP64_EXTRA_ID);
+      pos = putShort(header, pos, extraLength);
+      if (zip64Size) {
+        pos = putLong(header, pos, entry.size);
+      }
+      if (zip64CompressedSize) {
+        pos = putLong(header, pos, entry.compressedSize);
+      }
+      if (zip64Offset) {
+        pos = putLong(header, pos, entry.offset);
+      }
+      write(header, 0, pos);
+    }
+  }
+
+  private void write(byte[] b, int off, int len) throws IOException {
+    out.write(b, off, len);
+    written += len;
+  }
+
+  private static int putShort(byte[] b, int pos, int value) {
+    b[pos] = (byte) value;
+    b[pos + 1] = (byte) (value >>> 8);
+    return pos + 2;
+  }
+
+  private static int putInt(byte[] b, int pos, int value) {
+    b[pos] = (byte) value;
+    b[pos + 1] = (byte) (value >>> 8);
+    b[pos + 2] = (byte) (value >>> 16);
+    b[pos + 3] = (byte) (value >>> 24);
+    return pos + 4;
+  }
+
+  private static int putLong(byte[] b, int pos, long value) {
+    pos = putInt(b, pos, (int) value);
+    return putInt(b, pos, (int) (value >>> 32));
+  }
+
+}
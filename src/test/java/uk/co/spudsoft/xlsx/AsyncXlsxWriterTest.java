@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2022 jtalbut
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.spudsoft.xlsx;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ *
+ * @author jtalbut
+ */
+public class AsyncXlsxWriterTest {
+
+  private static final TableDefinition DEFN = new TableDefinition(null, "Data", null, false, true, null, null, null, null, null
+          , Arrays.asList(new ColumnDefinition("Id", null, null), new ColumnDefinition("Text", null, null))
+  );
+
+  private static List<Object> row(int i) {
+    return Arrays.asList(i, "Row " + i + " " + Integer.toHexString(i * 7919), 1.0 / (i + 1));
+  }
+
+  @Test
+  public void testBackpressure() throws IOException {
+    AsyncXlsxWriter writer = new AsyncXlsxWriter(DEFN, new CompressionDefinition(1, true, Deflater.DEFAULT_STRATEGY, 1024), null, 8192);
+    CollectingSubscriber subscriber = new CollectingSubscriber();
+    writer.subscribe(subscriber);
+    AtomicInteger drained = new AtomicInteger();
+    writer.setDrainHandler(drained::incrementAndGet);
+
+    writer.startFile();
+    int rows = 0;
+    while (writer.isWritable()) {
+      writer.outputRow(row(rows++));
+    }
+    assertTrue(writer.getQueuedBytes() >= 8192);
+    assertEquals(0, subscriber.chunks);
+
+    // Request a few chunks at a time, as a socket would, producing more rows whenever the writer is writable
+    for (int i = 0; i < 5000; ++i) {
+      subscriber.subscription.request(2);
+      while (writer.isWritable()) {
+        writer.outputRow(row(rows++));
+      }
+      // The queue never grows beyond the high water mark by more than the compressed data released by a single row,
+      // which may be a whole deflate block
+      assertTrue(writer.getQueuedBytes() < 8192 + 65536, Long.toString(writer.getQueuedBytes()));
+    }
+    assertTrue(drained.get() > 0);
+
+    writer.close();
+    assertFalse(subscriber.complete);
+    subscriber.subscription.request(Long.MAX_VALUE);
+    assertTrue(subscriber.complete);
+    assertNull(subscriber.error);
+
+    byte[] bytes = subscriber.received.toByteArray();
+    assertEquals(10, ZipWriterTest.readCentral(bytes).size());
+
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    try (XlsxWriter sync = new XlsxWriter(DEFN, new CompressionDefinition(1, true, Deflater.DEFAULT_STRATEGY, 1024))) {
+      sync.startFile(expected);
+      for (int i = 0; i < rows; ++i) {
+        sync.outputRow(row(i));
+      }
+    }
+    assertEquals(XlsxWriterTest.readEntry(expected.toByteArray(), "xl/worksheets/sheet1.xml"), XlsxWriterTest.readEntry(bytes, "xl/worksheets/sheet1.xml"));
+  }
+
+  @Test
+  public void testCursorAndCancel() throws IOException {
+    AsyncXlsxWriter writer = new AsyncXlsxWriter(DEFN);
+    CollectingSubscriber subscriber = new CollectingSubscriber();
+    writer.subscribe(subscriber);
+    subscriber.subscription.request(Long.MAX_VALUE);
+    writer.startFile();
+    writer.getWriter().beginRow();
+    writer.getWriter().writeLong(1);
+    writer.getWriter().endRow();
+    subscriber.subscription.cancel();
+    assertThrows(IOException.class, () -> {
+      for (int i = 0; i < 100000; ++i) {
+        writer.outputRow(row(i));
+      }
+    });
+    assertThrows(IOException.class, () -> writer.close());
+    assertFalse(subscriber.complete);
+  }
+
+  @Test
+  public void testParallelRejected() {
+    assertThrows(IllegalArgumentException.class, () -> {
+      new AsyncXlsxWriter(DEFN, new CompressionDefinition(1, true, Deflater.DEFAULT_STRATEGY, 1024, 2, CompressionDefinition.DEFAULT_BLOCK_SIZE), null, 8192);
+    });
+  }
+
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2022 jtalbut
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.spudsoft.xlsx;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ *
+ * @author jtalbut
+ */
+public class ByteBufferPublisherTest {
+
+  @Test
+  public void testDemandAndWritability() throws IOException {
+    assertThrows(IllegalArgumentException.class, () -> { new ByteBufferPublisher(0); });
+
+    ByteBufferPublisher publisher = new ByteBufferPublisher(10);
+    AtomicInteger drained = new AtomicInteger();
+    publisher.setDrainHandler(drained::incrementAndGet);
+
+    // Writes before there is a subscriber are queued
+    publisher.write(new byte[] {1, 2, 3, 4});
+    publisher.write(5);
+    assertTrue(publisher.isWritable());
+    assertEquals(5, publisher.getQueuedBytes());
+
+    CollectingSubscriber subscriber = new CollectingSubscriber();
+    publisher.subscribe(subscriber);
+    assertEquals(0, subscriber.chunks);
+
+    publisher.write(new byte[] {6, 7, 8, 9, 10, 11, 12}, 1, 5);
+    assertFalse(publisher.isWritable());
+    assertEquals(10, publisher.getQueuedBytes());
+
+    subscriber.subscription.request(1);
+    assertEquals(1, subscriber.chunks);
+    assertEquals(6, publisher.getQueuedBytes());
+    assertEquals(0, drained.get());
+
+    subscriber.subscription.request(1);
+    assertEquals(5, publisher.getQueuedBytes());
+    assertEquals(1, drained.get());
+    assertTrue(publisher.isWritable());
+
+    publisher.close();
+    assertFalse(subscriber.complete);
+    subscriber.subscription.request(Long.MAX_VALUE);
+    subscriber.subscription.request(Long.MAX_VALUE);
+    assertTrue(subscriber.complete);
+    assertNull(subscriber.error);
+    assertArrayEquals(new byte[] {1, 2, 3, 4, 5, 7, 8, 9, 10, 11}, subscriber.received.toByteArray());
+    assertEquals(1, drained.get());
+    assertThrows(IOException.class, () -> publisher.write(1));
+  }
+
+  @Test
+  public void testSingleSubscriber() {
+    ByteBufferPublisher publisher = new ByteBufferPublisher(10);
+    CollectingSubscriber first = new CollectingSubscriber();
+    CollectingSubscriber second = new CollectingSubscriber();
+    publisher.subscribe(first);
+    publisher.subscribe(second);
+    assertNull(first.error);
+    assertInstanceOf(IllegalStateException.class, second.error);
+  }
+
+  @Test
+  public void testCancel() throws IOException {
+    ByteBufferPublisher publisher = new ByteBufferPublisher(10);
+    CollectingSubscriber subscriber = new CollectingSubscriber();
+    publisher.subscribe(subscriber);
+    publisher.write(new byte[20]);
+    subscriber.subscription.cancel();
+    assertEquals(0, publisher.getQueuedBytes());
+    assertThrows(IOException.class, () -> publisher.write(1));
+    publisher.close();
+    assertFalse(subscriber.complete);
+    assertNull(subscriber.error);
+  }
+
+  @Test
+  public void testBadRequest() throws IOException {
+    ByteBufferPublisher publisher = new ByteBufferPublisher(10);
+    CollectingSubscriber subscriber = new CollectingSubscriber();
+    publisher.subscribe(subscriber);
+    publisher.write(new byte[5]);
+    subscriber.subscription.request(0);
+    assertInstanceOf(IllegalArgumentException.class, subscriber.error);
+    assertEquals(0, subscriber.chunks);
+  }
+
+}
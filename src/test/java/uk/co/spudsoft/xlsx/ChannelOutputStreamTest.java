@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2022 jtalbut
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.spudsoft.xlsx;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ *
+ * @author jtalbut
+ */
+public class ChannelOutputStreamTest {
+
+  private static byte[] data(int length) {
+    byte[] data = new byte[length];
+    new Random(length).nextBytes(data);
+    return data;
+  }
+
+  @Test
+  public void testWritableChannel() throws IOException {
+    byte[] data = data(10_000);
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    ChannelOutputStream out = new ChannelOutputStream(Channels.newChannel(baos), 1024);
+    out.write(data[0]);
+    out.write(data, 1, 99);
+    assertEquals(0, out.getWriteCalls());
+    out.write(data, 100, 5000);
+    out.write(data, 5100, 924);
+    out.write(data, 6024, 3976);
+    out.close();
+    out.close();
+    assertArrayEquals(data, baos.toByteArray());
+  }
+
+  @Test
+  public void testFileChannel() throws IOException {
+    File file = new File("target/temp/ChannelOutputStreamTest.bin");
+    file.getParentFile().mkdirs();
+    byte[] data = data(100_000);
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      ChannelOutputStream out = new ChannelOutputStream(channel, 1024);
+      int pos = 0;
+      // Fill the buffer exactly, which writes it
+      for (; pos < 1024; ++pos) {
+        out.write(data[pos]);
+      }
+      assertEquals(1, out.getWriteCalls());
+      out.write(data, pos, 1000);
+      pos += 1000;
+      assertEquals(1, out.getWriteCalls());
+      // Too big for the buffer, so written together with the buffered data in a single gathering write
+      out.write(data, pos, 50_000);
+      pos += 50_000;
+      assertEquals(2, out.getWriteCalls());
+      while (pos < data.length) {
+        int len = Math.min(data.length - pos, 24);
+        out.write(data, pos, len);
+        pos += len;
+      }
+      out.flush();
+    }
+    assertArrayEquals(data, Files.readAllBytes(file.toPath()));
+  }
+
+}
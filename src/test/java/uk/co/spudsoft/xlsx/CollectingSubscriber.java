@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2022 jtalbut
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.spudsoft.xlsx;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Flow;
+
+/**
+ * Flow.Subscriber that collects the ByteBuffers it receives, requesting them only when told to.
+ *
+ * @author jtalbut
+ */
+class CollectingSubscriber implements Flow.Subscriber<ByteBuffer> {
+
+  final ByteArrayOutputStream received = new ByteArrayOutputStream();
+  Flow.Subscription subscription;
+  int chunks;
+  boolean complete;
+  Throwable error;
+
+  @Override
+  public void onSubscribe(Flow.Subscription subscription) {
+    this.subscription = subscription;
+  }
+
+  @Override
+  public void onNext(ByteBuffer item) {
+    ++chunks;
+    byte[] bytes = new byte[item.remaining()];
+    item.get(bytes);
+    received.write(bytes, 0, bytes.length);
+  }
+
+  @Override
+  public void onError(Throwable throwable) {
+    this.error = throwable;
+  }
+
+  @Override
+  public void onComplete() {
+    this.complete = true;
+  }
+
+}
@@ -18,7 +18,9 @@ package uk.co.spudsoft.xlsx;
 
 import org.junit.jupiter.api.Test;
 
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 /**
  *
@@ -34,6 +36,8 @@ public class ColumnDefinitionTest {
     new ColumnDefinition(null, null, 11.0);
     assertThrows(IllegalArgumentException.class, () -> { new ColumnDefinition(null, null, -0.1); });
     assertThrows(IllegalArgumentException.class, () -> { new ColumnDefinition(null, "", null); });
+    assertFalse(new ColumnDefinition(null, null, null).sharedStrings);
+    assertTrue(new ColumnDefinition(null, null, null, true).sharedStrings);
   }
   
 }
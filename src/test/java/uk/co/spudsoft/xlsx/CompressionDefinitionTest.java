@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2022 jtalbut
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.spudsoft.xlsx;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ *
+ * @author jtalbut
+ */
+public class CompressionDefinitionTest {
+
+  @Test
+  public void testValidation() {
+    Assertions.assertThrows(IllegalArgumentException.class, () -> { new CompressionDefinition(-2, false, Deflater.DEFAULT_STRATEGY, 1024); });
+    Assertions.assertThrows(IllegalArgumentException.class, () -> { new CompressionDefinition(10, false, Deflater.DEFAULT_STRATEGY, 1024); });
+    Assertions.assertThrows(IllegalArgumentException.class, () -> { new CompressionDefinition(1, false, 3, 1024); });
+    Assertions.assertThrows(IllegalArgumentException.class, () -> { new CompressionDefinition(1, false, Deflater.DEFAULT_STRATEGY, 1023); });
+    Assertions.assertThrows(IllegalArgumentException.class, () -> { new CompressionDefinition(1, false, Deflater.DEFAULT_STRATEGY, 1024, 0, 65536); });
+    Assertions.assertThrows(IllegalArgumentException.class, () -> { new CompressionDefinition(1, false, Deflater.DEFAULT_STRATEGY, 1024, 2, 1024); });
+
+    CompressionDefinition compression = new CompressionDefinition(9, true, Deflater.FILTERED, 1024);
+    assertEquals(9, compression.level);
+    assertTrue(compression.storeStaticParts);
+    assertEquals(Deflater.FILTERED, compression.strategy);
+    assertEquals(1024, compression.bufferSize);
+    assertEquals(1, compression.parallelism);
+    assertEquals(CompressionDefinition.DEFAULT_BLOCK_SIZE, compression.blockSize);
+  }
+
+  private static byte[] write(CompressionDefinition compression) throws IOException {
+    TableDefinition defn = new TableDefinition(null, "Data", null, false, true, null, null, null, null, null
+            , Arrays.asList(new ColumnDefinition("One", null, null), new ColumnDefinition("Two", null, null))
+    );
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    try (XlsxWriter writer = new XlsxWriter(defn, compression)) {
+      writer.startFile(baos);
+      for (int i = 0; i < 5000; ++i) {
+        writer.outputRow(Arrays.asList(i, "Row " + i, 1.0 / (i + 1)));
+      }
+    }
+    return baos.toByteArray();
+  }
+
+  @Test
+  public void testOutputMatchesDefault() throws IOException {
+    byte[] expected = write(null);
+    String expectedSheet = XlsxWriterTest.readEntry(expected, "xl/worksheets/sheet1.xml");
+
+    for (CompressionDefinition compression : Arrays.asList(
+            new CompressionDefinition(0, true, Deflater.DEFAULT_STRATEGY, 1024)
+            , new CompressionDefinition(1, false, Deflater.HUFFMAN_ONLY, 4096)
+            , new CompressionDefinition(9, false, Deflater.FILTERED, 256 * 1024)
+            , new CompressionDefinition(Deflater.DEFAULT_COMPRESSION, false, Deflater.DEFAULT_STRATEGY, 4096, 4, CompressionDefinition.MIN_BLOCK_SIZE)
+            , new CompressionDefinition(1, true, Deflater.HUFFMAN_ONLY, 1024, 2, CompressionDefinition.DEFAULT_BLOCK_SIZE)
+    )) {
+      byte[] actual = write(compression);
+      assertEquals(expectedSheet, XlsxWriterTest.readEntry(actual, "xl/worksheets/sheet1.xml"));
+      assertEquals(XlsxWriterTest.readEntry(expected, "xl/styles.xml"), XlsxWriterTest.readEntry(actual, "xl/styles.xml"));
+
+      try (ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(actual))) {
+        ZipEntry entry;
+        int count = 0;
+        while ((entry = zis.getNextEntry()) != null) {
+          ++count;
+          boolean stored = compression.storeStaticParts && !entry.getName().startsWith("xl/worksheets/");
+          assertEquals(stored ? ZipEntry.STORED : ZipEntry.DEFLATED, entry.getMethod(), entry.getName());
+        }
+        assertEquals(10, count);
+      }
+    }
+  }
+
+}
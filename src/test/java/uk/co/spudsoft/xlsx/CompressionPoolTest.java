@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2022 jtalbut
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.spudsoft.xlsx;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ *
+ * @author jtalbut
+ */
+public class CompressionPoolTest {
+
+  private static byte[] deflate(Deflater deflater, byte[] data) {
+    deflater.setInput(data);
+    deflater.finish();
+    byte[] output = new byte[data.length + 64];
+    int len = deflater.deflate(output);
+    return Arrays.copyOf(output, len);
+  }
+
+  @Test
+  public void testDeflaters() {
+    byte[] data = "Some data, some data, some more data".getBytes(StandardCharsets.UTF_8);
+    CompressionPool pool = new CompressionPool(2);
+
+    Deflater first = pool.acquireDeflater(1, Deflater.DEFAULT_STRATEGY);
+    byte[] expected = deflate(first, data);
+    pool.releaseDeflater(first, 1, Deflater.DEFAULT_STRATEGY);
+    assertEquals(1, pool.getIdleDeflaterCount());
+
+    // Different settings do not get the pooled Deflater
+    Deflater other = pool.acquireDeflater(9, Deflater.FILTERED);
+    assertNotSame(first, other);
+    assertEquals(1, pool.getIdleDeflaterCount());
+
+    // The same settings get the pooled Deflater, which has been reset
+    Deflater reused = pool.acquireDeflater(1, Deflater.DEFAULT_STRATEGY);
+    assertSame(first, reused);
+    assertEquals(0, pool.getIdleDeflaterCount());
+    assertArrayEquals(expected, deflate(reused, data));
+    assertEquals(2, pool.getCreatedDeflaterCount());
+
+    // Only two are kept, the third is ended
+    Deflater third = pool.acquireDeflater(1, Deflater.DEFAULT_STRATEGY);
+    pool.releaseDeflater(reused, 1, Deflater.DEFAULT_STRATEGY);
+    pool.releaseDeflater(other, 9, Deflater.FILTERED);
+    pool.releaseDeflater(third, 1, Deflater.DEFAULT_STRATEGY);
+    assertEquals(2, pool.getIdleDeflaterCount());
+    assertThrows(NullPointerException.class, () -> third.deflate(new byte[10]));
+
+    // Closing ends the idle Deflaters and any released later
+    Deflater late = pool.acquireDeflater(1, Deflater.DEFAULT_STRATEGY);
+    assertSame(reused, late);
+    pool.close();
+    assertEquals(0, pool.getIdleDeflaterCount());
+    assertThrows(NullPointerException.class, () -> other.deflate(new byte[10]));
+    pool.releaseDeflater(late, 1, Deflater.DEFAULT_STRATEGY);
+    assertEquals(0, pool.getIdleDeflaterCount());
+    assertThrows(NullPointerException.class, () -> late.deflate(new byte[10]));
+  }
+
+  @Test
+  public void testBuffers() {
+    CompressionPool pool = new CompressionPool(1);
+    byte[] first = pool.acquireBuffer(1024);
+    assertEquals(1024, first.length);
+    pool.releaseBuffer(first);
+    pool.releaseBuffer(null);
+    assertEquals(1, pool.getIdleBufferCount());
+    assertNotSame(first, pool.acquireBuffer(2048));
+    assertSame(first, pool.acquireBuffer(1024));
+
+    // Twice as many buffers as Deflaters are kept
+    for (int i = 0; i < 4; ++i) {
+      pool.releaseBuffer(new byte[100]);
+    }
+    assertEquals(2, pool.getIdleBufferCount());
+
+    pool.close();
+    assertEquals(0, pool.getIdleBufferCount());
+    pool.releaseBuffer(first);
+    assertEquals(0, pool.getIdleBufferCount());
+  }
+
+  @Test
+  public void testUnstartedWriterReturnsBuffer() {
+    CompressionPool pool = new CompressionPool(2);
+    TableDefinition defn = new TableDefinition(null, "Data", null, false, false, null, null, null, null, null, null);
+    XlsxWriter writer = new XlsxWriter(defn, null, null, pool);
+    assertEquals(0, pool.getIdleBufferCount());
+    writer.releaseResources();
+    assertEquals(1, pool.getIdleBufferCount());
+    assertEquals(0, pool.getIdleDeflaterCount());
+    // Releasing again must not return the buffer twice
+    writer.releaseResources();
+    assertEquals(1, pool.getIdleBufferCount());
+  }
+
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2022 jtalbut
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.spudsoft.xlsx;
+
+import java.util.Random;
+import java.util.zip.CRC32;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ *
+ * @author jtalbut
+ */
+public class Crc32CombinerTest {
+
+  private static long crc(byte[] data, int off, int len) {
+    CRC32 crc = new CRC32();
+    crc.update(data, off, len);
+    return crc.getValue();
+  }
+
+  @Test
+  public void testCombine() {
+    Random random = new Random(42);
+    byte[] data = new byte[100_000];
+    random.nextBytes(data);
+    long expected = crc(data, 0, data.length);
+
+    for (int i = 0; i < 100; ++i) {
+      int split = random.nextInt(data.length + 1);
+      long combined = Crc32Combiner.combine(crc(data, 0, split), crc(data, split, data.length - split), data.length - split);
+      assertEquals(expected, combined, "Split at " + split);
+    }
+
+    assertEquals(expected, Crc32Combiner.combine(expected, 0, 0));
+    assertEquals(expected, Crc32Combiner.combine(0, expected, data.length));
+  }
+
+  @Test
+  public void testCombineMany() {
+    Random random = new Random(7);
+    byte[] data = new byte[1_000_000];
+    random.nextBytes(data);
+    long combined = 0;
+    int pos = 0;
+    while (pos < data.length) {
+      int len = Math.min(data.length - pos, 1 + random.nextInt(50_000));
+      combined = Crc32Combiner.combine(combined, crc(data, pos, len), len);
+      pos += len;
+    }
+    assertEquals(crc(data, 0, data.length), combined);
+  }
+
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2022 jtalbut
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.spudsoft.xlsx;
+
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ *
+ * @author jtalbut
+ */
+public class DoubleFormatterTest {
+
+  @Test
+  public void testKnownValues() {
+    assertEquals("0", DoubleFormatter.toString(0.0));
+    assertEquals("0", DoubleFormatter.toString(-0.0));
+    assertEquals("1", DoubleFormatter.toString(1.0));
+    assertEquals("-1", DoubleFormatter.toString(-1.0));
+    assertEquals("0.1", DoubleFormatter.toString(0.1));
+    assertEquals("0.30000000000000004", DoubleFormatter.toString(0.1 + 0.2));
+    assertEquals("0.00001", DoubleFormatter.toString(1.0E-5));
+    assertEquals("0.0000001", DoubleFormatter.toString(1.0E-7));
+    assertEquals("9.99999E-8", DoubleFormatter.toString(9.99999E-8));
+    assertEquals("100000000000000000000", DoubleFormatter.toString(1.0E20));
+    assertEquals("1E21", DoubleFormatter.toString(1.0E21));
+    assertEquals("1E23", DoubleFormatter.toString(1.0E23));
+    assertEquals("123456789012345680", DoubleFormatter.toString(123456789012345678.0));
+    assertEquals("26059.421527777777", DoubleFormatter.toString(26059.421527777777));
+    assertEquals("-1.5E-300", DoubleFormatter.toString(-1.5E-300));
+    assertEquals("1.7976931348623157E308", DoubleFormatter.toString(Double.MAX_VALUE));
+    assertEquals("2.2250738585072014E-308", DoubleFormatter.toString(Double.MIN_NORMAL));
+    assertEquals("4.9E-324", DoubleFormatter.toString(Double.MIN_VALUE));
+    assertEquals("NaN", DoubleFormatter.toString(Double.NaN));
+    assertEquals("Infinity", DoubleFormatter.toString(Double.POSITIVE_INFINITY));
+    assertEquals("-Infinity", DoubleFormatter.toString(Double.NEGATIVE_INFINITY));
+  }
+
+  @Test
+  public void testRoundTrip() {
+    Random random = new Random(1968);
+    for (int i = 0; i < 200_000; ++i) {
+      double value = (i % 2 == 0)
+              ? Double.longBitsToDouble(random.nextLong())
+              : random.nextDouble() * Math.pow(10, random.nextInt(40) - 20);
+      if (Double.isNaN(value) || Double.isInfinite(value)) {
+        continue;
+      }
+      String formatted = DoubleFormatter.toString(value);
+      assertEquals(value, Double.parseDouble(formatted), formatted);
+      assertTrue(formatted.length() <= DoubleFormatter.MAX_LENGTH);
+    }
+  }
+
+  @Test
+  public void testFloatKnownValues() {
+    assertEquals("0", DoubleFormatter.toString(0.0f));
+    assertEquals("0", DoubleFormatter.toString(-0.0f));
+    assertEquals("1", DoubleFormatter.toString(1.0f));
+    assertEquals("0.1", DoubleFormatter.toString(0.1f));
+    assertEquals("1.1", DoubleFormatter.toString(1.1f));
+    assertEquals("-3.1415927", DoubleFormatter.toString((float) -Math.PI));
+    assertEquals("16777216", DoubleFormatter.toString(16777216.0f));
+    assertEquals("0.00001", DoubleFormatter.toString(1.0E-5f));
+    assertEquals("3.4028235E38", DoubleFormatter.toString(Float.MAX_VALUE));
+    assertEquals("1.1754944E-38", DoubleFormatter.toString(Float.MIN_NORMAL));
+    assertEquals("1.4E-45", DoubleFormatter.toString(Float.MIN_VALUE));
+    assertEquals("NaN", DoubleFormatter.toString(Float.NaN));
+    assertEquals("-Infinity", DoubleFormatter.toString(Float.NEGATIVE_INFINITY));
+  }
+
+  @Test
+  public void testFloatRoundTrip() {
+    Random random = new Random(1968);
+    for (int i = 0; i < 200_000; ++i) {
+      float value = (i % 2 == 0)
+              ? Float.intBitsToFloat(random.nextInt())
+              : (float) (random.nextDouble() * Math.pow(10, random.nextInt(40) - 20));
+      if (Float.isNaN(value) || Float.isInfinite(value)) {
+        continue;
+      }
+      String formatted = DoubleFormatter.toString(value);
+      assertEquals(value, Float.parseFloat(formatted), formatted);
+      // Never longer than the digits that Float.toString chooses
+      String expected = new java.math.BigDecimal(Float.toString(value)).stripTrailingZeros().unscaledValue().abs().toString();
+      String actual = new java.math.BigDecimal(formatted).stripTrailingZeros().unscaledValue().abs().toString();
+      assertTrue(actual.length() <= expected.length(), formatted + " vs " + Float.toString(value));
+    }
+  }
+
+}
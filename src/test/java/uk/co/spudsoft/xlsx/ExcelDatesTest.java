@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2022 jtalbut
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.spudsoft.xlsx;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.OffsetDateTime;
+import java.time.OffsetTime;
+import java.time.Year;
+import java.time.ZoneOffset;
+import java.time.chrono.JapaneseDate;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ *
+ * @author jtalbut
+ */
+public class ExcelDatesTest {
+
+  @Test
+  public void testDates() {
+    assertEquals(25569, ExcelDates.EPOCH_DAY_OFFSET);
+    assertEquals(25569, ExcelDates.toSerial(LocalDate.of(1970, 1, 1)));
+    assertEquals(61, ExcelDates.toSerial(LocalDate.of(1900, 3, 1)));
+    assertEquals(44682, ExcelDates.toSerial(LocalDate.of(2022, 5, 1)));
+    assertEquals(44682.0, ExcelDates.toSerial(JapaneseDate.from(LocalDate.of(2022, 5, 1))));
+  }
+
+  @Test
+  public void testTimes() {
+    assertEquals(0.5, ExcelDates.toSerial(LocalTime.NOON));
+    assertEquals(0.4217939814814815, ExcelDates.toSerial(LocalTime.of(10, 7, 23)));
+    // Truncated to millis
+    assertEquals(ExcelDates.toSerial(LocalTime.of(10, 7, 23, 1_000_000)), ExcelDates.toSerial(LocalTime.of(10, 7, 23, 1_999_999)));
+    assertEquals(0.5, ExcelDates.toSerial(OffsetTime.of(LocalTime.NOON, ZoneOffset.ofHours(3))));
+  }
+
+  @Test
+  public void testDateTimes() {
+    double expected = 26059.421527777777;
+    assertEquals(expected, ExcelDates.toSerial(LocalDateTime.of(1971, 5, 6, 10, 7)));
+    assertEquals(expected, ExcelDates.toSerial(OffsetDateTime.of(1971, 5, 6, 10, 7, 0, 0, ZoneOffset.ofHours(-5))));
+    assertEquals(expected, ExcelDates.toSerial(Instant.parse("1971-05-06T10:07:00Z")));
+    assertEquals(expected, ExcelDates.epochMillisToSerial(Instant.parse("1971-05-06T10:07:00Z").toEpochMilli()));
+    assertEquals(25568.75, ExcelDates.toSerial(Instant.parse("1969-12-31T18:00:00Z")));
+    assertEquals(25568.75, ExcelDates.epochMillisToSerial(-6 * 60 * 60 * 1000L));
+    assertTrue(Double.isNaN(ExcelDates.toSerial(Year.of(1968))));
+  }
+
+  @Test
+  public void testIsDateFormat() {
+    assertTrue(ExcelDates.isDateFormat("yyyy-mm-dd"));
+    assertTrue(ExcelDates.isDateFormat("hh:mm:ss"));
+    assertTrue(ExcelDates.isDateFormat("[h]:mm"));
+    assertTrue(ExcelDates.isDateFormat("[ss]"));
+    assertTrue(ExcelDates.isDateFormat("[Red]d-mmm"));
+    assertTrue(ExcelDates.isDateFormat("\"Date: \"DD/MM/YYYY"));
+    assertFalse(ExcelDates.isDateFormat(null));
+    assertFalse(ExcelDates.isDateFormat("0.00"));
+    assertFalse(ExcelDates.isDateFormat("General"));
+    assertFalse(ExcelDates.isDateFormat("#,##0;[Red]-#,##0"));
+    assertFalse(ExcelDates.isDateFormat("0.00\"days\""));
+    assertFalse(ExcelDates.isDateFormat("0\\d"));
+    assertFalse(ExcelDates.isDateFormat("_(* #,##0_);_(* (#,##0);_(* \"-\"??_);_(@_)"));
+    assertFalse(ExcelDates.isDateFormat("[$-409]0.00"));
+    assertFalse(ExcelDates.isDateFormat("\"unterminated"));
+    assertFalse(ExcelDates.isDateFormat("[unterminated"));
+  }
+
+  @Test
+  public void testIsDateFormatEras() {
+    assertTrue(ExcelDates.isDateFormat("e"));
+    assertTrue(ExcelDates.isDateFormat("ee"));
+    assertTrue(ExcelDates.isDateFormat("e-mm-dd"));
+    assertTrue(ExcelDates.isDateFormat("[$-ja-JP]ggge"));
+    assertTrue(ExcelDates.isDateFormat("G"));
+    assertTrue(ExcelDates.isDateFormat("bbbb"));
+    assertTrue(ExcelDates.isDateFormat("B2"));
+    assertFalse(ExcelDates.isDateFormat("0.00E+00"));
+    assertFalse(ExcelDates.isDateFormat("##0.0e-0"));
+    assertFalse(ExcelDates.isDateFormat("general"));
+    assertFalse(ExcelDates.isDateFormat("General;[Red]-General"));
+    assertFalse(ExcelDates.isDateFormat("0 \"GB\""));
+  }
+
+}
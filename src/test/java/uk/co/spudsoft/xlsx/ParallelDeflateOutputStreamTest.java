@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2022 jtalbut
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.spudsoft.xlsx;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ *
+ * @author jtalbut
+ */
+public class ParallelDeflateOutputStreamTest {
+
+  private static final int BLOCK_SIZE = CompressionDefinition.MIN_BLOCK_SIZE;
+
+  private static ExecutorService executor;
+
+  @BeforeAll
+  public static void createExecutor() {
+    executor = Executors.newFixedThreadPool(4);
+  }
+
+  @AfterAll
+  public static void shutdownExecutor() {
+    executor.shutdownNow();
+  }
+
+  private static byte[] testData(int length) {
+    Random random = new Random(length);
+    StringBuilder bldr = new StringBuilder();
+    while (bldr.length() < length) {
+      bldr.append("<row r=\"").append(bldr.length()).append("\"><c><v>").append(random.nextInt(1000)).append("</v></c></row>");
+    }
+    bldr.setLength(length);
+    return bldr.toString().getBytes(StandardCharsets.US_ASCII);
+  }
+
+  private static byte[] compress(byte[] data, int level, int strategy, int writeSize) throws IOException {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    ZipWriter zip = new ZipWriter(baos);
+    zip.beginEntry("data.xml");
+    try (ParallelDeflateOutputStream out = new ParallelDeflateOutputStream(zip, executor, 4, BLOCK_SIZE, level, strategy)) {
+      for (int i = 0; i < data.length; i += writeSize) {
+        out.write(data, i, Math.min(writeSize, data.length - i));
+      }
+    }
+    zip.writeEntry("after.txt", "after".getBytes(StandardCharsets.US_ASCII), null);
+    zip.finish();
+    return baos.toByteArray();
+  }
+
+  private static void check(byte[] data, byte[] zip) throws IOException {
+    for (Map<String, byte[]> entries : List.of(ZipWriterTest.readStreaming(zip), ZipWriterTest.readCentral(zip))) {
+      assertArrayEquals(data, entries.get("data.xml"));
+      assertArrayEquals("after".getBytes(StandardCharsets.US_ASCII), entries.get("after.txt"));
+    }
+  }
+
+  @Test
+  public void testRoundTrip() throws IOException {
+    for (int length : new int[] {0, 1, BLOCK_SIZE - 1, BLOCK_SIZE, BLOCK_SIZE + 1, 3 * BLOCK_SIZE, 2_000_000}) {
+      byte[] data = testData(length);
+      check(data, compress(data, Deflater.DEFAULT_COMPRESSION, Deflater.DEFAULT_STRATEGY, 10_000));
+    }
+  }
+
+  @Test
+  public void testLevelsAndStrategies() throws IOException {
+    byte[] data = testData(500_000);
+    for (int level : new int[] {0, 1, 9}) {
+      for (int strategy : new int[] {Deflater.DEFAULT_STRATEGY, Deflater.FILTERED, Deflater.HUFFMAN_ONLY}) {
+        check(data, compress(data, level, strategy, 100_000));
+      }
+    }
+  }
+
+  @Test
+  public void testSingleByteWrites() throws IOException {
+    byte[] data = testData(BLOCK_SIZE * 2 + 17);
+    check(data, compress(data, 1, Deflater.DEFAULT_STRATEGY, 1));
+  }
+
+  @Test
+  public void testDictionaryKeepsSizeClose() throws IOException {
+    byte[] data = testData(2_000_000);
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    ZipWriter zip = new ZipWriter(baos);
+    Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    zip.writeEntry("data.xml", data, deflater);
+    deflater.end();
+    zip.finish();
+    int sequential = baos.size();
+    int parallel = compress(data, Deflater.DEFAULT_COMPRESSION, Deflater.DEFAULT_STRATEGY, 65536).length;
+    assertTrue(parallel < sequential * 1.05, "Parallel: " + parallel + ", sequential: " + sequential);
+  }
+
+  @Test
+  public void testWriteAfterClose() throws IOException {
+    ZipWriter zip = new ZipWriter(new ByteArrayOutputStream());
+    zip.beginEntry("data.xml");
+    ParallelDeflateOutputStream out = new ParallelDeflateOutputStream(zip, executor, 4, BLOCK_SIZE, 1, Deflater.DEFAULT_STRATEGY);
+    out.write('a');
+    out.close();
+    out.close();
+    assertThrows(IOException.class, () -> { out.write('b'); });
+  }
+
+  @Test
+  public void testDeflatersEndedAfterFailure() throws Exception {
+    ExecutorService single = Executors.newSingleThreadExecutor();
+    try {
+      boolean[] fail = new boolean[1];
+      ZipWriter zip = new ZipWriter(new OutputStream() {
+        @Override
+        public void write(int b) throws IOException {
+          write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+          if (fail[0]) {
+            throw new IOException("Output failed");
+          }
+        }
+      });
+      zip.beginEntry("data.xml");
+      fail[0] = true;
+      ParallelDeflateOutputStream out = new ParallelDeflateOutputStream(zip, single, 4, BLOCK_SIZE, 1, Deflater.DEFAULT_STRATEGY);
+      byte[] data = testData(BLOCK_SIZE * 8);
+      assertThrows(IOException.class, () -> {
+        try (out) {
+          out.write(data);
+        }
+      });
+      // Tasks that were running when the stream was closed end their own Deflaters when they finish
+      single.shutdown();
+      assertTrue(single.awaitTermination(30, TimeUnit.SECONDS));
+      assertEquals(0, out.getIdleDeflaterCount());
+    } finally {
+      single.shutdownNow();
+    }
+  }
+
+}
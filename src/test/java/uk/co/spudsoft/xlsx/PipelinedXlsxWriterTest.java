@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) 2022 jtalbut
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.spudsoft.xlsx;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ *
+ * @author jtalbut
+ */
+public class PipelinedXlsxWriterTest {
+
+  private static final TableDefinition DEFN = new TableDefinition(null, "Data", null, false, true, null, null, null, null, null
+          , Arrays.asList(
+                  new ColumnDefinition("Id", null, null)
+                  , new ColumnDefinition("Name", null, null)
+                  , new ColumnDefinition("Date", "yyyy-mm-dd", null)
+                  , new ColumnDefinition("Value", "0.00", null)
+          )
+  );
+
+  private static final TableDefinition SECOND = new TableDefinition(null, "Second", null, false, true, null, null, null, null, null, DEFN.columns);
+
+  private static class Blocker {
+  }
+
+  private static void fill(List<Object> row, int i) {
+    row.clear();
+    row.add(i);
+    row.add("Row " + i);
+    row.add(LocalDate.of(2022, 1, 1).plusDays(i % 1000));
+    row.add(i / 7.0);
+    if (i % 10 == 0) {
+      // Rows may be longer than the column definitions
+      row.add("Extra");
+      row.add(null);
+    }
+  }
+
+  @Test
+  public void testMatchesXlsxWriter() throws IOException {
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    List<Object> row = new ArrayList<>();
+    try (XlsxWriter writer = new XlsxWriter(DEFN)) {
+      writer.startFile(expected);
+      for (int i = 0; i < 20_000; ++i) {
+        if (i == 15_000) {
+          writer.startSheet(SECOND);
+        }
+        fill(row, i);
+        writer.outputRow(row);
+      }
+    }
+
+    ByteArrayOutputStream actual = new ByteArrayOutputStream();
+    PipelinedXlsxWriter writer = new PipelinedXlsxWriter(DEFN, null, null, 4, 100);
+    try (writer) {
+      writer.startFile(actual);
+      for (int i = 0; i < 20_000; ++i) {
+        if (i == 15_000) {
+          writer.startSheet(SECOND);
+        }
+        // The same List is reused for every row
+        fill(row, i);
+        writer.outputRow(row);
+      }
+    }
+    // Closing again does nothing
+    writer.close();
+
+    for (String name : Arrays.asList("xl/worksheets/sheet1.xml", "xl/worksheets/sheet2.xml", "xl/styles.xml", "xl/workbook.xml")) {
+      assertEquals(XlsxWriterTest.readEntry(expected.toByteArray(), name), XlsxWriterTest.readEntry(actual.toByteArray(), name), name);
+    }
+    assertEquals(ZipWriterTest.readStreaming(expected.toByteArray()).keySet(), ZipWriterTest.readCentral(actual.toByteArray()).keySet());
+  }
+
+  @Test
+  public void testBackpressure() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    PipelinedXlsxWriter writer = new PipelinedXlsxWriter(DEFN, null, null, 2, 1);
+    writer.registerSerializer(Blocker.class, (w, value) -> {
+      try {
+        release.await();
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+      w.writeString("Released");
+    });
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    writer.startFile(baos);
+
+    AtomicInteger completed = new AtomicInteger();
+    AtomicReference<Throwable> failure = new AtomicReference<>();
+    Thread producer = new Thread(() -> {
+      try {
+        for (int i = 0; i < 10; ++i) {
+          writer.outputRow(Arrays.asList(new Blocker()));
+          completed.incrementAndGet();
+        }
+        writer.close();
+      } catch (Throwable ex) {
+        failure.set(ex);
+      }
+    });
+    producer.start();
+    // The encoder is stuck on the first row, the producer has the second batch and then has to wait for a free one
+    long deadline = System.currentTimeMillis() + 10_000;
+    while (producer.getState() != Thread.State.WAITING && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(Thread.State.WAITING, producer.getState());
+    assertEquals(1, completed.get());
+
+    release.countDown();
+    producer.join(10_000);
+    assertNull(failure.get());
+    assertEquals(10, completed.get());
+    String sheet = XlsxWriterTest.readEntry(baos.toByteArray(), "xl/worksheets/sheet1.xml");
+    assertEquals(10, sheet.split("Released", -1).length - 1);
+  }
+
+  @Test
+  public void testErrorsAreReported() throws IOException {
+    RuntimeException problem = new RuntimeException("Bad value");
+    PipelinedXlsxWriter writer = new PipelinedXlsxWriter(DEFN, null, null, 2, 1);
+    writer.registerSerializer(Blocker.class, (w, value) -> {
+      throw problem;
+    });
+    writer.startFile(new ByteArrayOutputStream());
+    IOException ex = assertThrows(IOException.class, () -> {
+      for (int i = 0; i < 1000; ++i) {
+        writer.outputRow(Arrays.asList(new Blocker()));
+      }
+    });
+    assertSame(problem, ex.getCause());
+    ex = assertThrows(IOException.class, () -> writer.close());
+    assertSame(problem, ex.getCause());
+
+    PipelinedXlsxWriter duplicate = new PipelinedXlsxWriter(DEFN);
+    duplicate.startFile(new ByteArrayOutputStream());
+    duplicate.outputRow(Arrays.asList(1));
+    duplicate.startSheet(DEFN);
+    ex = assertThrows(IOException.class, () -> duplicate.close());
+    assertEquals(IllegalArgumentException.class, ex.getCause().getClass());
+  }
+
+  @Test
+  public void testCloseAfterFailureWithPartialBatch() throws Exception {
+    RuntimeException problem = new RuntimeException("Bad value");
+    CountDownLatch release = new CountDownLatch(1);
+    PipelinedXlsxWriter writer = new PipelinedXlsxWriter(DEFN, null, null, 2, 2);
+    writer.registerSerializer(Blocker.class, (w, value) -> {
+      try {
+        release.await();
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+      throw problem;
+    });
+    writer.startFile(new ByteArrayOutputStream());
+    // The first batch is published and the encoder blocks on it, so the producer takes the second (and last) batch without seeing an error
+    writer.outputRow(Arrays.asList(new Blocker()));
+    writer.outputRow(Arrays.asList(1));
+    // The second batch is only partly filled when the encoder fails
+    writer.outputRow(Arrays.asList(2));
+    release.countDown();
+
+    AtomicReference<Throwable> failure = new AtomicReference<>();
+    Thread closer = new Thread(() -> {
+      try {
+        writer.close();
+      } catch (Throwable ex) {
+        failure.set(ex);
+      }
+    });
+    closer.start();
+    closer.join(10_000);
+    assertFalse(closer.isAlive());
+    assertFalse(writer.isEncoderAlive());
+    assertEquals(IOException.class, failure.get().getClass());
+    assertSame(problem, failure.get().getCause());
+  }
+
+  @Test
+  public void testBadState() throws IOException {
+    assertThrows(IllegalArgumentException.class, () -> new PipelinedXlsxWriter(DEFN, null, null, 1, 10));
+    assertThrows(IllegalArgumentException.class, () -> new PipelinedXlsxWriter(DEFN, null, null, 2, 0));
+    PipelinedXlsxWriter writer = new PipelinedXlsxWriter(DEFN);
+    assertThrows(IllegalStateException.class, () -> writer.outputRow(Arrays.asList(1)));
+    // Closing a writer that was never started does nothing
+    writer.close();
+    writer.startFile(new ByteArrayOutputStream());
+    assertThrows(IllegalStateException.class, () -> writer.startFile(new ByteArrayOutputStream()));
+    assertThrows(IllegalStateException.class, () -> writer.registerSerializer(Blocker.class, (w, value) -> w.writeBlank()));
+    writer.close();
+    assertThrows(IllegalStateException.class, () -> writer.outputRow(Arrays.asList(1)));
+  }
+
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2022 jtalbut
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.spudsoft.xlsx;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ *
+ * @author jtalbut
+ */
+public class SharedStringsDefinitionTest {
+  
+  @Test
+  public void testValidation() {
+    assertThrows(IllegalArgumentException.class, () -> { new SharedStringsDefinition(0, 1, 1, true); });
+    assertThrows(IllegalArgumentException.class, () -> { new SharedStringsDefinition(1, 0, 1, true); });
+    assertThrows(IllegalArgumentException.class, () -> { new SharedStringsDefinition(1, 1, 0, true); });
+    
+    SharedStringsDefinition defn = new SharedStringsDefinition(true);
+    assertEquals(SharedStringsDefinition.DEFAULT_MAX_STRINGS, defn.maxStrings);
+    assertEquals(SharedStringsDefinition.DEFAULT_MAX_CHARACTERS, defn.maxCharacters);
+    assertEquals(SharedStringsDefinition.DEFAULT_MAX_STRING_LENGTH, defn.maxStringLength);
+    assertTrue(defn.allColumns);
+  }
+  
+}
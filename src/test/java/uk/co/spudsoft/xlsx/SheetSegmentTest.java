@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2022 jtalbut
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.spudsoft.xlsx;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ *
+ * @author jtalbut
+ */
+public class SheetSegmentTest {
+
+  private static void assertSegmentsEqual(SheetSegment expected, SheetSegment actual) {
+    assertEquals(expected.firstRow, actual.firstRow);
+    assertEquals(expected.rowCount, actual.rowCount);
+    assertEquals(expected.maxColumn, actual.maxColumn);
+    assertEquals(expected.styleBase, actual.styleBase);
+    assertEquals(expected.crc, actual.crc);
+    assertEquals(expected.size, actual.size);
+    assertEquals(expected.compressedSize, actual.compressedSize);
+  }
+
+  @Test
+  public void testTrailer() throws IOException {
+    SheetSegment segment = new SheetSegment(1_000_000, 48_576, 16384, 1234, 0xFEDCBA98L, 5_000_000_000L, 10);
+    assertEquals(1_048_575, segment.getLastRow());
+    Path file = Files.createTempFile("SheetSegmentTest", ".seg");
+    try {
+      ByteArrayOutputStream baos = new ByteArrayOutputStream();
+      baos.write(new byte[10]);
+      segment.writeTrailer(baos);
+      assertEquals(10 + SheetSegment.TRAILER_SIZE, baos.size());
+      Files.write(file, baos.toByteArray());
+      assertSegmentsEqual(segment, SheetSegment.read(file));
+
+      // The compressed size must match the length of the file
+      baos.write(0);
+      Files.write(file, baos.toByteArray());
+      assertThrows(IOException.class, () -> SheetSegment.read(file));
+
+      Files.write(file, new byte[10]);
+      assertThrows(IOException.class, () -> SheetSegment.read(file));
+
+      Files.write(file, new byte[100]);
+      assertThrows(IOException.class, () -> SheetSegment.read(file));
+    } finally {
+      Files.deleteIfExists(file);
+    }
+  }
+
+  @Test
+  public void testSerializable() throws Exception {
+    SheetSegment segment = new SheetSegment(2, 100, 5, 24, 0x12345678L, 12345, 678);
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    try (ObjectOutputStream oos = new ObjectOutputStream(baos)) {
+      oos.writeObject(segment);
+    }
+    try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(baos.toByteArray()))) {
+      assertSegmentsEqual(segment, (SheetSegment) ois.readObject());
+    }
+  }
+
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2022 jtalbut
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.spudsoft.xlsx;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.Deflater;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ *
+ * @author jtalbut
+ */
+public class SheetSegmentWriterTest {
+
+  private static final TableDefinition DEFN = new TableDefinition(null, "Data", null, false, true, null, null, null, null, null
+          , Arrays.asList(
+                  new ColumnDefinition("Id", null, null)
+                  , new ColumnDefinition("Name", null, null)
+                  , new ColumnDefinition("Date", "yyyy-mm-dd", null)
+                  , new ColumnDefinition("Value", "0.00", null)
+          )
+  );
+
+  private static final int PARTITIONS = 4;
+  private static final int PARTITION_ROWS = 2500;
+
+  private static List<Object> row(int i) {
+    if (i % 1000 == 999) {
+      // An occasional row wider than the columns, to check the dimension
+      return Arrays.asList(i, "Row " + i, LocalDate.of(2022, 1, 1).plusDays(i % 1000), i / 7.0, "Extra");
+    }
+    return Arrays.asList(i, "Row " + i, LocalDate.of(2022, 1, 1).plusDays(i % 1000), i / 7.0);
+  }
+
+  private static byte[] writeSequential(CompressionDefinition compression) throws IOException {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    try (XlsxWriter writer = new XlsxWriter(DEFN, compression)) {
+      writer.startFile(baos);
+      for (int i = 0; i < 10 + PARTITIONS * PARTITION_ROWS + 10; ++i) {
+        writer.outputRow(row(i));
+      }
+    }
+    return baos.toByteArray();
+  }
+
+  /**
+   * Ten rows output directly, then the partitions generated in parallel, then ten more rows output directly.
+   */
+  private static byte[] writeSegmented(CompressionDefinition compression) throws Exception {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    ExecutorService executor = Executors.newFixedThreadPool(PARTITIONS);
+    try (XlsxWriter writer = new XlsxWriter(DEFN, compression)) {
+      writer.startFile(baos);
+      for (int i = 0; i < 10; ++i) {
+        writer.outputRow(row(i));
+      }
+      List<ByteArrayOutputStream> outputs = new ArrayList<>();
+      List<Future<SheetSegment>> futures = new ArrayList<>();
+      for (int p = 0; p < PARTITIONS; ++p) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        outputs.add(output);
+        int first = 10 + p * PARTITION_ROWS;
+        // Row 1 is the header
+        SheetSegmentWriter segmentWriter = writer.createSegmentWriter(first + 2, output);
+        futures.add(executor.submit(() -> {
+          try (segmentWriter) {
+            for (int i = first; i < first + PARTITION_ROWS; ++i) {
+              segmentWriter.outputRow(row(i));
+            }
+          }
+          return segmentWriter.finish();
+        }));
+      }
+      for (int p = 0; p < PARTITIONS; ++p) {
+        SheetSegment segment = futures.get(p).get();
+        assertEquals(PARTITION_ROWS, segment.rowCount);
+        assertEquals(outputs.get(p).size(), segment.compressedSize);
+        writer.writeSegment(segment, new ByteArrayInputStream(outputs.get(p).toByteArray()));
+      }
+      for (int i = 10 + PARTITIONS * PARTITION_ROWS; i < 10 + PARTITIONS * PARTITION_ROWS + 10; ++i) {
+        writer.outputRow(row(i));
+      }
+    } finally {
+      executor.shutdown();
+    }
+    return baos.toByteArray();
+  }
+
+  @Test
+  public void testMatchesSequential() throws Exception {
+    for (CompressionDefinition compression : Arrays.asList(
+            null
+            , new CompressionDefinition(1, true, Deflater.HUFFMAN_ONLY, 1024)
+            , new CompressionDefinition(Deflater.DEFAULT_COMPRESSION, false, Deflater.DEFAULT_STRATEGY, 4096, 2, CompressionDefinition.MIN_BLOCK_SIZE)
+    )) {
+      byte[] expected = writeSequential(compression);
+      byte[] actual = writeSegmented(compression);
+      // The streaming reader checks the CRC and size of every entry against the data descriptor
+      assertEquals(XlsxWriterTest.readEntry(expected, "xl/worksheets/sheet1.xml"), XlsxWriterTest.readEntry(actual, "xl/worksheets/sheet1.xml"));
+      assertEquals(XlsxWriterTest.readEntry(expected, "xl/styles.xml"), XlsxWriterTest.readEntry(actual, "xl/styles.xml"));
+      assertEquals(ZipWriterTest.readStreaming(expected).keySet(), ZipWriterTest.readCentral(actual).keySet());
+    }
+  }
+
+  @Test
+  public void testTempFilesAndDimension() throws Exception {
+    Path dir = Files.createDirectories(Path.of("target/temp"));
+    Path xlsx = dir.resolve("SheetSegmentWriterTest.xlsx");
+    List<Path> files = new ArrayList<>();
+    try (XlsxWriter writer = new XlsxWriter(DEFN)) {
+      writer.startFile(xlsx);
+      List<SheetSegment> segments = new ArrayList<>();
+      for (int p = 0; p < 3; ++p) {
+        Path file = Files.createTempFile(dir, "segment", ".bin");
+        files.add(file);
+        try (OutputStream output = Files.newOutputStream(file); SheetSegmentWriter segmentWriter = writer.createSegmentWriter(2 + p * 100, output)) {
+          for (int i = 0; i < 100; ++i) {
+            // Use the cursor methods for one of the segments
+            if (p == 1) {
+              segmentWriter.getWriter().beginRow();
+              segmentWriter.getWriter().writeLong(p * 100 + i);
+              segmentWriter.getWriter().endRow();
+            } else {
+              segmentWriter.outputRow(Arrays.asList(p * 100 + i, "Row"));
+            }
+          }
+          segments.add(segmentWriter.finish());
+        }
+      }
+      for (int p = 0; p < 3; ++p) {
+        try (InputStream input = Files.newInputStream(files.get(p))) {
+          writer.writeSegment(segments.get(p), input);
+        }
+      }
+    } finally {
+      for (Path file : files) {
+        Files.deleteIfExists(file);
+      }
+    }
+    String sheet = new String(ZipWriterTest.readCentral(Files.readAllBytes(xlsx)).get("xl/worksheets/sheet1.xml"), java.nio.charset.StandardCharsets.UTF_8);
+    assertTrue(sheet.contains("<dimension ref=\"A1:D301\""), sheet);
+    assertTrue(sheet.contains("<row r=\"301\"><c r=\"A301\" s=\"16\"><v>299</v></c><c r=\"B301\" s=\"17\" t=\"inlineStr\"><is><t>Row</t></is></c></row></sheetData>"), sheet);
+    assertTrue(sheet.contains("<row r=\"102\"><c r=\"A102\" s=\"11\"><v>100</v></c></row>"), sheet);
+  }
+
+  @Test
+  public void testEmptySegment() throws Exception {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    try (XlsxWriter writer = new XlsxWriter(DEFN)) {
+      writer.startFile(baos);
+      ByteArrayOutputStream output = new ByteArrayOutputStream();
+      SheetSegmentWriter segmentWriter = writer.createSegmentWriter(2, output);
+      SheetSegment segment = segmentWriter.finish();
+      assertSame(segment, segmentWriter.finish());
+      assertEquals(0, segment.rowCount);
+      assertEquals(1, segment.getLastRow());
+      assertEquals(0, segment.compressedSize);
+      writer.writeSegment(segment, new ByteArrayInputStream(output.toByteArray()));
+      writer.outputRow(Arrays.asList(1));
+    }
+    assertTrue(XlsxWriterTest.readEntry(baos.toByteArray(), "xl/worksheets/sheet1.xml").contains("<row r=\"2\"><c r=\"A2\" s=\"11\"><v>1</v></c></row></sheetData>"));
+  }
+
+  @Test
+  public void testBadState() throws Exception {
+    TableDefinition small = new TableDefinition(null, "Small", null, false, true, null, null, null, null, null, DEFN.columns, 10);
+    XlsxWriter unstarted = new XlsxWriter(DEFN);
+    assertThrows(IllegalStateException.class, () -> unstarted.createSegmentWriter(2, new ByteArrayOutputStream()));
+
+    try (XlsxWriter writer = new XlsxWriter(DEFN)) {
+      writer.startFile(new ByteArrayOutputStream());
+      assertThrows(IllegalArgumentException.class, () -> writer.createSegmentWriter(0, new ByteArrayOutputStream()));
+      assertThrows(IllegalArgumentException.class, () -> writer.createSegmentWriter(2, null));
+
+      ByteArrayOutputStream first = new ByteArrayOutputStream();
+      SheetSegmentWriter segmentWriter = writer.createSegmentWriter(2, first);
+      assertThrows(IllegalStateException.class, () -> segmentWriter.getWriter().startSheet(DEFN));
+      assertThrows(IllegalStateException.class, () -> segmentWriter.getWriter().startFile(new ByteArrayOutputStream()));
+      assertThrows(IllegalStateException.class, () -> segmentWriter.getWriter().createSegmentWriter(2, new ByteArrayOutputStream()));
+      segmentWriter.outputRow(Arrays.asList(1));
+      SheetSegment segment = segmentWriter.finish();
+      assertThrows(IllegalStateException.class, () -> segmentWriter.outputRow(Arrays.asList(2)));
+
+      // Out of order
+      writer.outputRow(Arrays.asList(1));
+      writer.outputRow(Arrays.asList(2));
+      assertThrows(IllegalArgumentException.class, () -> writer.writeSegment(segment, new ByteArrayInputStream(first.toByteArray())));
+
+      // Open row
+      writer.beginRow();
+      assertThrows(IllegalStateException.class, () -> writer.writeSegment(segment, new ByteArrayInputStream(first.toByteArray())));
+      writer.endRow();
+
+      // Different formatting
+      writer.startSheet(small);
+      SheetSegmentWriter smallWriter = writer.createSegmentWriter(2, new ByteArrayOutputStream());
+      assertThrows(IllegalArgumentException.class, () -> writer.writeSegment(segment, new ByteArrayInputStream(first.toByteArray())));
+
+      // Beyond the end of the worksheet
+      for (int i = 0; i < 9; ++i) {
+        smallWriter.outputRow(Arrays.asList(i));
+      }
+      assertThrows(IllegalStateException.class, () -> smallWriter.outputRow(Arrays.asList(10)));
+    }
+  }
+
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2022 jtalbut
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.spudsoft.xlsx;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.zip.Deflater;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ *
+ * @author jtalbut
+ */
+public class StaticPartCacheTest {
+
+  private static String content(int i) {
+    StringBuilder bldr = new StringBuilder("<part id=\"").append(i).append("\">");
+    for (int j = 0; j < 100; ++j) {
+      bldr.append("<item>").append(j).append("</item>");
+    }
+    return bldr.append("</part>").toString();
+  }
+
+  @Test
+  public void testHitsAndMisses() throws IOException {
+    StaticPartCache cache = new StaticPartCache(StaticPartCache.DEFAULT_MAX_WEIGHT);
+    Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    Deflater fast = new Deflater(1, true);
+    try {
+      CompressionDefinition level1 = new CompressionDefinition(1, false, Deflater.DEFAULT_STRATEGY, 1024);
+
+      ZipWriter.PreparedEntry first = cache.get(content(1), CompressionDefinition.DEFAULT, deflater);
+      // A different String with the same content is the same part
+      assertSame(first, cache.get(new String(content(1).toCharArray()), CompressionDefinition.DEFAULT, deflater));
+      // But not with different compression
+      ZipWriter.PreparedEntry stored = cache.get(content(1), CompressionDefinition.DEFAULT, null);
+      assertNotSame(first, stored);
+      ZipWriter.PreparedEntry fastEntry = cache.get(content(1), level1, fast);
+      assertNotSame(first, fastEntry);
+      assertEquals(3, cache.size());
+      assertEquals(1, cache.getHits());
+      assertEquals(3, cache.getMisses());
+
+      ByteArrayOutputStream baos = new ByteArrayOutputStream();
+      ZipWriter zip = new ZipWriter(baos);
+      zip.writeEntry("deflated.xml", first);
+      zip.writeEntry("stored.xml", stored);
+      zip.writeEntry("fast.xml", fastEntry);
+      zip.writeEntry("again.xml", first);
+      zip.finish();
+      byte[] expected = content(1).getBytes(StandardCharsets.UTF_8);
+      for (Map<String, byte[]> entries : Arrays.asList(ZipWriterTest.readStreaming(baos.toByteArray()), ZipWriterTest.readCentral(baos.toByteArray()))) {
+        assertEquals(4, entries.size());
+        for (byte[] entry : entries.values()) {
+          assertArrayEquals(expected, entry);
+        }
+      }
+    } finally {
+      deflater.end();
+      fast.end();
+    }
+  }
+
+  @Test
+  public void testBounded() {
+    StaticPartCache cache = new StaticPartCache(20_000);
+    for (int i = 0; i < 100; ++i) {
+      cache.get(content(i), CompressionDefinition.DEFAULT, null);
+      assertTrue(cache.getWeight() <= 20_000);
+    }
+    assertTrue(cache.size() > 1 && cache.size() < 100, "Size: " + cache.size());
+    // The most recently used part is still cached, the first has been evicted
+    long misses = cache.getMisses();
+    cache.get(content(99), CompressionDefinition.DEFAULT, null);
+    assertEquals(misses, cache.getMisses());
+    cache.get(content(0), CompressionDefinition.DEFAULT, null);
+    assertEquals(misses + 1, cache.getMisses());
+
+    // Huge parts are not cached at all
+    char[] huge = new char[StaticPartCache.MAX_PART_LENGTH + 1];
+    Arrays.fill(huge, 'x');
+    int size = cache.size();
+    cache.get(new String(huge), CompressionDefinition.DEFAULT, null);
+    assertEquals(size, cache.size());
+  }
+
+  @Test
+  public void testWorkbooksShareParts() throws IOException {
+    TableDefinition defn = new TableDefinition(null, "StaticPartCacheTest", null, false, true, null, null, null, null, null
+            , Arrays.asList(new ColumnDefinition("Value", "0.000", null))
+    );
+    byte[][] workbooks = new byte[2][];
+    long hits = 0;
+    for (int i = 0; i < workbooks.length; ++i) {
+      hits = XlsxWriter.STATIC_PARTS.getHits();
+      ByteArrayOutputStream baos = new ByteArrayOutputStream();
+      // A different, but equivalent, TableDefinition each time
+      try (XlsxWriter writer = new XlsxWriter(new TableDefinition(null, defn.name, null, false, true, null, null, null, null, null, defn.columns))) {
+        writer.startFile(baos);
+        writer.outputRow(Arrays.asList(i));
+      }
+      workbooks[i] = baos.toByteArray();
+    }
+    // app.xml, .rels, theme, sharedStrings, [Content_Types].xml, workbook.xml.rels, styles and workbook.xml
+    assertTrue(XlsxWriter.STATIC_PARTS.getHits() - hits >= 8);
+    for (String name : Arrays.asList("xl/styles.xml", "xl/workbook.xml", "xl/theme/theme1.xml", "[Content_Types].xml")) {
+      assertEquals(XlsxWriterTest.readEntry(workbooks[0], name), XlsxWriterTest.readEntry(workbooks[1], name));
+    }
+  }
+
+}
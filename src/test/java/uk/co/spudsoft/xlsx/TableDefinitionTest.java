@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2022 jtalbut
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.spudsoft.xlsx;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ *
+ * @author jtalbut
+ */
+public class TableDefinitionTest {
+  
+  @Test
+  public void testMaxRowsPerSheet() {
+    assertEquals(TableDefinition.MAX_ROWS, new TableDefinition(null, null, null, false, true, null, null, null, null, null, null).maxRowsPerSheet);
+    assertEquals(1, new TableDefinition(null, null, null, false, false, null, null, null, null, null, null, 1).maxRowsPerSheet);
+    assertEquals(2, new TableDefinition(null, null, null, false, true, null, null, null, null, null, null, 2).maxRowsPerSheet);
+    assertThrows(IllegalArgumentException.class, () -> { new TableDefinition(null, null, null, false, false, null, null, null, null, null, null, 0); });
+    assertThrows(IllegalArgumentException.class, () -> { new TableDefinition(null, null, null, false, true, null, null, null, null, null, null, 1); });
+    assertThrows(IllegalArgumentException.class, () -> { new TableDefinition(null, null, null, false, false, null, null, null, null, null, null, TableDefinition.MAX_ROWS + 1); });
+  }
+  
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2022 jtalbut
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.spudsoft.xlsx;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ *
+ * @author jtalbut
+ */
+public class XlsxAssemblerTest {
+
+  private static final TableDefinition FIRST = new TableDefinition(null, "First", null, false, true, null, null, null, null, null
+          , Arrays.asList(new ColumnDefinition("Id", null, null), new ColumnDefinition("Name", null, null), new ColumnDefinition("Value", "0.00", null))
+  );
+  private static final TableDefinition SECOND = new TableDefinition(null, "Second", null, false, false, null, null, new ColourDefinition("FF0000", "00FF00"), null, null
+          , Arrays.asList(new ColumnDefinition("When", "yyyy-mm-dd", 20.0))
+  );
+  // The third worksheet reuses the first definition (so shares its styles), the name does not matter because it is not unique
+  private static final List<TableDefinition> SHEETS = Arrays.asList(FIRST, SECOND, new TableDefinition(null, null, null, false, true, null, null, null, null, null, FIRST.columns));
+
+  private static final int[][] PARTITIONS = {{0, 1000, 2500}, {0, 3000}, {0, 10, 20, 30}};
+
+  private Path dir;
+
+  @BeforeEach
+  public void setUp() throws IOException {
+    dir = Files.createTempDirectory("XlsxAssemblerTest");
+  }
+
+  @AfterEach
+  public void tearDown() throws IOException {
+    try (Stream<Path> files = Files.list(dir)) {
+      for (Path file : (Iterable<Path>) files::iterator) {
+        Files.delete(file);
+      }
+    }
+    Files.delete(dir);
+  }
+
+  private static List<Object> row(int sheetIndex, int i) {
+    if (sheetIndex == 1) {
+      return Arrays.asList(java.time.LocalDate.of(2020, 1, 1).plusDays(i));
+    }
+    return Arrays.asList(i, "Row " + i + " of sheet " + sheetIndex, i / 3.0);
+  }
+
+  private static int firstDataRow(int sheetIndex) {
+    return SHEETS.get(sheetIndex).headers ? 2 : 1;
+  }
+
+  private static byte[] writeSequential() throws IOException {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    try (XlsxWriter writer = new XlsxWriter(FIRST)) {
+      writer.startFile(baos);
+      for (int sheetIndex = 0; sheetIndex < SHEETS.size(); ++sheetIndex) {
+        if (sheetIndex > 0) {
+          writer.startSheet(SHEETS.get(sheetIndex));
+        }
+        int[] bounds = PARTITIONS[sheetIndex];
+        for (int i = 0; i < bounds[bounds.length - 1]; ++i) {
+          writer.outputRow(row(sheetIndex, i));
+        }
+      }
+    }
+    return baos.toByteArray();
+  }
+
+  /**
+   * Each segment file is written by a separate SheetSegmentWriter, as if they were on different nodes.
+   */
+  private List<List<Path>> writeSegments() throws IOException {
+    List<List<Path>> result = new ArrayList<>();
+    for (int sheetIndex = 0; sheetIndex < SHEETS.size(); ++sheetIndex) {
+      List<Path> files = new ArrayList<>();
+      int[] bounds = PARTITIONS[sheetIndex];
+      for (int p = 0; p < bounds.length - 1; ++p) {
+        Path file = dir.resolve("sheet" + sheetIndex + "-" + p + ".seg");
+        files.add(file);
+        try (SheetSegmentWriter writer = new SheetSegmentWriter(SHEETS, sheetIndex, null, firstDataRow(sheetIndex) + bounds[p], file)) {
+          for (int i = bounds[p]; i < bounds[p + 1]; ++i) {
+            writer.outputRow(row(sheetIndex, i));
+          }
+        }
+      }
+      // The order of the segments does not matter
+      Collections.reverse(files);
+      result.add(files);
+    }
+    return result;
+  }
+
+  @Test
+  public void testAssembleToStream() throws IOException {
+    byte[] expected = writeSequential();
+    List<List<Path>> segments = writeSegments();
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    XlsxAssembler.assemble(SHEETS, segments, null, baos);
+    byte[] actual = baos.toByteArray();
+
+    Map<String, byte[]> expectedEntries = ZipWriterTest.readStreaming(expected);
+    Map<String, byte[]> actualEntries = ZipWriterTest.readStreaming(actual);
+    assertEquals(expectedEntries.keySet(), ZipWriterTest.readCentral(actual).keySet());
+    for (String name : expectedEntries.keySet()) {
+      if (!name.equals("docProps/core.xml")) {
+        assertEquals(new String(expectedEntries.get(name), StandardCharsets.UTF_8), new String(actualEntries.get(name), StandardCharsets.UTF_8), name);
+      }
+    }
+  }
+
+  @Test
+  public void testAssembleToFile() throws IOException {
+    List<List<Path>> segments = writeSegments();
+    Path xlsx = dir.resolve("assembled.xlsx");
+    XlsxAssembler.assemble(SHEETS, segments, null, xlsx);
+    Map<String, byte[]> entries = ZipWriterTest.readCentral(Files.readAllBytes(xlsx));
+    assertTrue(new String(entries.get("xl/worksheets/sheet1.xml"), StandardCharsets.UTF_8).contains("<dimension ref=\"A1:C2501\""));
+    assertTrue(new String(entries.get("xl/worksheets/sheet2.xml"), StandardCharsets.UTF_8).contains("<dimension ref=\"A1:A3000\""));
+    assertTrue(new String(entries.get("xl/worksheets/sheet3.xml"), StandardCharsets.UTF_8).contains("<dimension ref=\"A1:C31\""));
+  }
+
+  @Test
+  public void testSingleWorkbookWriter() throws IOException {
+    // Segment files can also be written directly to a worksheet of an XlsxWriter
+    List<List<Path>> segments = writeSegments();
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    try (XlsxWriter writer = new XlsxWriter(FIRST)) {
+      writer.startFile(baos);
+      writer.writeSegment(segments.get(0).get(1));
+      writer.writeSegment(segments.get(0).get(0));
+      assertThrows(IllegalArgumentException.class, () -> writer.writeSegment(segments.get(1).get(0)));
+    }
+    String sheet = XlsxWriterTest.readEntry(baos.toByteArray(), "xl/worksheets/sheet1.xml");
+    assertTrue(sheet.contains("<t>Row 2499 of sheet 0</t></is></c><c r=\"C2501\""), sheet);
+  }
+
+  @Test
+  public void testBadInput() throws IOException {
+    List<List<Path>> segments = writeSegments();
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    assertThrows(IllegalArgumentException.class, () -> XlsxAssembler.assemble(SHEETS, segments.subList(0, 2), null, baos));
+    assertThrows(IllegalArgumentException.class, () -> XlsxAssembler.assemble(Collections.emptyList(), Collections.emptyList(), null, baos));
+
+    List<List<Path>> overlapping = new ArrayList<>(segments);
+    overlapping.set(0, Arrays.asList(segments.get(0).get(0), segments.get(0).get(1), segments.get(0).get(0)));
+    assertThrows(IllegalArgumentException.class, () -> XlsxAssembler.assemble(SHEETS, overlapping, null, baos));
+
+    Path notSegment = dir.resolve("not.seg");
+    Files.write(notSegment, new byte[200]);
+    List<List<Path>> bad = new ArrayList<>(segments);
+    bad.set(2, Arrays.asList(notSegment));
+    assertThrows(IOException.class, () -> XlsxAssembler.assemble(SHEETS, bad, null, baos));
+    // Nothing is written if the input is bad
+    assertEquals(0, baos.size());
+
+    assertThrows(IllegalArgumentException.class, () -> new SheetSegmentWriter(SHEETS, 3, null, 2, dir.resolve("never.seg")));
+    assertThrows(IllegalArgumentException.class, () -> new SheetSegmentWriter(SHEETS, 0, null, 0, dir.resolve("never.seg")));
+    assertTrue(Files.notExists(dir.resolve("never.seg")));
+  }
+
+  @Test
+  public void testStyleBase() throws IOException {
+    try (XlsxWriter writer = new XlsxWriter(FIRST)) {
+      writer.startFile(new ByteArrayOutputStream());
+      for (int sheetIndex = 0; sheetIndex < SHEETS.size(); ++sheetIndex) {
+        if (sheetIndex > 0) {
+          writer.startSheet(SHEETS.get(sheetIndex));
+        }
+        assertEquals(writer.getStyleBase(), XlsxWriter.styleBase(SHEETS, sheetIndex));
+      }
+    }
+    assertEquals(0, XlsxWriter.styleBase(Arrays.asList(SECOND, FIRST, SECOND), 2));
+    assertEquals(8, XlsxWriter.styleBase(Arrays.asList(SECOND, FIRST, SECOND), 1));
+  }
+
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright (C) 2022 jtalbut
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.spudsoft.xlsx;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.Deflater;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ *
+ * @author jtalbut
+ */
+public class XlsxExportManagerTest {
+
+  private static final TableDefinition DEFN = new TableDefinition(null, "Data", null, false, true, null, null, null, null, null
+          , Arrays.asList(new ColumnDefinition("Id", null, null), new ColumnDefinition("Name", null, null))
+  );
+
+  private static void writeRows(XlsxWriter writer, int first) throws IOException {
+    for (int i = 0; i < 2000; ++i) {
+      writer.outputRow(Arrays.asList(first + i, "Row " + (first + i)));
+    }
+  }
+
+  private static void waitFor(java.util.function.BooleanSupplier condition) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 10_000;
+    while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertTrue(condition.getAsBoolean());
+  }
+
+  @Test
+  public void testManyExports() throws Exception {
+    List<ByteArrayOutputStream> outputs = new ArrayList<>();
+    List<Future<Void>> futures = new ArrayList<>();
+    try (XlsxExportManager manager = new XlsxExportManager(4)) {
+      for (int i = 0; i < 40; ++i) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        outputs.add(baos);
+        int first = i * 10000;
+        futures.add(manager.submit(DEFN, baos, writer -> writeRows(writer, first)));
+      }
+      for (Future<Void> future : futures) {
+        future.get(30, TimeUnit.SECONDS);
+      }
+      assertEquals(0, manager.getQueueDepth());
+      assertEquals(0, manager.getActiveCount());
+      assertEquals(4, manager.getAvailableCompressionSlots());
+
+      // No more Deflaters than slots were ever needed, and they have all been returned
+      CompressionPool pool = manager.getPool();
+      assertTrue(pool.getCreatedDeflaterCount() <= 4, () -> "Created " + pool.getCreatedDeflaterCount());
+      assertEquals(pool.getCreatedDeflaterCount(), pool.getIdleDeflaterCount());
+    }
+
+    for (int i = 0; i < outputs.size(); ++i) {
+      ByteArrayOutputStream expected = new ByteArrayOutputStream();
+      try (XlsxWriter writer = new XlsxWriter(DEFN)) {
+        writer.startFile(expected);
+        writeRows(writer, i * 10000);
+      }
+      assertEquals(XlsxWriterTest.readEntry(expected.toByteArray(), "xl/worksheets/sheet1.xml")
+              , XlsxWriterTest.readEntry(outputs.get(i).toByteArray(), "xl/worksheets/sheet1.xml"));
+    }
+  }
+
+  @Test
+  public void testQueueDepth() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try (XlsxExportManager manager = new XlsxExportManager(executor, 3)) {
+      CountDownLatch release = new CountDownLatch(1);
+      XlsxExportManager.Export blocked = writer -> {
+        try {
+          release.await();
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+        }
+        writeRows(writer, 0);
+      };
+      List<Future<Void>> futures = new ArrayList<>();
+      // Parallel compression on two threads uses all three slots, one per thread and one for the writer's own Deflater
+      futures.add(manager.submit(DEFN, new CompressionDefinition(Deflater.DEFAULT_COMPRESSION, false, Deflater.DEFAULT_STRATEGY
+              , CompressionDefinition.DEFAULT_BUFFER_SIZE, 2, CompressionDefinition.DEFAULT_BLOCK_SIZE), null, new ByteArrayOutputStream(), blocked));
+      waitFor(() -> manager.getActiveCount() == 1);
+      assertEquals(0, manager.getAvailableCompressionSlots());
+      for (int i = 0; i < 3; ++i) {
+        futures.add(manager.submit(DEFN, new ByteArrayOutputStream(), blocked));
+      }
+      waitFor(() -> manager.getQueueDepth() == 3);
+      assertEquals(1, manager.getActiveCount());
+
+      release.countDown();
+      for (Future<Void> future : futures) {
+        future.get(30, TimeUnit.SECONDS);
+      }
+      assertEquals(0, manager.getQueueDepth());
+      assertEquals(3, manager.getAvailableCompressionSlots());
+
+      // The block Deflaters come from the pool too, so no more Deflaters than slots were ever needed
+      CompressionPool pool = manager.getPool();
+      assertTrue(pool.getCreatedDeflaterCount() <= 3, () -> "Created " + pool.getCreatedDeflaterCount());
+      assertEquals(pool.getCreatedDeflaterCount(), pool.getIdleDeflaterCount());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testBurstWithDefaultPool() throws Exception {
+    try (XlsxExportManager manager = new XlsxExportManager(2)) {
+      CountDownLatch release = new CountDownLatch(1);
+      AtomicReference<String> threadName = new AtomicReference<>();
+      XlsxExportManager.Export blocked = writer -> {
+        threadName.set(Thread.currentThread().getName());
+        try {
+          release.await();
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+        }
+        writeRows(writer, 0);
+      };
+      List<Future<Void>> futures = new ArrayList<>();
+      for (int i = 0; i < 40; ++i) {
+        futures.add(manager.submit(DEFN, new ByteArrayOutputStream(), blocked));
+      }
+      // Two exports have the slots, the rest are waiting for slots or for one of the threads of the pool
+      waitFor(() -> manager.getActiveCount() == 2 && manager.getQueueDepth() == 38);
+      String prefix = threadName.get().substring(0, threadName.get().lastIndexOf('-') + 1);
+      long threads = Thread.getAllStackTraces().keySet().stream().filter(t -> t.getName().startsWith(prefix)).count();
+      assertTrue(threads <= 2 * XlsxExportManager.THREADS_PER_SLOT, () -> "Started " + threads + " threads");
+
+      // Cancelled exports in the queue of the pool are not counted
+      assertTrue(futures.get(39).cancel(false));
+      assertEquals(37, manager.getQueueDepth());
+
+      release.countDown();
+      for (Future<Void> future : futures.subList(0, 39)) {
+        future.get(30, TimeUnit.SECONDS);
+      }
+      assertEquals(0, manager.getQueueDepth());
+      assertEquals(2, manager.getAvailableCompressionSlots());
+    }
+  }
+
+  @Test
+  public void testCancelledBeforeStart() throws Exception {
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try (XlsxExportManager manager = new XlsxExportManager(executor, 1)) {
+      CountDownLatch release = new CountDownLatch(1);
+      // Occupy the only thread so that the export cannot start
+      Future<?> blocker = executor.submit(() -> {
+        release.await();
+        return null;
+      });
+      Future<Void> cancelled = manager.submit(DEFN, new ByteArrayOutputStream(), writer -> writeRows(writer, 0));
+      assertTrue(cancelled.cancel(false));
+      release.countDown();
+      blocker.get(30, TimeUnit.SECONDS);
+
+      ByteArrayOutputStream baos = new ByteArrayOutputStream();
+      manager.submit(DEFN, baos, writer -> writeRows(writer, 0)).get(30, TimeUnit.SECONDS);
+      assertEquals(0, manager.getQueueDepth());
+      assertEquals(0, manager.getActiveCount());
+      assertEquals(1, manager.getAvailableCompressionSlots());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testFailure() throws Exception {
+    IOException problem = new IOException("Bad export");
+    try (XlsxExportManager manager = new XlsxExportManager(1)) {
+      Future<Void> future = manager.submit(DEFN, new ByteArrayOutputStream(), writer -> {
+        writeRows(writer, 0);
+        throw problem;
+      });
+      ExecutionException ex = assertThrows(ExecutionException.class, () -> future.get(30, TimeUnit.SECONDS));
+      assertSame(problem, ex.getCause());
+      assertEquals(1, manager.getAvailableCompressionSlots());
+      assertEquals(1, manager.getPool().getIdleDeflaterCount());
+
+      // The pooled Deflater is reset, so the next export is unaffected
+      ByteArrayOutputStream baos = new ByteArrayOutputStream();
+      manager.submit(DEFN, baos, writer -> writeRows(writer, 0)).get(30, TimeUnit.SECONDS);
+      assertTrue(XlsxWriterTest.readEntry(baos.toByteArray(), "xl/worksheets/sheet1.xml").contains("Row 1999"));
+      assertEquals(1, manager.getPool().getCreatedDeflaterCount());
+    }
+  }
+
+  @Test
+  public void testBadArguments() {
+    assertThrows(IllegalArgumentException.class, () -> new XlsxExportManager(0));
+    assertThrows(IllegalArgumentException.class, () -> new XlsxExportManager(null, 1));
+    XlsxExportManager manager = new XlsxExportManager(1);
+    assertThrows(IllegalArgumentException.class, () -> manager.submit(DEFN, null, writer -> {}));
+    assertThrows(IllegalArgumentException.class, () -> manager.submit(null, new ByteArrayOutputStream(), writer -> {}));
+    // Parallel compression on two threads needs three slots
+    assertThrows(IllegalArgumentException.class, () -> manager.submit(DEFN, new CompressionDefinition(Deflater.DEFAULT_COMPRESSION, false, Deflater.DEFAULT_STRATEGY
+              , CompressionDefinition.DEFAULT_BUFFER_SIZE, 2, CompressionDefinition.DEFAULT_BLOCK_SIZE), null, new ByteArrayOutputStream(), writer -> {}));
+    manager.close();
+    assertThrows(IllegalStateException.class, () -> manager.submit(DEFN, new ByteArrayOutputStream(), writer -> {}));
+  }
+
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright (C) 2022 jtalbut
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.spudsoft.xlsx;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Flow;
+import java.util.zip.Deflater;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ *
+ * @author jtalbut
+ */
+public class XlsxProcessorTest {
+
+  private static final TableDefinition DEFN = new TableDefinition(null, "Data", null, false, true, null, null, null, null, null
+          , Arrays.asList(new ColumnDefinition("Id", null, null), new ColumnDefinition("Text", null, null))
+  );
+
+  private static final CompressionDefinition COMPRESSION = new CompressionDefinition(1, true, Deflater.DEFAULT_STRATEGY, 1024);
+
+  private static List<Object> row(int i) {
+    return Arrays.asList(i, "Row " + i + " " + Integer.toHexString(i * 7919), 1.0 / (i + 1));
+  }
+
+  /**
+   * Synchronous publisher of a fixed number of rows that records how rows are requested.
+   */
+  private static class RowPublisher implements Flow.Publisher<List<Object>>, Flow.Subscription {
+    private final int count;
+    private final RuntimeException failAtEnd;
+    private Flow.Subscriber<? super List<Object>> subscriber;
+    private long demand;
+    private int next;
+    private boolean emitting;
+    private boolean cancelled;
+    private long requests;
+    private long maxRequest;
+
+    RowPublisher(int count, RuntimeException failAtEnd) {
+      this.count = count;
+      this.failAtEnd = failAtEnd;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super List<Object>> subscriber) {
+      this.subscriber = subscriber;
+      subscriber.onSubscribe(this);
+    }
+
+    @Override
+    public void request(long n) {
+      ++requests;
+      maxRequest = Math.max(maxRequest, n);
+      demand += n;
+      if (emitting) {
+        return;
+      }
+      emitting = true;
+      while (demand > 0 && next < count && !cancelled) {
+        --demand;
+        subscriber.onNext(row(next++));
+      }
+      if (next == count && !cancelled) {
+        cancelled = true;
+        if (failAtEnd == null) {
+          subscriber.onComplete();
+        } else {
+          subscriber.onError(failAtEnd);
+        }
+      }
+      emitting = false;
+    }
+
+    @Override
+    public void cancel() {
+      cancelled = true;
+    }
+  }
+
+  @Test
+  public void testDemandDriven() throws IOException {
+    int rowCount = 20000;
+    XlsxProcessor processor = new XlsxProcessor(DEFN, COMPRESSION, null, 16 * 1024, 100);
+    CollectingSubscriber subscriber = new CollectingSubscriber();
+    processor.subscribe(subscriber);
+    RowPublisher rows = new RowPublisher(rowCount, null);
+    rows.subscribe(processor);
+
+    // Nothing is requested from upstream until there is demand downstream
+    assertEquals(0, rows.requests);
+
+    int requests = 0;
+    while (!subscriber.complete) {
+      subscriber.subscription.request(1);
+      ++requests;
+      assertTrue(requests < 100000);
+    }
+    assertNull(subscriber.error);
+    assertEquals(rowCount, rows.next);
+    assertTrue(rows.maxRequest <= 100, Long.toString(rows.maxRequest));
+    assertTrue(rows.requests > rowCount / 100, Long.toString(rows.requests));
+
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    try (XlsxWriter sync = new XlsxWriter(DEFN, COMPRESSION)) {
+      sync.startFile(expected);
+      for (int i = 0; i < rowCount; ++i) {
+        sync.outputRow(row(i));
+      }
+    }
+    byte[] bytes = subscriber.received.toByteArray();
+    assertEquals(10, ZipWriterTest.readCentral(bytes).size());
+    assertEquals(XlsxWriterTest.readEntry(expected.toByteArray(), "xl/worksheets/sheet1.xml"), XlsxWriterTest.readEntry(bytes, "xl/worksheets/sheet1.xml"));
+  }
+
+  @Test
+  public void testBoundedQueue() {
+    XlsxProcessor processor = new XlsxProcessor(DEFN, COMPRESSION, null, 16 * 1024, 100);
+    CollectingSubscriber subscriber = new CollectingSubscriber();
+    processor.subscribe(subscriber);
+    RowPublisher rows = new RowPublisher(1000000, null);
+    rows.subscribe(processor);
+
+    // A subscriber with unbounded demand gets everything at once
+    subscriber.subscription.request(Long.MAX_VALUE);
+    assertTrue(subscriber.complete);
+    assertEquals(1000000, rows.next);
+
+    XlsxProcessor slow = new XlsxProcessor(DEFN, COMPRESSION, null, 16 * 1024, 100);
+    CollectingSubscriber slowSubscriber = new CollectingSubscriber();
+    slow.subscribe(slowSubscriber);
+    RowPublisher slowRows = new RowPublisher(1000000, null);
+    slowRows.subscribe(slow);
+    slowSubscriber.subscription.request(1);
+    // The single chunk requested has been delivered and rows have only been requested from upstream until the queue reached the high water mark
+    assertEquals(1, slowSubscriber.chunks);
+    assertTrue(slowRows.next < 10000, Integer.toString(slowRows.next));
+    int pulled = slowRows.next;
+    slowSubscriber.subscription.request(1);
+    assertEquals(2, slowSubscriber.chunks);
+    assertEquals(pulled, slowRows.next);
+  }
+
+  @Test
+  public void testCancel() {
+    XlsxProcessor processor = new XlsxProcessor(DEFN);
+    CollectingSubscriber subscriber = new CollectingSubscriber();
+    processor.subscribe(subscriber);
+    RowPublisher rows = new RowPublisher(1000000, null);
+    rows.subscribe(processor);
+    subscriber.subscription.request(1);
+    assertFalse(processor.isWriterReleased());
+    int pulled = rows.next;
+    subscriber.subscription.cancel();
+    assertTrue(rows.cancelled);
+    assertTrue(rows.next < 1000000);
+    assertFalse(subscriber.complete);
+    assertNull(subscriber.error);
+    // The upstream publisher stops on cancel, so the writer must be released without waiting for another row
+    assertEquals(pulled, rows.next);
+    assertTrue(processor.isWriterReleased());
+  }
+
+  @Test
+  public void testCancelDuringRow() {
+    XlsxProcessor processor = new XlsxProcessor(DEFN, COMPRESSION, null, 16 * 1024, 100);
+    // Cancels from within onNext, which is called while the processor is writing a row
+    CollectingSubscriber subscriber = new CollectingSubscriber() {
+      @Override
+      public void onNext(ByteBuffer item) {
+        super.onNext(item);
+        subscription.cancel();
+      }
+    };
+    processor.subscribe(subscriber);
+    RowPublisher rows = new RowPublisher(1000000, null);
+    rows.subscribe(processor);
+    subscriber.subscription.request(1);
+    assertEquals(1, subscriber.chunks);
+    assertTrue(rows.cancelled);
+    assertTrue(rows.next < 1000000);
+    assertTrue(processor.isWriterReleased());
+  }
+
+  @Test
+  public void testUpstreamError() {
+    XlsxProcessor processor = new XlsxProcessor(DEFN);
+    CollectingSubscriber subscriber = new CollectingSubscriber();
+    processor.subscribe(subscriber);
+    IllegalStateException failure = new IllegalStateException("Database went away");
+    new RowPublisher(10, failure).subscribe(processor);
+    subscriber.subscription.request(Long.MAX_VALUE);
+    assertSame(failure, subscriber.error);
+    assertFalse(subscriber.complete);
+  }
+
+  @Test
+  public void testSecondSubscription() {
+    XlsxProcessor processor = new XlsxProcessor(DEFN);
+    RowPublisher first = new RowPublisher(10, null);
+    RowPublisher second = new RowPublisher(10, null);
+    first.subscribe(processor);
+    second.subscribe(processor);
+    assertFalse(first.cancelled);
+    assertTrue(second.cancelled);
+  }
+
+  @Test
+  public void testValidation() {
+    assertThrows(IllegalArgumentException.class, () -> {
+      new XlsxProcessor(DEFN, new CompressionDefinition(1, true, Deflater.DEFAULT_STRATEGY, 1024, 2, CompressionDefinition.DEFAULT_BLOCK_SIZE), null, 8192, 10);
+    });
+    assertThrows(IllegalArgumentException.class, () -> { new XlsxProcessor(DEFN, null, null, 0, 10); });
+    assertThrows(IllegalArgumentException.class, () -> { new XlsxProcessor(DEFN, null, null, 8192, 0); });
+  }
+
+}
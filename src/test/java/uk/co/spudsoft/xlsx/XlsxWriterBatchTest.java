@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2022 jtalbut
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.spudsoft.xlsx;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ *
+ * @author jtalbut
+ */
+public class XlsxWriterBatchTest {
+
+  private static final TableDefinition DEFN = new TableDefinition(null, "Data", null, true, true, null, null, null, null, null
+          , Arrays.asList(new ColumnDefinition("Id", null, null), new ColumnDefinition("Text", null, null), new ColumnDefinition("Date", "yyyy-mm-dd", null))
+  );
+
+  private static List<List<Object>> rows() {
+    List<List<Object>> rows = new ArrayList<>();
+    for (int i = 0; i < 1000; ++i) {
+      rows.add(Arrays.asList(i, i % 7 == 0 ? null : "Row " + i, LocalDate.of(2022, 1, 1).plusDays(i), i / 3.0, i % 2 == 0));
+    }
+    return rows;
+  }
+
+  private interface Output {
+    void output(XlsxWriter writer, List<List<Object>> rows) throws IOException;
+  }
+
+  private static String write(Output output) throws IOException {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    try (XlsxWriter writer = new XlsxWriter(DEFN)) {
+      writer.startFile(baos);
+      output.output(writer, rows());
+    }
+    return XlsxWriterTest.readEntry(baos.toByteArray(), "xl/worksheets/sheet1.xml");
+  }
+
+  @Test
+  public void testBatchesMatchOutputRow() throws IOException {
+    String expected = write((writer, rows) -> {
+      for (List<Object> row : rows) {
+        writer.outputRow(row);
+      }
+    });
+
+    assertEquals(expected, write((writer, rows) -> writer.outputRows(rows)));
+
+    assertEquals(expected, write((writer, rows) -> {
+      Object[][] array = new Object[rows.size()][];
+      for (int r = 0; r < rows.size(); ++r) {
+        array[r] = rows.get(r).toArray();
+      }
+      writer.outputRows(array);
+    }));
+
+    assertEquals(expected, write((writer, rows) -> {
+      Object[][] columns = new Object[5][rows.size()];
+      for (int r = 0; r < rows.size(); ++r) {
+        for (int c = 0; c < 5; ++c) {
+          columns[c][r] = rows.get(r).get(c);
+        }
+      }
+      writer.outputColumns(columns);
+    }));
+
+    // Batches can be mixed with other calls
+    assertEquals(expected, write((writer, rows) -> {
+      writer.outputRows(rows.subList(0, 10));
+      writer.outputRow(rows.get(10));
+      writer.outputRows(rows.subList(11, rows.size()));
+    }));
+  }
+
+  @Test
+  public void testNulls() throws IOException {
+    String expected = write((writer, rows) -> {
+      writer.outputRow(Arrays.asList());
+      writer.outputRow(Arrays.asList(null, "A"));
+    });
+    assertEquals(expected, write((writer, rows) -> writer.outputRows(new Object[][] {null, {null, "A"}})));
+
+    // A null column is output as empty cells
+    expected = write((writer, rows) -> {
+      writer.outputRow(Arrays.asList(null, null));
+      writer.outputRow(Arrays.asList(null, "A"));
+    });
+    assertEquals(expected, write((writer, rows) -> writer.outputColumns(new Object[][] {null, {null, "A"}})));
+  }
+
+  @Test
+  public void testBadColumns() throws IOException {
+    try (XlsxWriter writer = new XlsxWriter(DEFN)) {
+      writer.startFile(new ByteArrayOutputStream());
+      assertThrows(IllegalArgumentException.class, () -> writer.outputColumns(new Object[][] {{1, 2}, {3}}));
+      writer.beginRow();
+      assertThrows(IllegalStateException.class, () -> writer.outputRows(new Object[][] {{1}}));
+    }
+  }
+
+}
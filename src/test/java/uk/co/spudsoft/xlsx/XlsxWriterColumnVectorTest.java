@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2022 jtalbut
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.spudsoft.xlsx;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.BitSet;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ *
+ * @author jtalbut
+ */
+public class XlsxWriterColumnVectorTest {
+
+  private static final TableDefinition DEFN = new TableDefinition(null, "Data", null, false, true, null, null, null, null, null
+          , Arrays.asList(
+                  new ColumnDefinition("Id", null, null)
+                  , new ColumnDefinition("Timestamp", "yyyy-mm-dd hh:mm:ss", null)
+                  , new ColumnDefinition("Count", "#,##0", null)
+                  , new ColumnDefinition("Date", "yyyy-mm-dd", null)
+                  , new ColumnDefinition("Value", "0.00", null)
+                  , new ColumnDefinition("Flag", null, null)
+                  , new ColumnDefinition("Text", null, null)
+          )
+  );
+
+  private static final int ROWS = 500;
+
+  private interface Output {
+    void output(XlsxWriter writer) throws IOException;
+  }
+
+  private static String write(Output output) throws IOException {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    try (XlsxWriter writer = new XlsxWriter(DEFN)) {
+      writer.startFile(baos);
+      output.output(writer);
+    }
+    return XlsxWriterTest.readEntry(baos.toByteArray(), "xl/worksheets/sheet1.xml");
+  }
+
+  @Test
+  public void testColumnsMatchCursor() throws IOException {
+    long[] ids = new long[ROWS];
+    long[] timestamps = new long[ROWS];
+    int[] counts = new int[ROWS];
+    int[] days = new int[ROWS];
+    double[] values = new double[ROWS];
+    boolean[] flags = new boolean[ROWS];
+    String[] texts = new String[ROWS];
+    BitSet nulls = new BitSet();
+    for (int i = 0; i < ROWS; ++i) {
+      ids[i] = i * 1000003L - 17;
+      timestamps[i] = 1_650_000_000_000L + i * 3_601_001L;
+      counts[i] = i * 7;
+      days[i] = 18000 + i;
+      values[i] = i / 3.0;
+      flags[i] = i % 3 == 0;
+      texts[i] = i % 5 == 0 ? null : "Text " + i;
+      if (i % 11 == 0) {
+        nulls.set(i);
+      }
+    }
+
+    String expected = write(writer -> {
+      for (int i = 0; i < ROWS; ++i) {
+        writer.beginRow();
+        writer.writeLong(ids[i]);
+        writer.writeEpochMillis(timestamps[i]);
+        if (nulls.get(i)) {
+          writer.writeBlank();
+        } else {
+          writer.writeLong(counts[i]);
+        }
+        writer.writeDate(LocalDate.ofEpochDay(days[i]));
+        if (nulls.get(i)) {
+          writer.writeBlank();
+        } else {
+          writer.writeDouble(values[i]);
+        }
+        writer.writeBoolean(flags[i]);
+        writer.writeString(texts[i]);
+        writer.writeBlank();
+        writer.endRow();
+      }
+    });
+
+    String actual = write(writer -> {
+      ColumnVector[] columns = {
+        ColumnVector.ofLongs(ids, null)
+        , ColumnVector.ofLongs(timestamps, null)
+        , ColumnVector.ofInts(counts, nulls)
+        , ColumnVector.ofInts(days, new BitSet())
+        , ColumnVector.ofDoubles(values, nulls)
+        , ColumnVector.ofBooleans(flags, null)
+        , ColumnVector.ofStrings(texts)
+        , null
+      };
+      writer.outputColumns(columns, 100);
+      writer.outputColumns(new ColumnVector[0], 0);
+      // Subsequent batches just use a different row count
+      long[] ids2 = Arrays.copyOfRange(ids, 100, ROWS);
+      long[] timestamps2 = Arrays.copyOfRange(timestamps, 100, ROWS);
+      int[] counts2 = Arrays.copyOfRange(counts, 100, ROWS);
+      int[] days2 = Arrays.copyOfRange(days, 100, ROWS);
+      double[] values2 = Arrays.copyOfRange(values, 100, ROWS);
+      boolean[] flags2 = Arrays.copyOfRange(flags, 100, ROWS);
+      String[] texts2 = Arrays.copyOfRange(texts, 100, ROWS);
+      BitSet nulls2 = nulls.get(100, ROWS);
+      writer.outputColumns(new ColumnVector[] {
+        ColumnVector.ofLongs(ids2, null)
+        , ColumnVector.ofLongs(timestamps2, null)
+        , ColumnVector.ofInts(counts2, nulls2)
+        , ColumnVector.ofInts(days2, null)
+        , ColumnVector.ofDoubles(values2, nulls2)
+        , ColumnVector.ofBooleans(flags2, null)
+        , ColumnVector.ofStrings(texts2)
+        , null
+      }, ROWS - 100);
+    });
+    assertEquals(expected, actual);
+  }
+
+  @Test
+  public void testValidation() throws IOException {
+    try (XlsxWriter writer = new XlsxWriter(DEFN)) {
+      writer.startFile(new ByteArrayOutputStream());
+      assertThrows(IllegalArgumentException.class, () -> writer.outputColumns(new ColumnVector[] {ColumnVector.ofLongs(new long[2], null)}, 3));
+      assertThrows(IllegalArgumentException.class, () -> writer.outputColumns(new ColumnVector[0], -1));
+      assertEquals(2, ColumnVector.ofStrings(new String[2]).length());
+    }
+  }
+
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2022 jtalbut
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.spudsoft.xlsx;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ *
+ * @author jtalbut
+ */
+public class XlsxWriterMultiSheetTest extends AbstractXlsxWriterTest {
+
+  @Test
+  public void testFile() throws Exception {
+
+    File file = new File("target/temp/XlsxWriterMultiSheetTest.xlsx");
+    file.getParentFile().mkdirs();
+
+    TableDefinition first = new TableDefinition(null, "First", "Jim", true, true
+            , null
+            , null
+            , new ColourDefinition("FF0000", "00FF00")
+            , null
+            , null
+            , getStandardColumnsDefns()
+    );
+    TableDefinition second = new TableDefinition(null, "Second & <Last>", null, false, true
+            , new FontDefinition("Consolas", 15)
+            , null
+            , null
+            , new ColourDefinition("0000FF", "FF00FF")
+            , null
+            , Arrays.asList(new ColumnDefinition("Value", "0.00", null), new ColumnDefinition("When", "hh:mm", 20.0))
+    );
+    TableDefinition unnamed = new TableDefinition(null, null, null, false, false, null, null, null, null, null, null);
+
+    try (FileOutputStream fos = new FileOutputStream(file)) {
+      try (XlsxWriter writer = new XlsxWriter(first)) {
+        assertThrows(IllegalStateException.class, () -> writer.startSheet(second));
+        writer.startFile(fos);
+        writer.outputRow(Arrays.asList(1, "One"));
+        writer.startSheet(second);
+        writer.outputRow(Arrays.asList(2.5, "Two"));
+        writer.beginRow();
+        writer.writeLong(3);
+        // Left open, startSheet should end the row
+        writer.startSheet(unnamed);
+        writer.outputRow(Arrays.asList("Three"));
+        assertThrows(IllegalArgumentException.class, () -> writer.startSheet(first));
+        assertThrows(IllegalArgumentException.class, () -> writer.startSheet(new TableDefinition(null, "SHEET3", null, false, false, null, null, null, null, null, null)));
+        writer.startSheet(new TableDefinition(null, "Fourth", null, false, true, null, null, null, null, null, second.columns));
+        writer.outputRow(Arrays.asList(4));
+      }
+    }
+
+    byte[] bytes = Files.readAllBytes(file.toPath());
+    Map<String, byte[]> entries = ZipWriterTest.readCentral(bytes);
+    assertEquals(13, entries.size());
+
+    String workbook = XlsxWriterTest.readEntry(bytes, "xl/workbook.xml");
+    assertTrue(workbook.contains("<sheets>"
+            + "<sheet name=\"First\" r:id=\"rId1\" sheetId=\"1\"/>"
+            + "<sheet name=\"Second &amp; &lt;Last&gt;\" r:id=\"rId2\" sheetId=\"2\"/>"
+            + "<sheet name=\"Sheet3\" r:id=\"rId3\" sheetId=\"3\"/>"
+            + "<sheet name=\"Fourth\" r:id=\"rId4\" sheetId=\"4\"/>"
+            + "</sheets>"), workbook);
+
+    String rels = XlsxWriterTest.readEntry(bytes, "xl/_rels/workbook.xml.rels");
+    assertTrue(rels.contains("<Relationship Id=\"rId4\" Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/worksheet\" Target=\"worksheets/sheet4.xml\"/>"), rels);
+    assertTrue(rels.contains("<Relationship Id=\"rId5\" Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/theme\" Target=\"theme/theme1.xml\"/>"), rels);
+    assertTrue(rels.contains("<Relationship Id=\"rId6\" Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/styles\" Target=\"styles.xml\"/>"), rels);
+    assertTrue(rels.contains("<Relationship Id=\"rId7\" Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/sharedStrings\" Target=\"sharedStrings.xml\"/>"), rels);
+
+    String contentTypes = XlsxWriterTest.readEntry(bytes, "[Content_Types].xml");
+    for (int sheet = 1; sheet <= 4; ++sheet) {
+      assertTrue(contentTypes.contains("<Override PartName=\"/xl/worksheets/sheet" + sheet + ".xml\""), contentTypes);
+    }
+
+    // First sheet: 6 columns, 28 cell formats starting at 0
+    // Second sheet: 2 columns, 12 cell formats starting at 28, fonts 4-7 and fills 5-7
+    // Third sheet: no columns, 4 cell formats starting at 40
+    // Fourth sheet: 2 columns, 12 cell formats starting at 44
+    String styles = XlsxWriterTest.readEntry(bytes, "xl/styles.xml");
+    assertTrue(styles.contains("<numFmts count=\"5\">"), styles);
+    assertTrue(styles.contains("<numFmt numFmtId=\"168\" formatCode=\"0.00\"/><numFmt numFmtId=\"169\" formatCode=\"hh:mm\"/></numFmts>"), styles);
+    assertTrue(styles.contains("<fonts count=\"16\">"), styles);
+    assertTrue(styles.contains("<fills count=\"14\">"), styles);
+    assertTrue(styles.contains("<cellXfs count=\"56\">"), styles);
+    assertTrue(styles.contains("<font><sz val=\"15\"/><name val=\"Consolas\"/></font>"), styles);
+
+    String sheet1 = XlsxWriterTest.readEntry(bytes, "xl/worksheets/sheet1.xml");
+    assertTrue(sheet1.contains("tabSelected=\"true\""));
+    assertTrue(sheet1.contains("<c r=\"A2\" s=\"15\"><v>1</v></c>"), sheet1);
+
+    String sheet2 = XlsxWriterTest.readEntry(bytes, "xl/worksheets/sheet2.xml");
+    assertFalse(sheet2.contains("tabSelected"));
+    assertTrue(sheet2.contains("<col min=\"2\" max=\"2\" width=\"20.0\" style=\"30\" customWidth=\"1\" />"), sheet2);
+    assertTrue(sheet2.contains("<row r=\"1\"><c r=\"A1\" s=\"32\" t=\"inlineStr\"><is><t>Value</t></is></c><c r=\"B1\" s=\"33\" t=\"inlineStr\"><is><t>When</t></is></c></row>"), sheet2);
+    assertTrue(sheet2.contains("<row r=\"2\"><c r=\"A2\" s=\"35\"><v>2.5</v></c>"), sheet2);
+    assertTrue(sheet2.contains("<row r=\"3\"><c r=\"A3\" s=\"38\"><v>3</v></c></row></sheetData>"), sheet2);
+
+    String sheet3 = XlsxWriterTest.readEntry(bytes, "xl/worksheets/sheet3.xml");
+    assertTrue(sheet3.contains("<sheetData><row r=\"1\"><c r=\"A1\" s=\"43\" t=\"inlineStr\"><is><t>Three</t></is></c></row></sheetData>"), sheet3);
+
+    String sheet4 = XlsxWriterTest.readEntry(bytes, "xl/worksheets/sheet4.xml");
+    assertTrue(sheet4.contains("<row r=\"2\"><c r=\"A2\" s=\"51\"><v>4</v></c></row>"), sheet4);
+    assertNull(XlsxWriterTest.readEntry(bytes, "xl/worksheets/sheet5.xml"));
+  }
+
+  @Test
+  public void testSameDefinitionSharesStyles() throws IOException {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    // With no name each worksheet gets a default name, so the same definition can be used for every worksheet
+    TableDefinition defn = new TableDefinition(null, null, null, false, true, null, null, null, null, null
+            , Arrays.asList(new ColumnDefinition("Value", "0.00", null))
+    );
+    try (XlsxWriter writer = new XlsxWriter(defn)) {
+      writer.startFile(baos);
+      for (int i = 0; i < 3; ++i) {
+        if (i > 0) {
+          writer.startSheet(defn);
+        }
+        writer.outputRow(Arrays.asList(i));
+      }
+    }
+    byte[] bytes = baos.toByteArray();
+    String styles = XlsxWriterTest.readEntry(bytes, "xl/styles.xml");
+    assertTrue(styles.contains("<numFmts count=\"1\">"), styles);
+    assertTrue(styles.contains("<fonts count=\"4\">"), styles);
+    assertTrue(styles.contains("<cellXfs count=\"8\">"), styles);
+    for (int sheet = 2; sheet <= 3; ++sheet) {
+      assertEquals(XlsxWriterTest.readEntry(bytes, "xl/worksheets/sheet1.xml").replace(" tabSelected=\"true\"", "").replace("<v>0</v>", "<v>" + (sheet - 1) + "</v>")
+              , XlsxWriterTest.readEntry(bytes, "xl/worksheets/sheet" + sheet + ".xml"));
+    }
+    assertTrue(XlsxWriterTest.readEntry(bytes, "xl/workbook.xml").contains("<sheet name=\"Sheet3\" r:id=\"rId3\" sheetId=\"3\"/>"));
+  }
+
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2022 jtalbut
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.spudsoft.xlsx;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.DoubleAdder;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ *
+ * @author jtalbut
+ */
+public class XlsxWriterNumberTest {
+
+  private static final TableDefinition DEFN = new TableDefinition(null, "Data", null, false, false, null, null, null, null, null
+          , Arrays.asList(new ColumnDefinition("Value", null, null))
+  );
+
+  /**
+   * Output each value as a single cell row and return the content of the value element of each cell.
+   */
+  private static String[] values(Object... values) throws IOException {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    try (XlsxWriter writer = new XlsxWriter(DEFN)) {
+      writer.startFile(baos);
+      for (Object value : values) {
+        writer.outputRow(Arrays.asList(value));
+      }
+    }
+    String sheet = XlsxWriterTest.readEntry(baos.toByteArray(), "xl/worksheets/sheet1.xml");
+    String[] result = new String[values.length];
+    int pos = 0;
+    for (int i = 0; i < values.length; ++i) {
+      pos = sheet.indexOf("<c ", pos);
+      int start = sheet.indexOf(">", pos) + 1;
+      int end = sheet.indexOf("</c>", start);
+      result[i] = sheet.substring(start, end);
+      pos = end;
+    }
+    return result;
+  }
+
+  @Test
+  public void testIntegers() throws IOException {
+    assertEquals(Arrays.asList(
+            "<v>1</v>", "<v>-2</v>", "<v>3</v>", "<v>-4</v>", "<v>5</v>", "<v>9223372036854775807</v>", "<v>-9223372036854775808</v>"
+            , "<v>9223372036854775808</v>", "<v>1.2345678901234568E29</v>"
+    ), Arrays.asList(values(
+            1, -2L, (short) 3, (byte) -4, new AtomicInteger(5), new AtomicLong(Long.MAX_VALUE), BigInteger.valueOf(Long.MIN_VALUE)
+            , BigInteger.ONE.shiftLeft(63), new BigInteger("123456789012345678901234567890")
+    )));
+  }
+
+  @Test
+  public void testFloatingPoint() throws IOException {
+    assertEquals(Arrays.asList(
+            "<v>0.1</v>", "<v>1</v>", "<v>0.00001</v>", "<v>1E-10</v>", "<v>1.1</v>", "<v>3.4028235E38</v>"
+    ), Arrays.asList(values(
+            0.1, 1.0, 1.0E-5, 1.0E-10, 1.1f, Float.MAX_VALUE
+    )));
+    assertEquals(Arrays.asList(
+            "<v>#NUM!</v>", "<v>#NUM!</v>", "<v>#NUM!</v>"
+    ), Arrays.asList(values(
+            Double.NaN, Float.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY
+    )));
+  }
+
+  @Test
+  public void testBigDecimal() throws IOException {
+    assertEquals(Arrays.asList(
+            "<v>0</v>", "<v>0</v>", "<v>1000</v>", "<v>-12.50</v>", "<v>0.0000001</v>", "<v>1E-8</v>"
+            , "<v>123456789012345678901.5</v>", "<v>100000000000000000000</v>", "<v>1E21</v>"
+            , "<v>3.14159265358979323846264338327950288</v>", "<v>#NUM!</v>"
+    ), Arrays.asList(values(
+            BigDecimal.ZERO, new BigDecimal("0E+5"), new BigDecimal("1E+3"), new BigDecimal("-12.50"), new BigDecimal("1E-7"), new BigDecimal("1E-8")
+            , new BigDecimal("123456789012345678901.5"), new BigDecimal("1E+20"), new BigDecimal("1E+21")
+            , new BigDecimal("3.14159265358979323846264338327950288"), new BigDecimal("1E+400")
+    )));
+  }
+
+  @Test
+  public void testOtherNumber() throws IOException {
+    DoubleAdder adder = new DoubleAdder();
+    adder.add(2.5);
+    assertEquals(Arrays.asList("<v>2.5</v>"), Arrays.asList(values(adder)));
+  }
+
+}
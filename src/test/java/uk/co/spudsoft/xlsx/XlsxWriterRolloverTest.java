@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2022 jtalbut
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.spudsoft.xlsx;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ *
+ * @author jtalbut
+ */
+public class XlsxWriterRolloverTest {
+
+  @Test
+  public void testRollover() throws IOException {
+    TableDefinition defn = new TableDefinition(null, "Data", null, false, true, null, null, null, null, null
+            , Arrays.asList(new ColumnDefinition("Value", null, null))
+            , 4
+    );
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    try (XlsxWriter writer = new XlsxWriter(defn)) {
+      writer.startFile(baos);
+      for (int i = 1; i <= 10; ++i) {
+        if ((i & 1) == 0) {
+          writer.outputRow(Arrays.asList(i));
+        } else {
+          writer.beginRow();
+          writer.writeLong(i);
+          writer.endRow();
+        }
+      }
+    }
+    byte[] bytes = baos.toByteArray();
+
+    String workbook = XlsxWriterTest.readEntry(bytes, "xl/workbook.xml");
+    assertTrue(workbook.contains("<sheets>"
+            + "<sheet name=\"Data\" r:id=\"rId1\" sheetId=\"1\"/>"
+            + "<sheet name=\"Data (2)\" r:id=\"rId2\" sheetId=\"2\"/>"
+            + "<sheet name=\"Data (3)\" r:id=\"rId3\" sheetId=\"3\"/>"
+            + "<sheet name=\"Data (4)\" r:id=\"rId4\" sheetId=\"4\"/>"
+            + "</sheets>"), workbook);
+
+    // Every sheet shares the styles of the one definition
+    String styles = XlsxWriterTest.readEntry(bytes, "xl/styles.xml");
+    assertTrue(styles.contains("<cellXfs count=\"8\">"), styles);
+
+    String header = "<row r=\"1\"><c r=\"A1\" s=\"3\" t=\"inlineStr\"><is><t>Value</t></is></c></row>";
+    for (int sheet = 1; sheet <= 4; ++sheet) {
+      String xml = XlsxWriterTest.readEntry(bytes, "xl/worksheets/sheet" + sheet + ".xml");
+      assertTrue(xml.contains("<sheetData>" + header), xml);
+      int first = (sheet - 1) * 3 + 1;
+      assertTrue(xml.contains("<row r=\"2\"><c r=\"A2\" s=\"5\"><v>" + first + "</v></c></row>"), xml);
+      if (sheet < 4) {
+        assertTrue(xml.contains("<row r=\"4\"><c r=\"A4\" s=\"5\"><v>" + (first + 2) + "</v></c></row></sheetData>"), xml);
+      } else {
+        assertTrue(xml.contains("<row r=\"2\"><c r=\"A2\" s=\"5\"><v>10</v></c></row></sheetData>"), xml);
+      }
+    }
+    assertNull(XlsxWriterTest.readEntry(bytes, "xl/worksheets/sheet5.xml"));
+  }
+
+  @Test
+  public void testRolloverNames() throws IOException {
+    TableDefinition existing = new TableDefinition(null, "Data (2)", null, false, false, null, null, null, null, null, null);
+    TableDefinition data = new TableDefinition(null, "Data", null, false, false, null, null, null, null, null, null, 2);
+    TableDefinition longName = new TableDefinition(null, "A very long name for a worksheet", null, false, false, null, null, null, null, null, null, 1);
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    try (XlsxWriter writer = new XlsxWriter(existing)) {
+      writer.startFile(baos);
+      writer.outputRow(Arrays.asList("Existing"));
+      writer.startSheet(data);
+      for (int i = 0; i < 3; ++i) {
+        writer.outputRow(Arrays.asList(i));
+      }
+      writer.startSheet(longName);
+      for (int i = 0; i < 2; ++i) {
+        writer.outputRow(Arrays.asList(i));
+      }
+    }
+    byte[] bytes = baos.toByteArray();
+
+    String workbook = XlsxWriterTest.readEntry(bytes, "xl/workbook.xml");
+    assertTrue(workbook.contains("<sheets>"
+            + "<sheet name=\"Data (2)\" r:id=\"rId1\" sheetId=\"1\"/>"
+            + "<sheet name=\"Data\" r:id=\"rId2\" sheetId=\"2\"/>"
+            + "<sheet name=\"Data (3)\" r:id=\"rId3\" sheetId=\"3\"/>"
+            + "<sheet name=\"A very long name for a worksheet\" r:id=\"rId4\" sheetId=\"4\"/>"
+            + "<sheet name=\"A very long name for a work (2)\" r:id=\"rId5\" sheetId=\"5\"/>"
+            + "</sheets>"), workbook);
+    assertEquals(31, "A very long name for a work (2)".length());
+  }
+
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2022 jtalbut
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.spudsoft.xlsx;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.zip.Deflater;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ *
+ * @author jtalbut
+ */
+public class XlsxWriterSeekableTest {
+
+  private static final TableDefinition DEFN = new TableDefinition(null, "Data", null, false, true, null, null, null, null, null
+          , Arrays.asList(new ColumnDefinition("One", null, null), new ColumnDefinition("Two", null, null), new ColumnDefinition("Three", "0.00", null))
+          , 1000
+  );
+
+  private interface Output {
+    void output(XlsxWriter writer) throws IOException;
+  }
+
+  private static byte[] writeStream(CompressionDefinition compression, Output output) throws IOException {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    try (XlsxWriter writer = new XlsxWriter(DEFN, compression)) {
+      writer.startFile(baos);
+      output.output(writer);
+    }
+    return baos.toByteArray();
+  }
+
+  private static byte[] writeChannel(String name, CompressionDefinition compression, int offset, Output output) throws IOException {
+    File file = new File("target/temp/" + name + ".xlsx");
+    file.getParentFile().mkdirs();
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      channel.write(ByteBuffer.allocate(offset));
+      try (XlsxWriter writer = new XlsxWriter(DEFN, compression)) {
+        writer.startFile(channel);
+        output.output(writer);
+      }
+    }
+    byte[] bytes = Files.readAllBytes(file.toPath());
+    return Arrays.copyOfRange(bytes, offset, bytes.length);
+  }
+
+  private static String dimension(String ref) {
+    StringBuilder bldr = new StringBuilder("<dimension ref=\"").append(ref).append("\"");
+    for (int i = ref.length(); i < "A1:XFD1048576".length(); ++i) {
+      bldr.append(' ');
+    }
+    return bldr.append("/>").toString();
+  }
+
+  private static void assertSheetsMatch(byte[] streamed, byte[] seekable, String... refs) throws IOException {
+    // Reading via the central directory as well as the local headers checks the CRCs of the patched entries.
+    Map<String, byte[]> entries = ZipWriterTest.readCentral(seekable);
+    assertEquals(ZipWriterTest.readStreaming(streamed).keySet(), entries.keySet());
+    for (int sheet = 1; sheet <= refs.length; ++sheet) {
+      String name = "xl/worksheets/sheet" + sheet + ".xml";
+      String expected = XlsxWriterTest.readEntry(streamed, name)
+              .replace("/main\"><sheetViews>", "/main\">" + dimension(refs[sheet - 1]) + "<sheetViews>");
+      assertEquals(expected, XlsxWriterTest.readEntry(seekable, name));
+      assertEquals(expected, new String(entries.get(name), java.nio.charset.StandardCharsets.UTF_8));
+    }
+  }
+
+  @Test
+  public void testDimensions() throws IOException {
+    Output output = writer -> {
+      for (int i = 0; i < 2500; ++i) {
+        writer.outputRow(Arrays.asList(i, "Row " + i, i / 7.0));
+      }
+      writer.startSheet(new TableDefinition(null, "Wide", null, false, false, null, null, null, null, null, DEFN.columns));
+      writer.outputRow(Arrays.asList(1));
+      writer.outputRow(Arrays.asList(1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17, 18, 19, 20, 21, 22, 23, 24, 25, 26, 27, 28));
+      writer.outputRow(Arrays.asList(1, 2));
+      writer.startSheet(new TableDefinition(null, "Empty", null, false, false, null, null, null, null, null, null));
+    };
+    String[] refs = {"A1:C1000", "A1:C1000", "A1:C503", "A1:AB3", "A1"};
+    assertSheetsMatch(writeStream(null, output), writeChannel("XlsxWriterSeekableTest", null, 0, output), refs);
+    assertSheetsMatch(writeStream(null, output), writeChannel("XlsxWriterSeekableTestOffset", null, 1234, output), refs);
+
+    CompressionDefinition parallel = new CompressionDefinition(Deflater.DEFAULT_COMPRESSION, false, Deflater.DEFAULT_STRATEGY
+            , 4096, 2, CompressionDefinition.MIN_BLOCK_SIZE);
+    assertSheetsMatch(writeStream(parallel, output), writeChannel("XlsxWriterSeekableTestParallel", parallel, 0, output), refs);
+  }
+
+  @Test
+  public void testHeadersOnly() throws IOException {
+    Output output = writer -> {
+    };
+    byte[] seekable = writeChannel("XlsxWriterSeekableTestHeaders", null, 0, output);
+    assertSheetsMatch(writeStream(null, output), seekable, "A1:C1");
+    assertTrue(XlsxWriterTest.readEntry(seekable, "xl/worksheets/sheet1.xml").contains(dimension("A1:C1") + "<sheetViews>"));
+  }
+
+  @Test
+  public void testPath() throws IOException {
+    Output output = writer -> {
+      for (int i = 0; i < 50_000; ++i) {
+        writer.outputRow(Arrays.asList(i, "Row " + i, i / 7.0));
+      }
+    };
+    File file = new File("target/temp/XlsxWriterSeekableTestPath.xlsx");
+    file.getParentFile().mkdirs();
+    Files.write(file.toPath(), new byte[1_000_000]);
+    try (XlsxWriter writer = new XlsxWriter(DEFN)) {
+      writer.startFile(file.toPath());
+      output.output(writer);
+    }
+    // The file is replaced, and closed so that it can be deleted
+    byte[] bytes = Files.readAllBytes(file.toPath());
+    String[] refs = new String[51];
+    Arrays.fill(refs, "A1:C1000");
+    refs[50] = "A1:C51";
+    assertSheetsMatch(writeStream(null, output), bytes, refs);
+    assertTrue(file.delete());
+  }
+
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2022 jtalbut
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.spudsoft.xlsx;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+import java.util.OptionalDouble;
+import java.util.OptionalInt;
+import java.util.OptionalLong;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ *
+ * @author jtalbut
+ */
+public class XlsxWriterSerializerTest {
+
+  private static final TableDefinition DEFN = new TableDefinition(null, "Data", null, false, false, null, null, null, null, null
+          , Arrays.asList(new ColumnDefinition("Value", null, null))
+  );
+
+  private enum Colour {
+    RED {
+      @Override
+      public String toString() {
+        return "Red!";
+      }
+    },
+    GREEN
+  }
+
+  private interface Identified {
+    String getId();
+  }
+
+  private static class Money {
+    final String currency;
+    final long pence;
+
+    Money(String currency, long pence) {
+      this.currency = currency;
+      this.pence = pence;
+    }
+  }
+
+  private static class Customer implements Identified {
+    @Override
+    public String getId() {
+      return "C-1";
+    }
+
+    @Override
+    public String toString() {
+      return "Customer";
+    }
+  }
+
+  private static class SpecialCustomer extends Customer {
+  }
+
+  private interface Configure {
+    void configure(XlsxWriter writer);
+  }
+
+  /**
+   * Output each value as a single cell row and return the content of each cell after the style attribute.
+   */
+  private static String[] cells(Configure configure, Object... values) throws IOException {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    try (XlsxWriter writer = new XlsxWriter(DEFN)) {
+      configure.configure(writer);
+      writer.startFile(baos);
+      for (Object value : values) {
+        writer.outputRow(Arrays.asList(value));
+      }
+    }
+    String sheet = XlsxWriterTest.readEntry(baos.toByteArray(), "xl/worksheets/sheet1.xml");
+    String[] result = new String[values.length];
+    int pos = 0;
+    for (int i = 0; i < values.length; ++i) {
+      pos = sheet.indexOf("<c ", pos);
+      int start = sheet.indexOf("\"", sheet.indexOf(" s=\"", pos) + 4) + 1;
+      int end = sheet.indexOf("</c>", start);
+      result[i] = sheet.substring(start, end);
+      pos = end;
+    }
+    return result;
+  }
+
+  private static List<String> cells(Object... values) throws IOException {
+    return Arrays.asList(cells(writer -> {}, values));
+  }
+
+  @Test
+  public void testDefaultSerializers() throws IOException {
+    UUID uuid = UUID.fromString("123e4567-e89b-12d3-a456-426614174000");
+    assertEquals(Arrays.asList(
+            " t=\"inlineStr\"><is><t>text</t></is>"
+            , "><f>A1</f>"
+            , "><v>7</v>"
+            , "><v>1.5</v>"
+            , "><v>2.50</v>"
+            , " t=\"b\"><v>1</v>"
+            , " t=\"b\"><v>0</v>"
+            , " t=\"inlineStr\"><is><t>builder</t></is>"
+            , " t=\"inlineStr\"><is><t>x</t></is>"
+            , " t=\"inlineStr\"><is><t>RED</t></is>"
+            , " t=\"inlineStr\"><is><t>GREEN</t></is>"
+            , " t=\"inlineStr\"><is><t>123e4567-e89b-12d3-a456-426614174000</t></is>"
+            , " t=\"inlineStr\"><is><t>AQID</t></is>"
+            , "><v>42</v>"
+            , ">"
+            , "><v>3</v>"
+            , "><v>4</v>"
+            , "><v>0.5</v>"
+            , ">"
+            , "><v>" + XlsxWriter.temporalToExcelValue(LocalDate.of(2022, 3, 4)) + "</v>"
+            , "><v>" + XlsxWriter.temporalToExcelValue(LocalDateTime.of(2022, 3, 4, 12, 0)) + "</v>"
+            , "><v>" + XlsxWriter.temporalToExcelValue(LocalDateTime.of(2022, 3, 4, 12, 30)) + "</v>"
+            , "><v>" + XlsxWriter.temporalToExcelValue(LocalDate.of(2022, 3, 4)) + "</v>"
+            , "><v>" + XlsxWriter.temporalToExcelValue(LocalDateTime.of(2022, 3, 4, 12, 30)) + "</v>"
+            , " t=\"inlineStr\"><is><t>Customer</t></is>"
+    ), cells(
+            "text", "=A1", 7, 1.5, new BigDecimal("2.50"), true, new AtomicBoolean(false)
+            , new StringBuilder("builder"), 'x', Colour.RED, Colour.GREEN, uuid, new byte[] {1, 2, 3}
+            , Optional.of(42), Optional.empty(), OptionalInt.of(3), OptionalLong.of(4), OptionalDouble.of(0.5), OptionalInt.empty()
+            , LocalDate.of(2022, 3, 4)
+            , OffsetDateTime.of(2022, 3, 4, 12, 0, 0, 0, ZoneOffset.ofHours(5))
+            , new Date(LocalDateTime.of(2022, 3, 4, 12, 30).toInstant(ZoneOffset.UTC).toEpochMilli())
+            , java.sql.Date.valueOf(LocalDate.of(2022, 3, 4))
+            , java.sql.Timestamp.valueOf(LocalDateTime.of(2022, 3, 4, 12, 30))
+            , new Customer()
+    ));
+  }
+
+  @Test
+  public void testCustomSerializers() throws IOException {
+    List<String> result = Arrays.asList(cells(writer -> {
+      writer.registerSerializer(Money.class, (w, value) -> w.writeDouble(value.pence / 100.0));
+      writer.registerSerializer(Identified.class, (w, value) -> w.writeString(value.getId()));
+      // Replace a default serializer
+      writer.registerSerializer(UUID.class, (w, value) -> w.writeObject(Optional.of(value.getMostSignificantBits())));
+    }, new Money("GBP", 1234), new Customer(), new SpecialCustomer(), new UUID(5, 6), "text"));
+    assertEquals(Arrays.asList(
+            "><v>12.34</v>"
+            , " t=\"inlineStr\"><is><t>C-1</t></is>"
+            , " t=\"inlineStr\"><is><t>C-1</t></is>"
+            , "><v>5</v>"
+            , " t=\"inlineStr\"><is><t>text</t></is>"
+    ), result);
+  }
+
+  @Test
+  public void testRegistrationClearsCache() throws IOException {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    try (XlsxWriter writer = new XlsxWriter(DEFN)) {
+      writer.startFile(baos);
+      writer.outputRow(Arrays.asList(new SpecialCustomer()));
+      writer.registerSerializer(Customer.class, (w, value) -> w.writeLong(1));
+      writer.outputRow(Arrays.asList(new SpecialCustomer()));
+    }
+    String sheet = XlsxWriterTest.readEntry(baos.toByteArray(), "xl/worksheets/sheet1.xml");
+    assertEquals(true, sheet.contains("<is><t>Customer</t></is>"), sheet);
+    assertEquals(true, sheet.contains("<v>1</v>"), sheet);
+  }
+
+  @Test
+  public void testBadSerializers() throws IOException {
+    try (XlsxWriter writer = new XlsxWriter(DEFN)) {
+      assertThrows(IllegalArgumentException.class, () -> writer.registerSerializer(null, (w, value) -> w.writeBlank()));
+      assertThrows(IllegalArgumentException.class, () -> writer.registerSerializer(Money.class, null));
+      writer.registerSerializer(Money.class, (w, value) -> {});
+      writer.registerSerializer(Customer.class, (w, value) -> {
+        w.writeBlank();
+        w.writeBlank();
+      });
+      writer.startFile(new ByteArrayOutputStream());
+      writer.beginRow();
+      assertThrows(IllegalStateException.class, () -> writer.writeObject(new Money("GBP", 1)));
+      assertThrows(IllegalStateException.class, () -> writer.writeObject(new Customer()));
+      writer.endRow();
+    }
+  }
+
+}
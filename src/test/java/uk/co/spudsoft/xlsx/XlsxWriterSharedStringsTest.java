@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2022 jtalbut
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.spudsoft.xlsx;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ *
+ * @author jtalbut
+ */
+public class XlsxWriterSharedStringsTest {
+
+  private static final String SST_START = "<?xml version=\"1.0\" encoding=\"UTF-8\"?><sst xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\" ";
+
+  private static byte[] write(TableDefinition defn, SharedStringsDefinition sharedStrings, long[] counters, List<List<Object>> rows) throws IOException {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    XlsxWriter writer = new XlsxWriter(defn, null, sharedStrings);
+    try (writer) {
+      writer.startFile(baos);
+      for (List<Object> row : rows) {
+        writer.outputRow(row);
+      }
+    }
+    // The counters remain available after the writer is closed
+    counters[0] = writer.getSharedStringCount();
+    counters[1] = writer.getSharedStringHits();
+    counters[2] = writer.getSharedStringRejections();
+    return baos.toByteArray();
+  }
+
+  @Test
+  public void testAllColumns() throws IOException {
+    TableDefinition defn = new TableDefinition(null, "Data", null, false, true, null, null, null, null, null
+            , Arrays.asList(new ColumnDefinition("Status", null, null), new ColumnDefinition("Country", null, null))
+    );
+    long[] counters = new long[3];
+    byte[] bytes = write(defn, new SharedStringsDefinition(true), counters, Arrays.asList(
+            Arrays.asList("OK", "France")
+            , Arrays.asList("Failed", "France", "Extra")
+            , Arrays.asList("OK", "Fish & Chips", "=A2")
+            , Arrays.asList("OK", 7)
+    ));
+
+    assertEquals(10, ZipWriterTest.readCentral(bytes).size());
+    
+    String sheet = XlsxWriterTest.readEntry(bytes, "xl/worksheets/sheet1.xml");
+    // Headers are always inline
+    assertTrue(sheet.contains("<c r=\"A1\" s=\"4\" t=\"inlineStr\"><is><t>Status</t></is></c>"), sheet);
+    assertTrue(sheet.contains("<row r=\"2\"><c r=\"A2\" s=\"7\" t=\"s\"><v>0</v></c><c r=\"B2\" s=\"8\" t=\"s\"><v>1</v></c></row>"), sheet);
+    assertTrue(sheet.contains("<row r=\"3\"><c r=\"A3\" s=\"10\" t=\"s\"><v>2</v></c><c r=\"B3\" s=\"11\" t=\"s\"><v>1</v></c><c r=\"C3\" s=\"9\" t=\"s\"><v>3</v></c></row>"), sheet);
+    assertTrue(sheet.contains("<row r=\"4\"><c r=\"A4\" s=\"7\" t=\"s\"><v>0</v></c><c r=\"B4\" s=\"8\" t=\"s\"><v>4</v></c><c r=\"C4\" s=\"6\"><f>A2</f></c></row>"), sheet);
+    assertTrue(sheet.contains("<row r=\"5\"><c r=\"A5\" s=\"10\" t=\"s\"><v>0</v></c><c r=\"B5\" s=\"11\"><v>7</v></c></row>"), sheet);
+
+    String sst = XlsxWriterTest.readEntry(bytes, "xl/sharedStrings.xml");
+    assertEquals(SST_START + "count=\"8\" uniqueCount=\"5\">"
+            + "<si><t>OK</t></si><si><t>France</t></si><si><t>Failed</t></si><si><t>Extra</t></si><si><t>Fish &amp; Chips</t></si>"
+            + "</sst>", sst);
+    assertEquals(5, counters[0]);
+    assertEquals(3, counters[1]);
+    assertEquals(0, counters[2]);
+  }
+
+  @Test
+  public void testSelectedColumns() throws IOException {
+    TableDefinition defn = new TableDefinition(null, "Data", null, false, false, null, null, null, null, null
+            , Arrays.asList(new ColumnDefinition("Id", null, null), new ColumnDefinition("Status", null, null, true))
+    );
+    long[] counters = new long[3];
+    byte[] bytes = write(defn, new SharedStringsDefinition(false), counters, Arrays.asList(
+            Arrays.asList("A", "OK", "X")
+            , Arrays.asList("A", "OK", "X")
+    ));
+
+    String sheet = XlsxWriterTest.readEntry(bytes, "xl/worksheets/sheet1.xml");
+    assertTrue(sheet.contains("<row r=\"1\"><c r=\"A1\" s=\"10\" t=\"inlineStr\"><is><t>A</t></is></c><c r=\"B1\" s=\"11\" t=\"s\"><v>0</v></c><c r=\"C1\" s=\"9\" t=\"inlineStr\"><is><t>X</t></is></c></row>"), sheet);
+    assertTrue(sheet.contains("<row r=\"2\"><c r=\"A2\" s=\"7\" t=\"inlineStr\"><is><t>A</t></is></c><c r=\"B2\" s=\"8\" t=\"s\"><v>0</v></c><c r=\"C2\" s=\"6\" t=\"inlineStr\"><is><t>X</t></is></c></row>"), sheet);
+    assertEquals(SST_START + "count=\"2\" uniqueCount=\"1\"><si><t>OK</t></si></sst>", XlsxWriterTest.readEntry(bytes, "xl/sharedStrings.xml"));
+    assertEquals(1, counters[0]);
+    assertEquals(1, counters[1]);
+    assertEquals(0, counters[2]);
+  }
+
+  @Test
+  public void testLimits() throws IOException {
+    TableDefinition defn = new TableDefinition(null, "Data", null, false, false, null, null, null, null, null, null);
+    long[] counters = new long[3];
+    // Too long, added, added, full, hit, too long, full
+    byte[] bytes = write(defn, new SharedStringsDefinition(2, 100, 5, true), counters, Arrays.asList(
+            Arrays.asList("Longer", "One", "Two", "Three", "One", "Longer", "Four")
+    ));
+    String sheet = XlsxWriterTest.readEntry(bytes, "xl/worksheets/sheet1.xml");
+    assertTrue(sheet.contains("<c r=\"A1\" s=\"3\" t=\"inlineStr\"><is><t>Longer</t></is></c>"
+            + "<c r=\"B1\" s=\"3\" t=\"s\"><v>0</v></c>"
+            + "<c r=\"C1\" s=\"3\" t=\"s\"><v>1</v></c>"
+            + "<c r=\"D1\" s=\"3\" t=\"inlineStr\"><is><t>Three</t></is></c>"
+            + "<c r=\"E1\" s=\"3\" t=\"s\"><v>0</v></c>"
+            + "<c r=\"F1\" s=\"3\" t=\"inlineStr\"><is><t>Longer</t></is></c>"
+            + "<c r=\"G1\" s=\"3\" t=\"inlineStr\"><is><t>Four</t></is></c>"), sheet);
+    assertEquals(2, counters[0]);
+    assertEquals(1, counters[1]);
+    assertEquals(4, counters[2]);
+
+    // Character limit
+    bytes = write(defn, new SharedStringsDefinition(100, 6, 100, true), counters, Arrays.asList(
+            Arrays.asList("One", "Two", "Six")
+    ));
+    assertEquals(SST_START + "count=\"2\" uniqueCount=\"2\"><si><t>One</t></si><si><t>Two</t></si></sst>", XlsxWriterTest.readEntry(bytes, "xl/sharedStrings.xml"));
+    assertEquals(1, counters[2]);
+  }
+
+  @Test
+  public void testSharedAcrossSheets() throws IOException {
+    TableDefinition defn = new TableDefinition(null, null, null, false, false, null, null, null, null, null, null, 1);
+    long[] counters = new long[3];
+    byte[] bytes = write(defn, new SharedStringsDefinition(true), counters, Arrays.asList(
+            Arrays.asList("One")
+            , Arrays.asList("Two")
+            , Arrays.asList("One")
+    ));
+    Map<String, byte[]> entries = ZipWriterTest.readCentral(bytes);
+    assertEquals(12, entries.size());
+    assertTrue(XlsxWriterTest.readEntry(bytes, "xl/worksheets/sheet3.xml").contains("<c r=\"A1\" s=\"3\" t=\"s\"><v>0</v></c>"));
+    assertEquals(SST_START + "count=\"3\" uniqueCount=\"2\"><si><t>One</t></si><si><t>Two</t></si></sst>", XlsxWriterTest.readEntry(bytes, "xl/sharedStrings.xml"));
+  }
+
+}
@@ -16,7 +16,10 @@
  */
 package uk.co.spudsoft.xlsx;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
 import java.time.Month;
@@ -24,11 +27,19 @@ import java.time.Year;
 import java.time.ZoneId;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 import org.junit.jupiter.api.Test;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 /**
@@ -84,6 +95,134 @@ public class XlsxWriterTest {
     assertEquals("BA", XlsxWriter.toName(53));
   }
 
+  @Test
+  public void testEncodeSpecialCharacters() {
+    String plain = "Nothing to see here";
+    assertSame(plain, XlsxWriter.encodeSpecialCharacters(plain));
+    assertEquals("&lt;Tom &amp; Jerry&gt; &quot;\u00e9&quot;_x0007_", XlsxWriter.encodeSpecialCharacters("<Tom & Jerry> \"\u00e9\"\u0007"));
+  }
+
+  @Test
+  public void testEncodePlainText() throws IOException {
+    assertEquals("Nothing to see here", XlsxWriter.encodePlainText("Nothing to see here"));
+    // Excel escapes are not understood outside SpreadsheetML, so underscores are left alone and invalid characters are replaced
+    assertEquals("&lt;Tom &amp; Jerry&gt; &quot;\u00e9&quot;? a_x0041_b \ud83d\ude00?", XlsxWriter.encodePlainText("<Tom & Jerry> \"\u00e9\"\u0007 a_x0041_b \ud83d\ude00\ud83d"));
+
+    TableDefinition defn = new TableDefinition("App_x0041_\u0001", null, "a_x0041_b & co", false, false, null, null, null, null, null, null);
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    try (XlsxWriter writer = new XlsxWriter(defn)) {
+      writer.startFile(baos);
+    }
+    assertTrue(readEntry(baos.toByteArray(), "docProps/app.xml").contains("<Application>App_x0041_?</Application>"));
+    assertTrue(readEntry(baos.toByteArray(), "docProps/core.xml").contains("<dc:creator>a_x0041_b &amp; co</dc:creator>"));
+  }
+
+  static String readEntry(byte[] xlsx, String name) throws IOException {
+    try (ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(xlsx))) {
+      ZipEntry entry;
+      while ((entry = zis.getNextEntry()) != null) {
+        if (entry.getName().equals(name)) {
+          return new String(zis.readAllBytes(), StandardCharsets.UTF_8);
+        }
+      }
+    }
+    return null;
+  }
+
+  @Test
+  public void testCellReferences() throws IOException {
+    TableDefinition defn = new TableDefinition(null, null, null, false, true
+            , null
+            , null
+            , null
+            , null
+            , null
+            , Arrays.asList(
+                    new ColumnDefinition("One", null, null)
+                    , new ColumnDefinition("Two", null, null)
+            )
+    );
+    
+    List<Object> row = new ArrayList<>(Collections.nCopies(28, null));
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    try (XlsxWriter writer = new XlsxWriter(defn)) {
+      writer.startFile(baos);
+      for (int i = 0; i < 10; ++i) {
+        writer.outputRow(row);
+      }
+    }
+    String sheet = readEntry(baos.toByteArray(), "xl/worksheets/sheet1.xml");
+    assertTrue(sheet.contains("<row r=\"1\"><c r=\"A1\" s=\"4\" t=\"inlineStr\"><is><t>One</t></is></c><c r=\"B1\" s=\"5\" t=\"inlineStr\"><is><t>Two</t></is></c></row>"));
+    assertTrue(sheet.contains("<row r=\"10\"><c r=\"A10\" s=\"7\"></c><c r=\"B10\" s=\"8\"></c><c r=\"C10\" s=\"6\"></c>"));
+    assertTrue(sheet.contains("<c r=\"Z11\" s=\"9\"></c><c r=\"AA11\" s=\"9\"></c><c r=\"AB11\" s=\"9\"></c></row>"));
+    assertNull(readEntry(baos.toByteArray(), "xl/worksheets/sheet2.xml"));
+  }
+
+  @Test
+  public void testCursorMatchesOutputRow() throws IOException {
+    TableDefinition defn = new TableDefinition(null, null, null, false, false, null, null, null, null, null, null);
+    
+    ByteArrayOutputStream viaList = new ByteArrayOutputStream();
+    try (XlsxWriter writer = new XlsxWriter(defn)) {
+      writer.startFile(viaList);
+      for (int i = 0; i < 5; ++i) {
+        writer.outputRow(Arrays.asList(i, 0.5, "Text & more", "=A1*2", LocalDateTime.of(1971, Month.MAY, 6, 10, 7), true, null, null));
+      }
+    }
+    
+    ByteArrayOutputStream viaCursor = new ByteArrayOutputStream();
+    try (XlsxWriter writer = new XlsxWriter(defn)) {
+      writer.startFile(viaCursor);
+      for (int i = 0; i < 5; ++i) {
+        writer.beginRow();
+        writer.writeLong(i);
+        writer.writeDouble(0.5);
+        writer.writeString("Text & more");
+        writer.writeFormula("A1*2");
+        writer.writeDate(LocalDateTime.of(1971, Month.MAY, 6, 10, 7));
+        writer.writeBoolean(true);
+        writer.writeBlank();
+        writer.writeString(null);
+        writer.endRow();
+      }
+    }
+    
+    assertEquals(readEntry(viaList.toByteArray(), "xl/worksheets/sheet1.xml"), readEntry(viaCursor.toByteArray(), "xl/worksheets/sheet1.xml"));
+  }
+
+  @Test
+  public void testCursorValues() throws IOException {
+    TableDefinition defn = new TableDefinition(null, null, null, false, false, null, null, null, null, null, null);
+    
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    try (XlsxWriter writer = new XlsxWriter(defn)) {
+      writer.startFile(baos);
+      assertThrows(IllegalStateException.class, () -> writer.writeLong(1));
+      assertThrows(IllegalStateException.class, () -> writer.endRow());
+      writer.beginRow();
+      assertThrows(IllegalStateException.class, () -> writer.beginRow());
+      assertThrows(IllegalStateException.class, () -> writer.outputRow(Arrays.asList(1)));
+      writer.writeDouble(Double.NaN);
+      writer.writeDouble(1.0E-5);
+      writer.writeLong(Long.MIN_VALUE);
+      writer.writeEpochMillis(0);
+      writer.writeDate(Year.of(1968));
+      writer.writeFormula(null);
+      writer.writeDate(null);
+      // Left open, close should end the row
+    }
+    String sheet = readEntry(baos.toByteArray(), "xl/worksheets/sheet1.xml");
+    assertTrue(sheet.contains("<sheetData><row r=\"1\">"
+            + "<c r=\"A1\" s=\"3\" t=\"e\"><v>#NUM!</v></c>"
+            + "<c r=\"B1\" s=\"3\"><v>0.00001</v></c>"
+            + "<c r=\"C1\" s=\"3\"><v>-9223372036854775808</v></c>"
+            + "<c r=\"D1\" s=\"3\"><v>25569</v></c>"
+            + "<c r=\"E1\" s=\"3\"><v>1968</v></c>"
+            + "<c r=\"F1\" s=\"3\"></c>"
+            + "<c r=\"G1\" s=\"3\"></c>"
+            + "</row></sheetData>"), sheet);
+  }
+
   @Test
   public void testTemporarlToExcelValue() {
     assertEquals("26059.421527777777", XlsxWriter.temporalToExcelValue(LocalDateTime.of(1971, Month.MAY, 6, 10, 7)));
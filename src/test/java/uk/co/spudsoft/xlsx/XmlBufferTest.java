@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2022 jtalbut
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.spudsoft.xlsx;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ *
+ * @author jtalbut
+ */
+public class XmlBufferTest {
+
+  private static String contents(XmlBuffer buffer) {
+    return new String(buffer.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void testAppendLong() throws IOException {
+    XmlBuffer buffer = new XmlBuffer(64);
+    buffer.appendLong(0);
+    buffer.append((byte) ',');
+    buffer.appendInt(7);
+    buffer.append((byte) ',');
+    buffer.appendInt(-123);
+    buffer.append((byte) ',');
+    buffer.appendLong(Long.MAX_VALUE);
+    buffer.append((byte) ',');
+    buffer.appendLong(Long.MIN_VALUE);
+    buffer.append((byte) ',');
+    buffer.appendInt(Integer.MIN_VALUE);
+    assertEquals("0,7,-123," + Long.MAX_VALUE + "," + Long.MIN_VALUE + "," + Integer.MIN_VALUE, contents(buffer));
+  }
+
+  @Test
+  public void testAppendUtf8() throws IOException {
+    XmlBuffer buffer = new XmlBuffer(64);
+    String value = "plain £ € 游ゴシック 😀 end";
+    buffer.appendUtf8(value);
+    assertArrayEquals(value.getBytes(StandardCharsets.UTF_8), buffer.toByteArray());
+
+    buffer.reset();
+    value = "lone \uD83D and \uDE00";
+    buffer.appendUtf8(value);
+    assertArrayEquals(value.getBytes(StandardCharsets.UTF_8), buffer.toByteArray());
+  }
+
+  @Test
+  public void testAppendEscaped() throws IOException {
+    XmlBuffer buffer = new XmlBuffer(64);
+    buffer.appendEscaped("a & b < c > d \"e\" 'f' g\th\ni\rj");
+    assertEquals("a &amp; b &lt; c &gt; d &quot;e&quot; 'f' g\th\ni\rj", contents(buffer));
+
+    buffer.reset();
+    buffer.appendEscaped("bell\u0007 nul\u0000 bad\uFFFF \uFFFE");
+    assertEquals("bell_x0007_ nul_x0000_ bad_xFFFF_ _xFFFE_", contents(buffer));
+
+    buffer.reset();
+    buffer.appendEscaped("_x0041_ _x00G1_ _x0041 __ _");
+    assertEquals("_x005F_x0041_ _x00G1_ _x0041 __ _", contents(buffer));
+
+    buffer.reset();
+    buffer.appendEscaped("£ € 😀 lone \uD83D");
+    assertEquals("£ € 😀 lone ?", contents(buffer));
+  }
+
+  @Test
+  public void testIsPlain() {
+    assertTrue(XmlBuffer.isPlain(""));
+    assertTrue(XmlBuffer.isPlain("Plain text, with 'quotes' and £ € 😀 _x_ _x004_"));
+    assertFalse(XmlBuffer.isPlain("a & b"));
+    assertFalse(XmlBuffer.isPlain("a < b"));
+    assertFalse(XmlBuffer.isPlain("a > b"));
+    assertFalse(XmlBuffer.isPlain("\"a\""));
+    assertFalse(XmlBuffer.isPlain("\u0001"));
+    assertFalse(XmlBuffer.isPlain("\uFFFF"));
+    assertFalse(XmlBuffer.isPlain("\uD83D"));
+    assertFalse(XmlBuffer.isPlain("_x0041_"));
+  }
+
+  @Test
+  public void testDrainsToOutput() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    XmlBuffer buffer = new XmlBuffer(64);
+    buffer.setOutput(out);
+    StringBuilder expected = new StringBuilder();
+    for (int i = 0; i < 100; ++i) {
+      buffer.appendAscii("<a>");
+      buffer.appendInt(i);
+      buffer.appendUtf8("é");
+      buffer.append("</a>".getBytes(StandardCharsets.US_ASCII));
+      expected.append("<a>").append(i).append("é</a>");
+    }
+    byte[] big = new byte[100];
+    Arrays.fill(big, (byte) 'x');
+    buffer.append(big);
+    expected.append(new String(big, StandardCharsets.US_ASCII));
+
+    assertEquals(64, buffer.capacity());
+    buffer.flush();
+    assertEquals(0, buffer.size());
+    assertEquals(expected.toString(), out.toString(StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void testBadCapacity() {
+    assertThrows(IllegalArgumentException.class, () -> { new XmlBuffer(1); });
+    assertThrows(IllegalArgumentException.class, () -> { new XmlBuffer(new byte[63]); });
+  }
+
+  @Test
+  public void testDetach() throws IOException {
+    byte[] array = new byte[128];
+    XmlBuffer buffer = new XmlBuffer(array);
+    assertEquals(128, buffer.capacity());
+    buffer.appendUtf8("Hello");
+    assertSame(array, buffer.detach());
+    assertEquals(0, buffer.size());
+    assertEquals(64, buffer.capacity());
+
+    // Still usable
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    buffer.setOutput(baos);
+    buffer.appendEscaped("A string that is longer than the minimum capacity of the buffer & has to be escaped");
+    buffer.flush();
+    assertEquals("A string that is longer than the minimum capacity of the buffer &amp; has to be escaped", baos.toString(StandardCharsets.UTF_8));
+  }
+
+}
@@ -0,0 +1,289 @@
+/*
+ * Copyright (C) 2022 jtalbut
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.spudsoft.xlsx;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ *
+ * @author jtalbut
+ */
+public class ZipWriterTest {
+
+  /**
+   * Read every entry in a ZIP file using ZipInputStream (which reads the local headers and data descriptors).
+   */
+  static Map<String, byte[]> readStreaming(byte[] zip) throws IOException {
+    Map<String, byte[]> result = new HashMap<>();
+    try (ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(zip))) {
+      ZipEntry entry;
+      while ((entry = zis.getNextEntry()) != null) {
+        result.put(entry.getName(), zis.readAllBytes());
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Read every entry in a ZIP file using ZipFile (which reads the central directory).
+   */
+  static Map<String, byte[]> readCentral(byte[] zip) throws IOException {
+    File file = File.createTempFile("ZipWriterTest", ".zip");
+    try {
+      Files.write(file.toPath(), zip);
+      Map<String, byte[]> result = new HashMap<>();
+      try (ZipFile zipFile = new ZipFile(file)) {
+        for (ZipEntry entry : java.util.Collections.list(zipFile.entries())) {
+          result.put(entry.getName(), zipFile.getInputStream(entry).readAllBytes());
+        }
+      }
+      return result;
+    } finally {
+      file.delete();
+    }
+  }
+
+  @Test
+  public void testEntries() throws IOException {
+    byte[] small = "Hello £ world".getBytes(StandardCharsets.UTF_8);
+    StringBuilder bldr = new StringBuilder();
+    for (int i = 0; i < 100_000; ++i) {
+      bldr.append("<row r=\"").append(i).append("\"/>");
+    }
+    byte[] large = bldr.toString().getBytes(StandardCharsets.UTF_8);
+
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    ZipWriter zip = new ZipWriter(baos);
+    Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    zip.writeEntry("stored.txt", small, null);
+    zip.writeEntry("deflated/é.txt", small, deflater);
+    zip.writeEntry("empty.txt", new byte[0], deflater);
+    try (OutputStream out = zip.openEntry("streamed.xml", deflater, 1024)) {
+      for (int i = 0; i < large.length; i += 1000) {
+        out.write(large, i, Math.min(1000, large.length - i));
+      }
+    }
+    try (OutputStream out = zip.openEntry("streamed-empty.xml", deflater, 1024)) {
+      out.flush();
+    }
+    zip.finish();
+    zip.finish();
+    deflater.end();
+    assertEquals(baos.size(), zip.getBytesWritten());
+
+    for (Map<String, byte[]> entries : List.of(readStreaming(baos.toByteArray()), readCentral(baos.toByteArray()))) {
+      assertEquals(5, entries.size());
+      assertArrayEquals(small, entries.get("stored.txt"));
+      assertArrayEquals(small, entries.get("deflated/é.txt"));
+      assertArrayEquals(new byte[0], entries.get("empty.txt"));
+      assertArrayEquals(large, entries.get("streamed.xml"));
+      assertArrayEquals(new byte[0], entries.get("streamed-empty.xml"));
+    }
+  }
+
+  @Test
+  public void testStoredPrefix() throws IOException {
+    byte[] original = "<head>AAAA</head>".getBytes(StandardCharsets.UTF_8);
+    byte[] replacement = "<head>BBBB</head>".getBytes(StandardCharsets.UTF_8);
+    StringBuilder bldr = new StringBuilder();
+    for (int i = 0; i < 10_000; ++i) {
+      bldr.append("<row r=\"").append(i).append("\"/>");
+    }
+    byte[] body = bldr.toString().getBytes(StandardCharsets.UTF_8);
+
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    ZipWriter zip = new ZipWriter(baos);
+    Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    zip.writeEntry("first.txt", original, deflater);
+    long offset;
+    try (OutputStream out = zip.openEntry("patched.xml", deflater, 1024)) {
+      offset = zip.writeStoredPrefix(original);
+      Assertions.assertThrows(IllegalStateException.class, () -> { zip.writeStoredPrefix(original); });
+      Assertions.assertThrows(IllegalArgumentException.class, () -> { zip.replaceStoredPrefix(new byte[3]); });
+      out.write(body);
+      zip.replaceStoredPrefix(replacement);
+    }
+    OutputStream unpatched = zip.openEntry("unpatched.xml", deflater, 1024);
+    zip.writeStoredPrefix(original);
+    unpatched.close();
+    Assertions.assertThrows(IllegalStateException.class, () -> { zip.replaceStoredPrefix(original); });
+    zip.finish();
+    deflater.end();
+
+    byte[] bytes = baos.toByteArray();
+    assertArrayEquals(original, java.util.Arrays.copyOfRange(bytes, (int) offset, (int) offset + original.length));
+    System.arraycopy(replacement, 0, bytes, (int) offset, replacement.length);
+
+    byte[] expected = new byte[replacement.length + body.length];
+    System.arraycopy(replacement, 0, expected, 0, replacement.length);
+    System.arraycopy(body, 0, expected, replacement.length, body.length);
+    for (Map<String, byte[]> entries : List.of(readStreaming(bytes), readCentral(bytes))) {
+      assertEquals(3, entries.size());
+      assertArrayEquals(original, entries.get("first.txt"));
+      assertArrayEquals(expected, entries.get("patched.xml"));
+      assertArrayEquals(original, entries.get("unpatched.xml"));
+    }
+  }
+
+  /**
+   * Write a stored entry, a large streamed entry and a small streamed entry, applying any patches once the file is finished.
+   */
+  private static byte[] writeForZip64(byte[] small, byte[] large, boolean patchable, long zip64Threshold) throws IOException {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    List<Long> patchOffsets = new ArrayList<>();
+    List<byte[]> patches = new ArrayList<>();
+    ZipWriter zip = new ZipWriter(baos, patchable ? (offset, data) -> { patchOffsets.add(offset); patches.add(data); } : null, zip64Threshold);
+    Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    zip.writeEntry("stored.txt", small, null);
+    try (OutputStream out = zip.openEntry("large.xml", deflater, 1024)) {
+      out.write(large);
+    }
+    try (OutputStream out = zip.openEntry("small.xml", deflater, 1024)) {
+      out.write(small);
+    }
+    zip.finish();
+    deflater.end();
+
+    byte[] bytes = baos.toByteArray();
+    for (int i = 0; i < patches.size(); ++i) {
+      System.arraycopy(patches.get(i), 0, bytes, patchOffsets.get(i).intValue(), patches.get(i).length);
+    }
+    return bytes;
+  }
+
+  @Test
+  public void testZip64LocalHeaders() throws IOException {
+    byte[] small = "Hello world".getBytes(StandardCharsets.UTF_8);
+    StringBuilder bldr = new StringBuilder();
+    for (int i = 0; i < 10_000; ++i) {
+      bldr.append("<row r=\"").append(i).append("\"/>");
+    }
+    byte[] large = bldr.toString().getBytes(StandardCharsets.UTF_8);
+
+    // With the normal threshold the padding in the local headers of streamed entries must be ignored by all readers
+    byte[] bytes = writeForZip64(small, large, true, 0xFFFFFFFFL);
+    for (Map<String, byte[]> entries : List.of(readStreaming(bytes), readCentral(bytes))) {
+      assertEquals(3, entries.size());
+      assertArrayEquals(large, entries.get("large.xml"));
+      assertArrayEquals(small, entries.get("small.xml"));
+    }
+
+    // With a threshold of 1000 bytes the large entry, the offset of the small entry and the central directory all need Zip64.
+    // ZipInputStream chooses the size of the data descriptor by the real size of the entry, so only the central directory can be read.
+    for (boolean patchable : new boolean[] {false, true}) {
+      bytes = writeForZip64(small, large, patchable, 1000);
+      Map<String, byte[]> entries = readCentral(bytes);
+      assertEquals(3, entries.size());
+      assertArrayEquals(small, entries.get("stored.txt"));
+      assertArrayEquals(large, entries.get("large.xml"));
+      assertArrayEquals(small, entries.get("small.xml"));
+
+      ByteBuffer bb = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+      int largeOffset = 30 + "stored.txt".length() + small.length;
+      assertEquals(0x04034b50, bb.getInt(largeOffset));
+      int nameLength = bb.getShort(largeOffset + 26);
+      int extraLength = bb.getShort(largeOffset + 28);
+      int extraOffset = largeOffset + 30 + nameLength;
+      long compressedSize;
+      if (patchable) {
+        assertEquals(45, bb.getShort(largeOffset + 4));
+        assertEquals(0xFFFFFFFF, bb.getInt(largeOffset + 18));
+        assertEquals(0xFFFFFFFF, bb.getInt(largeOffset + 22));
+        assertEquals(20, extraLength);
+        assertEquals(0x0001, bb.getShort(extraOffset));
+        assertEquals(16, bb.getShort(extraOffset + 2));
+        assertEquals(large.length, bb.getLong(extraOffset + 4));
+        compressedSize = bb.getLong(extraOffset + 12);
+      } else {
+        assertEquals(20, bb.getShort(largeOffset + 4));
+        assertEquals(0, extraLength);
+        try (ZipFile zipFile = new ZipFile(writeTemp(bytes))) {
+          compressedSize = zipFile.getEntry("large.xml").getCompressedSize();
+        }
+      }
+      // The data descriptor has 8 byte sizes
+      int descriptorOffset = (int) (extraOffset + extraLength + compressedSize);
+      assertEquals(0x08074b50, bb.getInt(descriptorOffset));
+      assertEquals(compressedSize, bb.getLong(descriptorOffset + 8));
+      assertEquals(large.length, bb.getLong(descriptorOffset + 16));
+
+      // The small entry does not need Zip64, so it keeps the padding (if any) and has a 4 byte data descriptor
+      int smallOffset = descriptorOffset + 24;
+      assertEquals(0x04034b50, bb.getInt(smallOffset));
+      assertEquals(20, bb.getShort(smallOffset + 4));
+      assertEquals(patchable ? 20 : 0, bb.getShort(smallOffset + 28));
+      if (patchable) {
+        assertEquals(0x6C78, bb.getShort(smallOffset + 30 + "small.xml".length()));
+      }
+
+      // The END record refers to the Zip64 END record
+      int end = bytes.length - 22;
+      assertEquals(0x06054b50, bb.getInt(end));
+      assertEquals(0xFFFFFFFF, bb.getInt(end + 16));
+      assertEquals(0x07064b50, bb.getInt(end - 20));
+      int zip64End = (int) bb.getLong(end - 20 + 8);
+      assertEquals(0x06064b50, bb.getInt(zip64End));
+      assertTrue(bb.getLong(zip64End + 48) > 1000);
+    }
+  }
+
+  private static File writeTemp(byte[] bytes) throws IOException {
+    File file = File.createTempFile("ZipWriterTest", ".zip");
+    file.deleteOnExit();
+    Files.write(file.toPath(), bytes);
+    return file;
+  }
+
+  @Test
+  public void testBadState() throws IOException {
+    ZipWriter zip = new ZipWriter(new ByteArrayOutputStream());
+    Assertions.assertThrows(IllegalStateException.class, () -> { zip.writeEntryData(new byte[1], 0, 1); });
+    Assertions.assertThrows(IllegalStateException.class, () -> { zip.endEntry(0, 0); });
+    Assertions.assertThrows(IllegalStateException.class, () -> { zip.writeStoredPrefix(new byte[1]); });
+    zip.beginEntry("one");
+    Assertions.assertThrows(IllegalStateException.class, () -> { zip.beginEntry("two"); });
+    Assertions.assertThrows(IllegalStateException.class, () -> { zip.replaceStoredPrefix(new byte[1]); });
+    Assertions.assertThrows(IllegalArgumentException.class, () -> { zip.writeStoredPrefix(new byte[ZipWriter.MAX_STORED_BLOCK + 1]); });
+    Assertions.assertThrows(IllegalStateException.class, () -> { zip.finish(); });
+    zip.endEntry(0, 0);
+    zip.finish();
+    Assertions.assertThrows(IllegalStateException.class, () -> { zip.writeEntry("three", new byte[0], null); });
+  }
+
+}
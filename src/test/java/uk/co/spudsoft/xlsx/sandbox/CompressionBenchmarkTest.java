@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2022 jtalbut
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.spudsoft.xlsx.sandbox;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.co.spudsoft.xlsx.ColumnDefinition;
+import uk.co.spudsoft.xlsx.CompressionDefinition;
+import uk.co.spudsoft.xlsx.TableDefinition;
+import uk.co.spudsoft.xlsx.XlsxWriter;
+
+/**
+ * Report the time taken and size of the output for a range of compression settings.
+ *
+ * @author jtalbut
+ */
+public class CompressionBenchmarkTest {
+
+  @SuppressWarnings("constantname")
+  private static final Logger logger = LoggerFactory.getLogger(CompressionBenchmarkTest.class);
+
+  private static final int ROWS = 500_000;
+  private static final int ITERATIONS = 3;
+
+  private static final String[] DAYS_OF_WEEK = {"Monday", "Tuesday", "Wednesday", "Thursday", "Friday", "Saturday", "Sunday"};
+
+  /**
+   * OutputStream that just counts the bytes written to it.
+   */
+  private static class CountingOutputStream extends OutputStream {
+    private long count;
+
+    @Override
+    public void write(int b) {
+      ++count;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      count += len;
+    }
+  }
+
+  private static long write(TableDefinition defn, CompressionDefinition compression, CountingOutputStream out) throws IOException {
+    try (XlsxWriter writer = new XlsxWriter(defn, compression)) {
+      writer.startFile(out);
+      LocalDate date = LocalDate.of(2022, 1, 1);
+      for (int i = 0; i < ROWS; ++i) {
+        writer.beginRow();
+        writer.writeLong(i);
+        writer.writeString(DAYS_OF_WEEK[i % DAYS_OF_WEEK.length]);
+        writer.writeDate(date.plusDays(i % 1000));
+        writer.writeDouble(i / 7.0);
+        writer.writeString("Some text that is repeated " + (i % 100));
+        writer.endRow();
+      }
+    }
+    return out.count;
+  }
+
+  @Test
+  public void testCompressionSettings() throws IOException {
+    TableDefinition defn = new TableDefinition(null, "Benchmark", null, false, true, null, null, null, null, null
+            , Arrays.asList(
+                    new ColumnDefinition("Id", null, null)
+                    , new ColumnDefinition("Day", null, null)
+                    , new ColumnDefinition("Date", "yyyy-mm-dd", null)
+                    , new ColumnDefinition("Value", "0.00", null)
+                    , new ColumnDefinition("Text", null, null)
+            )
+    );
+
+    int[] levels = {0, 1, 3, Deflater.DEFAULT_COMPRESSION, 9};
+    int[] strategies = {Deflater.DEFAULT_STRATEGY, Deflater.FILTERED, Deflater.HUFFMAN_ONLY};
+    int[] bufferSizes = {8 * 1024, CompressionDefinition.DEFAULT_BUFFER_SIZE, 512 * 1024};
+
+    // Warm up
+    write(defn, CompressionDefinition.DEFAULT, new CountingOutputStream());
+
+    for (int level : levels) {
+      for (int strategy : strategies) {
+        for (int bufferSize : bufferSizes) {
+          CompressionDefinition compression = new CompressionDefinition(level, true, strategy, bufferSize);
+          long best = Long.MAX_VALUE;
+          long size = 0;
+          for (int i = 0; i < ITERATIONS; ++i) {
+            long start = System.nanoTime();
+            size = write(defn, compression, new CountingOutputStream());
+            best = Math.min(best, System.nanoTime() - start);
+          }
+          logger.info("Level {}, strategy {}, buffer {}KB: {} bytes in {}ms ({} rows/s)"
+                  , level, strategy, bufferSize / 1024, size, best / 1_000_000, ROWS * 1_000_000_000L / best);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testParallelism() throws IOException {
+    TableDefinition defn = new TableDefinition(null, "Benchmark", null, false, true, null, null, null, null, null
+            , Arrays.asList(
+                    new ColumnDefinition("Id", null, null)
+                    , new ColumnDefinition("Day", null, null)
+                    , new ColumnDefinition("Date", "yyyy-mm-dd", null)
+                    , new ColumnDefinition("Value", "0.00", null)
+                    , new ColumnDefinition("Text", null, null)
+            )
+    );
+
+    int processors = Runtime.getRuntime().availableProcessors();
+
+    // Warm up
+    write(defn, CompressionDefinition.DEFAULT, new CountingOutputStream());
+
+    for (int level : new int[] {1, Deflater.DEFAULT_COMPRESSION, 9}) {
+      for (int parallelism = 1; parallelism <= processors; parallelism *= 2) {
+        CompressionDefinition compression = new CompressionDefinition(level, true, Deflater.DEFAULT_STRATEGY
+                , CompressionDefinition.DEFAULT_BUFFER_SIZE, parallelism, CompressionDefinition.DEFAULT_BLOCK_SIZE);
+        long best = Long.MAX_VALUE;
+        long size = 0;
+        for (int i = 0; i < ITERATIONS; ++i) {
+          long start = System.nanoTime();
+          size = write(defn, compression, new CountingOutputStream());
+          best = Math.min(best, System.nanoTime() - start);
+        }
+        logger.info("Level {}, parallelism {}: {} bytes in {}ms ({} rows/s)"
+                , level, parallelism, size, best / 1_000_000, ROWS * 1_000_000_000L / best);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2022 jtalbut
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.spudsoft.xlsx.sandbox;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.co.spudsoft.xlsx.ColumnDefinition;
+import uk.co.spudsoft.xlsx.CompressionDefinition;
+import uk.co.spudsoft.xlsx.TableDefinition;
+import uk.co.spudsoft.xlsx.XlsxWriter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Write a worksheet that is larger than 4GB uncompressed, to a stream and to a file, and check that it can be read back.
+ *
+ * The heap in use (after a GC) is sampled while the rows are written and must not grow by more than a few MB,
+ * showing that nothing held by the writer (including the central directory) grows with the size of the worksheet.
+ *
+ * @author jtalbut
+ */
+public class LargeSheetStressTest {
+
+  @SuppressWarnings("constantname")
+  private static final Logger logger = LoggerFactory.getLogger(LargeSheetStressTest.class);
+
+  private static final int COLUMNS = 40;
+  private static final int ROWS = 550_000;
+  private static final int SAMPLE_INTERVAL = 50_000;
+  private static final long MAX_HEAP_GROWTH = 32L * 1024 * 1024;
+
+  private static final String[] VALUES = new String[10];
+
+  static {
+    for (int i = 0; i < VALUES.length; ++i) {
+      StringBuilder bldr = new StringBuilder();
+      while (bldr.length() < 150) {
+        bldr.append("Value ").append(i).append(" of a column in a very large worksheet; ");
+      }
+      VALUES[i] = bldr.substring(0, 150);
+    }
+  }
+
+  private static TableDefinition definition() {
+    List<ColumnDefinition> columns = new ArrayList<>();
+    for (int i = 0; i < COLUMNS; ++i) {
+      columns.add(new ColumnDefinition("Column " + i, null, null));
+    }
+    return new TableDefinition(null, "Large", null, false, true, null, null, null, null, null, columns);
+  }
+
+  private static long usedHeap() {
+    Runtime runtime = Runtime.getRuntime();
+    System.gc();
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  private static void writeRows(XlsxWriter writer) throws IOException {
+    long baseline = 0;
+    long peak = 0;
+    long start = System.nanoTime();
+    for (int row = 0; row < ROWS; ++row) {
+      writer.beginRow();
+      for (int col = 0; col < COLUMNS; ++col) {
+        writer.writeString(VALUES[(row + col) % VALUES.length]);
+      }
+      writer.endRow();
+      if (row % SAMPLE_INTERVAL == 0) {
+        long used = usedHeap();
+        if (row == 0) {
+          baseline = used;
+        }
+        peak = Math.max(peak, used);
+        logger.debug("Row {}: {} bytes of heap in use", row, used);
+      }
+    }
+    logger.info("Wrote {} rows in {}ms, heap grew by {} bytes", ROWS, (System.nanoTime() - start) / 1_000_000, peak - baseline);
+    assertTrue(peak - baseline < MAX_HEAP_GROWTH, "Heap grew by " + (peak - baseline) + " bytes");
+  }
+
+  private static void verify(File file) throws IOException {
+    long expectedSize;
+    long expectedCrc;
+    try (ZipFile zipFile = new ZipFile(file)) {
+      ZipEntry entry = zipFile.getEntry("xl/worksheets/sheet1.xml");
+      expectedSize = entry.getSize();
+      expectedCrc = entry.getCrc();
+      logger.info("{}: {} bytes, worksheet {} bytes compressed to {}", file.getName(), file.length(), expectedSize, entry.getCompressedSize());
+      assertTrue(expectedSize > 0xFFFFFFFFL, "Worksheet is only " + expectedSize + " bytes");
+    }
+    // ZipInputStream uses the local headers and data descriptors, and checks the CRC and sizes itself
+    try (ZipInputStream zis = new ZipInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+      ZipEntry entry;
+      int count = 0;
+      byte[] buf = new byte[1 << 16];
+      while ((entry = zis.getNextEntry()) != null) {
+        ++count;
+        long size = 0;
+        int read;
+        while ((read = zis.read(buf)) > 0) {
+          size += read;
+        }
+        if (entry.getName().equals("xl/worksheets/sheet1.xml")) {
+          assertEquals(expectedSize, size);
+          assertEquals(expectedCrc, entry.getCrc());
+        }
+      }
+      assertEquals(10, count);
+    }
+  }
+
+  @Test
+  public void testLargeSheet() throws IOException {
+    CompressionDefinition compression = new CompressionDefinition(1, true, Deflater.DEFAULT_STRATEGY, CompressionDefinition.DEFAULT_BUFFER_SIZE);
+    File dir = new File("target/temp");
+    dir.mkdirs();
+
+    File streamed = new File(dir, "LargeSheetStressTest-stream.xlsx");
+    try {
+      try (OutputStream out = new FileOutputStream(streamed)) {
+        try (XlsxWriter writer = new XlsxWriter(definition(), compression)) {
+          writer.startFile(out);
+          writeRows(writer);
+        }
+      }
+      verify(streamed);
+    } finally {
+      streamed.delete();
+    }
+
+    File seekable = new File(dir, "LargeSheetStressTest-file.xlsx");
+    try {
+      try (XlsxWriter writer = new XlsxWriter(definition(), compression)) {
+        writer.startFile(seekable.toPath());
+        writeRows(writer);
+      }
+      verify(seekable);
+    } finally {
+      seekable.delete();
+    }
+  }
+
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2022 jtalbut
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.spudsoft.xlsx.sandbox;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.co.spudsoft.xlsx.ColumnDefinition;
+import uk.co.spudsoft.xlsx.SheetSegment;
+import uk.co.spudsoft.xlsx.SheetSegmentWriter;
+import uk.co.spudsoft.xlsx.TableDefinition;
+import uk.co.spudsoft.xlsx.XlsxWriter;
+
+/**
+ * Report the time taken to generate one worksheet from a number of partitions generated in parallel.
+ *
+ * @author jtalbut
+ */
+public class SegmentBenchmarkTest {
+
+  @SuppressWarnings("constantname")
+  private static final Logger logger = LoggerFactory.getLogger(SegmentBenchmarkTest.class);
+
+  private static final int ROWS = 1_000_000;
+  private static final int ITERATIONS = 3;
+
+  private static final String[] DAYS_OF_WEEK = {"Monday", "Tuesday", "Wednesday", "Thursday", "Friday", "Saturday", "Sunday"};
+
+  private static final TableDefinition DEFN = new TableDefinition(null, "Benchmark", null, false, true, null, null, null, null, null
+          , Arrays.asList(
+                  new ColumnDefinition("Id", null, null)
+                  , new ColumnDefinition("Day", null, null)
+                  , new ColumnDefinition("Date", "yyyy-mm-dd", null)
+                  , new ColumnDefinition("Value", "0.00", null)
+                  , new ColumnDefinition("Text", null, null)
+          )
+  );
+
+  private static void writeRows(XlsxWriter writer, int first, int count) throws IOException {
+    LocalDate date = LocalDate.of(2022, 1, 1);
+    for (int i = first; i < first + count; ++i) {
+      writer.beginRow();
+      writer.writeLong(i);
+      writer.writeString(DAYS_OF_WEEK[i % DAYS_OF_WEEK.length]);
+      writer.writeDate(date.plusDays(i % 1000));
+      writer.writeDouble(i / 7.0);
+      writer.writeString("Some text that is repeated " + (i % 100));
+      writer.endRow();
+    }
+  }
+
+  private static long write(int partitions, ExecutorService executor) throws Exception {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    try (XlsxWriter writer = new XlsxWriter(DEFN)) {
+      writer.startFile(baos);
+      if (partitions == 0) {
+        writeRows(writer, 0, ROWS);
+      } else {
+        int rowsPerPartition = ROWS / partitions;
+        List<ByteArrayOutputStream> outputs = new ArrayList<>();
+        List<Future<SheetSegment>> futures = new ArrayList<>();
+        for (int p = 0; p < partitions; ++p) {
+          ByteArrayOutputStream output = new ByteArrayOutputStream();
+          outputs.add(output);
+          int first = p * rowsPerPartition;
+          SheetSegmentWriter segmentWriter = writer.createSegmentWriter(first + 2, output);
+          futures.add(executor.submit(() -> {
+            writeRows(segmentWriter.getWriter(), first, rowsPerPartition);
+            return segmentWriter.finish();
+          }));
+        }
+        for (int p = 0; p < partitions; ++p) {
+          writer.writeSegment(futures.get(p).get(), new ByteArrayInputStream(outputs.get(p).toByteArray()));
+        }
+      }
+    }
+    return baos.size();
+  }
+
+  @Test
+  public void testPartitions() throws Exception {
+    int processors = Runtime.getRuntime().availableProcessors();
+    ExecutorService executor = Executors.newFixedThreadPool(processors);
+    try {
+      // Warm up
+      write(0, executor);
+      write(processors, executor);
+
+      for (int partitions = 0; partitions <= processors; partitions = partitions == 0 ? 1 : partitions * 2) {
+        long best = Long.MAX_VALUE;
+        long size = 0;
+        for (int i = 0; i < ITERATIONS; ++i) {
+          long start = System.nanoTime();
+          size = write(partitions, executor);
+          best = Math.min(best, System.nanoTime() - start);
+        }
+        logger.info("{} partitions: {} bytes in {}ms ({} rows/s)"
+                , partitions == 0 ? "No" : partitions, size, best / 1_000_000, ROWS * 1_000_000_000L / best);
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+}